@@ -42,6 +42,10 @@ interface AutosensData {
 
     var autosensResult: AutosensResult
 
+    /**
+     * New list sharing [CarbsInPast] entries with this one.
+     * Entries must not be modified in place, replace them by a modified copy.
+     */
     fun cloneCarbsList(): MutableList<CarbsInPast>
 
     /**
@@ -29,6 +29,10 @@ interface AutosensDataStore {
      */
     fun actualBg(): InMemoryGlucoseValue?
     fun lastDataTime(dateUtil: DateUtil): String
+
+    /**
+     * Shallow copy for background calculation. Data lists are shared, autosensDataTable can be extended independently.
+     */
     fun clone(): AutosensDataStore
     fun getBgReadingsDataTableCopy(): List<GV>
     fun getLastAutosensData(reason: String, aapsLogger: AAPSLogger, dateUtil: DateUtil): AutosensData?
@@ -0,0 +1,32 @@
+package app.aaps.core.interfaces.db
+
+interface BasalTimeline {
+
+    /**
+     * Interval [start, end) with constant profile basal and temporary basal
+     *
+     * @param basal profile basal rate
+     * @param isTempBasalRunning temporary basal (or extended bolus converted to temporary basal) is running
+     * @param tempBasalAbsolute absolute temporary basal rate, profile basal if no temporary basal is running
+     */
+    data class Segment(
+        val start: Long,
+        val end: Long,
+        val basal: Double,
+        val isTempBasalRunning: Boolean,
+        val tempBasalAbsolute: Double
+    )
+
+    /**
+     * Split time range to segments of constant basal.
+     * Temporary basals, extended boluses and profile switches are loaded once for whole range
+     * and merged with profile basal block boundaries.
+     * Every segment has the same values as [app.aaps.core.interfaces.iob.IobCobCalculator.getBasalData] at any time inside.
+     * Adjacent segments differ in value, intervals without profile are not covered.
+     *
+     *  @param startTime start of range, timestamp
+     *  @param endTime end of range (exclusive), timestamp
+     *  @return segments ordered by time
+     */
+    fun getSegments(startTime: Long, endTime: Long): List<Segment>
+}
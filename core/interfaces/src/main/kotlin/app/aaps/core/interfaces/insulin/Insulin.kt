@@ -4,6 +4,7 @@ import app.aaps.core.data.iob.Iob
 import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.ICfg
 import app.aaps.core.interfaces.configuration.ConfigExportImport
+import kotlin.math.min
 
 interface Insulin : ConfigExportImport {
 
@@ -32,5 +33,45 @@ interface Insulin : ConfigExportImport {
 
     fun iobCalcForTreatment(bolus: BS, time: Long, dia: Double): Iob
 
+    /**
+     * IOB of [amount] delivered at [bolusTime] without allocating BS and Iob
+     */
+    fun iobCalc(amount: Double, bolusTime: Long, time: Long, dia: Double): Double =
+        iobCalcForTreatment(BS(timestamp = bolusTime, amount = amount, type = BS.Type.NORMAL), time, dia).iobContrib
+
+    /**
+     * Activity of [amount] delivered at [bolusTime] without allocating BS and Iob
+     */
+    fun activityCalc(amount: Double, bolusTime: Long, time: Long, dia: Double): Double =
+        iobCalcForTreatment(BS(timestamp = bolusTime, amount = amount, type = BS.Type.NORMAL), time, dia).activityContrib
+
+    /**
+     * IOB at [time] of insulin delivered with constant [rate] (U/h) from [start] to [end]
+     */
+    fun iobCalcForSegment(rate: Double, start: Long, end: Long, time: Long, dia: Double): Double {
+        var iob = 0.0
+        var sliceStart = start
+        while (sliceStart < end) {
+            val sliceEnd = min(end, sliceStart + 60 * 1000)
+            iob += iobCalc(rate * (sliceEnd - sliceStart) / 3600000.0, (sliceStart + sliceEnd) / 2, time, dia)
+            sliceStart = sliceEnd
+        }
+        return iob
+    }
+
+    /**
+     * Activity at [time] of insulin delivered with constant [rate] (U/h) from [start] to [end]
+     */
+    fun activityCalcForSegment(rate: Double, start: Long, end: Long, time: Long, dia: Double): Double {
+        var activity = 0.0
+        var sliceStart = start
+        while (sliceStart < end) {
+            val sliceEnd = min(end, sliceStart + 60 * 1000)
+            activity += activityCalc(rate * (sliceEnd - sliceStart) / 3600000.0, (sliceStart + sliceEnd) / 2, time, dia)
+            sliceStart = sliceEnd
+        }
+        return activity
+    }
+
     val iCfg: ICfg
 }
\ No newline at end of file
@@ -54,6 +54,23 @@ interface IobCobCalculator {
      */
     fun calculateAbsoluteIobFromBaseBasals(toTime: Long): IobTotal
 
+    /**
+     *  Calculate IOB of base basal insulin for times fromTime, fromTime + step, ... <= toTime at once
+     *
+     *  @param  step    distance of times in milliseconds, a whole number of minutes
+     *  @return IobTotal with basaliob and activity for every time
+     */
+    fun calculateAbsoluteIobSeriesFromBaseBasals(fromTime: Long, toTime: Long, step: Long): Array<IobTotal>
+
+    /**
+     *  Calculate IOB of boluses, extended boluses and temporary basals for times fromTime, fromTime + step, ... <= toTime at once
+     *  Result follows [calculateFromTreatmentsAndTemps] closely but only iob, basaliob and activity are calculated
+     *
+     *  @param  step    distance of times in milliseconds, a whole number of minutes
+     *  @return IobTotal for every time
+     */
+    fun calculateIobSeriesFromTreatmentsAndTemps(fromTime: Long, toTime: Long, step: Long): Array<IobTotal>
+
     /**
      *  Calculate IOB from Temporary basals and Extended boluses (if emulation is enabled) to the the time specified
      *
@@ -5,4 +5,9 @@ interface L {
     fun resetToDefaults()
     fun findByName(name: String): LogElement
     fun logElements(): List<LogElement>
+
+    /**
+     * Same as findByName(tag.tag).enabled without searching by name
+     */
+    fun isEnabled(tag: LTag): Boolean
 }
\ No newline at end of file
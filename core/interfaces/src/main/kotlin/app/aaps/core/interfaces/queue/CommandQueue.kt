@@ -15,6 +15,11 @@ interface CommandQueue {
     fun size(): Int
     fun performing(): Command?
     fun resetPerforming()
+
+    /**
+     * Suspend until command is added, queue is cleared, pump reports connection change or [timeoutMillis] elapses
+     */
+    suspend fun waitForChange(timeoutMillis: Long)
     fun bolusInQueue(): Boolean
     fun bolus(detailedBolusInfo: DetailedBolusInfo, callback: Callback?): Boolean
     fun cancelAllBoluses(id: Long?)
@@ -1,5 +1,6 @@
 package app.aaps.core.interfaces.rx.events
 
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import java.time.Instant
 import java.time.ZoneId
 import java.time.format.DateTimeFormatter
@@ -10,8 +11,14 @@ import java.time.format.DateTimeFormatter
  * @param oldDataTimestamp The timestamp of the oldest data record in the new history.
  * @param reloadBgData If true, indicates that blood glucose data should also be reloaded.
  * @param newestGlucoseValueTimestamp The timestamp of the newest glucose value, if available.
+ * @param changes Kind of changed data.
  */
-class EventNewHistoryData(val oldDataTimestamp: Long, var reloadBgData: Boolean, var newestGlucoseValueTimestamp: Long? = null) : Event() {
+class EventNewHistoryData(
+    val oldDataTimestamp: Long,
+    var reloadBgData: Boolean,
+    var newestGlucoseValueTimestamp: Long? = null,
+    var changes: Set<CalculationWorkflow.Input> = CalculationWorkflow.Input.entries.toSet()
+) : Event() {
 
     override fun toString(): String {
         return super.toString() +
@@ -262,6 +262,12 @@ sealed class EventData : Event() {
     @Serializable
     data class OpenSettings(val timeStamp: Long) : EventData()
 
+    /**
+     * Newest [GraphData] point the watch holds, 0 if none
+     */
+    @Serializable
+    data class ActionGraphDataAck(val timeStamp: Long) : EventData()
+
     @Serializable
     data class BolusProgress(val percent: Int, val status: String) : EventData()
 
@@ -314,6 +320,22 @@ sealed class EventData : Event() {
         val entries: ArrayList<SingleBg>
     ) : EventData()
 
+    /**
+     * New and changed points of [GraphData] encoded by [PackedGlucose].
+     *
+     * @param baseTimestamp newest point acknowledged by watch the delta is based on, 0 for full data set
+     * @param fromTime points older than this are dropped
+     */
+    @Serializable
+    data class GraphDataDelta(
+        val baseTimestamp: Long,
+        val fromTime: Long,
+        val glucoseUnits: String,
+        val high: Double,
+        val low: Double,
+        val packed: String
+    ) : EventData()
+
     @Serializable
     data class TreatmentData(
         val temps: ArrayList<TempBasal>,
@@ -0,0 +1,73 @@
+package app.aaps.core.interfaces.rx.weardata
+
+import java.io.ByteArrayOutputStream
+import java.util.Base64
+import kotlin.math.roundToLong
+
+/**
+ * Compact encoding of glucose points for wear data channel.
+ *
+ * Every point is stored as difference to previous one (timestamp, glucose in 0.1 mg/dl, color),
+ * [zig-zag](https://en.wikipedia.org/wiki/Variable-length_quantity) and var encoded like
+ * garmin DeltaVarEncodedList. Regular 5 min points take about 5 bytes instead of full [EventData.SingleBg].
+ */
+object PackedGlucose {
+
+    data class Point(val timestamp: Long, val sgv: Double, val color: Int = 0)
+
+    fun encode(points: List<Point>): String {
+        val out = ByteArrayOutputStream(points.size * 5)
+        var lastTimestamp = 0L
+        var lastSgv = 0L
+        var lastColor = 0L
+        for (point in points) {
+            val sgv = (point.sgv * 10).roundToLong()
+            writeVar(out, zigZag(point.timestamp - lastTimestamp))
+            writeVar(out, zigZag(sgv - lastSgv))
+            writeVar(out, zigZag(point.color - lastColor))
+            lastTimestamp = point.timestamp
+            lastSgv = sgv
+            lastColor = point.color.toLong()
+        }
+        return Base64.getEncoder().encodeToString(out.toByteArray())
+    }
+
+    fun decode(encoded: String): List<Point> {
+        val data = Base64.getDecoder().decode(encoded)
+        val points = ArrayList<Point>()
+        val position = intArrayOf(0)
+        var timestamp = 0L
+        var sgv = 0L
+        var color = 0L
+        while (position[0] < data.size) {
+            timestamp += unZigZag(readVar(data, position))
+            sgv += unZigZag(readVar(data, position))
+            color += unZigZag(readVar(data, position))
+            points.add(Point(timestamp, sgv / 10.0, color.toInt()))
+        }
+        return points
+    }
+
+    private fun zigZag(value: Long): Long = (value shl 1) xor (value shr 63)
+    private fun unZigZag(value: Long): Long = (value ushr 1) xor -(value and 1)
+
+    private fun writeVar(out: ByteArrayOutputStream, value: Long) {
+        var remaining = value
+        while (remaining and 0x7FL.inv() != 0L) {
+            out.write(((remaining and 0x7F) or 0x80).toInt())
+            remaining = remaining ushr 7
+        }
+        out.write(remaining.toInt())
+    }
+
+    private fun readVar(data: ByteArray, position: IntArray): Long {
+        var value = 0L
+        var shift = 0
+        while (true) {
+            val byte = data[position[0]++].toInt()
+            value = value or ((byte and 0x7F).toLong() shl shift)
+            if (byte and 0x80 == 0) return value
+            shift += 7
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package app.aaps.core.interfaces.smoothing
+
+/**
+ * [Smoothing] keeping state between calls
+ *
+ * Results of readings smoothed in previous call are reused while these readings are unchanged
+ * (usual case when only new bucketed values are added), only new readings are calculated.
+ * Changed history is detected and data is then processed from scratch.
+ */
+interface IncrementalSmoothing : Smoothing {
+
+    /**
+     * Number of readings calculated (not taken from state) in last [smooth] call
+     */
+    val lastProcessed: Int
+
+    /**
+     * Forget state, next [smooth] call processes all data
+     */
+    fun reset()
+}
@@ -14,6 +14,7 @@ interface CalculationWorkflow {
         const val UPDATE_PREDICTIONS = "update_predictions"
         const val JOB = "job"
         const val PASS = "pass"
+        const val CALCULATION = "calculation"
     }
 
     enum class ProgressData(val pass: Int, val percentOfTotal: Int) {
@@ -36,6 +37,16 @@ interface CalculationWorkflow {
         }
     }
 
+    /**
+     * Kind of changed history data. Workers preparing overview series declare which of them they depend on
+     */
+    enum class Input {
+        BG,
+        TREATMENTS, // boluses, carbs, bolus calculator results
+        BASAL, // temporary basals, extended boluses
+        PROFILE // effective profile switches
+    }
+
     fun stopCalculation(job: String, from: String)
 
     /**
@@ -44,6 +55,7 @@ interface CalculationWorkflow {
      * @param job [MAIN_CALCULATION] or [HISTORY_CALCULATION]
      * @param iobCobCalculator different instance for [HistoryBrowseActivity]
      * @param overviewData different instance for [HistoryBrowseActivity]
+     * @param changes changed data. Series not depending on it are kept from previous [MAIN_CALCULATION] if possible
      */
     fun runCalculation(
         job: String,
@@ -52,9 +64,17 @@ interface CalculationWorkflow {
         reason: String,
         end: Long,
         bgDataReload: Boolean,
-        cause: Event?
+        cause: Event?,
+        changes: Set<Input> = Input.entries.toSet()
     )
 
+    /**
+     * Called by the last worker of a chain appended to [MAIN_CALCULATION] after all its series are prepared
+     *
+     * @param calculation number of the chain passed to the worker in [CALCULATION]
+     */
+    fun calculationFinished(calculation: Long) {}
+
     /**
      * Update predictions in graph ofter new data from device status
      */
@@ -0,0 +1,30 @@
+package app.aaps.core.interfaces.rx.weardata
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class PackedGlucoseTest {
+
+    @Test
+    fun roundTripTest() {
+        val start = 1_700_000_000_123L
+        val points = (0 until 288).map { PackedGlucose.Point(start + it * 300_000L, 100.0 + (it % 37) * 1.3 - (it % 11) * 2.1, if (it % 50 == 0) -0x7f000001 else 0) } +
+            PackedGlucose.Point(start - 1000, 39.0, 0x12345678)
+        val encoded = PackedGlucose.encode(points)
+        val decoded = PackedGlucose.decode(encoded)
+
+        assertThat(decoded.size).isEqualTo(points.size)
+        for (i in points.indices) {
+            assertThat(decoded[i].timestamp).isEqualTo(points[i].timestamp)
+            assertThat(decoded[i].sgv).isWithin(0.05).of(points[i].sgv)
+            assertThat(decoded[i].color).isEqualTo(points[i].color)
+        }
+        // much smaller than list of SingleBg
+        assertThat(encoded.length).isLessThan(points.size * 10)
+    }
+
+    @Test
+    fun emptyTest() {
+        assertThat(PackedGlucose.decode(PackedGlucose.encode(emptyList()))).isEmpty()
+    }
+}
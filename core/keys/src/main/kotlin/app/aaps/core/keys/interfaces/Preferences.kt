@@ -457,4 +457,12 @@ interface Preferences {
      * @return true if exportable key
      */
     fun isExportableKey(key: String): Boolean
+
+    /**
+     * Current values of all registered preference keys.
+     * Rebuilt on first use after a write through [Preferences] or EventPreferenceChange
+     *
+     * @return immutable snapshot
+     */
+    fun snapshot(): PreferencesSnapshot
 }
\ No newline at end of file
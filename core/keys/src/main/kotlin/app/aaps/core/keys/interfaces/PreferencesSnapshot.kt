@@ -0,0 +1,17 @@
+package app.aaps.core.keys.interfaces
+
+/**
+ * Immutable view of preferences with values resolved by the same rules as [Preferences] get.
+ * Lookups don't touch [android.content.SharedPreferences], use it for reads in loops.
+ *
+ * Obtain it by [Preferences.snapshot] once per calculation run so all iterations see the same values.
+ */
+interface PreferencesSnapshot {
+
+    fun get(key: BooleanPreferenceKey): Boolean
+    fun get(key: StringPreferenceKey): String
+    fun get(key: DoublePreferenceKey): Double
+    fun get(key: UnitDoublePreferenceKey): Double
+    fun get(key: IntPreferenceKey): Int
+    fun get(key: LongPreferenceKey): Long
+}
@@ -29,6 +29,7 @@ import app.aaps.core.nssdk.remotemodel.RemoteDeviceStatus
 import app.aaps.core.nssdk.remotemodel.RemoteEntry
 import app.aaps.core.nssdk.remotemodel.RemoteFood
 import app.aaps.core.nssdk.remotemodel.RemoteTreatment
+import app.aaps.core.nssdk.utils.createAll
 import app.aaps.core.nssdk.utils.retry
 import app.aaps.core.nssdk.utils.toNotNull
 import com.google.gson.JsonParser
@@ -49,6 +50,7 @@ import org.json.JSONObject
  * @param dispatcher the coroutine dispatcher used for network calls.
  * Per default all network calls will be done on the IO thread pool. Change for Unit-Tests
  * @param context the application context.
+ * @param maxRequestsPerHost maximum of concurrent requests sent to Nightscout (used by bulk functions)
  *
  * Todo: retry parameters (maxRetries, backoffFactor)?
  *
@@ -66,7 +68,8 @@ class NSAndroidClientImpl(
     context: Context,
     logging: Boolean,
     logger: HttpLoggingInterceptor.Logger,
-    private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO,
+    maxRequestsPerHost: Int = MAX_REQUESTS_PER_HOST
 ) : NSAndroidClient {
 
     internal val api = NetworkStackBuilder.getApi(
@@ -74,7 +77,8 @@ class NSAndroidClientImpl(
         context = context,
         accessToken = accessToken,
         logging = logging,
-        logger = logger
+        logger = logger,
+        maxRequestsPerHost = maxRequestsPerHost
     )
     override var lastStatus: Status? = null
 
@@ -199,6 +203,8 @@ class NSAndroidClientImpl(
             throw UnsuccessfulNightscoutException(errorResponse ?: response.message())
     }
 
+    override suspend fun createSgvs(nsSgvs: List<NSSgvV3>): List<CreateUpdateResponse> = createAll(nsSgvs, ::createSgv)
+
     override suspend fun updateSvg(nsSgvV3: NSSgvV3): CreateUpdateResponse = callWrapper(dispatcher) {
 
         // following cannot be updated
@@ -290,6 +296,8 @@ class NSAndroidClientImpl(
         )
     }
 
+    override suspend fun createDeviceStatuses(nsDeviceStatuses: List<NSDeviceStatus>): List<CreateUpdateResponse> = createAll(nsDeviceStatuses, ::createDeviceStatus)
+
     override suspend fun createTreatment(nsTreatment: NSTreatment): CreateUpdateResponse = callWrapper(dispatcher) {
 
         val remoteTreatment = nsTreatment.toRemoteTreatment() ?: throw InvalidFormatNightscoutException("Invalid format")
@@ -327,6 +335,8 @@ class NSAndroidClientImpl(
             throw UnsuccessfulNightscoutException(errorResponse ?: response.message())
     }
 
+    override suspend fun createTreatments(nsTreatments: List<NSTreatment>): List<CreateUpdateResponse> = createAll(nsTreatments, ::createTreatment)
+
     override suspend fun updateTreatment(nsTreatment: NSTreatment): CreateUpdateResponse = callWrapper(dispatcher) {
 
         // following cannot be updated
@@ -502,5 +512,6 @@ class NSAndroidClientImpl(
         // TODO: Parameters?
         private const val RETRIES = 3
         private const val RETRY_DELAY = 100L
+        const val MAX_REQUESTS_PER_HOST = 8
     }
 }
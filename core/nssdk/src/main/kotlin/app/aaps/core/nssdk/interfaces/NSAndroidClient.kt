@@ -26,12 +26,28 @@ interface NSAndroidClient {
     suspend fun getSgvsModifiedSince(from: Long, limit: Int): ReadResponse<List<NSSgvV3>>
     suspend fun getSgvsNewerThan(from: Long, limit: Int): ReadResponse<List<NSSgvV3>>
     suspend fun createSgv(nsSgvV3: NSSgvV3): CreateUpdateResponse
+    /**
+     * Create multiple entries using concurrent requests.
+     * Failure of one item doesn't affect others, it is returned as its own response
+     * with [CreateUpdateResponse.response] 0 and the error in [CreateUpdateResponse.errorResponse].
+     *
+     * @return results in the same order as [nsSgvs]
+     */
+    suspend fun createSgvs(nsSgvs: List<NSSgvV3>): List<CreateUpdateResponse>
     suspend fun updateSvg(nsSgvV3: NSSgvV3): CreateUpdateResponse
 
     suspend fun getTreatmentsNewerThan(createdAt: String, limit: Int): ReadResponse<List<NSTreatment>>
     suspend fun getTreatmentsModifiedSince(from: Long, limit: Int): ReadResponse<List<NSTreatment>>
 
     suspend fun createDeviceStatus(nsDeviceStatus: NSDeviceStatus): CreateUpdateResponse
+    /**
+     * Create multiple device statuses using concurrent requests.
+     * Failure of one item doesn't affect others, it is returned as its own response
+     * with [CreateUpdateResponse.response] 0 and the error in [CreateUpdateResponse.errorResponse].
+     *
+     * @return results in the same order as [nsDeviceStatuses]
+     */
+    suspend fun createDeviceStatuses(nsDeviceStatuses: List<NSDeviceStatus>): List<CreateUpdateResponse>
     suspend fun getDeviceStatusModifiedSince(from: Long): List<NSDeviceStatus>
 
     suspend fun createProfileStore(remoteProfileStore: JSONObject): CreateUpdateResponse
@@ -39,6 +55,14 @@ interface NSAndroidClient {
     suspend fun getLastProfileStore(): ReadResponse<List<JSONObject>>
 
     suspend fun createTreatment(nsTreatment: NSTreatment): CreateUpdateResponse
+    /**
+     * Create multiple treatments using concurrent requests.
+     * Failure of one item doesn't affect others, it is returned as its own response
+     * with [CreateUpdateResponse.response] 0 and the error in [CreateUpdateResponse.errorResponse].
+     *
+     * @return results in the same order as [nsTreatments]
+     */
+    suspend fun createTreatments(nsTreatments: List<NSTreatment>): List<CreateUpdateResponse>
     suspend fun updateTreatment(nsTreatment: NSTreatment): CreateUpdateResponse
     suspend fun getFoods(limit: Int): ReadResponse<List<NSFood>>
 
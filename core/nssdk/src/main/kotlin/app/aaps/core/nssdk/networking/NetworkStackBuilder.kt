@@ -5,6 +5,7 @@ import com.google.gson.Gson
 import com.google.gson.GsonBuilder
 import com.google.gson.JsonDeserializer
 import okhttp3.Cache
+import okhttp3.Dispatcher
 import okhttp3.OkHttpClient
 import okhttp3.logging.HttpLoggingInterceptor
 import org.json.JSONObject
@@ -20,13 +21,15 @@ internal object NetworkStackBuilder {
         context: Context,
         accessToken: String, // refresh token
         logging: Boolean,
-        logger: HttpLoggingInterceptor.Logger
+        logger: HttpLoggingInterceptor.Logger,
+        maxRequestsPerHost: Int
     ): NightscoutRemoteService = getRetrofit(
         baseUrl = baseUrl,
         context = context,
         refreshToken = accessToken,
         logging = logging,
-        logger = logger
+        logger = logger,
+        maxRequestsPerHost = maxRequestsPerHost
     ).create(NightscoutRemoteService::class.java)
 
     private fun getRetrofit(
@@ -34,7 +37,8 @@ internal object NetworkStackBuilder {
         context: Context,
         refreshToken: String,
         logging: Boolean,
-        logger: HttpLoggingInterceptor.Logger
+        logger: HttpLoggingInterceptor.Logger,
+        maxRequestsPerHost: Int
     ): Retrofit =
         Retrofit.Builder()
             .baseUrl("https://$baseUrl/api/")
@@ -44,7 +48,8 @@ internal object NetworkStackBuilder {
                     logging = logging,
                     refreshToken = refreshToken,
                     authRefreshRetrofit = getAuthRefreshRetrofit(baseUrl, context, logging, logger),
-                    logger = logger
+                    logger = logger,
+                    maxRequestsPerHost = maxRequestsPerHost
                 )
             )
             .addConverterFactory(GsonConverterFactory.create(provideGson()))
@@ -67,9 +72,12 @@ internal object NetworkStackBuilder {
         logging: Boolean,
         refreshToken: String,
         authRefreshRetrofit: Retrofit,
-        logger: HttpLoggingInterceptor.Logger
+        logger: HttpLoggingInterceptor.Logger,
+        maxRequestsPerHost: Int
     ): OkHttpClient = OkHttpClient.Builder().run {
         addInterceptor(NSAuthInterceptor(refreshToken, authRefreshRetrofit))
+        // limits concurrent requests of bulk functions
+        dispatcher(Dispatcher().also { it.maxRequestsPerHost = maxRequestsPerHost })
         commonOkHttpSetup(logging, context, logger)
     }
 
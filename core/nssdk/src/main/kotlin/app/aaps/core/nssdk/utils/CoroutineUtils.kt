@@ -1,6 +1,11 @@
 package app.aaps.core.nssdk.utils
 
+import app.aaps.core.nssdk.localmodel.treatment.CreateUpdateResponse
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
+import kotlin.coroutines.cancellation.CancellationException
 import kotlin.reflect.KClass
 
 @Suppress("TooGenericExceptionCaught")
@@ -20,3 +25,26 @@ internal suspend fun <T> retry(
     }
     return block()
 }
+
+/**
+ * APIv3 accepts single document per request only.
+ * Requests are sent concurrently and limited by OkHttp dispatcher (maxRequestsPerHost).
+ * Failed item is returned as response 0 with exception message and doesn't cancel other items.
+ *
+ * @return results in the same order as [items]
+ */
+@Suppress("TooGenericExceptionCaught")
+internal suspend fun <T> createAll(items: List<T>, create: suspend (T) -> CreateUpdateResponse): List<CreateUpdateResponse> =
+    coroutineScope {
+        items.map { item ->
+            async {
+                try {
+                    create(item)
+                } catch (exception: CancellationException) {
+                    throw exception
+                } catch (exception: Exception) {
+                    CreateUpdateResponse(response = 0, identifier = null, errorResponse = exception.message ?: exception::class.java.simpleName)
+                }
+            }
+        }.awaitAll()
+    }
@@ -0,0 +1,49 @@
+package app.aaps.core.nssdk.utils
+
+import app.aaps.core.nssdk.exceptions.UnsuccessfulNightscoutException
+import app.aaps.core.nssdk.localmodel.treatment.CreateUpdateResponse
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.jupiter.api.Test
+
+class CoroutineUtilsTest {
+
+    private fun created(item: Int) = CreateUpdateResponse(response = 201, identifier = "id$item")
+
+    @Test
+    fun createAllRunsConcurrentlyAndKeepsOrder() = runBlocking {
+        // first item can finish only after last one started, sequential processing would never finish
+        val lastStarted = CompletableDeferred<Unit>()
+        val results = withTimeout(5000) {
+            createAll(listOf(1, 2, 3)) { item ->
+                if (item == 1) lastStarted.await()
+                if (item == 3) lastStarted.complete(Unit)
+                created(item)
+            }
+        }
+        assertThat(results.map { it.identifier }).containsExactly("id1", "id2", "id3").inOrder()
+    }
+
+    @Test
+    fun createAllReturnsFailureOfSingleItem() = runBlocking {
+        val results = createAll(listOf(1, 2, 3)) { item ->
+            if (item == 2) throw UnsuccessfulNightscoutException("Unsuccessful")
+            created(item)
+        }
+        assertThat(results).hasSize(3)
+        assertThat(results[0].response).isEqualTo(201)
+        assertThat(results[0].identifier).isEqualTo("id1")
+        assertThat(results[1].response).isEqualTo(0)
+        assertThat(results[1].identifier).isNull()
+        assertThat(results[1].errorResponse).isEqualTo("Unsuccessful")
+        assertThat(results[2].response).isEqualTo(201)
+        assertThat(results[2].identifier).isEqualTo("id3")
+    }
+
+    @Test
+    fun createAllOfEmptyList() = runBlocking {
+        assertThat(createAll(emptyList<Int>()) { created(it) }).isEmpty()
+    }
+}
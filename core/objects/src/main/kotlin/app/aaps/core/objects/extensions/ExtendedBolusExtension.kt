@@ -1,7 +1,6 @@
 package app.aaps.core.objects.extensions
 
 import app.aaps.core.data.configuration.Constants
-import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.EB
 import app.aaps.core.data.model.TB
 import app.aaps.core.data.time.T
@@ -11,7 +10,6 @@ import app.aaps.core.interfaces.insulin.Insulin
 import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.utils.DateUtil
-import kotlin.math.ceil
 import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.round
@@ -46,28 +44,10 @@ fun EB.toTemporaryBasal(profile: Profile): TB =
 fun EB.iobCalc(time: Long, profile: Profile, insulinInterface: Insulin): IobTotal {
     if (!isValid) return IobTotal(time)
     val result = IobTotal(time)
-    val realDuration = getPassedDurationToTimeInMinutes(time)
-    if (realDuration > 0) {
+    if (getPassedDurationToTimeInMinutes(time) > 0) {
         val dia = profile.dia
-        val diaAgo = time - dia * 60 * 60 * 1000
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
-        val spacing = realDuration / aboutFiveMinIntervals.toDouble()
-        for (j in 0L until aboutFiveMinIntervals) {
-            // find middle of the interval
-            val calcDate = (timestamp + j * spacing * 60 * 1000 + 0.5 * spacing * 60 * 1000).toLong()
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize: Double = rate * spacing / 60.0
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL
-                )
-                val aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia)
-                result.iob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.extendedBolusInsulin += tempBolusPart.amount
-            }
-        }
+        val diaAgo = (time - dia * 60 * 60 * 1000).toLong()
+        result.addExtendedSegment(rate, max(timestamp, diaAgo), min(end, time), time, dia, insulinInterface)
     }
     return result
 }
@@ -83,7 +63,6 @@ fun EB.iobCalc(
 ): IobTotal {
     if (!isValid) return IobTotal(time)
     val result = IobTotal(time)
-    val realDuration = getPassedDurationToTimeInMinutes(time)
     var sensitivityRatio = lastAutosensResult.ratio
     val normalTarget = Constants.NORMAL_TARGET_MGDL.toDouble()
     if (exerciseMode && isTempTarget && profile.getTargetMgdl() >= normalTarget + 5) {
@@ -92,32 +71,24 @@ fun EB.iobCalc(
         val c = halfBasalExerciseTarget - normalTarget
         sensitivityRatio = c / (c + profile.getTargetMgdl() - normalTarget)
     }
-    if (realDuration > 0) {
-        var netBasalRate: Double
+    if (getPassedDurationToTimeInMinutes(time) > 0) {
         val dia = profile.dia
-        val diaAgo = time - dia * 60 * 60 * 1000
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
-        val spacing = realDuration / aboutFiveMinIntervals
-        for (j in 0L until aboutFiveMinIntervals) {
-            // find middle of the interval
-            val calcDate = (timestamp + j * spacing * 60 * 1000 + 0.5 * spacing * 60 * 1000).toLong()
-            val basalRate = profile.getBasal(calcDate)
+        val diaAgo = (time - dia * 60 * 60 * 1000).toLong()
+        profile.forEachBasalSegment(max(timestamp, diaAgo), min(end, time)) { segmentStart, segmentEnd, basalRate ->
             val basalRateCorrection = basalRate * (sensitivityRatio - 1)
-            netBasalRate = rate - basalRateCorrection
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize = netBasalRate * spacing / 60.0
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL
-                )
-                val aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia)
-                result.iob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.extendedBolusInsulin += tempBolusPart.amount
-            }
+            result.addExtendedSegment(rate - basalRateCorrection, segmentStart, segmentEnd, time, dia, insulinInterface)
         }
     }
     return result
 }
 
+/**
+ * Add IOB of constant [rate] delivered from [start] to [end]
+ * calculated by insulin curve integration instead of splitting to small boluses
+ */
+private fun IobTotal.addExtendedSegment(rate: Double, start: Long, end: Long, time: Long, dia: Double, insulinInterface: Insulin) {
+    if (end <= start) return
+    iob += insulinInterface.iobCalcForSegment(rate, start, end, time, dia)
+    activity += insulinInterface.activityCalcForSegment(rate, start, end, time, dia)
+    extendedBolusInsulin += rate * (end - start) / 3600000.0
+}
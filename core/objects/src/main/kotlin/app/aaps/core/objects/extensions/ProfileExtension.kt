@@ -0,0 +1,46 @@
+package app.aaps.core.objects.extensions
+
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.objects.profile.ProfileSealed
+import app.aaps.core.utils.MidnightUtils
+
+private const val SECONDS_PER_DAY = 24 * 60 * 60
+
+/**
+ * Time of next possible basal rate change after [timestamp]
+ *
+ * Block boundaries (shifted by timeshift) are used for [ProfileSealed], whole hours otherwise.
+ * Midnight is always reported as a change.
+ */
+fun Profile.nextBasalChange(timestamp: Long): Long {
+    val msFromMidnight = MidnightUtils.milliSecFromMidnight(timestamp)
+    val secondsFromMidnight = (msFromMidnight / 1000).toInt()
+    var next = SECONDS_PER_DAY
+    if (this is ProfileSealed) {
+        var elapsed = 0L
+        for (block in basalBlocks) {
+            val start = ((elapsed / 1000 + timeshift * 60 * 60) % SECONDS_PER_DAY + SECONDS_PER_DAY).toInt() % SECONDS_PER_DAY
+            if (start in (secondsFromMidnight + 1) until next) next = start
+            elapsed += block.duration
+        }
+    } else next = (secondsFromMidnight / 3600 + 1) * 3600
+    var change = timestamp + next * 1000L - msFromMidnight
+    // skipped wall clock time on DST change
+    val overshoot = MidnightUtils.milliSecFromMidnight(change) - next * 1000L
+    if (overshoot > 0 && change - overshoot > timestamp) change -= overshoot
+    return change
+}
+
+/**
+ * Split interval [from, to) to segments of constant profile basal rate
+ *
+ * @param action called with start, end and basal rate of every segment
+ */
+inline fun Profile.forEachBasalSegment(from: Long, to: Long, action: (start: Long, end: Long, basal: Double) -> Unit) {
+    var start = from
+    while (start < to) {
+        val end = minOf(nextBasalChange(start), to)
+        action(start, end, getBasal(start))
+        start = end
+    }
+}
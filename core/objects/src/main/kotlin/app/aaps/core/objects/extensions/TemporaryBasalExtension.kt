@@ -1,7 +1,6 @@
 package app.aaps.core.objects.extensions
 
 import app.aaps.core.data.configuration.Constants
-import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.TB
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensResult
@@ -10,7 +9,6 @@ import app.aaps.core.interfaces.insulin.Insulin
 import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.utils.DateUtil
-import kotlin.math.ceil
 import kotlin.math.max
 import kotlin.math.min
 import kotlin.math.round
@@ -59,42 +57,14 @@ fun TB.toStringShort(rh: ResourceHelper): String =
 fun TB.iobCalc(time: Long, profile: Profile, insulinInterface: Insulin): IobTotal {
     if (!isValid) return IobTotal(time)
     val result = IobTotal(time)
-    val realDuration = getPassedDurationToTimeInMinutes(time)
-    var netBasalAmount = 0.0
-    if (realDuration > 0) {
-        var netBasalRate: Double
+    if (getPassedDurationToTimeInMinutes(time) > 0) {
         val dia = profile.dia
-        val diaAgo = time - dia * 60 * 60 * 1000
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
-        val tempBolusSpacing = realDuration / aboutFiveMinIntervals.toDouble()
-        for (j in 0L until aboutFiveMinIntervals) {
-            // find middle of the interval
-            val calcDate = (timestamp + j * tempBolusSpacing * 60 * 1000 + 0.5 * tempBolusSpacing * 60 * 1000).toLong()
-            val basalRate = profile.getBasal(calcDate)
-            netBasalRate = if (isAbsolute) {
-                rate - basalRate
-            } else {
-                (rate - 100) / 100.0 * basalRate
-            }
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize = netBasalRate * tempBolusSpacing / 60.0
-                netBasalAmount += tempBolusSize
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL
-                )
-                val aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia)
-                result.basaliob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.netbasalinsulin += tempBolusPart.amount
-                if (tempBolusPart.amount > 0) {
-                    result.hightempinsulin += tempBolusPart.amount
-                }
-            }
+        val diaAgo = (time - dia * 60 * 60 * 1000).toLong()
+        profile.forEachBasalSegment(max(timestamp, diaAgo), min(end, time)) { segmentStart, segmentEnd, basalRate ->
+            val netBasalRate = if (isAbsolute) rate - basalRate else (rate - 100) / 100.0 * basalRate
+            result.addBasalSegment(netBasalRate, segmentStart, segmentEnd, time, dia, insulinInterface)
         }
     }
-    result.netInsulin = netBasalAmount
     return result
 }
 
@@ -109,8 +79,6 @@ fun TB.iobCalc(
 ): IobTotal {
     if (!isValid) return IobTotal(time)
     val result = IobTotal(time)
-    val realDuration = getPassedDurationToTimeInMinutes(time)
-    var netBasalAmount = 0.0
     var sensitivityRatio = lastAutosensResult.ratio
     val normalTarget = Constants.NORMAL_TARGET_MGDL.toDouble()
     if (exerciseMode && isTempTarget && profile.getTargetMgdl() >= normalTarget + 5) {
@@ -119,41 +87,27 @@ fun TB.iobCalc(
         val c = halfBasalExerciseTarget - normalTarget
         sensitivityRatio = c / (c + profile.getTargetMgdl() - normalTarget)
     }
-    if (realDuration > 0) {
-        var netBasalRate: Double
+    if (getPassedDurationToTimeInMinutes(time) > 0) {
         val dia = profile.dia
-        val diaAgo = time - dia * 60 * 60 * 1000
-        val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
-        val tempBolusSpacing = realDuration / aboutFiveMinIntervals.toDouble()
-        for (j in 0L until aboutFiveMinIntervals) {
-            // find middle of the interval
-            val calcDate = (timestamp + j * tempBolusSpacing * 60 * 1000 + 0.5 * tempBolusSpacing * 60 * 1000).toLong()
-            var basalRate = profile.getBasal(calcDate)
-            basalRate *= sensitivityRatio
-            netBasalRate = if (isAbsolute) {
-                rate - basalRate
-            } else {
-                val abs: Double = rate / 100.0 * profile.getBasal(calcDate)
-                abs - basalRate
-            }
-            if (calcDate > diaAgo && calcDate <= time) {
-                val tempBolusSize = netBasalRate * tempBolusSpacing / 60.0
-                netBasalAmount += tempBolusSize
-                val tempBolusPart = BS(
-                    timestamp = calcDate,
-                    amount = tempBolusSize,
-                    type = BS.Type.NORMAL
-                )
-                val aIOB = insulinInterface.iobCalcForTreatment(tempBolusPart, time, dia)
-                result.basaliob += aIOB.iobContrib
-                result.activity += aIOB.activityContrib
-                result.netbasalinsulin += tempBolusPart.amount
-                if (tempBolusPart.amount > 0) {
-                    result.hightempinsulin += tempBolusPart.amount
-                }
-            }
+        val diaAgo = (time - dia * 60 * 60 * 1000).toLong()
+        profile.forEachBasalSegment(max(timestamp, diaAgo), min(end, time)) { segmentStart, segmentEnd, profileRate ->
+            val basalRate = profileRate * sensitivityRatio
+            val netBasalRate = if (isAbsolute) rate - basalRate else rate / 100.0 * profileRate - basalRate
+            result.addBasalSegment(netBasalRate, segmentStart, segmentEnd, time, dia, insulinInterface)
         }
     }
-    result.netInsulin = netBasalAmount
     return result
 }
+
+/**
+ * Add IOB of constant [netBasalRate] delivered from [start] to [end]
+ * calculated by insulin curve integration instead of splitting to small boluses
+ */
+private fun IobTotal.addBasalSegment(netBasalRate: Double, start: Long, end: Long, time: Long, dia: Double, insulinInterface: Insulin) {
+    val amount = netBasalRate * (end - start) / 3600000.0
+    basaliob += insulinInterface.iobCalcForSegment(netBasalRate, start, end, time, dia)
+    activity += insulinInterface.activityCalcForSegment(netBasalRate, start, end, time, dia)
+    netbasalinsulin += amount
+    if (amount > 0) hightempinsulin += amount
+    netInsulin += amount
+}
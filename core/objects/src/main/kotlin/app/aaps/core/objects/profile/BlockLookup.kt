@@ -0,0 +1,82 @@
+package app.aaps.core.objects.profile
+
+import app.aaps.core.data.model.data.Block
+import app.aaps.core.data.model.data.TargetBlock
+
+/**
+ * Dense lookup of profile blocks with multiplier and timeshift applied.
+ *
+ * Returns the same values as [app.aaps.core.objects.extensions.blockValueBySeconds]
+ * and target variants without walking block list. Every 5 min slot of day points
+ * to the block active at slot start, following blocks starting inside of slot are checked directly.
+ */
+internal class BlockLookup private constructor(
+    private val timeShiftHours: Int,
+    private val starts: IntArray,
+    private val values: Array<DoubleArray>
+) {
+
+    private val total = if (starts.isEmpty()) 0 else starts[starts.size - 1]
+    private val slots = IntArray(SLOTS)
+
+    init {
+        var index = 0
+        for (slot in 0 until SLOTS) {
+            while (index + 1 < starts.size - 1 && slot * SLOT_SECONDS >= starts[index + 1]) index++
+            slots[slot] = index
+        }
+    }
+
+    /**
+     * @param column [VALUE] for blocks, [LOW], [HIGH] or [AVERAGE] for target blocks
+     */
+    fun valueBySeconds(secondsFromMidnight: Int, column: Int = VALUE): Double {
+        val shiftedSeconds = (secondsFromMidnight - timeShiftHours * 60 * 60 + 24 * 60 * 60) % (24 * 60 * 60)
+        val columnValues = values[column]
+        if (shiftedSeconds >= total || shiftedSeconds < 0) return columnValues[columnValues.size - 1]
+        var index = slots[shiftedSeconds / SLOT_SECONDS]
+        while (shiftedSeconds >= starts[index + 1]) index++
+        return columnValues[index]
+    }
+
+    companion object {
+
+        const val VALUE = 0
+        const val LOW = 0
+        const val HIGH = 1
+        const val AVERAGE = 2
+
+        private const val SLOT_SECONDS = 5 * 60
+        private const val SLOTS = 24 * 60 * 60 / SLOT_SECONDS
+
+        fun of(blocks: List<Block>, multiplier: Double, timeShiftHours: Int): BlockLookup =
+            BlockLookup(
+                timeShiftHours,
+                starts(blocks.map { it.duration }),
+                arrayOf(DoubleArray(blocks.size) { blocks[it].amount * multiplier })
+            )
+
+        fun ofTargets(blocks: List<TargetBlock>, timeShiftHours: Int): BlockLookup =
+            BlockLookup(
+                timeShiftHours,
+                starts(blocks.map { it.duration }),
+                arrayOf(
+                    DoubleArray(blocks.size) { blocks[it].lowTarget },
+                    DoubleArray(blocks.size) { blocks[it].highTarget },
+                    DoubleArray(blocks.size) { (blocks[it].lowTarget + blocks[it].highTarget) / 2.0 }
+                )
+            )
+
+        // block start seconds and end of last block
+        private fun starts(durations: List<Long>): IntArray {
+            val starts = IntArray(durations.size + 1)
+            var elapsed = 0L
+            for (i in durations.indices) {
+                starts[i] = elapsed.toInt()
+                elapsed += durations[i] / 1000
+            }
+            starts[durations.size] = elapsed.toInt()
+            return starts
+        }
+    }
+}
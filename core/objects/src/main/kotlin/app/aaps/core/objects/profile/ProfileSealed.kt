@@ -20,12 +20,8 @@ import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventNewNotification
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.HardLimits
-import app.aaps.core.objects.extensions.blockValueBySeconds
-import app.aaps.core.objects.extensions.highTargetBlockValueBySeconds
-import app.aaps.core.objects.extensions.lowTargetBlockValueBySeconds
 import app.aaps.core.objects.extensions.shiftBlock
 import app.aaps.core.objects.extensions.shiftTargetBlock
-import app.aaps.core.objects.extensions.targetBlockValueBySeconds
 import app.aaps.core.ui.R
 import app.aaps.core.utils.MidnightUtils
 import org.json.JSONArray
@@ -153,12 +149,14 @@ sealed class ProfileSealed(
             // Check for minimal basal value
             if (basalAmount < description.basalMinimumRate) {
                 basal.amount = description.basalMinimumRate
+                lookups = null
                 if (sendNotifications) sendBelowMinimumNotification(from, rxBus, rh)
                 validityCheck.isValid = false
                 validityCheck.reasons.add(rh.gs(R.string.minimalbasalvaluereplaced, from))
                 break
             } else if (basalAmount > description.basalMaximumRate) {
                 basal.amount = description.basalMaximumRate
+                lookups = null
                 if (sendNotifications) sendAboveMaximumNotification(from, rxBus, rh)
                 validityCheck.isValid = false
                 validityCheck.reasons.add(rh.gs(R.string.maximumbasalvaluereplaced, from))
@@ -255,49 +253,71 @@ sealed class ProfileSealed(
     override val percentage: Int
         get() = pct
 
-    override fun getBasal(): Double = basalBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), percentage / 100.0, timeshift)
-    override fun getBasal(timestamp: Long): Double = basalBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), percentage / 100.0, timeshift)
+    /**
+     * Lookups with percentage and timeshift applied, built on first use.
+     * Blocks, percentage and timeshift are mutable, lookups are rebuilt if they are replaced.
+     */
+    private class Lookups(val basalBlocks: List<Block>, val isfBlocks: List<Block>, val icBlocks: List<Block>, val targetBlocks: List<TargetBlock>, val pct: Int, val ts: Int) {
+
+        val basal = BlockLookup.of(basalBlocks, pct / 100.0, ts)
+        val isf = BlockLookup.of(isfBlocks, 100.0 / pct, ts)
+        val ic = BlockLookup.of(icBlocks, 100.0 / pct, ts)
+        val target = BlockLookup.ofTargets(targetBlocks, ts)
+    }
+
+    @Volatile private var lookups: Lookups? = null
+
+    private fun lookups(): Lookups {
+        val cached = lookups
+        if (cached != null && cached.basalBlocks === basalBlocks && cached.isfBlocks === isfBlocks && cached.icBlocks === icBlocks &&
+            cached.targetBlocks === targetBlocks && cached.pct == pct && cached.ts == ts
+        ) return cached
+        return Lookups(basalBlocks, isfBlocks, icBlocks, targetBlocks, pct, ts).also { lookups = it }
+    }
+
+    override fun getBasal(): Double = lookups().basal.valueBySeconds(MidnightUtils.secondsFromMidnight())
+    override fun getBasal(timestamp: Long): Double = lookups().basal.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp))
     override fun getIc(): Double =
         if (aps?.supportsDynamicIc() ?: error("APS not defined"))
-            aps.getIc(this) ?: icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift)
-        else icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift)
+            aps.getIc(this) ?: lookups().ic.valueBySeconds(MidnightUtils.secondsFromMidnight())
+        else lookups().ic.valueBySeconds(MidnightUtils.secondsFromMidnight())
 
     override fun getIc(timestamp: Long): Double =
         if (aps?.supportsDynamicIc() ?: error("APS not defined"))
-            aps.getIc(timestamp, this) ?: icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift)
-        else icBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift)
+            aps.getIc(timestamp, this) ?: lookups().ic.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp))
+        else lookups().ic.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp))
 
     override fun getProfileIsfMgdl(): Double =
-        toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift), units)
+        toMgdl(lookups().isf.valueBySeconds(MidnightUtils.secondsFromMidnight()), units)
 
     override fun getIsfMgdl(caller: String): Double =
         if (aps?.supportsDynamicIsf() ?: error("APS not defined"))
-            aps.getIsfMgdl(this, caller) ?: toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(), 100.0 / percentage, timeshift), units)
+            aps.getIsfMgdl(this, caller) ?: toMgdl(lookups().isf.valueBySeconds(MidnightUtils.secondsFromMidnight()), units)
         else getProfileIsfMgdl()
 
     override fun getIsfMgdlForCarbs(timestamp: Long, caller: String, config: Config, processedDeviceStatusData: ProcessedDeviceStatusData): Double =
         if (config.AAPSCLIENT) {
-            processedDeviceStatusData.getAPSResult()?.isfMgdlForCarbs ?: toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift), units)
+            processedDeviceStatusData.getAPSResult()?.isfMgdlForCarbs ?: toMgdl(lookups().isf.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp)), units)
         } else {
             if (aps?.supportsDynamicIsf() ?: error("APS not defined"))
-                aps.getAverageIsfMgdl(timestamp, caller) ?: toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift), units)
-            else toMgdl(isfBlocks.blockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), 100.0 / percentage, timeshift), units)
+                aps.getAverageIsfMgdl(timestamp, caller) ?: toMgdl(lookups().isf.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp)), units)
+            else toMgdl(lookups().isf.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp)), units)
         }
 
 
-    override fun getTargetMgdl(): Double = toMgdl(targetBlocks.targetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(), timeshift), units)
-    override fun getTargetLowMgdl(): Double = toMgdl(targetBlocks.lowTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(), timeshift), units)
-    override fun getTargetLowMgdl(timestamp: Long): Double = toMgdl(targetBlocks.lowTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), timeshift), units)
-    override fun getTargetHighMgdl(): Double = toMgdl(targetBlocks.highTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(), timeshift), units)
-    override fun getTargetHighMgdl(timestamp: Long): Double = toMgdl(targetBlocks.highTargetBlockValueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), timeshift), units)
-    override fun getBasalTimeFromMidnight(timeAsSeconds: Int): Double = basalBlocks.blockValueBySeconds(timeAsSeconds, percentage / 100.0, timeshift)
-    override fun getIcTimeFromMidnight(timeAsSeconds: Int): Double = icBlocks.blockValueBySeconds(timeAsSeconds, 100.0 / percentage, timeshift)
-    fun getIsfTimeFromMidnight(timeAsSeconds: Int): Double = isfBlocks.blockValueBySeconds(timeAsSeconds, 100.0 / percentage, timeshift)
-    override fun getIsfMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(isfBlocks.blockValueBySeconds(timeAsSeconds, 100.0 / percentage, timeshift), units)
-    override fun getTargetLowMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(targetBlocks.lowTargetBlockValueBySeconds(timeAsSeconds, timeshift), units)
-    private fun getTargetLowTimeFromMidnight(timeAsSeconds: Int): Double = targetBlocks.lowTargetBlockValueBySeconds(timeAsSeconds, timeshift)
-    private fun getTargetHighTimeFromMidnight(timeAsSeconds: Int): Double = targetBlocks.highTargetBlockValueBySeconds(timeAsSeconds, timeshift)
-    override fun getTargetHighMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(targetBlocks.highTargetBlockValueBySeconds(timeAsSeconds, timeshift), units)
+    override fun getTargetMgdl(): Double = toMgdl(lookups().target.valueBySeconds(MidnightUtils.secondsFromMidnight(), BlockLookup.AVERAGE), units)
+    override fun getTargetLowMgdl(): Double = toMgdl(lookups().target.valueBySeconds(MidnightUtils.secondsFromMidnight(), BlockLookup.LOW), units)
+    override fun getTargetLowMgdl(timestamp: Long): Double = toMgdl(lookups().target.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), BlockLookup.LOW), units)
+    override fun getTargetHighMgdl(): Double = toMgdl(lookups().target.valueBySeconds(MidnightUtils.secondsFromMidnight(), BlockLookup.HIGH), units)
+    override fun getTargetHighMgdl(timestamp: Long): Double = toMgdl(lookups().target.valueBySeconds(MidnightUtils.secondsFromMidnight(timestamp), BlockLookup.HIGH), units)
+    override fun getBasalTimeFromMidnight(timeAsSeconds: Int): Double = lookups().basal.valueBySeconds(timeAsSeconds)
+    override fun getIcTimeFromMidnight(timeAsSeconds: Int): Double = lookups().ic.valueBySeconds(timeAsSeconds)
+    fun getIsfTimeFromMidnight(timeAsSeconds: Int): Double = lookups().isf.valueBySeconds(timeAsSeconds)
+    override fun getIsfMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(lookups().isf.valueBySeconds(timeAsSeconds), units)
+    override fun getTargetLowMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(lookups().target.valueBySeconds(timeAsSeconds, BlockLookup.LOW), units)
+    private fun getTargetLowTimeFromMidnight(timeAsSeconds: Int): Double = lookups().target.valueBySeconds(timeAsSeconds, BlockLookup.LOW)
+    private fun getTargetHighTimeFromMidnight(timeAsSeconds: Int): Double = lookups().target.valueBySeconds(timeAsSeconds, BlockLookup.HIGH)
+    override fun getTargetHighMgdlTimeFromMidnight(timeAsSeconds: Int): Double = toMgdl(lookups().target.valueBySeconds(timeAsSeconds, BlockLookup.HIGH), units)
 
     override fun getIcList(rh: ResourceHelper, dateUtil: DateUtil): String =
         getValuesList(icBlocks, 100.0 / percentage, DecimalFormat("0.0"), rh.gs(R.string.profile_carbs_per_unit), dateUtil)
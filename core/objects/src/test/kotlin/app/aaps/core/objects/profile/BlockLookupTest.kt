@@ -0,0 +1,66 @@
+package app.aaps.core.objects.profile
+
+import app.aaps.core.data.model.data.Block
+import app.aaps.core.data.model.data.TargetBlock
+import app.aaps.core.data.time.T
+import app.aaps.core.objects.extensions.blockValueBySeconds
+import app.aaps.core.objects.extensions.highTargetBlockValueBySeconds
+import app.aaps.core.objects.extensions.lowTargetBlockValueBySeconds
+import app.aaps.core.objects.extensions.targetBlockValueBySeconds
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+
+class BlockLookupTest {
+
+    private val random = Random(1)
+
+    // random block lengths in minutes including blocks shorter than 5 min
+    private fun durations(): List<Long> {
+        val durations = mutableListOf<Long>()
+        var remaining = 24 * 60L
+        while (remaining > 0) {
+            val minutes = minOf(remaining, listOf(1L, 3L, 30L, 60L, 90L, 180L)[random.nextInt(6)])
+            durations.add(T.mins(minutes).msecs())
+            remaining -= minutes
+        }
+        return durations
+    }
+
+    @Test
+    fun blocksTest() {
+        repeat(20) {
+            val blocks = durations().map { Block(it, random.nextDouble(0.1, 3.0)) }
+            val multiplier = random.nextInt(30, 200) / 100.0
+            val timeshift = random.nextInt(-23, 24)
+            val lookup = BlockLookup.of(blocks, multiplier, timeshift)
+            for (seconds in 0 until 24 * 60 * 60 step 7)
+                assertThat(lookup.valueBySeconds(seconds)).isEqualTo(blocks.blockValueBySeconds(seconds, multiplier, timeshift))
+        }
+    }
+
+    @Test
+    fun targetBlocksTest() {
+        repeat(20) {
+            val blocks = durations().map { TargetBlock(it, random.nextDouble(80.0, 120.0), random.nextDouble(120.0, 180.0)) }
+            val timeshift = random.nextInt(-23, 24)
+            val lookup = BlockLookup.ofTargets(blocks, timeshift)
+            for (seconds in 0 until 24 * 60 * 60 step 7) {
+                assertThat(lookup.valueBySeconds(seconds, BlockLookup.LOW)).isEqualTo(blocks.lowTargetBlockValueBySeconds(seconds, timeshift))
+                assertThat(lookup.valueBySeconds(seconds, BlockLookup.HIGH)).isEqualTo(blocks.highTargetBlockValueBySeconds(seconds, timeshift))
+                assertThat(lookup.valueBySeconds(seconds, BlockLookup.AVERAGE)).isEqualTo(blocks.targetBlockValueBySeconds(seconds, timeshift))
+            }
+        }
+    }
+
+    @Test
+    fun incompleteDayTest() {
+        // blocks not covering whole day return last value
+        val blocks = listOf(Block(T.hours(1).msecs(), 1.0), Block(T.hours(2).msecs(), 2.0))
+        val lookup = BlockLookup.of(blocks, 1.0, 0)
+        assertThat(lookup.valueBySeconds(0)).isEqualTo(1.0)
+        assertThat(lookup.valueBySeconds(3600)).isEqualTo(2.0)
+        assertThat(lookup.valueBySeconds(20000)).isEqualTo(2.0)
+        assertThat(lookup.valueBySeconds(-100)).isEqualTo(blocks.blockValueBySeconds(-100, 1.0, 0))
+    }
+}
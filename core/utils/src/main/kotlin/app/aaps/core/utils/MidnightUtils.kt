@@ -4,25 +4,36 @@ import java.time.Duration
 import java.time.Instant
 import java.time.ZoneId
 import java.time.ZonedDateTime
+import java.util.TimeZone
 
 /**
  * Midnight time conversion
  */
 object MidnightUtils {
 
+    /**
+     * Interval of one local day with constant zone offset.
+     * Inside it milliseconds from midnight grow linearly with time.
+     */
+    private class Window(val zone: ZoneId, val from: Long, val to: Long, val msFromMidnightAtFrom: Long)
+
+    /**
+     * System zone resolved for default TimeZone with [timeZoneId]
+     */
+    private class Zone(val timeZoneId: String, val zoneId: ZoneId)
+
+    @Volatile private var zone = Zone(TimeZone.getDefault().id, ZoneId.systemDefault())
+
+    // per thread, calculations of different days (ie. history) don't replace each other's window
+    private val window = ThreadLocal<Window?>()
+
     /**
      * Actual passed seconds from midnight ignoring DST change
      * (thus always having 24 hours in a day, not 23 or 25 in days where DST changes)
      *
      * @return seconds
      */
-    fun secondsFromMidnight(): Int {
-        val nowZoned = ZonedDateTime.now()
-        val localTime = nowZoned.toLocalTime()
-        val midnight = nowZoned.toLocalDate().atStartOfDay(nowZoned.zone).toLocalTime()
-        val duration = Duration.between(midnight, localTime)
-        return duration.seconds.toInt()
-    }
+    fun secondsFromMidnight(): Int = secondsFromMidnight(System.currentTimeMillis())
 
     /**
      * Passed seconds from midnight for specified time ignoring DST change
@@ -31,26 +42,52 @@ object MidnightUtils {
      * @param timestamp time
      * @return seconds
      */
-   fun secondsFromMidnight(timestamp: Long): Int {
-        val timeZoned = ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault())
-        val localTime = timeZoned.toLocalTime()
-        val midnight = timeZoned.toLocalDate().atStartOfDay(timeZoned.zone).toLocalTime()
-        val duration: Duration = Duration.between(midnight, localTime)
-        return duration.seconds.toInt()
-    }
+    fun secondsFromMidnight(timestamp: Long): Int = (milliSecFromMidnight(timestamp) / 1000).toInt()
 
     /**
      * Passed milliseconds from midnight for specified time ignoring DST change
      * (thus always having 24 hours in a day, not 23 or 25 in days where DST changes)
      *
+     * Zone rules are evaluated once per day (or per DST change) and cached
+     *
      * @param timestamp time
      * @return milliseconds
      */
     fun milliSecFromMidnight(timestamp: Long): Long {
-        val timeZoned = ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault())
+        val zone = systemZone()
+        val cached = window.get()
+        if (cached != null && timestamp >= cached.from && timestamp < cached.to && cached.zone == zone)
+            return cached.msFromMidnightAtFrom + (timestamp - cached.from)
+        val msFromMidnight = calculateMilliSecFromMidnight(timestamp, zone)
+        window.set(createWindow(timestamp, zone, msFromMidnight))
+        return msFromMidnight
+    }
+
+    // ZoneId is resolved again only when id of default TimeZone changes
+    private fun systemZone(): ZoneId {
+        val timeZoneId = TimeZone.getDefault().id
+        val cached = zone
+        if (cached.timeZoneId == timeZoneId) return cached.zoneId
+        return ZoneId.systemDefault().also { zone = Zone(timeZoneId, it) }
+    }
+
+    private fun calculateMilliSecFromMidnight(timestamp: Long, zone: ZoneId): Long {
+        val timeZoned = ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), zone)
         val localTime = timeZoned.toLocalTime()
         val midnight = timeZoned.toLocalDate().atStartOfDay(timeZoned.zone).toLocalTime()
         val duration = Duration.between(midnight, localTime)
         return duration.toMillis()
     }
-}
\ No newline at end of file
+
+    private fun createWindow(timestamp: Long, zone: ZoneId, msFromMidnight: Long): Window {
+        val instant = Instant.ofEpochMilli(timestamp)
+        val date = ZonedDateTime.ofInstant(instant, zone).toLocalDate()
+        val rules = zone.rules
+        // previousTransition excludes transition at exactly timestamp
+        val previousTransition = rules.previousTransition(instant.plusMillis(1))?.instant?.toEpochMilli() ?: Long.MIN_VALUE
+        val nextTransition = rules.nextTransition(instant)?.instant?.toEpochMilli() ?: Long.MAX_VALUE
+        val from = maxOf(date.atStartOfDay(zone).toInstant().toEpochMilli(), previousTransition)
+        val to = minOf(date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli(), nextTransition)
+        return Window(zone, from, to, msFromMidnight - (timestamp - from))
+    }
+}
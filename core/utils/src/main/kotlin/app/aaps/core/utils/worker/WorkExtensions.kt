@@ -6,3 +6,9 @@ import androidx.work.WorkContinuation
 fun WorkContinuation.then(runIf: Boolean, work: OneTimeWorkRequest): WorkContinuation =
     if (runIf) then(work) else this
 
+
+/**
+ * Build [work] only if it is going to run, input data stored in DataWorkerStorage would never be picked up otherwise
+ */
+fun WorkContinuation.then(runIf: Boolean, work: () -> OneTimeWorkRequest): WorkContinuation =
+    if (runIf) then(work()) else this
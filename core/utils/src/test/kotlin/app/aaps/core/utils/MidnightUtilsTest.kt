@@ -3,6 +3,7 @@ package app.aaps.core.utils
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import java.time.Duration
 import java.time.Instant
 import java.time.LocalDate
 import java.time.LocalDateTime
@@ -10,6 +11,7 @@ import java.time.LocalTime
 import java.time.ZoneId
 import java.time.ZonedDateTime
 import java.util.TimeZone
+import java.util.concurrent.atomic.AtomicInteger
 
 class MidnightUtilsTest {
 
@@ -64,4 +66,48 @@ class MidnightUtilsTest {
         assertThat(MidnightUtils.secondsFromMidnight(dateTime)).isEqualTo(83101)
         assertThat(MidnightUtils.milliSecFromMidnight(dateTime)).isEqualTo(83101 * 1000L)
     }
-}
\ No newline at end of file
+
+    // reference implementation without caching
+    private fun expectedMilliSecFromMidnight(timestamp: Long): Long {
+        val timeZoned = ZonedDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault())
+        val midnight = timeZoned.toLocalDate().atStartOfDay(timeZoned.zone).toLocalTime()
+        return Duration.between(midnight, timeZoned.toLocalTime()).toMillis()
+    }
+
+    @Test fun cachedValuesOverDstChanges() {
+        for (zone in listOf("Europe/Amsterdam", "America/Los_Angeles", "Australia/Lord_Howe", "America/Havana", "UTC")) {
+            TimeZone.setDefault(TimeZone.getTimeZone(zone))
+            for (start in listOf(ZonedDateTime.of(2020, 3, 7, 0, 0, 0, 0, ZoneId.of(zone)), ZonedDateTime.of(2020, 10, 24, 0, 0, 0, 0, ZoneId.of(zone)))) {
+                var time = start.toInstant().toEpochMilli()
+                val end = time + 10 * 24 * 3600 * 1000L
+                while (time < end) {
+                    assertThat(MidnightUtils.milliSecFromMidnight(time)).isEqualTo(expectedMilliSecFromMidnight(time))
+                    assertThat(MidnightUtils.secondsFromMidnight(time)).isEqualTo((expectedMilliSecFromMidnight(time) / 1000).toInt())
+                    time += 59 * 1000 + 7
+                }
+            }
+        }
+    }
+
+    @Test fun zoneChangeIsDetected() {
+        val dateTime = ZonedDateTime.of(2020, 5, 10, 10, 0, 0, 0, ZoneId.of("Europe/Amsterdam")).toInstant().toEpochMilli()
+        assertThat(MidnightUtils.secondsFromMidnight(dateTime)).isEqualTo(10 * 3600)
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"))
+        assertThat(MidnightUtils.secondsFromMidnight(dateTime)).isEqualTo(8 * 3600)
+    }
+
+    @Test fun threadsWithDifferentDays() {
+        val today = ZonedDateTime.of(2020, 5, 10, 0, 0, 0, 0, ZoneId.of("Europe/Amsterdam")).toInstant().toEpochMilli()
+        val errors = AtomicInteger()
+        val threads = List(4) { day ->
+            Thread {
+                val start = today - day * 24 * 3600 * 1000L
+                for (minute in 0 until 24 * 60 step 7)
+                    if (MidnightUtils.milliSecFromMidnight(start + minute * 60 * 1000L) != minute * 60 * 1000L) errors.incrementAndGet()
+            }
+        }
+        threads.forEach { it.start() }
+        threads.forEach { it.join() }
+        assertThat(errors.get()).isEqualTo(0)
+    }
+}
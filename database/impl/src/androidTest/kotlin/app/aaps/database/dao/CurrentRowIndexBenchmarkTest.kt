@@ -0,0 +1,150 @@
+package app.aaps.database.dao
+
+import android.content.Context
+import android.util.Log
+import androidx.room.Room
+import androidx.sqlite.db.SupportSQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import app.aaps.database.AppDatabase
+import app.aaps.database.di.DatabaseModule
+import app.aaps.database.entities.GlucoseValue
+import app.aaps.database.entities.TABLE_GLUCOSE_VALUES
+import app.aaps.database.entities.TABLE_TEMPORARY_BASALS
+import app.aaps.database.entities.TemporaryBasal
+import org.junit.After
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.TimeUnit
+
+/**
+ * Time range queries on a database with 1 year of history where every current row has historic copies.
+ * Compares query times with and without custom partial indexes on current rows and checks they are used.
+ */
+@RunWith(AndroidJUnit4::class)
+class CurrentRowIndexBenchmarkTest {
+
+    private val context = ApplicationProvider.getApplicationContext<Context>()
+    private val now = System.currentTimeMillis()
+    private lateinit var database: AppDatabase
+    private lateinit var supportDb: SupportSQLiteDatabase
+
+    @Before
+    fun setup() {
+        context.deleteDatabase(TEST_DB_NAME)
+        database = Room.databaseBuilder(context, AppDatabase::class.java, TEST_DB_NAME).build()
+        supportDb = database.openHelper.writableDatabase
+        database.runInTransaction { fillYear() }
+        supportDb.execSQL("ANALYZE")
+    }
+
+    @After
+    fun tearDown() {
+        database.close()
+        context.deleteDatabase(TEST_DB_NAME)
+    }
+
+    @Test
+    fun currentRowQueriesUsePartialIndexes() {
+        val start = now - TimeUnit.DAYS.toMillis(1)
+
+        DatabaseModule().dropCustomIndexes(supportDb)
+        val bgWithout = measure { database.glucoseValueDao.compatGetBgReadingsDataFromTime(start, now).blockingGet() }
+        val tbWithout = measure { database.temporaryBasalDao.getTemporaryBasalStartingFromTimeToTime(start, now).blockingGet() }
+
+        DatabaseModule().createCustomIndexes(supportDb)
+        val bgWith = measure { database.glucoseValueDao.compatGetBgReadingsDataFromTime(start, now).blockingGet() }
+        val tbWith = measure { database.temporaryBasalDao.getTemporaryBasalStartingFromTimeToTime(start, now).blockingGet() }
+
+        Log.i(TAG, "compatGetBgReadingsDataFromTime: ${bgWithout.nanos / 1000} us -> ${bgWith.nanos / 1000} us")
+        Log.i(TAG, "getTemporaryBasalStartingFromTimeToTime: ${tbWithout.nanos / 1000} us -> ${tbWith.nanos / 1000} us")
+
+        Assert.assertEquals(TimeUnit.DAYS.toMinutes(1) / 5 + 1, bgWith.result.size.toLong())
+        Assert.assertEquals(bgWithout.result, bgWith.result)
+        Assert.assertEquals(tbWithout.result, tbWith.result)
+        Assert.assertTrue(bgWith.result.all { it.referenceId == null })
+        Assert.assertTrue(tbWith.result.all { it.referenceId == null })
+
+        Assert.assertTrue(
+            queryPlan("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE unlikely(timestamp BETWEEN ? AND ?) AND likely(isValid = 1) AND likely(referenceId IS NULL) AND likely(value >= 39) ORDER BY timestamp ASC", start, now)
+                .contains("index_${TABLE_GLUCOSE_VALUES}_current_timestamp")
+        )
+        Assert.assertTrue(
+            queryPlan("SELECT * FROM $TABLE_TEMPORARY_BASALS WHERE unlikely(timestamp BETWEEN ? and ?) AND likely(isValid = 1) AND likely(referenceId IS NULL) ORDER BY timestamp ASC", start, now)
+                .contains("index_${TABLE_TEMPORARY_BASALS}_current_timestamp")
+        )
+    }
+
+    /**
+     * 5 min BGs with one historic copy each (NS id assigned after upload),
+     * 30 min temporary basals with two historic copies each (NS id, then pump id).
+     */
+    private fun fillYear() {
+        val from = now - TimeUnit.DAYS.toMillis(365)
+
+        val glucoseValues = (from..now step FIVE_MINUTES).map { createGlucoseValue(it) }
+        database.glucoseValueDao.insertAll(glucoseValues).forEachIndexed { i, id -> glucoseValues[i].id = id }
+        database.glucoseValueDao.insertAll(glucoseValues.map { it.copy(id = 0, referenceId = it.id) })
+
+        val temporaryBasals = (from..now step THIRTY_MINUTES).map { createTemporaryBasal(it) }
+        database.temporaryBasalDao.insertAll(temporaryBasals).forEachIndexed { i, id -> temporaryBasals[i].id = id }
+        repeat(2) { version ->
+            database.temporaryBasalDao.insertAll(temporaryBasals.map { it.copy(id = 0, version = version, referenceId = it.id) })
+        }
+    }
+
+    private class Measurement<T>(val result: T, val nanos: Long)
+
+    /** Median of [RUNS] runs after warm up */
+    private fun <T> measure(query: () -> T): Measurement<T> {
+        repeat(WARM_UP_RUNS) { query() }
+        var result: T? = null
+        val times = LongArray(RUNS) {
+            val start = System.nanoTime()
+            result = query()
+            System.nanoTime() - start
+        }
+        times.sort()
+        @Suppress("UNCHECKED_CAST")
+        return Measurement(result as T, times[RUNS / 2])
+    }
+
+    private fun queryPlan(sql: String, vararg args: Any): String {
+        val plan = StringBuilder()
+        supportDb.query("EXPLAIN QUERY PLAN $sql", args).use { c ->
+            while (c.moveToNext()) plan.appendLine(c.getString(c.getColumnIndexOrThrow("detail")))
+        }
+        return plan.toString()
+    }
+
+    private fun createGlucoseValue(timestamp: Long) =
+        GlucoseValue(
+            timestamp = timestamp,
+            raw = null,
+            value = 100.0 + timestamp / FIVE_MINUTES % 100,
+            trendArrow = GlucoseValue.TrendArrow.FLAT,
+            noise = null,
+            sourceSensor = GlucoseValue.SourceSensor.UNKNOWN
+        )
+
+    private fun createTemporaryBasal(timestamp: Long) =
+        TemporaryBasal(
+            timestamp = timestamp,
+            type = TemporaryBasal.Type.NORMAL,
+            isAbsolute = true,
+            rate = 0.5,
+            duration = THIRTY_MINUTES
+        )
+
+    companion object {
+
+        private const val TAG = "CurrentRowIndexBenchmark"
+        private const val TEST_DB_NAME = "currentRowIndexBenchmark"
+        private const val WARM_UP_RUNS = 3
+        private const val RUNS = 15
+        private const val FIVE_MINUTES = 5 * 60 * 1000L
+        private const val THIRTY_MINUTES = 30 * 60 * 1000L
+    }
+}
@@ -35,6 +35,16 @@ internal interface BolusDao : TraceableDao<Bolus> {
     @Query("SELECT * FROM $TABLE_BOLUSES WHERE unlikely(pumpId = :pumpId) AND likely(pumpType = :pumpType) AND likely(pumpSerial = :pumpSerial) AND likely(referenceId IS NULL)")
     fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Bolus?
 
+    // Bulk variants of lookups above for SyncNsBolusTransaction
+    @Query("SELECT * FROM $TABLE_BOLUSES WHERE nightscoutId IN (:nsIds) AND likely(referenceId IS NULL)")
+    fun getByNSIds(nsIds: List<String>): List<Bolus>
+
+    @Query("SELECT * FROM $TABLE_BOLUSES WHERE pumpId IN (:pumpIds) AND likely(referenceId IS NULL)")
+    fun findByPumpIds(pumpIds: List<Long>): List<Bolus>
+
+    @Query("SELECT * FROM $TABLE_BOLUSES WHERE timestamp IN (:timestamps) AND likely(referenceId IS NULL)")
+    fun findByTimestamps(timestamps: List<Long>): List<Bolus>
+
     @Query("SELECT * FROM $TABLE_BOLUSES WHERE unlikely(temporaryId = :temporaryId) AND likely(pumpType = :pumpType) AND likely(pumpSerial = :pumpSerial) AND likely(referenceId IS NULL)")
     fun findByPumpTempIds(temporaryId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Bolus?
 
@@ -35,6 +35,16 @@ internal interface CarbsDao : TraceableDao<Carbs> {
     @Query("SELECT * FROM $TABLE_CARBS WHERE unlikely(pumpId = :pumpId) AND likely(pumpType = :pumpType) AND likely(pumpSerial = :pumpSerial) AND likely(referenceId IS NULL)")
     fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Carbs?
 
+    // Bulk variants of lookups above for SyncNsCarbsTransaction
+    @Query("SELECT * FROM $TABLE_CARBS WHERE nightscoutId IN (:nsIds) AND likely(referenceId IS NULL)")
+    fun getByNSIds(nsIds: List<String>): List<Carbs>
+
+    @Query("SELECT * FROM $TABLE_CARBS WHERE pumpId IN (:pumpIds) AND likely(referenceId IS NULL)")
+    fun findByPumpIds(pumpIds: List<Long>): List<Carbs>
+
+    @Query("SELECT * FROM $TABLE_CARBS WHERE timestamp IN (:timestamps) AND likely(referenceId IS NULL)")
+    fun findByTimestamps(timestamps: List<Long>): List<Carbs>
+
     @Query("SELECT * FROM $TABLE_CARBS WHERE isValid = 1 AND referenceId IS NULL ORDER BY id DESC LIMIT 1")
     fun getLastCarbsRecordMaybe(): Maybe<Carbs>
 
@@ -34,6 +34,10 @@ internal interface GlucoseValueDao : TraceableDao<GlucoseValue> {
     @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE unlikely(timestamp = :timestamp) AND likely(sourceSensor = :sourceSensor) AND likely(referenceId IS NULL)")
     fun findByTimestampAndSensor(timestamp: Long, sourceSensor: GlucoseValue.SourceSensor): GlucoseValue?
 
+    // Bulk variant of findByTimestampAndSensor for CgmSourceTransaction
+    @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE timestamp IN (:timestamps) AND likely(referenceId IS NULL)")
+    fun findByTimestamps(timestamps: List<Long>): List<GlucoseValue>
+
     @Query("SELECT * FROM $TABLE_GLUCOSE_VALUES WHERE unlikely(timestamp >= :timestamp) AND likely(isValid = 1) AND likely(referenceId IS NULL) AND likely(value >= 39) ORDER BY timestamp ASC")
     fun compatGetBgReadingsDataFromTime(timestamp: Long): Single<List<GlucoseValue>>
 
@@ -34,6 +34,13 @@ internal interface TherapyEventDao : TraceableDao<TherapyEvent> {
     @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE unlikely(nightscoutId = :nsId) AND likely(referenceId IS NULL)")
     fun findByNSId(nsId: String): TherapyEvent?
 
+    // Bulk variants of findByNSId and findByTimestamp for SyncNsTherapyEventTransaction
+    @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE nightscoutId IN (:nsIds) AND likely(referenceId IS NULL)")
+    fun findByNSIds(nsIds: List<String>): List<TherapyEvent>
+
+    @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE timestamp IN (:timestamps) AND likely(referenceId IS NULL)")
+    fun findByTimestamps(timestamps: List<Long>): List<TherapyEvent>
+
     @Query("SELECT * FROM $TABLE_THERAPY_EVENTS WHERE unlikely(timestamp >= :timestamp) AND likely(isValid = 1) AND likely(referenceId IS NULL) ORDER BY timestamp ASC")
     fun getTherapyEventDataFromTime(timestamp: Long): Single<List<TherapyEvent>>
 
@@ -0,0 +1,133 @@
+package app.aaps.database.daos
+
+import app.aaps.database.entities.interfaces.DBEntry
+import app.aaps.database.entities.interfaces.TraceableDBEntry
+
+/**
+ * Bulk variant of [insertNewEntryImpl] and [updateExistingEntryImpl] for sync transactions
+ * processing a whole chunk of records.
+ *
+ * Existing rows are loaded up front with a few IN queries ([load]) and found through in-memory [Index]es
+ * instead of one indexed lookup per record. Inserts and updates are queued and written by [flush]
+ * with batched @Insert/@Update. Every queued update still produces its own historic entry
+ * and version increment, exactly like [updateExistingEntryImpl].
+ *
+ * Like a query, lookups return a fresh copy of the row so records of the chunk never share instances.
+ * Rows inserted by the batch are added to the indexes so later records of the same chunk see them.
+ * If such a row is looked up, pending writes are flushed first to give it an id.
+ *
+ * @param dao DAO of the table. Batched writes are not recorded by delegated DAOs
+ * @param changes changes of running transaction, filled by the batch instead
+ * @param copy deep copy of entry used for lookups and historic entries
+ */
+internal class TraceableBatch<T : TraceableDBEntry>(
+    private val dao: TraceableDao<T>,
+    private val changes: MutableList<DBEntry>,
+    private val copy: (T) -> T
+) {
+
+    private val dateCreated = System.currentTimeMillis()
+    private val indexes = mutableListOf<Index<*>>()
+
+    // state of rows in database after pending writes, source of lookups and historic entries
+    private val saved = HashMap<Long, T>()
+    private val inserts = mutableListOf<T>()
+    private val updates = LinkedHashMap<Long, T>()
+    private val historic = mutableListOf<T>()
+
+    /**
+     * In-memory replacement of a lookup query returning single row.
+     * Like the query it returns row with the lowest id if more rows share the key.
+     *
+     * @param key key of entry or null if entry is not searchable by this index
+     */
+    inner class Index<K : Any>(private val key: (T) -> K?) {
+
+        // any instance of the row, used for its id only
+        private val entries = HashMap<K, T>()
+
+        operator fun get(value: K): T? {
+            val entry = entries[value] ?: return null
+            if (entry.id == 0L) flush()
+            return copy(saved.getValue(entry.id))
+        }
+
+        internal fun add(entry: T) {
+            key(entry)?.let { entries.putIfAbsent(it, entry) }
+        }
+    }
+
+    fun <K : Any> index(key: (T) -> K?): Index<K> = Index(key).also { indexes.add(it) }
+
+    /**
+     * Load existing rows (results of IN queries). Must be called after all indexes are created.
+     */
+    fun load(vararg rows: List<T>) {
+        rows.asSequence().flatten().distinctBy { it.id }.sortedBy { it.id }.forEach { entry ->
+            saved[entry.id] = copy(entry)
+            indexes.forEach { it.add(entry) }
+        }
+    }
+
+    fun insertNewEntry(entry: T) {
+        if (entry.id != 0L) throw IllegalArgumentException("ID must be 0.")
+        if (entry.version != 0) throw IllegalArgumentException("Version must be 0.")
+        if (entry.referenceId != null) throw IllegalArgumentException("Reference ID must be null.")
+        if (!entry.foreignKeysValid) throw IllegalArgumentException("One or more foreign keys are invalid (e.g. 0 value).")
+        entry.dateCreated = dateCreated
+        inserts.add(entry)
+        changes.add(entry)
+        indexes.forEach { it.add(entry) }
+    }
+
+    fun updateExistingEntry(entry: T) {
+        if (entry.id == 0L) throw IllegalArgumentException("ID must not be 0.")
+        if (entry.referenceId != null) throw IllegalArgumentException("Reference ID must be null.")
+        if (!entry.foreignKeysValid) throw IllegalArgumentException("One or more foreign keys are invalid (e.g. 0 value).")
+        val current = saved[entry.id]
+            ?: throw IllegalArgumentException("The entry with the specified ID was not loaded.")
+        entry.dateCreated = dateCreated
+        entry.version = current.version + 1
+        historic.add(current.also {
+            it.referenceId = entry.id
+            it.id = 0
+        })
+        saved[entry.id] = copy(entry)
+        updates[entry.id] = copy(entry)
+        changes.add(entry)
+        indexes.forEach { it.add(entry) }
+    }
+
+    /**
+     * Write queued entries. Must be called before transaction ends.
+     */
+    fun flush() {
+        if (inserts.isNotEmpty()) {
+            dao.insertAll(inserts).forEachIndexed { i, id ->
+                inserts[i].id = id
+                saved[id] = copy(inserts[i])
+            }
+            inserts.clear()
+        }
+        if (updates.isNotEmpty()) {
+            dao.updateAll(updates.values.toList())
+            updates.clear()
+        }
+        if (historic.isNotEmpty()) {
+            dao.insertAll(historic)
+            historic.clear()
+        }
+    }
+
+    companion object {
+
+        /** Below SQLite limit of 999 host parameters */
+        private const val MAX_IN_PARAMETERS = 500
+
+        /**
+         * Run IN query for [keys] in chunks not exceeding SQLite parameter limit
+         */
+        fun <K, T> inChunks(keys: Collection<K>, query: (List<K>) -> List<T>): List<T> =
+            keys.distinct().chunked(MAX_IN_PARAMETERS).flatMap(query)
+    }
+}
@@ -19,6 +19,12 @@ internal interface TraceableDao<T : TraceableDBEntry> : TraceableDaoWorkaround<T
 
     @Update
     fun update(entry: T)
+
+    @Insert
+    fun insertAll(entries: List<T>): List<Long>
+
+    @Update
+    fun updateAll(entries: List<T>)
 }
 
 /**
@@ -8,10 +8,19 @@ import androidx.room.migration.Migration
 import androidx.sqlite.db.SupportSQLiteDatabase
 import app.aaps.database.AppDatabase
 import app.aaps.database.entities.TABLE_APS_RESULTS
+import app.aaps.database.entities.TABLE_BOLUSES
+import app.aaps.database.entities.TABLE_BOLUS_CALCULATOR_RESULTS
+import app.aaps.database.entities.TABLE_CARBS
+import app.aaps.database.entities.TABLE_EFFECTIVE_PROFILE_SWITCHES
+import app.aaps.database.entities.TABLE_EXTENDED_BOLUSES
+import app.aaps.database.entities.TABLE_GLUCOSE_VALUES
 import app.aaps.database.entities.TABLE_HEART_RATE
 import app.aaps.database.entities.TABLE_PREFERENCE_CHANGES
+import app.aaps.database.entities.TABLE_PROFILE_SWITCHES
 import app.aaps.database.entities.TABLE_RUNNING_MODE
 import app.aaps.database.entities.TABLE_STEPS_COUNT
+import app.aaps.database.entities.TABLE_TEMPORARY_BASALS
+import app.aaps.database.entities.TABLE_TEMPORARY_TARGETS
 import app.aaps.database.entities.TABLE_THERAPY_EVENTS
 import app.aaps.database.entities.TABLE_USER_ENTRY
 import dagger.Module
@@ -44,20 +53,33 @@ open class DatabaseModule {
     @Qualifier
     annotation class DbFileName
 
-    private fun createCustomIndexes(database: SupportSQLiteDatabase) {
+    @VisibleForTesting
+    internal fun createCustomIndexes(database: SupportSQLiteDatabase) {
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryBasals_end` ON `temporaryBasals` (`timestamp` + `duration`)")
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_extendedBoluses_end` ON `extendedBoluses` (`timestamp` + `duration`)")
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryTargets_end` ON `temporaryTargets` (`timestamp` + `duration`)")
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_carbs_end` ON `carbs` (`timestamp` + `duration`)")
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_runningModes_end` ON `runningModes` (`timestamp` + `duration`)")
+        // Current rows only. Historic copies (referenceId != null) are never returned by time range queries
+        // but otherwise share index_<table>_timestamp with current rows and have to be skipped row by row
+        CURRENT_TIMESTAMP_TABLES.forEach {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_${it}_current_timestamp` ON `$it` (`timestamp`) WHERE `referenceId` IS NULL")
+        }
+        // Tables without nightscoutId index, used by NS sync lookups
+        CURRENT_NS_ID_TABLES.forEach {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_${it}_current_nightscoutId` ON `$it` (`nightscoutId`) WHERE `referenceId` IS NULL")
+        }
     }
 
-    private fun dropCustomIndexes(database: SupportSQLiteDatabase) {
+    @VisibleForTesting
+    internal fun dropCustomIndexes(database: SupportSQLiteDatabase) {
         database.execSQL("DROP INDEX IF EXISTS `index_temporaryBasals_end`")
         database.execSQL("DROP INDEX IF EXISTS `index_extendedBoluses_end`")
         database.execSQL("DROP INDEX IF EXISTS `index_temporaryTargets_end`")
         database.execSQL("DROP INDEX IF EXISTS `index_carbs_end`")
         database.execSQL("DROP INDEX IF EXISTS `index_runningModes_end`")
+        CURRENT_TIMESTAMP_TABLES.forEach { database.execSQL("DROP INDEX IF EXISTS `index_${it}_current_timestamp`") }
+        CURRENT_NS_ID_TABLES.forEach { database.execSQL("DROP INDEX IF EXISTS `index_${it}_current_nightscoutId`") }
     }
 
     internal val migration20to21 = object : Migration(20, 21) {
@@ -205,4 +227,16 @@ open class DatabaseModule {
     /** List of all migrations for easy reply in tests. */
     @VisibleForTesting
     internal val migrations = arrayOf(migration20to21, migration21to22, migration22to23, migration23to24, migration24to25, migration25to26, migration26to27, migration27to28, migration28to29, migration29to30, migration30to31)
+
+    internal companion object {
+
+        /** Traceable tables queried by time range, get partial index on current rows */
+        val CURRENT_TIMESTAMP_TABLES = listOf(
+            TABLE_GLUCOSE_VALUES, TABLE_BOLUSES, TABLE_CARBS, TABLE_TEMPORARY_BASALS, TABLE_EXTENDED_BOLUSES, TABLE_TEMPORARY_TARGETS, TABLE_THERAPY_EVENTS,
+            TABLE_EFFECTIVE_PROFILE_SWITCHES, TABLE_PROFILE_SWITCHES, TABLE_BOLUS_CALCULATOR_RESULTS, TABLE_RUNNING_MODE
+        )
+
+        /** Traceable tables synced with NS by nightscoutId without Room index on it */
+        val CURRENT_NS_ID_TABLES = listOf(TABLE_BOLUSES, TABLE_EFFECTIVE_PROFILE_SWITCHES, TABLE_BOLUS_CALCULATOR_RESULTS)
+    }
 }
@@ -32,5 +32,11 @@ open class TestDatabaseModule {
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_temporaryTargets_end` ON `temporaryTargets` (`timestamp` + `duration`)")
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_carbs_end` ON `carbs` (`timestamp` + `duration`)")
         database.execSQL("CREATE INDEX IF NOT EXISTS `index_runningModes_end` ON `runningModes` (`timestamp` + `duration`)")
+        DatabaseModule.CURRENT_TIMESTAMP_TABLES.forEach {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_${it}_current_timestamp` ON `$it` (`timestamp`) WHERE `referenceId` IS NULL")
+        }
+        DatabaseModule.CURRENT_NS_ID_TABLES.forEach {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_${it}_current_nightscoutId` ON `$it` (`nightscoutId`) WHERE `referenceId` IS NULL")
+        }
     }
 }
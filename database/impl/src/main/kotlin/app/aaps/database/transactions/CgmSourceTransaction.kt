@@ -1,22 +1,29 @@
 package app.aaps.database.transactions
 
+import app.aaps.database.daos.TraceableBatch
 import app.aaps.database.entities.GlucoseValue
 import app.aaps.database.entities.TherapyEvent
 import app.aaps.database.entities.data.GlucoseUnit
 
 /**
  * Inserts data from a CGM source into the database
+ *
+ * @param bulk prefetch existing glucose values of whole list and write in batches (see [TraceableBatch])
  */
 class CgmSourceTransaction(
     private val glucoseValues: List<GlucoseValue>,
     private val calibrations: List<Calibration>,
-    private val sensorInsertionTime: Long?
+    private val sensorInsertionTime: Long?,
+    private val bulk: Boolean = false
 ) : Transaction<CgmSourceTransaction.TransactionResult>() {
 
+    private var chunk: Chunk? = null
+
     override fun run(): TransactionResult {
         val result = TransactionResult()
+        if (bulk) chunk = Chunk()
         glucoseValues.forEach { glucoseValue ->
-            val current = database.glucoseValueDao.findByTimestampAndSensor(glucoseValue.timestamp, glucoseValue.sourceSensor)
+            val current = findByTimestampAndSensor(glucoseValue.timestamp, glucoseValue.sourceSensor)
             // if nsId is not provided in new record, copy from current if exists
             if (glucoseValue.interfaceIDs.nightscoutId == null)
                 current?.let { existing -> glucoseValue.interfaceIDs.nightscoutId = existing.interfaceIDs.nightscoutId }
@@ -25,23 +32,24 @@ class CgmSourceTransaction(
             when {
                 // new record, create new
                 current == null                                                                             -> {
-                    database.glucoseValueDao.insertNewEntry(glucoseValue)
+                    insertNewEntry(glucoseValue)
                     result.inserted.add(glucoseValue)
                 }
                 // different record, update
                 !current.contentEqualsTo(glucoseValue)                                                      -> {
                     glucoseValue.id = current.id
-                    database.glucoseValueDao.updateExistingEntry(glucoseValue)
+                    updateExistingEntry(glucoseValue)
                     result.updated.add(glucoseValue)
                 }
                 // update NS id if didn't exist and now provided
                 current.interfaceIDs.nightscoutId == null && glucoseValue.interfaceIDs.nightscoutId != null -> {
                     current.interfaceIDs.nightscoutId = glucoseValue.interfaceIDs.nightscoutId
-                    database.glucoseValueDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.updatedNsId.add(glucoseValue)
                 }
             }
         }
+        chunk?.batch?.flush()
         calibrations.forEach {
             if (database.therapyEventDao.findByTimestamp(TherapyEvent.Type.FINGER_STICK_BG_VALUE, it.timestamp) == null) {
                 val therapyEvent = TherapyEvent(
@@ -70,6 +78,30 @@ class CgmSourceTransaction(
         return result
     }
 
+    private fun findByTimestampAndSensor(timestamp: Long, sourceSensor: GlucoseValue.SourceSensor): GlucoseValue? =
+        chunk.let { if (it != null) it.byTimestampAndSensor[Pair(timestamp, sourceSensor)] else database.glucoseValueDao.findByTimestampAndSensor(timestamp, sourceSensor) }
+
+    private fun insertNewEntry(glucoseValue: GlucoseValue) {
+        chunk.let { if (it != null) it.batch.insertNewEntry(glucoseValue) else database.glucoseValueDao.insertNewEntry(glucoseValue) }
+    }
+
+    private fun updateExistingEntry(glucoseValue: GlucoseValue) {
+        chunk.let { if (it != null) it.batch.updateExistingEntry(glucoseValue) else database.glucoseValueDao.updateExistingEntry(glucoseValue) }
+    }
+
+    /**
+     * Existing glucose values at timestamps of [glucoseValues]
+     */
+    private inner class Chunk {
+
+        val batch = TraceableBatch(database.glucoseValueDao, database.changes) { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) }
+        val byTimestampAndSensor = batch.index { Pair(it.timestamp, it.sourceSensor) }
+
+        init {
+            batch.load(TraceableBatch.inChunks(glucoseValues.map { it.timestamp }) { database.glucoseValueDao.findByTimestamps(it) })
+        }
+    }
+
     data class Calibration(
         val timestamp: Long,
         val value: Double,
@@ -1,31 +1,38 @@
 package app.aaps.database.transactions
 
+import app.aaps.database.daos.TraceableBatch
 import app.aaps.database.entities.Bolus
+import app.aaps.database.entities.embedments.InterfaceIDs
 
 /**
  * Sync the Bolus from NS
+ *
+ * @param bulk prefetch existing records of whole list and write in batches (see [TraceableBatch])
  */
-class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<SyncNsBolusTransaction.TransactionResult>() {
+class SyncNsBolusTransaction(private val boluses: List<Bolus>, private val bulk: Boolean = false) : Transaction<SyncNsBolusTransaction.TransactionResult>() {
+
+    private var chunk: Chunk? = null
 
     override fun run(): TransactionResult {
         val result = TransactionResult()
+        if (bulk) chunk = Chunk()
 
         for (bolus in boluses) {
             val current: Bolus? =
                 bolus.interfaceIDs.nightscoutId?.let {
-                    database.bolusDao.getByNSId(it)
+                    getByNSId(it)
                 }
 
             if (current != null) {
                 // nsId exists, allow only invalidation or amount update (for drivers setting full amount upfront)
                 if (current.isValid && !bolus.isValid) {
                     current.isValid = false
-                    database.bolusDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.invalidated.add(current)
                 }
                 if (current.amount != bolus.amount) {
                     current.amount = bolus.amount
-                    database.bolusDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.updated.add(current)
                 }
                 continue
@@ -34,7 +41,7 @@ class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<Syn
             // not known nsId
             // Check by pumpId + pumpType + pumpSerial (primary deduplication - prevents NS duplicate _id records)
             val existingByPumpId = if (bolus.interfaceIDs.pumpId != null && bolus.interfaceIDs.pumpType != null && bolus.interfaceIDs.pumpSerial != null) {
-                database.bolusDao.findByPumpIds(bolus.interfaceIDs.pumpId!!, bolus.interfaceIDs.pumpType!!, bolus.interfaceIDs.pumpSerial!!)
+                findByPumpIds(bolus.interfaceIDs.pumpId!!, bolus.interfaceIDs.pumpType!!, bolus.interfaceIDs.pumpSerial!!)
             } else {
                 null
             }
@@ -45,7 +52,7 @@ class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<Syn
                     existingByPumpId.interfaceIDs.nightscoutId = bolus.interfaceIDs.nightscoutId
                     existingByPumpId.isValid = bolus.isValid
                     existingByPumpId.amount = bolus.amount
-                    database.bolusDao.updateExistingEntry(existingByPumpId)
+                    updateExistingEntry(existingByPumpId)
                     result.updatedNsId.add(existingByPumpId)
                 }
                 // If existing already has a different nsId, this is a duplicate NS record - ignore it
@@ -53,22 +60,59 @@ class SyncNsBolusTransaction(private val boluses: List<Bolus>) : Transaction<Syn
             }
 
             // Fallback: check by timestamp (for manual boluses without pumpId)
-            val existing = database.bolusDao.findByTimestamp(bolus.timestamp)
+            val existing = findByTimestamp(bolus.timestamp)
             if (existing != null && existing.interfaceIDs.nightscoutId == null) {
                 // the same record, update nsId only and amount
                 existing.interfaceIDs.nightscoutId = bolus.interfaceIDs.nightscoutId
                 existing.isValid = bolus.isValid
                 existing.amount = bolus.amount
-                database.bolusDao.updateExistingEntry(existing)
+                updateExistingEntry(existing)
                 result.updatedNsId.add(existing)
             } else {
-                database.bolusDao.insertNewEntry(bolus)
+                insertNewEntry(bolus)
                 result.inserted.add(bolus)
             }
         }
+        chunk?.batch?.flush()
         return result
     }
 
+    private fun getByNSId(nsId: String): Bolus? =
+        chunk.let { if (it != null) it.byNsId[nsId] else database.bolusDao.getByNSId(nsId) }
+
+    private fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Bolus? =
+        chunk.let { if (it != null) it.byPumpIds[Triple(pumpId, pumpType, pumpSerial)] else database.bolusDao.findByPumpIds(pumpId, pumpType, pumpSerial) }
+
+    private fun findByTimestamp(timestamp: Long): Bolus? =
+        chunk.let { if (it != null) it.byTimestamp[timestamp] else database.bolusDao.findByTimestamp(timestamp) }
+
+    private fun insertNewEntry(bolus: Bolus) {
+        chunk.let { if (it != null) it.batch.insertNewEntry(bolus) else database.bolusDao.insertNewEntry(bolus) }
+    }
+
+    private fun updateExistingEntry(bolus: Bolus) {
+        chunk.let { if (it != null) it.batch.updateExistingEntry(bolus) else database.bolusDao.updateExistingEntry(bolus) }
+    }
+
+    /**
+     * Existing boluses matching nsIds, pumpIds or timestamps of [boluses]
+     */
+    private inner class Chunk {
+
+        val batch = TraceableBatch(database.bolusDao, database.changes) { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) }
+        val byNsId = batch.index { it.interfaceIDs.nightscoutId }
+        val byPumpIds = batch.index { it.interfaceIDs.run { if (pumpId != null && pumpType != null && pumpSerial != null) Triple(pumpId!!, pumpType!!, pumpSerial!!) else null } }
+        val byTimestamp = batch.index { it.timestamp }
+
+        init {
+            batch.load(
+                TraceableBatch.inChunks(boluses.mapNotNull { it.interfaceIDs.nightscoutId }) { database.bolusDao.getByNSIds(it) },
+                TraceableBatch.inChunks(boluses.mapNotNull { it.interfaceIDs.pumpId }) { database.bolusDao.findByPumpIds(it) },
+                TraceableBatch.inChunks(boluses.map { it.timestamp }) { database.bolusDao.findByTimestamps(it) }
+            )
+        }
+    }
+
     class TransactionResult {
 
         val updatedNsId = mutableListOf<Bolus>()
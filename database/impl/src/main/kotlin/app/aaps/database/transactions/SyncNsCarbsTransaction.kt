@@ -1,34 +1,41 @@
 package app.aaps.database.transactions
 
+import app.aaps.database.daos.TraceableBatch
 import app.aaps.database.entities.Carbs
+import app.aaps.database.entities.embedments.InterfaceIDs
 
 /**
  * Sync the carbs from NS
+ *
+ * @param bulk prefetch existing records of whole list and write in batches (see [TraceableBatch])
  */
-class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClientMode: Boolean) :
+class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClientMode: Boolean, private val bulk: Boolean = false) :
     Transaction<SyncNsCarbsTransaction.TransactionResult>() {
 
+    private var chunk: Chunk? = null
+
     override fun run(): TransactionResult {
         val result = TransactionResult()
+        if (bulk) chunk = Chunk()
 
         for (carb in carbs) {
             val current: Carbs? =
                 carb.interfaceIDs.nightscoutId?.let {
-                    database.carbsDao.getByNSId(it)
+                    getByNSId(it)
                 }
 
             if (current != null) {
                 // nsId exists, allow only invalidation
                 if (current.isValid && !carb.isValid) {
                     current.isValid = false
-                    database.carbsDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.invalidated.add(current)
                 }
                 // and change duration to shorter only
                 if (current.duration != carb.duration && nsClientMode && carb.duration < current.duration) {
                     current.amount = carb.amount
                     current.duration = carb.duration
-                    database.carbsDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.updated.add(current)
                 }
                 continue
@@ -37,7 +44,7 @@ class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClien
             // not known nsId
             // Check by pumpId + pumpType + pumpSerial (primary deduplication - prevents NS duplicate _id records)
             val existingByPumpId = if (carb.interfaceIDs.pumpId != null && carb.interfaceIDs.pumpType != null && carb.interfaceIDs.pumpSerial != null) {
-                database.carbsDao.findByPumpIds(carb.interfaceIDs.pumpId!!, carb.interfaceIDs.pumpType!!, carb.interfaceIDs.pumpSerial!!)
+                findByPumpIds(carb.interfaceIDs.pumpId!!, carb.interfaceIDs.pumpType!!, carb.interfaceIDs.pumpSerial!!)
             } else {
                 null
             }
@@ -47,7 +54,7 @@ class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClien
                 if (existingByPumpId.interfaceIDs.nightscoutId == null) {
                     existingByPumpId.interfaceIDs.nightscoutId = carb.interfaceIDs.nightscoutId
                     existingByPumpId.isValid = carb.isValid
-                    database.carbsDao.updateExistingEntry(existingByPumpId)
+                    updateExistingEntry(existingByPumpId)
                     result.updatedNsId.add(existingByPumpId)
                 }
                 // If existing already has a different nsId, this is a duplicate NS record - ignore it
@@ -55,21 +62,58 @@ class SyncNsCarbsTransaction(private val carbs: List<Carbs>, private val nsClien
             }
 
             // Fallback: check by timestamp (for manual carbs without pumpId)
-            val existing = database.carbsDao.findByTimestamp(carb.timestamp)
+            val existing = findByTimestamp(carb.timestamp)
             if (existing != null && existing.interfaceIDs.nightscoutId == null) {
                 // the same record, update nsId only
                 existing.interfaceIDs.nightscoutId = carb.interfaceIDs.nightscoutId
                 existing.isValid = carb.isValid
-                database.carbsDao.updateExistingEntry(existing)
+                updateExistingEntry(existing)
                 result.updatedNsId.add(existing)
             } else {
-                database.carbsDao.insertNewEntry(carb)
+                insertNewEntry(carb)
                 result.inserted.add(carb)
             }
         }
+        chunk?.batch?.flush()
         return result
     }
 
+    private fun getByNSId(nsId: String): Carbs? =
+        chunk.let { if (it != null) it.byNsId[nsId] else database.carbsDao.getByNSId(nsId) }
+
+    private fun findByPumpIds(pumpId: Long, pumpType: InterfaceIDs.PumpType, pumpSerial: String): Carbs? =
+        chunk.let { if (it != null) it.byPumpIds[Triple(pumpId, pumpType, pumpSerial)] else database.carbsDao.findByPumpIds(pumpId, pumpType, pumpSerial) }
+
+    private fun findByTimestamp(timestamp: Long): Carbs? =
+        chunk.let { if (it != null) it.byTimestamp[timestamp] else database.carbsDao.findByTimestamp(timestamp) }
+
+    private fun insertNewEntry(carb: Carbs) {
+        chunk.let { if (it != null) it.batch.insertNewEntry(carb) else database.carbsDao.insertNewEntry(carb) }
+    }
+
+    private fun updateExistingEntry(carb: Carbs) {
+        chunk.let { if (it != null) it.batch.updateExistingEntry(carb) else database.carbsDao.updateExistingEntry(carb) }
+    }
+
+    /**
+     * Existing carbs matching nsIds, pumpIds or timestamps of [carbs]
+     */
+    private inner class Chunk {
+
+        val batch = TraceableBatch(database.carbsDao, database.changes) { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) }
+        val byNsId = batch.index { it.interfaceIDs.nightscoutId }
+        val byPumpIds = batch.index { it.interfaceIDs.run { if (pumpId != null && pumpType != null && pumpSerial != null) Triple(pumpId!!, pumpType!!, pumpSerial!!) else null } }
+        val byTimestamp = batch.index { it.timestamp }
+
+        init {
+            batch.load(
+                TraceableBatch.inChunks(carbs.mapNotNull { it.interfaceIDs.nightscoutId }) { database.carbsDao.getByNSIds(it) },
+                TraceableBatch.inChunks(carbs.mapNotNull { it.interfaceIDs.pumpId }) { database.carbsDao.findByPumpIds(it) },
+                TraceableBatch.inChunks(carbs.map { it.timestamp }) { database.carbsDao.findByTimestamps(it) }
+            )
+        }
+    }
+
     class TransactionResult {
 
         val updated = mutableListOf<Carbs>()
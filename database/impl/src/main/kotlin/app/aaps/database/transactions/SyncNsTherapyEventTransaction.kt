@@ -1,33 +1,39 @@
 package app.aaps.database.transactions
 
+import app.aaps.database.daos.TraceableBatch
 import app.aaps.database.entities.TherapyEvent
 
 /**
  * Sync the TherapyEvents from NS
+ *
+ * @param bulk prefetch existing records of whole list and write in batches (see [TraceableBatch])
  */
-class SyncNsTherapyEventTransaction(private val therapyEvents: List<TherapyEvent>, private val nsClientMode: Boolean) :
+class SyncNsTherapyEventTransaction(private val therapyEvents: List<TherapyEvent>, private val nsClientMode: Boolean, private val bulk: Boolean = false) :
     Transaction<SyncNsTherapyEventTransaction.TransactionResult>() {
 
+    private var chunk: Chunk? = null
+
     override fun run(): TransactionResult {
         val result = TransactionResult()
+        if (bulk) chunk = Chunk()
 
         for (therapyEvent in therapyEvents) {
             val current: TherapyEvent? =
                 therapyEvent.interfaceIDs.nightscoutId?.let {
-                    database.therapyEventDao.findByNSId(it)
+                    findByNSId(it)
                 }
 
             if (current != null) {
                 // nsId exists, allow only invalidation
                 if (current.isValid && !therapyEvent.isValid) {
                     current.isValid = false
-                    database.therapyEventDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.invalidated.add(current)
                 }
                 // Allow update duration to shorter only
                 if (current.duration != therapyEvent.duration && nsClientMode && therapyEvent.duration < current.duration) {
                     current.duration = therapyEvent.duration
-                    database.therapyEventDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.updatedDuration.add(current)
                 }
                 // allow SiteRotation Update
@@ -35,28 +41,60 @@ class SyncNsTherapyEventTransaction(private val therapyEvents: List<TherapyEvent
                     current.location = therapyEvent.location
                     current.arrow = therapyEvent.arrow
                     current.note = therapyEvent.note
-                    database.therapyEventDao.updateExistingEntry(current)
+                    updateExistingEntry(current)
                     result.updatedSite.add(current)
                 }
                 continue
             }
 
             // not known nsId
-            val existing = database.therapyEventDao.findByTimestamp(therapyEvent.type, therapyEvent.timestamp)
+            val existing = findByTimestamp(therapyEvent.type, therapyEvent.timestamp)
             if (existing != null && existing.interfaceIDs.nightscoutId == null) {
                 // the same record, update nsId only
                 existing.interfaceIDs.nightscoutId = therapyEvent.interfaceIDs.nightscoutId
                 existing.isValid = therapyEvent.isValid
-                database.therapyEventDao.updateExistingEntry(existing)
+                updateExistingEntry(existing)
                 result.updatedNsId.add(existing)
             } else {
-                database.therapyEventDao.insertNewEntry(therapyEvent)
+                insertNewEntry(therapyEvent)
                 result.inserted.add(therapyEvent)
             }
         }
+        chunk?.batch?.flush()
         return result
     }
 
+    private fun findByNSId(nsId: String): TherapyEvent? =
+        chunk.let { if (it != null) it.byNsId[nsId] else database.therapyEventDao.findByNSId(nsId) }
+
+    private fun findByTimestamp(type: TherapyEvent.Type, timestamp: Long): TherapyEvent? =
+        chunk.let { if (it != null) it.byTimestamp[Pair(type, timestamp)] else database.therapyEventDao.findByTimestamp(type, timestamp) }
+
+    private fun insertNewEntry(therapyEvent: TherapyEvent) {
+        chunk.let { if (it != null) it.batch.insertNewEntry(therapyEvent) else database.therapyEventDao.insertNewEntry(therapyEvent) }
+    }
+
+    private fun updateExistingEntry(therapyEvent: TherapyEvent) {
+        chunk.let { if (it != null) it.batch.updateExistingEntry(therapyEvent) else database.therapyEventDao.updateExistingEntry(therapyEvent) }
+    }
+
+    /**
+     * Existing therapy events matching nsIds or timestamps of [therapyEvents]
+     */
+    private inner class Chunk {
+
+        val batch = TraceableBatch(database.therapyEventDao, database.changes) { it.copy(interfaceIDs_backing = it.interfaceIDs_backing?.copy()) }
+        val byNsId = batch.index { it.interfaceIDs.nightscoutId }
+        val byTimestamp = batch.index { Pair(it.type, it.timestamp) }
+
+        init {
+            batch.load(
+                TraceableBatch.inChunks(therapyEvents.mapNotNull { it.interfaceIDs.nightscoutId }) { database.therapyEventDao.findByNSIds(it) },
+                TraceableBatch.inChunks(therapyEvents.map { it.timestamp }) { database.therapyEventDao.findByTimestamps(it) }
+            )
+        }
+    }
+
     class TransactionResult {
 
         val updatedNsId = mutableListOf<TherapyEvent>()
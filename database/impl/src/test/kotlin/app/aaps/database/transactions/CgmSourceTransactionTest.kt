@@ -7,10 +7,14 @@ import app.aaps.database.entities.GlucoseValue
 import app.aaps.database.entities.TherapyEvent
 import app.aaps.database.entities.data.GlucoseUnit
 import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.DBEntry
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.mockito.Mockito.never
 import org.mockito.Mockito.verify
+import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -191,6 +195,38 @@ class CgmSourceTransactionTest {
         assertThat(result.all()).hasSize(2)
     }
 
+    @Test
+    fun `bulk insert resolves chunk from prefetched values`() {
+        val existingChanged = createGlucoseValue(timestamp = 1000L, value = 120.0, nsId = "ns-1").also { it.id = 1 }
+        val existingWithoutNsId = createGlucoseValue(timestamp = 2000L, value = 125.0).also { it.id = 2 }
+        val changed = createGlucoseValue(timestamp = 1000L, value = 121.0)
+        val withNsId = createGlucoseValue(timestamp = 2000L, value = 125.0, nsId = "ns-2")
+        val new = createGlucoseValue(timestamp = 3000L, value = 130.0)
+        val changes = mutableListOf<DBEntry>()
+
+        whenever(database.changes).thenReturn(changes)
+        whenever(glucoseValueDao.findByTimestamps(any())).thenReturn(listOf(existingChanged, existingWithoutNsId))
+        whenever(glucoseValueDao.insertAll(any())).thenAnswer { invocation -> invocation.getArgument<List<GlucoseValue>>(0).indices.map { 10L + it } }
+
+        val transaction = CgmSourceTransaction(listOf(changed, withNsId, new), emptyList(), null, bulk = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.updated).containsExactly(changed)
+        assertThat(changed.id).isEqualTo(1L)
+        assertThat(changed.interfaceIDs.nightscoutId).isEqualTo("ns-1")
+        assertThat(result.updatedNsId).containsExactly(withNsId)
+        assertThat(result.inserted).containsExactly(new)
+        assertThat(new.id).isEqualTo(10L)
+        assertThat(changes).hasSize(3)
+
+        verify(glucoseValueDao, never()).findByTimestampAndSensor(any(), any())
+        val updates = argumentCaptor<List<GlucoseValue>>()
+        verify(glucoseValueDao).updateAll(updates.capture())
+        assertThat(updates.firstValue.map { it.value }).containsExactly(121.0, 125.0)
+        assertThat(updates.firstValue[1].interfaceIDs.nightscoutId).isEqualTo("ns-2")
+    }
+
     private fun createGlucoseValue(
         timestamp: Long,
         value: Double,
@@ -4,6 +4,7 @@ import app.aaps.database.DelegatedAppDatabase
 import app.aaps.database.daos.BolusDao
 import app.aaps.database.entities.Bolus
 import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.DBEntry
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
@@ -11,6 +12,7 @@ import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -409,6 +411,68 @@ class SyncNsBolusTransactionTest {
         verify(bolusDao).updateExistingEntry(existing)
     }
 
+    @Test
+    fun `bulk sync resolves chunk from prefetched rows and writes in batches`() {
+        val existingByNsId = createBolus(id = 1, nsId = "ns-1", amount = 5.0, timestamp = 1000L)
+        val existingByTimestamp = createBolus(id = 2, nsId = null, amount = 2.0, timestamp = 2000L)
+        val invalidated = createBolus(id = 0, nsId = "ns-1", amount = 5.0, timestamp = 1000L, isValid = false)
+        val updatedNsId = createBolus(id = 0, nsId = "ns-2", amount = 2.5, timestamp = 2000L)
+        val inserted = createBolus(id = 0, nsId = "ns-3", amount = 1.0, timestamp = 3000L)
+        val changes = mutableListOf<DBEntry>()
+
+        whenever(database.changes).thenReturn(changes)
+        whenever(bolusDao.getByNSIds(any())).thenReturn(listOf(existingByNsId))
+        whenever(bolusDao.findByTimestamps(any())).thenReturn(listOf(existingByTimestamp))
+        whenever(bolusDao.insertAll(any())).thenAnswer { invocation -> invocation.getArgument<List<Bolus>>(0).indices.map { 10L + it } }
+
+        val transaction = SyncNsBolusTransaction(listOf(invalidated, updatedNsId, inserted), bulk = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.invalidated.map { it.id }).containsExactly(1L)
+        assertThat(result.invalidated[0].isValid).isFalse()
+        assertThat(result.updatedNsId.map { it.id }).containsExactly(2L)
+        assertThat(result.updatedNsId[0].interfaceIDs.nightscoutId).isEqualTo("ns-2")
+        assertThat(result.updatedNsId[0].amount).isEqualTo(2.5)
+        assertThat(result.inserted).containsExactly(inserted)
+        assertThat(result.updated).isEmpty()
+        assertThat(changes).hasSize(3)
+
+        verify(bolusDao, never()).getByNSId(any())
+        verify(bolusDao, never()).findByTimestamp(any())
+        verify(bolusDao, never()).updateExistingEntry(any())
+        verify(bolusDao, never()).insertNewEntry(any())
+        val updates = argumentCaptor<List<Bolus>>()
+        verify(bolusDao).updateAll(updates.capture())
+        assertThat(updates.firstValue.map { it.id to it.version }).containsExactly(1L to 1, 2L to 1)
+        val inserts = argumentCaptor<List<Bolus>>()
+        verify(bolusDao, times(2)).insertAll(inserts.capture())
+        assertThat(inserts.firstValue).containsExactly(inserted)
+        // historic entries keep state before update
+        assertThat(inserts.secondValue.map { it.referenceId }).containsExactly(1L, 2L)
+        assertThat(inserts.secondValue.map { it.isValid }).containsExactly(true, true)
+        assertThat(inserts.secondValue[1].interfaceIDs.nightscoutId).isNull()
+    }
+
+    @Test
+    fun `bulk sync finds bolus inserted earlier in the same chunk`() {
+        val first = createBolus(id = 0, nsId = "ns-1", amount = 5.0, timestamp = 1000L)
+        val second = createBolus(id = 0, nsId = "ns-1", amount = 5.0, timestamp = 1000L, isValid = false)
+
+        whenever(database.changes).thenReturn(mutableListOf())
+        whenever(bolusDao.insertAll(any())).thenAnswer { invocation -> invocation.getArgument<List<Bolus>>(0).indices.map { 10L + it } }
+
+        val transaction = SyncNsBolusTransaction(listOf(first, second), bulk = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.inserted).containsExactly(first)
+        assertThat(first.id).isEqualTo(10L)
+        assertThat(first.isValid).isTrue()
+        assertThat(result.invalidated.map { it.id }).containsExactly(10L)
+        assertThat(result.invalidated[0].version).isEqualTo(1)
+    }
+
     private fun createBolus(
         id: Long,
         nsId: String?,
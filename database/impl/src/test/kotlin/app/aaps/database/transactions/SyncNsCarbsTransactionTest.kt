@@ -4,6 +4,7 @@ import app.aaps.database.DelegatedAppDatabase
 import app.aaps.database.daos.CarbsDao
 import app.aaps.database.entities.Carbs
 import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.DBEntry
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
@@ -11,6 +12,7 @@ import org.mockito.Mockito.never
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -434,6 +436,75 @@ class SyncNsCarbsTransactionTest {
         verify(carbsDao).updateExistingEntry(existing)
     }
 
+    @Test
+    fun `bulk sync resolves chunk from prefetched rows and writes in batches`() {
+        val pumpType = InterfaceIDs.PumpType.DANA_I
+        val existingByNsId = createCarbs(id = 1, nsId = "ns-1", amount = 50.0, timestamp = 1000L)
+        val existingByPumpId = createCarbs(id = 2, nsId = null, amount = 20.0, timestamp = 2000L, pumpId = 100L, pumpType = pumpType, pumpSerial = "SN1")
+        val existingByTimestamp = createCarbs(id = 3, nsId = null, amount = 30.0, timestamp = 3000L)
+        val invalidated = createCarbs(id = 0, nsId = "ns-1", amount = 50.0, timestamp = 1000L, isValid = false)
+        // pumpIds match takes precedence, timestamp differs
+        val updatedByPumpId = createCarbs(id = 0, nsId = "ns-2", amount = 20.0, timestamp = 2500L, pumpId = 100L, pumpType = pumpType, pumpSerial = "SN1")
+        val updatedByTimestamp = createCarbs(id = 0, nsId = "ns-3", amount = 30.0, timestamp = 3000L)
+        val inserted = createCarbs(id = 0, nsId = "ns-4", amount = 10.0, timestamp = 4000L)
+        val changes = mutableListOf<DBEntry>()
+
+        whenever(database.changes).thenReturn(changes)
+        whenever(carbsDao.getByNSIds(any())).thenReturn(listOf(existingByNsId))
+        whenever(carbsDao.findByPumpIds(any())).thenReturn(listOf(existingByPumpId))
+        whenever(carbsDao.findByTimestamps(any())).thenReturn(listOf(existingByTimestamp))
+        whenever(carbsDao.insertAll(any())).thenAnswer { invocation -> invocation.getArgument<List<Carbs>>(0).indices.map { 10L + it } }
+
+        val transaction = SyncNsCarbsTransaction(listOf(invalidated, updatedByPumpId, updatedByTimestamp, inserted), nsClientMode = false, bulk = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.invalidated.map { it.id }).containsExactly(1L)
+        assertThat(result.invalidated[0].isValid).isFalse()
+        assertThat(result.updatedNsId.map { it.id }).containsExactly(2L, 3L).inOrder()
+        assertThat(result.updatedNsId.map { it.interfaceIDs.nightscoutId }).containsExactly("ns-2", "ns-3").inOrder()
+        assertThat(result.inserted).containsExactly(inserted)
+        assertThat(result.updated).isEmpty()
+        assertThat(changes).hasSize(4)
+
+        verify(carbsDao, never()).getByNSId(any())
+        verify(carbsDao, never()).findByPumpIds(any(), any(), any())
+        verify(carbsDao, never()).findByTimestamp(any())
+        verify(carbsDao, never()).updateExistingEntry(any())
+        verify(carbsDao, never()).insertNewEntry(any())
+        val updates = argumentCaptor<List<Carbs>>()
+        verify(carbsDao).updateAll(updates.capture())
+        assertThat(updates.firstValue.map { it.id to it.version }).containsExactly(1L to 1, 2L to 1, 3L to 1)
+        val inserts = argumentCaptor<List<Carbs>>()
+        verify(carbsDao, times(2)).insertAll(inserts.capture())
+        assertThat(inserts.firstValue).containsExactly(inserted)
+        // historic entries keep state before update
+        assertThat(inserts.secondValue.map { it.referenceId }).containsExactly(1L, 2L, 3L)
+        assertThat(inserts.secondValue.map { it.isValid }).containsExactly(true, true, true)
+        assertThat(inserts.secondValue.map { it.interfaceIDs.nightscoutId }).containsExactly("ns-1", null, null)
+    }
+
+    @Test
+    fun `bulk sync finds carbs inserted earlier in the same chunk`() {
+        val first = createCarbs(id = 0, nsId = "ns-1", amount = 50.0, timestamp = 1000L, duration = 60_000L)
+        val second = createCarbs(id = 0, nsId = "ns-1", amount = 25.0, timestamp = 1000L, duration = 30_000L)
+
+        whenever(database.changes).thenReturn(mutableListOf())
+        whenever(carbsDao.insertAll(any())).thenAnswer { invocation -> invocation.getArgument<List<Carbs>>(0).indices.map { 10L + it } }
+
+        val transaction = SyncNsCarbsTransaction(listOf(first, second), nsClientMode = true, bulk = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.inserted).containsExactly(first)
+        assertThat(first.id).isEqualTo(10L)
+        assertThat(first.duration).isEqualTo(60_000L)
+        assertThat(result.updated.map { it.id }).containsExactly(10L)
+        assertThat(result.updated[0].duration).isEqualTo(30_000L)
+        assertThat(result.updated[0].amount).isEqualTo(25.0)
+        assertThat(result.updated[0].version).isEqualTo(1)
+    }
+
     private fun createCarbs(
         id: Long,
         nsId: String?,
@@ -5,12 +5,15 @@ import app.aaps.database.daos.TherapyEventDao
 import app.aaps.database.entities.TherapyEvent
 import app.aaps.database.entities.data.GlucoseUnit
 import app.aaps.database.entities.embedments.InterfaceIDs
+import app.aaps.database.entities.interfaces.DBEntry
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.Mockito.never
+import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.kotlin.any
+import org.mockito.kotlin.argumentCaptor
 import org.mockito.kotlin.mock
 import org.mockito.kotlin.whenever
 
@@ -219,15 +222,80 @@ class SyncNsTherapyEventTransactionTest {
         assertThat(existing.isValid).isFalse()
     }
 
+    @Test
+    fun `bulk sync resolves chunk from prefetched rows and writes in batches`() {
+        val existingByNsId = createTherapyEvent(id = 1, nsId = "ns-1", timestamp = 1000L)
+        val existingByTimestamp = createTherapyEvent(id = 2, nsId = null, timestamp = 2000L)
+        val existingOtherType = createTherapyEvent(id = 3, nsId = null, timestamp = 3000L, type = TherapyEvent.Type.SENSOR_CHANGE)
+        val invalidated = createTherapyEvent(id = 0, nsId = "ns-1", timestamp = 1000L, isValid = false)
+        val updatedNsId = createTherapyEvent(id = 0, nsId = "ns-2", timestamp = 2000L)
+        // the same timestamp but different type is a new record
+        val inserted = createTherapyEvent(id = 0, nsId = "ns-3", timestamp = 3000L)
+        val changes = mutableListOf<DBEntry>()
+
+        whenever(database.changes).thenReturn(changes)
+        whenever(therapyEventDao.findByNSIds(any())).thenReturn(listOf(existingByNsId))
+        whenever(therapyEventDao.findByTimestamps(any())).thenReturn(listOf(existingByTimestamp, existingOtherType))
+        whenever(therapyEventDao.insertAll(any())).thenAnswer { invocation -> invocation.getArgument<List<TherapyEvent>>(0).indices.map { 10L + it } }
+
+        val transaction = SyncNsTherapyEventTransaction(listOf(invalidated, updatedNsId, inserted), nsClientMode = false, bulk = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.invalidated.map { it.id }).containsExactly(1L)
+        assertThat(result.invalidated[0].isValid).isFalse()
+        assertThat(result.updatedNsId.map { it.id }).containsExactly(2L)
+        assertThat(result.updatedNsId[0].interfaceIDs.nightscoutId).isEqualTo("ns-2")
+        assertThat(result.inserted).containsExactly(inserted)
+        assertThat(result.updatedDuration).isEmpty()
+        assertThat(result.updatedSite).isEmpty()
+        assertThat(changes).hasSize(3)
+
+        verify(therapyEventDao, never()).findByNSId(any())
+        verify(therapyEventDao, never()).findByTimestamp(any(), any())
+        verify(therapyEventDao, never()).updateExistingEntry(any())
+        verify(therapyEventDao, never()).insertNewEntry(any())
+        val updates = argumentCaptor<List<TherapyEvent>>()
+        verify(therapyEventDao).updateAll(updates.capture())
+        assertThat(updates.firstValue.map { it.id to it.version }).containsExactly(1L to 1, 2L to 1)
+        val inserts = argumentCaptor<List<TherapyEvent>>()
+        verify(therapyEventDao, times(2)).insertAll(inserts.capture())
+        assertThat(inserts.firstValue).containsExactly(inserted)
+        // historic entries keep state before update
+        assertThat(inserts.secondValue.map { it.referenceId }).containsExactly(1L, 2L)
+        assertThat(inserts.secondValue.map { it.isValid }).containsExactly(true, true)
+        assertThat(inserts.secondValue[1].interfaceIDs.nightscoutId).isNull()
+    }
+
+    @Test
+    fun `bulk sync finds therapy event inserted earlier in the same chunk`() {
+        val first = createTherapyEvent(id = 0, nsId = "ns-1", timestamp = 1000L)
+        val second = createTherapyEvent(id = 0, nsId = "ns-1", timestamp = 1000L, isValid = false)
+
+        whenever(database.changes).thenReturn(mutableListOf())
+        whenever(therapyEventDao.insertAll(any())).thenAnswer { invocation -> invocation.getArgument<List<TherapyEvent>>(0).indices.map { 10L + it } }
+
+        val transaction = SyncNsTherapyEventTransaction(listOf(first, second), nsClientMode = false, bulk = true)
+        transaction.database = database
+        val result = transaction.run()
+
+        assertThat(result.inserted).containsExactly(first)
+        assertThat(first.id).isEqualTo(10L)
+        assertThat(first.isValid).isTrue()
+        assertThat(result.invalidated.map { it.id }).containsExactly(10L)
+        assertThat(result.invalidated[0].version).isEqualTo(1)
+    }
+
     private fun createTherapyEvent(
         id: Long,
         nsId: String?,
         timestamp: Long = System.currentTimeMillis(),
         isValid: Boolean = true,
-        duration: Long = 0L
+        duration: Long = 0L,
+        type: TherapyEvent.Type = TherapyEvent.Type.NOTE
     ): TherapyEvent = TherapyEvent(
         timestamp = timestamp,
-        type = TherapyEvent.Type.NOTE,
+        type = type,
         note = "Test",
         isValid = isValid,
         duration = duration,
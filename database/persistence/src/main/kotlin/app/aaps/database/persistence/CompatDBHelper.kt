@@ -17,6 +17,7 @@ import app.aaps.core.interfaces.rx.events.EventTempTargetChange
 import app.aaps.core.interfaces.rx.events.EventTherapyEventChange
 import app.aaps.core.interfaces.rx.events.EventTreatmentChange
 import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.database.AppRepository
 import app.aaps.database.entities.Bolus
 import app.aaps.database.entities.BolusCalculatorResult
@@ -65,37 +66,37 @@ class CompatDBHelper @Inject constructor(
             }
             it.filterIsInstance<GlucoseValue>().minOfOrNull { gv -> gv.timestamp }?.let { timestamp ->
                 aapsLogger.debug(LTag.DATABASE, "Firing EventNewHistoryData $timestamp $newestGlucoseValue")
-                rxBus.send(EventNewHistoryData(timestamp, true, newestGlucoseValue?.timestamp))
+                rxBus.send(EventNewHistoryData(timestamp, true, newestGlucoseValue?.timestamp, changes = setOf(CalculationWorkflow.Input.BG)))
             }
             it.filterIsInstance<Carbs>().minOfOrNull { t -> t.timestamp }?.let { timestamp ->
                 aapsLogger.debug(LTag.DATABASE, "Firing EventTreatmentChange $timestamp")
                 rxBus.send(EventTreatmentChange())
-                rxBus.send(EventNewHistoryData(timestamp, false))
+                rxBus.send(EventNewHistoryData(timestamp, false, changes = setOf(CalculationWorkflow.Input.TREATMENTS)))
             }
             it.filterIsInstance<Bolus>().minOfOrNull { t -> t.timestamp }?.let { timestamp ->
                 aapsLogger.debug(LTag.DATABASE, "Firing EventTreatmentChange $timestamp")
                 rxBus.send(EventTreatmentChange())
-                rxBus.send(EventNewHistoryData(timestamp, false))
+                rxBus.send(EventNewHistoryData(timestamp, false, changes = setOf(CalculationWorkflow.Input.TREATMENTS)))
             }
             it.filterIsInstance<BolusCalculatorResult>().minOfOrNull { t -> t.timestamp }?.let { timestamp ->
                 aapsLogger.debug(LTag.DATABASE, "Firing EventTreatmentChange $timestamp")
                 rxBus.send(EventTreatmentChange())
-                rxBus.send(EventNewHistoryData(timestamp, false))
+                rxBus.send(EventNewHistoryData(timestamp, false, changes = setOf(CalculationWorkflow.Input.TREATMENTS)))
             }
             it.filterIsInstance<TemporaryBasal>().minOfOrNull { t -> t.timestamp }?.let { timestamp ->
                 aapsLogger.debug(LTag.DATABASE, "Firing EventTempBasalChange $timestamp")
                 rxBus.send(EventTempBasalChange())
-                rxBus.send(EventNewHistoryData(timestamp, false))
+                rxBus.send(EventNewHistoryData(timestamp, false, changes = setOf(CalculationWorkflow.Input.BASAL)))
             }
             it.filterIsInstance<ExtendedBolus>().minOfOrNull { t -> t.timestamp }?.let { timestamp ->
                 aapsLogger.debug(LTag.DATABASE, "Firing EventExtendedBolusChange $timestamp")
                 rxBus.send(EventExtendedBolusChange())
-                rxBus.send(EventNewHistoryData(timestamp, false))
+                rxBus.send(EventNewHistoryData(timestamp, false, changes = setOf(CalculationWorkflow.Input.BASAL)))
             }
-            it.filterIsInstance<EffectiveProfileSwitch>().firstOrNull()?.let { eps ->
-                aapsLogger.debug(LTag.DATABASE, "Firing EventEffectiveProfileSwitchChanged $eps")
-                rxBus.send(EventEffectiveProfileSwitchChanged(eps.timestamp))
-                rxBus.send(EventNewHistoryData(eps.timestamp, false))
+            it.filterIsInstance<EffectiveProfileSwitch>().minOfOrNull { eps -> eps.timestamp }?.let { timestamp ->
+                aapsLogger.debug(LTag.DATABASE, "Firing EventEffectiveProfileSwitchChanged $timestamp")
+                rxBus.send(EventEffectiveProfileSwitchChanged(timestamp))
+                rxBus.send(EventNewHistoryData(timestamp, false, changes = setOf(CalculationWorkflow.Input.PROFILE)))
             }
             it.filterIsInstance<TemporaryTarget>().firstOrNull()?.let { tt ->
                 aapsLogger.debug(LTag.DATABASE, "Firing EventTempTargetChange $tt")
@@ -0,0 +1,97 @@
+package app.aaps.implementation.db
+
+import app.aaps.core.interfaces.db.BasalTimeline
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.objects.extensions.convertedToAbsolute
+import app.aaps.core.objects.extensions.nextBasalChange
+import app.aaps.core.objects.extensions.toTemporaryBasal
+import dagger.Reusable
+import javax.inject.Inject
+
+@Reusable
+class BasalTimelineImpl @Inject constructor(
+    private val persistenceLayer: PersistenceLayer,
+    private val activePlugin: ActivePlugin,
+    private val profileFunction: ProfileFunction
+) : BasalTimeline {
+
+    override fun getSegments(startTime: Long, endTime: Long): List<BasalTimeline.Segment> {
+        val segments = ArrayList<BasalTimeline.Segment>()
+        if (startTime >= endTime) return segments
+        val tbs = persistenceLayer.getTemporaryBasalsActiveBetweenTimeAndTime(startTime, endTime).sortedBy { it.timestamp }
+        val ebs =
+            if (activePlugin.activePump.isFakingTempsByExtendedBoluses)
+                (listOfNotNull(persistenceLayer.getExtendedBolusActiveAt(startTime)) +
+                    persistenceLayer.getExtendedBolusesStartingFromTimeToTime(startTime + 1, endTime, true))
+                    .filter { it.isValid }
+                    .sortedBy { it.timestamp }
+            else emptyList()
+        val profileSwitches = persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(startTime + 1, endTime, true).filter { it.isValid }
+
+        // every change of temporary basal, extended bolus and profile inside of range
+        val boundaries = ArrayList<Long>(2 * tbs.size + 2 * ebs.size + profileSwitches.size)
+        tbs.forEach { boundaries.add(it.timestamp); boundaries.add(it.timestamp + it.duration) }
+        ebs.forEach { boundaries.add(it.timestamp); boundaries.add(it.timestamp + it.duration) }
+        profileSwitches.forEach { boundaries.add(it.timestamp) }
+        val changes = boundaries.filter { it in (startTime + 1) until endTime }.distinct().sorted()
+
+        val runningTbs = Running(tbs, { it.timestamp }, { it.timestamp + it.duration })
+        val runningEbs = Running(ebs, { it.timestamp }, { it.timestamp + it.duration })
+        var time = startTime
+        var nextChange = 0
+        while (time < endTime) {
+            while (nextChange < changes.size && changes[nextChange] <= time) nextChange++
+            var end = if (nextChange < changes.size) changes[nextChange] else endTime
+            val profile = profileFunction.getProfile(time)
+            val tb = runningTbs.activeAt(time)
+            val eb = runningEbs.activeAt(time)
+            if (profile != null) {
+                end = minOf(end, profile.nextBasalChange(time))
+                val basal = profile.getBasal(time)
+                val temporaryBasal = tb ?: eb?.toTemporaryBasal(profile)
+                val tempBasalAbsolute = temporaryBasal?.convertedToAbsolute(time, profile) ?: basal
+                val last = segments.lastOrNull()
+                if (last != null && last.end == time && last.basal == basal && last.isTempBasalRunning == (temporaryBasal != null) && last.tempBasalAbsolute == tempBasalAbsolute)
+                    segments[segments.size - 1] = last.copy(end = end)
+                else
+                    segments.add(BasalTimeline.Segment(time, end, basal, temporaryBasal != null, tempBasalAbsolute))
+            }
+            time = end
+        }
+        return segments
+    }
+
+    /**
+     * Records sorted by start with running maximum of ends, so search for active record stops early
+     */
+    private class Running<T>(private val items: List<T>, start: (T) -> Long, end: (T) -> Long) {
+
+        private val starts = LongArray(items.size) { start(items[it]) }
+        private val ends = LongArray(items.size) { end(items[it]) }
+        private val maxEnds = LongArray(items.size)
+        private var started = 0
+
+        init {
+            var max = Long.MIN_VALUE
+            for (i in items.indices) {
+                max = maxOf(max, ends[i])
+                maxEnds[i] = max
+            }
+        }
+
+        /**
+         * Latest started record running at [time]. Time must not decrease between calls.
+         */
+        fun activeAt(time: Long): T? {
+            while (started < items.size && starts[started] <= time) started++
+            var i = started - 1
+            while (i >= 0 && maxEnds[i] > time) {
+                if (ends[i] > time) return items[i]
+                i--
+            }
+            return null
+        }
+    }
+}
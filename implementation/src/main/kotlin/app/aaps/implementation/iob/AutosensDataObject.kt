@@ -44,13 +44,6 @@ class AutosensDataObject @Inject constructor(
     override var type = ""
     override var uam = false
     override var extraDeviation: MutableList<Double> = ArrayList()
-    private fun fromCarbsInPast(other: AutosensData.CarbsInPast): AutosensData.CarbsInPast =
-        AutosensData.CarbsInPast(
-            time = other.time,
-            carbs = other.carbs,
-            min5minCarbImpact = other.min5minCarbImpact,
-            remaining = other.remaining
-        )
 
     override fun toString(): String {
         return String.format(
@@ -73,13 +66,8 @@ class AutosensDataObject @Inject constructor(
         )
     }
 
-    override fun cloneCarbsList(): MutableList<AutosensData.CarbsInPast> {
-        val newActiveCarbsList: MutableList<AutosensData.CarbsInPast> = ArrayList()
-        for (c in activeCarbsList) {
-            newActiveCarbsList.add(fromCarbsInPast(c))
-        }
-        return newActiveCarbsList
-    }
+    // entries are shared with previous data and replaced when modified
+    override fun cloneCarbsList(): MutableList<AutosensData.CarbsInPast> = ArrayList(activeCarbsList)
 
     // remove carbs older than timeframe
     override fun removeOldCarbs(toTime: Long, isAAPSOrWeighted: Boolean) {
@@ -105,7 +93,7 @@ class AutosensDataObject @Inject constructor(
             val c = activeCarbsList[i]
             if (c.remaining > 0) {
                 val sub = min(ac, c.remaining)
-                c.remaining -= sub
+                activeCarbsList[i] = c.copy(remaining = c.remaining - sub)
                 ac -= sub
             }
             i++
@@ -10,13 +10,13 @@ import app.aaps.core.data.ue.ValueWithUnit
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.nsclient.ProcessedDeviceStatusData
 import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileStore
 import app.aaps.core.interfaces.resources.ResourceHelper
-import app.aaps.core.interfaces.rx.AapsSchedulers
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventEffectiveProfileSwitchChanged
 import app.aaps.core.interfaces.utils.DateUtil
@@ -27,7 +27,6 @@ import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.profile.ProfileSealed
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.kotlin.plusAssign
-import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -42,23 +41,22 @@ class ProfileFunctionImpl @Inject constructor(
     private val dateUtil: DateUtil,
     private val config: Config,
     private val hardLimits: HardLimits,
-    aapsSchedulers: AapsSchedulers,
     private val fabricPrivacy: FabricPrivacy,
     private val processedDeviceStatusData: ProcessedDeviceStatusData
 ) : ProfileFunction {
 
     @VisibleForTesting
-    val cache = ConcurrentHashMap<Long, Profile?>()
+    val cache = ProfileTimeline(persistenceLayer, activePlugin)
 
     private val disposable = CompositeDisposable()
 
     init {
+        // No observeOn: timeline must be invalidated before anybody can see the event
         disposable += rxBus
             .toObservable(EventEffectiveProfileSwitchChanged::class.java)
-            .observeOn(aapsSchedulers.io)
             .subscribe(
                 {
-                    synchronized(cache) { cache.keys.removeIf { key -> key > it.startDate } }
+                    cache.invalidateFrom(it.startDate)
                 }, fabricPrivacy::logException
             )
     }
@@ -91,25 +89,10 @@ class ProfileFunctionImpl @Inject constructor(
         getProfile(dateUtil.now())
 
     override fun getProfile(time: Long): Profile? {
-        val rounded = time - time % 1000
-        // Clear cache after longer use
-        synchronized(cache) {
-            if (cache.keys.size > 30000) {
-                cache.clear()
-                aapsLogger.debug("Profile cache cleared")
-            }
-            if (cache.containsKey(rounded)) {
-                return cache[rounded]
-            }
-        }
-        val ps = persistenceLayer.getEffectiveProfileSwitchActiveAt(time)
-        if (ps != null) {
-            val sealed = ProfileSealed.EPS(ps, activePlugin)
-            synchronized(cache) {
-                cache.put(rounded, sealed)
-            }
-            return sealed
-        }
+        val misses = cache.misses
+        val profile = cache.profileAt(time)
+        if (cache.misses != misses) aapsLogger.debug(LTag.PROFILE, "Profile timeline loaded at ${dateUtil.dateAndTimeString(time)} hits: ${cache.hits} misses: ${cache.misses}")
+        if (profile != null) return profile
         // In NSClient mode effective profile may not be received if older than 2 days
         // Try to get it from device status
         // Remove this code after switch to api v3
@@ -117,19 +100,10 @@ class ProfileFunctionImpl @Inject constructor(
         if (config.AAPSCLIENT) {
             processedDeviceStatusData.pumpData?.activeProfileName?.let { activeProfile ->
                 activePlugin.activeProfileSource.profile?.getSpecificProfile(activeProfile)?.let { ap ->
-                    val sealed = ProfileSealed.Pure(ap, activePlugin)
-                    synchronized(cache) {
-                        cache.put(rounded, sealed)
-                    }
-                    return sealed
+                    return ProfileSealed.Pure(ap, activePlugin)
                 }
-
             }
         }
-
-        synchronized(cache) {
-            cache.remove(rounded)
-        }
         return null
     }
 
@@ -0,0 +1,121 @@
+package app.aaps.implementation.profile
+
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.objects.profile.ProfileSealed
+
+/**
+ * In-memory timeline of EffectiveProfileSwitches.
+ *
+ * Every EPS is active from its timestamp to the timestamp of the next one.
+ * Loaded records cover continuous interval [coveredFrom, coveredTo) and the profile active at any time
+ * inside is resolved by binary search. Database is queried only for times outside of covered interval
+ * and only missing part is loaded, so every EPS is read once.
+ * Changes invalidate the timeline from changed timestamp.
+ */
+class ProfileTimeline(
+    private val persistenceLayer: PersistenceLayer,
+    private val activePlugin: ActivePlugin
+) {
+
+    private var starts = LongArray(0)
+    private var profiles = arrayOfNulls<Profile>(0)
+    private var coveredFrom = Long.MAX_VALUE
+    private var coveredTo = Long.MAX_VALUE
+
+    var hits = 0L
+        private set
+    var misses = 0L
+        private set
+
+    @Synchronized
+    fun clear() {
+        starts = LongArray(0)
+        profiles = arrayOfNulls(0)
+        coveredFrom = Long.MAX_VALUE
+        coveredTo = Long.MAX_VALUE
+    }
+
+    /**
+     * Forget everything active at [time] and later
+     */
+    @Synchronized
+    fun invalidateFrom(time: Long) {
+        // interval containing time ends at time now
+        val keep = lowerBound(time)
+        if (keep == 0) {
+            clear()
+            return
+        }
+        starts = starts.copyOf(keep)
+        profiles = profiles.copyOf(keep)
+        coveredTo = minOf(coveredTo, time)
+    }
+
+    /**
+     * @return profile active at [time] or null if there is no EffectiveProfileSwitch before
+     */
+    @Synchronized
+    fun profileAt(time: Long): Profile? {
+        if (time >= coveredFrom && time < coveredTo) hits++
+        else {
+            misses++
+            when {
+                starts.isEmpty()   -> load(time, Long.MAX_VALUE)
+                time < coveredFrom -> load(time, coveredFrom)
+                else               -> load(coveredTo, Long.MAX_VALUE)
+            }
+        }
+        return profiles[lowerBound(time + 1) - 1]
+    }
+
+    /**
+     * Load records active in [from, to) and merge them with already loaded ones
+     */
+    private fun load(from: Long, to: Long) {
+        val active = persistenceLayer.getEffectiveProfileSwitchActiveAt(from)
+        val following =
+            if (to == Long.MAX_VALUE) persistenceLayer.getEffectiveProfileSwitchesFromTime(from + 1, true).blockingGet()
+            else persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(from + 1, to - 1, true)
+        val first = active?.timestamp ?: Long.MIN_VALUE
+        val newStarts = ArrayList<Long>(starts.size + following.size + 1)
+        val newProfiles = ArrayList<Profile?>(starts.size + following.size + 1)
+        // older records when loading up to now
+        if (to == Long.MAX_VALUE)
+            for (i in 0 until lowerBound(first)) {
+                newStarts.add(starts[i])
+                newProfiles.add(profiles[i])
+            }
+        newStarts.add(first)
+        newProfiles.add(active?.let { ProfileSealed.EPS(it, activePlugin) })
+        for (eps in following)
+            if (eps.isValid && eps.timestamp > from) {
+                newStarts.add(eps.timestamp)
+                newProfiles.add(ProfileSealed.EPS(eps, activePlugin))
+            }
+        // newer records when loading to the past
+        if (to != Long.MAX_VALUE)
+            for (i in starts.indices) {
+                newStarts.add(starts[i])
+                newProfiles.add(profiles[i])
+            }
+        starts = newStarts.toLongArray()
+        profiles = newProfiles.toTypedArray()
+        coveredFrom = starts[0]
+        if (to == Long.MAX_VALUE) coveredTo = Long.MAX_VALUE
+    }
+
+    /**
+     * @return index of first start >= [time]
+     */
+    private fun lowerBound(time: Long): Int {
+        var low = 0
+        var high = starts.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (starts[mid] < time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
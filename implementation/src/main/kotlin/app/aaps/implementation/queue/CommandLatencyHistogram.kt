@@ -0,0 +1,59 @@
+package app.aaps.implementation.queue
+
+import app.aaps.core.interfaces.queue.Command.CommandType
+import java.util.EnumMap
+
+/**
+ * Time from adding command to the queue to end of its execution, per command type.
+ * Commands replaced in queue by newer command of the same type before reaching the pump are counted as coalesced.
+ */
+class CommandLatencyHistogram {
+
+    private class Histogram {
+
+        val counts = IntArray(BOUNDS.size + 1)
+        var count = 0
+        var total = 0L
+        var max = 0L
+    }
+
+    private val histograms = EnumMap<CommandType, Histogram>(CommandType::class.java)
+    private val coalesced = EnumMap<CommandType, Int>(CommandType::class.java)
+
+    @Synchronized
+    fun record(type: CommandType, latency: Long) {
+        val histogram = histograms.getOrPut(type) { Histogram() }
+        var bucket = 0
+        while (bucket < BOUNDS.size && latency > BOUNDS[bucket]) bucket++
+        histogram.counts[bucket]++
+        histogram.count++
+        histogram.total += latency
+        histogram.max = maxOf(histogram.max, latency)
+    }
+
+    @Synchronized
+    fun recordCoalesced(type: CommandType) {
+        coalesced[type] = (coalesced[type] ?: 0) + 1
+    }
+
+    /**
+     * @return count of commands in every bucket of [BOUNDS], last bucket is above last bound
+     */
+    @Synchronized
+    fun counts(type: CommandType): IntArray = histograms[type]?.counts?.copyOf() ?: IntArray(BOUNDS.size + 1)
+
+    @Synchronized
+    fun coalescedCount(type: CommandType): Int = coalesced[type] ?: 0
+
+    @Synchronized
+    fun summary(type: CommandType): String {
+        val histogram = histograms[type] ?: return "$type no data"
+        val buckets = BOUNDS.indices.joinToString(" ") { "<=${BOUNDS[it]}ms:${histogram.counts[it]}" } + " >${BOUNDS.last()}ms:${histogram.counts[BOUNDS.size]}"
+        return "$type n=${histogram.count} avg=${histogram.total / histogram.count}ms max=${histogram.max}ms coalesced=${coalesced[type] ?: 0} $buckets"
+    }
+
+    companion object {
+
+        val BOUNDS = longArrayOf(250, 500, 1000, 2000, 5000, 10000, 30000, 60000, 120000)
+    }
+}
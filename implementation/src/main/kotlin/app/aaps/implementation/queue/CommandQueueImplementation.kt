@@ -42,6 +42,7 @@ import app.aaps.core.interfaces.rx.events.EventDismissNotification
 import app.aaps.core.interfaces.rx.events.EventMobileToWear
 import app.aaps.core.interfaces.rx.events.EventNewNotification
 import app.aaps.core.interfaces.rx.events.EventProfileSwitchChanged
+import app.aaps.core.interfaces.rx.events.EventPumpStatusChanged
 import app.aaps.core.interfaces.rx.weardata.EventData
 import app.aaps.core.interfaces.ui.UiInteraction
 import app.aaps.core.interfaces.utils.DateUtil
@@ -75,6 +76,9 @@ import app.aaps.implementation.queue.commands.CommandUpdateTime
 import dagger.android.HasAndroidInjector
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.kotlin.plusAssign
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.withTimeoutOrNull
+import java.util.IdentityHashMap
 import java.util.LinkedList
 import java.util.concurrent.TimeUnit
 import javax.inject.Inject
@@ -112,7 +116,16 @@ class CommandQueueImplementation @Inject constructor(
 
     @Volatile var performing: Command? = null
 
+    // wakes up QueueWorker waiting for next step
+    private val changes = Channel<Unit>(Channel.CONFLATED)
+    private val enqueuedAt = IdentityHashMap<Command, Long>()
+    val latency = CommandLatencyHistogram()
+
     init {
+        disposable += rxBus
+            .toObservable(EventPumpStatusChanged::class.java)
+            .filter { it.status == EventPumpStatusChanged.Status.CONNECTED || it.status == EventPumpStatusChanged.Status.DISCONNECTED }
+            .subscribe({ changes.trySend(Unit) }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventProfileSwitchChanged::class.java)
             .observeOn(aapsSchedulers.io)
@@ -163,17 +176,26 @@ class CommandQueueImplementation @Inject constructor(
 
     override fun isRunning(type: CommandType): Boolean = performing?.commandType == type
 
+    /**
+     * Remove queued commands superseded by new command, so they never reach the pump
+     */
     @Synchronized
     private fun removeAll(type: CommandType) {
         synchronized(queue) {
             for (i in queue.indices.reversed()) {
                 if (queue[i].commandType == type) {
-                    queue.removeAt(i)
+                    coalesce(queue.removeAt(i))
                 }
             }
         }
     }
 
+    private fun coalesce(command: Command) {
+        aapsLogger.debug(LTag.PUMPQUEUE, "Superseded: " + command.javaClass.simpleName + " - " + command.log())
+        enqueuedAt.remove(command)
+        latency.recordCoalesced(command.commandType)
+    }
+
     /**
      * Watchdog. I observed issue where work stuck in RUNNING state but nothing actually happens
      * (last work completed successfully).
@@ -207,7 +229,11 @@ class CommandQueueImplementation @Inject constructor(
     @Synchronized
     private fun add(command: Command) {
         aapsLogger.debug(LTag.PUMPQUEUE, "Adding: " + command.javaClass.simpleName + " - " + command.log())
-        synchronized(queue) { queue.add(command) }
+        synchronized(queue) {
+            queue.add(command)
+            enqueuedAt[command] = System.currentTimeMillis()
+        }
+        changes.trySend(Unit)
     }
 
     @Synchronized
@@ -224,7 +250,9 @@ class CommandQueueImplementation @Inject constructor(
 
             }
             queue.clear()
+            enqueuedAt.clear()
         }
+        changes.trySend(Unit)
     }
 
     override fun size(): Int = queue.size
@@ -232,9 +260,19 @@ class CommandQueueImplementation @Inject constructor(
     override fun performing(): Command? = performing
 
     override fun resetPerforming() {
+        performing?.let { command ->
+            synchronized(queue) { enqueuedAt.remove(command) }?.let { time ->
+                latency.record(command.commandType, System.currentTimeMillis() - time)
+                aapsLogger.debug(LTag.PUMPQUEUE, "Latency " + latency.summary(command.commandType))
+            }
+        }
         performing = null
     }
 
+    override suspend fun waitForChange(timeoutMillis: Long) {
+        withTimeoutOrNull(timeoutMillis) { changes.receive() }
+    }
+
     private fun workIsRunning(): Boolean {
         for (workInfo in workManager.getWorkInfosForUniqueWork(jobName.name).get())
             if (workInfo.state == WorkInfo.State.BLOCKED || workInfo.state == WorkInfo.State.ENQUEUED || workInfo.state == WorkInfo.State.RUNNING)
@@ -646,8 +684,8 @@ class CommandQueueImplementation @Inject constructor(
         synchronized(queue) {
             for (i in queue.indices.reversed()) {
                 val command = queue[i]
-                if (command is CustomCommand && targetType.isInstance(command.commandType)) {
-                    queue.removeAt(i)
+                if (command is CommandCustomCommand && targetType.isInstance(command.customCommand)) {
+                    coalesce(queue.removeAt(i))
                 }
             }
         }
@@ -3,7 +3,6 @@ package app.aaps.implementation.queue
 import android.bluetooth.BluetoothManager
 import android.content.Context
 import android.os.PowerManager
-import android.os.SystemClock
 import androidx.work.WorkerParameters
 import app.aaps.core.data.configuration.Constants
 import app.aaps.core.data.time.T
@@ -27,6 +26,7 @@ import app.aaps.core.ui.toast.ToastUtils
 import app.aaps.core.utils.extensions.safeDisable
 import app.aaps.core.utils.extensions.safeEnable
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
 import javax.inject.Inject
 
 class QueueWorker internal constructor(
@@ -64,7 +64,7 @@ class QueueWorker internal constructor(
                         ToastUtils.errorToast(context, R.string.need_connect_permission)
                         aapsLogger.debug(LTag.PUMPQUEUE, "no permission")
                         rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING))
-                        SystemClock.sleep(5000)
+                        queue.waitForChange(5000)
                         continue
                     }
                 if (!pump.isConnected() && secondsElapsed > Constants.PUMP_MAX_CONNECTION_TIME_IN_SECONDS) {
@@ -83,7 +83,7 @@ class QueueWorker internal constructor(
                         preferences.put(LongNonKey.BtWatchdogLastBark, System.currentTimeMillis())
                         //toggle BT
                         pump.disconnect("watchdog")
-                        SystemClock.sleep(1000)
+                        delay(1000)
                         (context.getSystemService(Context.BLUETOOTH_SERVICE) as BluetoothManager?)?.adapter?.let { bluetoothAdapter ->
                             bluetoothAdapter.safeDisable(1000)
                             bluetoothAdapter.safeEnable(1000)
@@ -106,26 +106,26 @@ class QueueWorker internal constructor(
                 if (pump.isHandshakeInProgress()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "handshaking $secondsElapsed")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.HANDSHAKING, secondsElapsed.toInt()))
-                    SystemClock.sleep(100)
+                    queue.waitForChange(100)
                     continue
                 }
                 if (pump.isConnecting()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "connecting $secondsElapsed")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, secondsElapsed.toInt()))
-                    SystemClock.sleep(1000)
+                    queue.waitForChange(1000)
                     continue
                 }
                 if (!pump.isConnected()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "connect")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, secondsElapsed.toInt()))
                     pump.connect("Connection needed")
-                    SystemClock.sleep(1000)
+                    queue.waitForChange(1000)
                     continue
                 }
                 if (pump.isBusy()) {
                     aapsLogger.debug(LTag.PUMPQUEUE, "busy")
                     rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.CONNECTING, secondsElapsed.toInt()))
-                    SystemClock.sleep(1000)
+                    queue.waitForChange(1000)
                     continue
                 }
                 if (queue.performing() == null) {
@@ -144,7 +144,7 @@ class QueueWorker internal constructor(
                             queue.resetPerforming()
                             rxBus.send(EventQueueChanged())
                             lastCommandTime = System.currentTimeMillis()
-                            SystemClock.sleep(100)
+                            delay(100)
                             true
                         } == true
                         if (cont) {
@@ -153,8 +153,8 @@ class QueueWorker internal constructor(
                     }
                 }
                 if (queue.size() == 0 && queue.performing() == null) {
-                    val secondsFromLastCommand = (System.currentTimeMillis() - lastCommandTime) / 1000
-                    if (secondsFromLastCommand >= pump.waitForDisconnectionInSeconds()) {
+                    val msFromLastCommand = System.currentTimeMillis() - lastCommandTime
+                    if (msFromLastCommand >= pump.waitForDisconnectionInSeconds() * 1000L) {
                         queue.waitingForDisconnect = true
                         aapsLogger.debug(LTag.PUMPQUEUE, "queue empty. disconnect")
                         rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.DISCONNECTING))
@@ -165,7 +165,8 @@ class QueueWorker internal constructor(
                     } else {
                         rxBus.send(EventPumpStatusChanged(EventPumpStatusChanged.Status.WAITING_FOR_DISCONNECTION))
                         aapsLogger.debug(LTag.PUMPQUEUE, "waiting for disconnect")
-                        SystemClock.sleep(1000)
+                        // new command or timeout
+                        queue.waitForChange(pump.waitForDisconnectionInSeconds() * 1000L - msFromLastCommand)
                     }
                 }
             }
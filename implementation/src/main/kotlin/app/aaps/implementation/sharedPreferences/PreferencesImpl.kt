@@ -5,6 +5,8 @@ import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventPreferenceChange
 import app.aaps.core.interfaces.sharedPreferences.SP
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.utils.HardLimits
@@ -38,12 +40,16 @@ import app.aaps.core.keys.interfaces.LongPreferenceKey
 import app.aaps.core.keys.interfaces.NonPreferenceKey
 import app.aaps.core.keys.interfaces.PreferenceKey
 import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.core.keys.interfaces.PreferencesSnapshot
 import app.aaps.core.keys.interfaces.StringComposedNonPreferenceKey
 import app.aaps.core.keys.interfaces.StringNonPreferenceKey
 import app.aaps.core.keys.interfaces.StringPreferenceKey
 import app.aaps.core.keys.interfaces.UnitDoublePreferenceKey
 import dagger.Lazy
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.kotlin.plusAssign
 import java.util.Locale
+import java.util.concurrent.atomic.AtomicLong
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.max
@@ -57,7 +63,8 @@ class PreferencesImpl @Inject constructor(
     private val hardLimits: Lazy<HardLimits>,
     private val persistenceLayer: PersistenceLayer,
     private val config: Config,
-    private val dateUtil: DateUtil
+    private val dateUtil: DateUtil,
+    rxBus: RxBus
 ) : Preferences {
 
     override val simpleMode: Boolean get() = sp.getBoolean(BooleanKey.GeneralSimpleMode.key, BooleanKey.GeneralSimpleMode.defaultValue)
@@ -82,6 +89,25 @@ class PreferencesImpl @Inject constructor(
             UnitDoubleKey::class.java,
         )
 
+    // registered keys by name, first registered wins like in search of prefsList
+    @Volatile private var keysByName: Map<String, NonPreferenceKey>? = null
+
+    // incremented on every change of preference values, snapshot of older generation is rebuilt
+    private val generation = AtomicLong()
+    @Volatile private var lastSnapshot: PreferencesSnapshotImpl? = null
+    private val disposable = CompositeDisposable()
+
+    init {
+        // Preference screens write to SharedPreferences directly and announce it
+        disposable += rxBus
+            .toObservable(EventPreferenceChange::class.java)
+            .subscribe { generation.incrementAndGet() }
+    }
+
+    private fun invalidateSnapshot(key: NonPreferenceKey) {
+        if (key is PreferenceKey) generation.incrementAndGet()
+    }
+
     private fun isHidden(key: PreferenceKey): Boolean =
         if (apsMode && key.showInApsMode == false) true
         else if (nsclientMode && key.showInNsClientMode == false) true
@@ -96,6 +122,7 @@ class PreferencesImpl @Inject constructor(
 
     override fun put(key: BooleanNonPreferenceKey, value: Boolean) {
         sp.putBoolean(key.key, value)
+        invalidateSnapshot(key)
     }
 
     override fun get(key: BooleanPreferenceKey): Boolean =
@@ -116,6 +143,7 @@ class PreferencesImpl @Inject constructor(
 
     override fun put(key: StringNonPreferenceKey, value: String) {
         sp.putString(key.key, value)
+        invalidateSnapshot(key)
     }
 
     override fun get(key: DoubleNonPreferenceKey): Double =
@@ -131,6 +159,7 @@ class PreferencesImpl @Inject constructor(
 
     override fun put(key: DoubleNonPreferenceKey, value: Double) {
         sp.putDouble(key.key, value)
+        invalidateSnapshot(key)
     }
 
     override fun get(key: DoubleComposedNonPreferenceKey, vararg arguments: Any): Double =
@@ -152,6 +181,7 @@ class PreferencesImpl @Inject constructor(
 
     override fun put(key: UnitDoublePreferenceKey, value: Double) {
         sp.putDouble(key.key, value)
+        invalidateSnapshot(key)
     }
 
     override fun get(key: IntNonPreferenceKey): Int =
@@ -162,10 +192,12 @@ class PreferencesImpl @Inject constructor(
 
     override fun put(key: IntNonPreferenceKey, value: Int) {
         sp.putInt(key.key, value)
+        invalidateSnapshot(key)
     }
 
     override fun inc(key: IntNonPreferenceKey) {
         sp.incInt(key.key)
+        invalidateSnapshot(key)
     }
 
     override fun get(key: IntPreferenceKey): Int =
@@ -186,6 +218,7 @@ class PreferencesImpl @Inject constructor(
 
     override fun inc(key: LongNonPreferenceKey) {
         sp.incLong(key.key)
+        invalidateSnapshot(key)
     }
 
     override fun getIfExists(key: LongNonPreferenceKey): Long? =
@@ -193,6 +226,7 @@ class PreferencesImpl @Inject constructor(
 
     override fun put(key: LongNonPreferenceKey, value: Long) {
         sp.putLong(key.key, value)
+        invalidateSnapshot(key)
     }
 
     override fun get(key: LongPreferenceKey): Long =
@@ -203,6 +237,7 @@ class PreferencesImpl @Inject constructor(
 
     override fun remove(key: NonPreferenceKey) {
         sp.remove(key.key)
+        invalidateSnapshot(key)
     }
 
     override fun get(key: LongComposedNonPreferenceKey, vararg arguments: Any): Long =
@@ -222,15 +257,17 @@ class PreferencesImpl @Inject constructor(
     override fun isUnitDependent(key: String): Boolean =
         UnitDoubleKey.entries.any { it.key == key }
 
-    override fun get(key: String): NonPreferenceKey? =
-        prefsList
-            .flatMap { it.enumConstants!!.asIterable() }
-            .find { it.key == key }
+    override fun get(key: String): NonPreferenceKey? = keysByName()[key]
 
-    override fun getIfExists(key: String): NonPreferenceKey? =
-        prefsList
-            .flatMap { it.enumConstants!!.asIterable() }
-            .find { it.key == key }
+    override fun getIfExists(key: String): NonPreferenceKey? = keysByName()[key]
+
+    private fun registeredKeys(): List<NonPreferenceKey> = prefsList.flatMap { it.enumConstants!!.asIterable() }
+
+    private fun keysByName(): Map<String, NonPreferenceKey> =
+        keysByName ?: HashMap<String, NonPreferenceKey>().also { map ->
+            registeredKeys().forEach { map.putIfAbsent(it.key, it) }
+            keysByName = map
+        }
 
     override fun getDependingOn(key: String): List<PreferenceKey> =
         mutableListOf<PreferenceKey>().also { list ->
@@ -268,7 +305,11 @@ class PreferencesImpl @Inject constructor(
     }
 
     override fun registerPreferences(clazz: Class<out NonPreferenceKey>) {
-        if (clazz !in prefsList) prefsList.add(clazz)
+        if (clazz !in prefsList) {
+            prefsList.add(clazz)
+            keysByName = null
+            generation.incrementAndGet()
+        }
     }
 
     override fun allMatchingStrings(key: ComposedKey): List<String> =
@@ -288,8 +329,7 @@ class PreferencesImpl @Inject constructor(
         }
 
     override fun isExportableKey(key: String): Boolean {
-        prefsList
-            .flatMap { it.enumConstants!!.asIterable() }
+        registeredKeys()
             .forEach {
                 if (it.key == key && it.exportable) return true
                 if (it is ComposedKey && key.startsWith(it.key) && it.exportable) return true
@@ -297,6 +337,12 @@ class PreferencesImpl @Inject constructor(
         return false
     }
 
+    override fun snapshot(): PreferencesSnapshot {
+        val current = generation.get()
+        lastSnapshot?.let { if (it.generation == current) return it }
+        return PreferencesSnapshotImpl(this, registeredKeys(), current).also { lastSnapshot = it }
+    }
+
     private fun calculatedDefaultValue(key: IntPreferenceKey): Int =
         if (key.calculatedDefaultValue)
             when (key) {
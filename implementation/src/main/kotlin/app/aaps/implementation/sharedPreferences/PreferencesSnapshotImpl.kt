@@ -0,0 +1,55 @@
+package app.aaps.implementation.sharedPreferences
+
+import app.aaps.core.keys.interfaces.BooleanPreferenceKey
+import app.aaps.core.keys.interfaces.DoublePreferenceKey
+import app.aaps.core.keys.interfaces.IntPreferenceKey
+import app.aaps.core.keys.interfaces.LongPreferenceKey
+import app.aaps.core.keys.interfaces.NonPreferenceKey
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.core.keys.interfaces.PreferencesSnapshot
+import app.aaps.core.keys.interfaces.StringPreferenceKey
+import app.aaps.core.keys.interfaces.UnitDoublePreferenceKey
+
+/**
+ * [PreferencesSnapshot] of [PreferencesImpl].
+ *
+ * Values of [keys] are resolved on creation. Exceptions resolved by [preferences] on every lookup:
+ * - [DoublePreferenceKey.calculatedBySM] keys in SimpleMode, they depend on profile and bolus history
+ * - keys registered after creation
+ *
+ * @param generation change counter of [PreferencesImpl] the snapshot is valid for
+ */
+internal class PreferencesSnapshotImpl(
+    private val preferences: Preferences,
+    keys: List<NonPreferenceKey>,
+    val generation: Long
+) : PreferencesSnapshot {
+
+    private val booleans = HashMap<BooleanPreferenceKey, Boolean>()
+    private val strings = HashMap<StringPreferenceKey, String>()
+    private val doubles = HashMap<DoublePreferenceKey, Double>()
+    private val unitDoubles = HashMap<UnitDoublePreferenceKey, Double>()
+    private val ints = HashMap<IntPreferenceKey, Int>()
+    private val longs = HashMap<LongPreferenceKey, Long>()
+
+    init {
+        val simpleMode = preferences.simpleMode
+        for (key in keys) {
+            when (key) {
+                is BooleanPreferenceKey    -> booleans[key] = preferences.get(key)
+                is StringPreferenceKey     -> strings[key] = preferences.get(key)
+                is DoublePreferenceKey     -> if (!simpleMode || !key.calculatedBySM) doubles[key] = preferences.get(key)
+                is UnitDoublePreferenceKey -> unitDoubles[key] = preferences.get(key)
+                is IntPreferenceKey        -> ints[key] = preferences.get(key)
+                is LongPreferenceKey       -> longs[key] = preferences.get(key)
+            }
+        }
+    }
+
+    override fun get(key: BooleanPreferenceKey): Boolean = booleans[key] ?: preferences.get(key)
+    override fun get(key: StringPreferenceKey): String = strings[key] ?: preferences.get(key)
+    override fun get(key: DoublePreferenceKey): Double = doubles[key] ?: preferences.get(key)
+    override fun get(key: UnitDoublePreferenceKey): Double = unitDoubles[key] ?: preferences.get(key)
+    override fun get(key: IntPreferenceKey): Int = ints[key] ?: preferences.get(key)
+    override fun get(key: LongPreferenceKey): Long = longs[key] ?: preferences.get(key)
+}
@@ -7,6 +7,7 @@ import android.view.ViewGroup
 import android.widget.TableLayout
 import android.widget.TableRow
 import android.widget.TextView
+import androidx.annotation.VisibleForTesting
 import androidx.collection.LongSparseArray
 import app.aaps.core.data.aps.AverageTDD
 import app.aaps.core.data.model.BS
@@ -36,7 +37,8 @@ class TddCalculatorImpl @Inject constructor(
     private val profileFunction: ProfileFunction,
     private val dateUtil: DateUtil,
     private val iobCobCalculator: IobCobCalculator,
-    private val persistenceLayer: PersistenceLayer
+    private val persistenceLayer: PersistenceLayer,
+    private val tddLedger: TddLedger
 ) : TddCalculator {
 
     override fun calculate(days: Long, allowMissingDays: Boolean): LongSparseArray<TDD>? =
@@ -100,7 +102,15 @@ class TddCalculatorImpl @Inject constructor(
         return calculateInterval(startTime, endTime, allowMissingData = false)
     }
 
-    override fun calculateInterval(startTime: Long, endTime: Long, allowMissingData: Boolean): TDD? {
+    override fun calculateInterval(startTime: Long, endTime: Long, allowMissingData: Boolean): TDD? =
+        if (tddLedger.fits(startTime, endTime)) tddLedger.calculateInterval(startTime, endTime, allowMissingData)
+        else calculateIntervalBySteps(startTime, endTime, allowMissingData)
+
+    /**
+     * Walk interval in 5 min steps. Used for intervals longer than [TddLedger.CAPACITY]
+     */
+    @VisibleForTesting
+    fun calculateIntervalBySteps(startTime: Long, endTime: Long, allowMissingData: Boolean): TDD? {
         val startTimeAligned = startTime - startTime % (5 * 60 * 1000)
         val endTimeAligned = endTime - endTime % (5 * 60 * 1000)
         val tdd = TDD(timestamp = startTimeAligned)
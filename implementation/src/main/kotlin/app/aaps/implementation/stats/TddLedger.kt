@@ -0,0 +1,184 @@
+package app.aaps.implementation.stats
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.TDD
+import app.aaps.core.interfaces.db.BasalTimeline
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.rx.AapsSchedulers
+import app.aaps.core.interfaces.rx.bus.RxBus
+import app.aaps.core.interfaces.rx.events.EventEffectiveProfileSwitchChanged
+import app.aaps.core.interfaces.rx.events.EventNewHistoryData
+import app.aaps.core.interfaces.utils.fabric.FabricPrivacy
+import io.reactivex.rxjava3.disposables.CompositeDisposable
+import io.reactivex.rxjava3.kotlin.plusAssign
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Delivered insulin and carbs in 5 min slots.
+ *
+ * Running totals of last [CAPACITY] slots are kept in ring buffers so sum of any window inside is O(1).
+ * Slots are calculated the same way as [TddCalculatorImpl] always did (profile, basal and extended bolus at slot start,
+ * boluses and carbs inside of slot), only once. Basal of whole calculated range is read from [BasalTimeline].
+ * Database changes invalidate slots from changed timestamp and invalidated part is recalculated on next request.
+ */
+@Singleton
+class TddLedger @Inject constructor(
+    private val aapsLogger: AAPSLogger,
+    rxBus: RxBus,
+    aapsSchedulers: AapsSchedulers,
+    fabricPrivacy: FabricPrivacy,
+    private val activePlugin: ActivePlugin,
+    private val basalTimeline: BasalTimeline,
+    private val persistenceLayer: PersistenceLayer
+) {
+
+    // running totals at slot boundaries, value for boundary b is stored at b % (CAPACITY + 1)
+    private val basal = DoubleArray(CAPACITY + 1)
+    private val extended = DoubleArray(CAPACITY + 1)
+    private val bolus = DoubleArray(CAPACITY + 1)
+    private val carbs = DoubleArray(CAPACITY + 1)
+    private val missingProfile = IntArray(CAPACITY + 1)
+    private val tempBasal = IntArray(CAPACITY + 1)
+
+    // calculated slots [firstSlot, endSlot)
+    private var firstSlot = 0L
+    private var endSlot = 0L
+    private var fakingTemps = false
+
+    private val disposable = CompositeDisposable()
+
+    init {
+        disposable += rxBus
+            .toObservable(EventNewHistoryData::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe({ invalidateFrom(it.oldDataTimestamp) }, fabricPrivacy::logException)
+        disposable += rxBus
+            .toObservable(EventEffectiveProfileSwitchChanged::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe({ invalidateFrom(it.startDate) }, fabricPrivacy::logException)
+    }
+
+    /**
+     * Forget slots starting at [time] and later
+     */
+    @Synchronized
+    fun invalidateFrom(time: Long) {
+        endSlot = maxOf(firstSlot, minOf(endSlot, time / SLOT))
+    }
+
+    /**
+     * @return true if interval is short enough to be served from ledger
+     */
+    fun fits(startTime: Long, endTime: Long): Boolean = endTime / SLOT - startTime / SLOT <= CAPACITY
+
+    /**
+     * Same result as step by step calculation in [TddCalculatorImpl.calculateInterval]
+     * Interval must [fits]
+     */
+    @Synchronized
+    fun calculateInterval(startTime: Long, endTime: Long, allowMissingData: Boolean): TDD? {
+        val fromSlot = startTime / SLOT
+        val toSlot = endTime / SLOT
+        val faking = activePlugin.activePump.isFakingTempsByExtendedBoluses
+        if (faking != fakingTemps || fromSlot < firstSlot || fromSlot > endSlot) {
+            fakingTemps = faking
+            reset(fromSlot)
+        }
+        if (toSlot > endSlot) append(toSlot)
+
+        if (!allowMissingData && sum(missingProfile, fromSlot, toSlot) > 0) return null
+        val tdd = TDD(timestamp = fromSlot * SLOT)
+        tdd.basalAmount = sum(basal, fromSlot, toSlot)
+        tdd.bolusAmount = sum(extended, fromSlot, toSlot)
+        // whole slots from ledger, partial ones from database
+        val innerFrom = (startTime + SLOT - 1) / SLOT
+        if (innerFrom > toSlot) addFromDatabase(tdd, startTime, endTime)
+        else {
+            tdd.bolusAmount += sum(bolus, innerFrom, toSlot)
+            tdd.carbs += sum(carbs, innerFrom, toSlot)
+            addFromDatabase(tdd, startTime, innerFrom * SLOT - 1)
+            addFromDatabase(tdd, toSlot * SLOT, endTime)
+        }
+        tdd.totalAmount = tdd.bolusAmount + tdd.basalAmount
+        if (tdd.bolusAmount > 0 || tdd.basalAmount > 0 || sum(tempBasal, fromSlot, toSlot) > 0) return tdd
+        return null
+    }
+
+    private fun reset(slot: Long) {
+        firstSlot = slot
+        endSlot = slot
+        val index = index(slot)
+        basal[index] = 0.0
+        extended[index] = 0.0
+        bolus[index] = 0.0
+        carbs[index] = 0.0
+        missingProfile[index] = 0
+        tempBasal[index] = 0
+    }
+
+    /**
+     * Calculate slots [endSlot, toSlot)
+     */
+    private fun append(toSlot: Long) {
+        aapsLogger.debug(LTag.APS, "TddLedger calculating ${toSlot - endSlot} slots")
+        val boluses = persistenceLayer.getBolusesFromTimeToTime(endSlot * SLOT, toSlot * SLOT - 1, true).filter { it.type != BS.Type.PRIMING }
+        val carbsList = persistenceLayer.getCarbsFromTimeToTimeExpanded(endSlot * SLOT, toSlot * SLOT - 1, true)
+        val segments = basalTimeline.getSegments(endSlot * SLOT, toSlot * SLOT)
+        var bolusIndex = 0
+        var carbsIndex = 0
+        var segmentIndex = 0
+        while (endSlot < toSlot) {
+            val time = endSlot * SLOT
+            var slotBolus = 0.0
+            while (bolusIndex < boluses.size && boluses[bolusIndex].timestamp < time + SLOT) slotBolus += boluses[bolusIndex++].amount
+            var slotCarbs = 0.0
+            while (carbsIndex < carbsList.size && carbsList[carbsIndex].timestamp < time + SLOT) slotCarbs += carbsList[carbsIndex++].amount
+            var slotBasal = 0.0
+            var slotExtended = 0.0
+            var slotTempBasal = 0
+            while (segmentIndex < segments.size && segments[segmentIndex].end <= time) segmentIndex++
+            // no segment means no profile
+            val segment = segments.getOrNull(segmentIndex)?.takeIf { it.start <= time }
+            if (segment != null) {
+                if (segment.isTempBasalRunning) slotTempBasal = 1
+                slotBasal = segment.tempBasalAbsolute / 60.0 * 5.0
+                if (!fakingTemps) slotExtended = (persistenceLayer.getExtendedBolusActiveAt(time)?.rate ?: 0.0) / 60.0 * 5.0
+            }
+            val previous = index(endSlot)
+            val next = index(endSlot + 1)
+            basal[next] = basal[previous] + slotBasal
+            extended[next] = extended[previous] + slotExtended
+            bolus[next] = bolus[previous] + slotBolus
+            carbs[next] = carbs[previous] + slotCarbs
+            missingProfile[next] = missingProfile[previous] + if (segment == null) 1 else 0
+            tempBasal[next] = tempBasal[previous] + slotTempBasal
+            endSlot++
+            if (endSlot - firstSlot > CAPACITY) firstSlot++
+        }
+    }
+
+    private fun addFromDatabase(tdd: TDD, from: Long, to: Long) {
+        if (from > to) return
+        persistenceLayer.getBolusesFromTimeToTime(from, to, true)
+            .filter { it.type != BS.Type.PRIMING }
+            .forEach { tdd.bolusAmount += it.amount }
+        persistenceLayer.getCarbsFromTimeToTimeExpanded(from, to, true)
+            .forEach { tdd.carbs += it.amount }
+    }
+
+    private fun index(boundary: Long): Int = (boundary % (CAPACITY + 1)).toInt()
+    private fun sum(totals: DoubleArray, from: Long, to: Long): Double = totals[index(to)] - totals[index(from)]
+    private fun sum(totals: IntArray, from: Long, to: Long): Int = totals[index(to)] - totals[index(from)]
+
+    companion object {
+
+        private const val SLOT = 5 * 60 * 1000L
+
+        // 7 days for average TDD + yesterday and today
+        const val CAPACITY = 9 * 24 * 12
+    }
+}
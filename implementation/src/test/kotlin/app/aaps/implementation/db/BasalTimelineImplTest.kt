@@ -0,0 +1,109 @@
+package app.aaps.implementation.db
+
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.BasalTimeline
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.pump.Pump
+import app.aaps.core.objects.extensions.convertedToAbsolute
+import app.aaps.core.objects.extensions.toTemporaryBasal
+import app.aaps.core.utils.MidnightUtils
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.whenever
+
+class BasalTimelineImplTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var profile: Profile
+    @Mock lateinit var pump: Pump
+
+    private lateinit var sut: BasalTimelineImpl
+
+    private val start = 1_700_000_000_000L
+    private val profileStart = start + T.mins(95).msecs() + 123
+    private val tbs = mutableListOf<TB>()
+    private val ebs = mutableListOf<EB>()
+
+    @BeforeEach
+    fun setup() {
+        tbs.clear()
+        ebs.clear()
+        tbs.add(TB(timestamp = start + T.mins(30).msecs(), type = TB.Type.NORMAL, isAbsolute = true, rate = 2.0, duration = T.mins(90).msecs()))
+        tbs.add(TB(timestamp = start + T.mins(150).msecs() + 17, type = TB.Type.NORMAL, isAbsolute = false, rate = 150.0, duration = T.mins(120).msecs()))
+        // overlapping, latest started wins
+        tbs.add(TB(timestamp = start + T.mins(200).msecs(), type = TB.Type.NORMAL, isAbsolute = true, rate = 0.0, duration = T.mins(30).msecs()))
+        tbs.add(TB(timestamp = start + T.mins(400).msecs(), type = TB.Type.NORMAL, isAbsolute = true, rate = 1.0, duration = T.mins(30).msecs()))
+        ebs.add(EB(timestamp = start + T.mins(300).msecs(), duration = T.mins(200).msecs(), amount = 2.0))
+        whenever(activePlugin.activePump).thenReturn(pump)
+        whenever(profile.getBasal(any<Long>())).thenAnswer { invocation -> 0.5 + MidnightUtils.secondsFromMidnight(invocation.getArgument(0)) / 3600 * 0.1 }
+        whenever(profileFunction.getProfile(any<Long>())).thenAnswer { invocation -> if (invocation.getArgument<Long>(0) >= profileStart) profile else null }
+        whenever(persistenceLayer.getTemporaryBasalsActiveBetweenTimeAndTime(any(), any())).thenAnswer { invocation ->
+            tbs.filter { it.timestamp <= invocation.getArgument<Long>(1) && it.timestamp + it.duration > invocation.getArgument<Long>(0) }.sortedByDescending { it.timestamp }
+        }
+        whenever(persistenceLayer.getExtendedBolusActiveAt(any())).thenAnswer { invocation -> activeAt(ebs, invocation.getArgument(0)) }
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            ebs.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+        // profile is known from first EffectiveProfileSwitch
+        whenever(persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            listOf(effectiveProfileSwitch.copy(timestamp = profileStart)).filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+        sut = BasalTimelineImpl(persistenceLayer, activePlugin, profileFunction)
+    }
+
+    private fun activeAt(ebs: List<EB>, time: Long): EB? = ebs.filter { it.timestamp <= time && it.timestamp + it.duration > time }.maxByOrNull { it.timestamp }
+
+    // the way IobCobCalculator.getBasalData evaluates single time
+    private fun expectedAt(time: Long, faking: Boolean): BasalTimeline.Segment? {
+        val profile = profileFunction.getProfile(time) ?: return null
+        val tb = tbs.filter { it.timestamp <= time && it.timestamp + it.duration > time }.maxByOrNull { it.timestamp }
+            ?: if (faking) activeAt(ebs, time)?.toTemporaryBasal(profile) else null
+        val basal = profile.getBasal(time)
+        return BasalTimeline.Segment(time, time, basal, tb != null, tb?.convertedToAbsolute(time, profile) ?: basal)
+    }
+
+    private fun assertMatchesPointEvaluation(faking: Boolean) {
+        whenever(pump.isFakingTempsByExtendedBoluses).thenReturn(faking)
+        val from = start + 7
+        val to = start + T.hours(10).msecs()
+        val segments = sut.getSegments(from, to)
+
+        assertThat(segments.first().start).isEqualTo(profileStart)
+        assertThat(segments.last().end).isEqualTo(to)
+        for (i in 1 until segments.size) {
+            assertThat(segments[i].start).isEqualTo(segments[i - 1].end)
+            // merged segments
+            assertThat(segments[i].copy(start = 0, end = 0)).isNotEqualTo(segments[i - 1].copy(start = 0, end = 0))
+        }
+        var index = 0
+        for (time in from until to step 20_000) {
+            while (index < segments.size && segments[index].end <= time) index++
+            val segment = segments.getOrNull(index)?.takeIf { it.start <= time }
+            val expected = expectedAt(time, faking)
+            if (expected == null) assertThat(segment).isNull()
+            else assertThat(segment?.copy(start = time, end = time)).isEqualTo(expected)
+        }
+    }
+
+    @Test
+    fun segmentsMatchPointEvaluationTest() {
+        assertMatchesPointEvaluation(faking = false)
+    }
+
+    @Test
+    fun segmentsMatchPointEvaluationWithFakedExtendedBolusesTest() {
+        assertMatchesPointEvaluation(faking = true)
+    }
+
+    @Test
+    fun emptyRangeTest() {
+        assertThat(sut.getSegments(start, start)).isEmpty()
+    }
+}
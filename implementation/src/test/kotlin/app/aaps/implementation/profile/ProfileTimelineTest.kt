@@ -0,0 +1,93 @@
+package app.aaps.implementation.profile
+
+import app.aaps.core.data.model.EPS
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.objects.profile.ProfileSealed
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.rxjava3.core.Single
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class ProfileTimelineTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var sut: ProfileTimeline
+    private val switches = mutableListOf<EPS>()
+
+    private fun eps(hours: Long) = effectiveProfileSwitch.copy(timestamp = now + T.hours(hours).msecs())
+    private fun profileTimestamp(time: Long) = (sut.profileAt(time) as ProfileSealed.EPS?)?.value?.timestamp
+
+    @BeforeEach
+    fun setup() {
+        switches.clear()
+        switches.addAll(listOf(eps(-48), eps(-24), eps(-10), eps(-1)))
+        whenever(persistenceLayer.getEffectiveProfileSwitchActiveAt(any())).thenAnswer { invocation ->
+            switches.lastOrNull { it.timestamp <= invocation.getArgument<Long>(0) }
+        }
+        whenever(persistenceLayer.getEffectiveProfileSwitchesFromTime(any(), any())).thenAnswer { invocation ->
+            Single.just(switches.filter { it.timestamp >= invocation.getArgument<Long>(0) })
+        }
+        whenever(persistenceLayer.getEffectiveProfileSwitchesFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            switches.filter { it.timestamp >= invocation.getArgument<Long>(0) && it.timestamp <= invocation.getArgument<Long>(1) }
+        }
+        sut = ProfileTimeline(persistenceLayer, activePlugin)
+    }
+
+    @Test
+    fun resolvesActiveSwitchTest() {
+        assertThat(profileTimestamp(now)).isEqualTo(now - T.hours(1).msecs())
+        assertThat(profileTimestamp(now - T.hours(1).msecs())).isEqualTo(now - T.hours(1).msecs())
+        assertThat(profileTimestamp(now - T.hours(1).msecs() - 1)).isEqualTo(now - T.hours(10).msecs())
+        // older data are loaded once
+        assertThat(profileTimestamp(now - T.hours(30).msecs())).isEqualTo(now - T.hours(48).msecs())
+        assertThat(profileTimestamp(now - T.hours(20).msecs())).isEqualTo(now - T.hours(24).msecs())
+        assertThat(profileTimestamp(now - T.hours(47).msecs())).isEqualTo(now - T.hours(48).msecs())
+        // nothing before first switch
+        assertThat(sut.profileAt(now - T.hours(50).msecs())).isNull()
+        assertThat(sut.profileAt(now - T.hours(60).msecs())).isNull()
+        assertThat(sut.misses).isEqualTo(4)
+        assertThat(sut.hits).isEqualTo(4)
+    }
+
+    @Test
+    fun replayTouchesDatabaseOncePerSwitchTest() {
+        var time = now - T.hours(72).msecs()
+        while (time < now) {
+            sut.profileAt(time)
+            time += T.mins(5).msecs()
+        }
+        verify(persistenceLayer, times(1)).getEffectiveProfileSwitchActiveAt(any())
+        verify(persistenceLayer, times(1)).getEffectiveProfileSwitchesFromTime(any(), any())
+        assertThat(sut.misses).isEqualTo(1)
+    }
+
+    @Test
+    fun invalidationTest() {
+        assertThat(profileTimestamp(now - T.hours(30).msecs())).isEqualTo(now - T.hours(48).msecs())
+        // new switch in the middle
+        switches.add(2, eps(-12))
+        sut.invalidateFrom(now - T.hours(12).msecs())
+        // older part is kept
+        assertThat(profileTimestamp(now - T.hours(13).msecs())).isEqualTo(now - T.hours(24).msecs())
+        assertThat(sut.misses).isEqualTo(1)
+        assertThat(profileTimestamp(now - T.hours(11).msecs())).isEqualTo(now - T.hours(12).msecs())
+        assertThat(profileTimestamp(now)).isEqualTo(now - T.hours(1).msecs())
+        assertThat(sut.misses).isEqualTo(2)
+        // switch removed
+        switches.removeAt(switches.size - 1)
+        sut.invalidateFrom(now - T.hours(1).msecs())
+        assertThat(profileTimestamp(now)).isEqualTo(now - T.hours(10).msecs())
+        // everything removed
+        switches.clear()
+        sut.invalidateFrom(0)
+        assertThat(sut.profileAt(now)).isNull()
+    }
+}
@@ -0,0 +1,28 @@
+package app.aaps.implementation.queue
+
+import app.aaps.core.interfaces.queue.Command
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class CommandLatencyHistogramTest {
+
+    @Test
+    fun recordTest() {
+        val sut = CommandLatencyHistogram()
+        sut.record(Command.CommandType.BOLUS, 100)
+        sut.record(Command.CommandType.BOLUS, 250)
+        sut.record(Command.CommandType.BOLUS, 1500)
+        sut.record(Command.CommandType.BOLUS, 500_000)
+        sut.recordCoalesced(Command.CommandType.BOLUS)
+
+        val counts = sut.counts(Command.CommandType.BOLUS)
+        assertThat(counts[0]).isEqualTo(2)
+        assertThat(counts[3]).isEqualTo(1)
+        assertThat(counts[CommandLatencyHistogram.BOUNDS.size]).isEqualTo(1)
+        assertThat(counts.sum()).isEqualTo(4)
+        assertThat(sut.coalescedCount(Command.CommandType.BOLUS)).isEqualTo(1)
+        assertThat(sut.summary(Command.CommandType.BOLUS)).startsWith("BOLUS n=4 avg=125462ms max=500000ms coalesced=1")
+        assertThat(sut.counts(Command.CommandType.TEMPBASAL).sum()).isEqualTo(0)
+        assertThat(sut.summary(Command.CommandType.TEMPBASAL)).isEqualTo("TEMPBASAL no data")
+    }
+}
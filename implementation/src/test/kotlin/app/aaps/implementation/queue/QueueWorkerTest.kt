@@ -10,8 +10,10 @@ import app.aaps.core.interfaces.androidPermissions.AndroidPermission
 import app.aaps.core.interfaces.constraints.ConstraintsChecker
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.pump.PumpSync
+import app.aaps.core.interfaces.queue.Command
 import app.aaps.core.interfaces.ui.UiInteraction
 import app.aaps.core.objects.constraints.ConstraintObject
+import app.aaps.implementation.queue.commands.CommandCancelTempBasal
 import app.aaps.implementation.queue.commands.CommandTempBasalAbsolute
 import app.aaps.shared.tests.TestBaseWithProfile
 import com.google.common.truth.Truth.assertThat
@@ -42,6 +44,11 @@ class QueueWorkerTest : TestBaseWithProfile() {
                 it.activePlugin = activePlugin
                 it.rh = rh
             }
+            if (it is CommandCancelTempBasal) {
+                it.aapsLogger = aapsLogger
+                it.activePlugin = activePlugin
+                it.rh = rh
+            }
             if (it is QueueWorker) {
                 it.aapsLogger = aapsLogger
                 it.queue = commandQueue
@@ -95,4 +102,17 @@ class QueueWorkerTest : TestBaseWithProfile() {
         assertIs<ListenableWorker.Result.Success>(result)
         assertThat(commandQueue.size()).isEqualTo(0)
     }
+
+    @Test
+    fun supersededCommandIsCoalesced() = runTest(timeout = 30.seconds) {
+        commandQueue.tempBasalAbsolute(2.0, 60, true, validProfile, PumpSync.TemporaryBasalType.NORMAL, null)
+        commandQueue.cancelTempBasal(enforceNew = true, callback = null)
+        assertThat(commandQueue.size()).isEqualTo(1)
+        val result = sut.doWorkAndLog()
+        assertIs<ListenableWorker.Result.Success>(result)
+        assertThat(commandQueue.size()).isEqualTo(0)
+        // only cancel reached the pump
+        assertThat(commandQueue.latency.coalescedCount(Command.CommandType.TEMPBASAL)).isEqualTo(1)
+        assertThat(commandQueue.latency.counts(Command.CommandType.TEMPBASAL).sum()).isEqualTo(1)
+    }
 }
@@ -0,0 +1,80 @@
+package app.aaps.implementation.sharedPreferences
+
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.rx.events.EventPreferenceChange
+import app.aaps.core.keys.BooleanKey
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.IntKey
+import app.aaps.core.keys.LongNonKey
+import app.aaps.shared.impl.sharedPreferences.SPImpl
+import app.aaps.shared.tests.SharedPreferencesMock
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import dagger.Lazy
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+
+class PreferencesImplTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private lateinit var sharedPrefs: SharedPreferencesMock
+    private lateinit var sut: PreferencesImpl
+
+    @BeforeEach
+    fun setup() {
+        sharedPrefs = SharedPreferencesMock()
+        sut = PreferencesImpl(SPImpl(sharedPrefs, context), Lazy { profileUtil }, Lazy { profileFunction }, Lazy { hardLimits }, persistenceLayer, config, dateUtil, rxBus)
+        // values of FullMode
+        sut.put(BooleanKey.GeneralSimpleMode, false)
+    }
+
+    @Test
+    fun snapshotResolvesValuesLikeGet() {
+        sut.put(DoubleKey.ApsAmaBolusSnoozeDivisor, 3.0)
+        // preference screens store numbers as strings
+        sharedPrefs.edit().putString(DoubleKey.ApsSmbMin5MinCarbsImpact.key, "10").commit()
+
+        val snapshot = sut.snapshot()
+
+        assertThat(snapshot.get(DoubleKey.ApsAmaBolusSnoozeDivisor)).isEqualTo(3.0)
+        assertThat(snapshot.get(DoubleKey.ApsSmbMin5MinCarbsImpact)).isEqualTo(10.0)
+        assertThat(snapshot.get(IntKey.AutosensPeriod)).isEqualTo(sut.get(IntKey.AutosensPeriod))
+        assertThat(snapshot.get(BooleanKey.GeneralSimpleMode)).isEqualTo(sut.get(BooleanKey.GeneralSimpleMode))
+    }
+
+    @Test
+    fun snapshotIsReusedUntilPreferenceChanges() {
+        val snapshot = sut.snapshot()
+        assertThat(sut.snapshot()).isSameInstanceAs(snapshot)
+
+        // not part of snapshot
+        sut.put(LongNonKey.LocalProfileLastChange, 1L)
+        assertThat(sut.snapshot()).isSameInstanceAs(snapshot)
+
+        sut.put(DoubleKey.ApsAmaBolusSnoozeDivisor, 4.0)
+        val changed = sut.snapshot()
+        assertThat(changed).isNotSameInstanceAs(snapshot)
+        assertThat(changed.get(DoubleKey.ApsAmaBolusSnoozeDivisor)).isEqualTo(4.0)
+        // captured snapshot is immutable
+        assertThat(snapshot.get(DoubleKey.ApsAmaBolusSnoozeDivisor)).isEqualTo(DoubleKey.ApsAmaBolusSnoozeDivisor.defaultValue)
+    }
+
+    @Test
+    fun snapshotIsRebuiltOnEventPreferenceChange() {
+        val snapshot = sut.snapshot()
+        // written by preference screen directly
+        sharedPrefs.edit().putString(DoubleKey.ApsSmbMin5MinCarbsImpact.key, "12").commit()
+        assertThat(sut.snapshot().get(DoubleKey.ApsSmbMin5MinCarbsImpact)).isEqualTo(snapshot.get(DoubleKey.ApsSmbMin5MinCarbsImpact))
+
+        rxBus.send(EventPreferenceChange(DoubleKey.ApsSmbMin5MinCarbsImpact.key))
+        assertThat(sut.snapshot().get(DoubleKey.ApsSmbMin5MinCarbsImpact)).isEqualTo(12.0)
+    }
+
+    @Test
+    fun findKeyByName() {
+        assertThat(sut.get(DoubleKey.ApsAmaBolusSnoozeDivisor.key)).isEqualTo(DoubleKey.ApsAmaBolusSnoozeDivisor)
+        assertThat(sut.getIfExists("nonexistent_key")).isNull()
+    }
+}
@@ -26,6 +26,7 @@ class TddCalculatorImplTest : TestBase() {
     @Mock lateinit var dateUtil: DateUtil
     @Mock lateinit var iobCobCalculator: IobCobCalculator
     @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var tddLedger: TddLedger
 
     private lateinit var tddCalculator: TddCalculatorImpl
 
@@ -34,7 +35,7 @@ class TddCalculatorImplTest : TestBase() {
 
     @BeforeEach
     fun setup() {
-        tddCalculator = TddCalculatorImpl(aapsLogger, rh, activePlugin, profileFunction, dateUtil, iobCobCalculator, persistenceLayer)
+        tddCalculator = TddCalculatorImpl(aapsLogger, rh, activePlugin, profileFunction, dateUtil, iobCobCalculator, persistenceLayer, tddLedger)
         whenever(dateUtil.now()).thenReturn(now)
     }
 
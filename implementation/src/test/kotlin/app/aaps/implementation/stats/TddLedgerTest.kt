@@ -0,0 +1,137 @@
+package app.aaps.implementation.stats
+
+import app.aaps.core.data.aps.BasalData
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TDD
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.BasalTimeline
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.rx.events.EventNewHistoryData
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.clearInvocations
+import org.mockito.kotlin.times
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class TddLedgerTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var basalTimeline: BasalTimeline
+
+    private lateinit var sut: TddLedger
+    private lateinit var tddCalculator: TddCalculatorImpl
+
+    private val start = 1_700_000_000_000L - 1_700_000_000_000L % T.mins(5).msecs()
+    private val profileStart = start + T.hours(2).msecs()
+    private val boluses = mutableListOf<BS>()
+    private val carbs = mutableListOf<CA>()
+    private val extendedBoluses = mutableListOf<EB>()
+
+    @BeforeEach
+    fun setup() {
+        boluses.clear()
+        carbs.clear()
+        extendedBoluses.clear()
+        for (i in 0 until 200) {
+            val time = start + i * T.mins(47).msecs() + i * 1013
+            boluses.add(BS(timestamp = time, amount = 0.1 * (i % 7 + 1), type = if (i % 13 == 0) BS.Type.PRIMING else BS.Type.NORMAL))
+            if (i % 5 == 0) carbs.add(CA(timestamp = time + 17, amount = 5.0 + i % 3, duration = 0))
+        }
+        extendedBoluses.add(EB(timestamp = start + T.hours(30).msecs() + 1234, duration = T.hours(2).msecs(), amount = 1.5))
+        whenever(profileFunction.getProfile(any<Long>())).thenAnswer { invocation ->
+            if (invocation.getArgument<Long>(0) >= profileStart) validProfile else null
+        }
+        whenever(iobCobCalculator.getBasalData(any(), any())).thenAnswer { invocation -> basalDataAt(invocation.getArgument(1)) }
+        whenever(basalTimeline.getSegments(any(), any())).thenAnswer { invocation ->
+            val segments = mutableListOf<BasalTimeline.Segment>()
+            for (time in maxOf(invocation.getArgument(0), profileStart) until invocation.getArgument<Long>(1) step T.mins(5).msecs()) {
+                val basalData = basalDataAt(time)
+                segments.add(BasalTimeline.Segment(time, time + T.mins(5).msecs(), basalData.basal, basalData.isTempBasalRunning, basalData.tempBasalAbsolute))
+            }
+            segments
+        }
+        whenever(persistenceLayer.getBolusesFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            boluses.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getCarbsFromTimeToTimeExpanded(any(), any(), any())).thenAnswer { invocation ->
+            carbs.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getExtendedBolusActiveAt(any())).thenAnswer { invocation ->
+            val time = invocation.getArgument<Long>(0)
+            extendedBoluses.firstOrNull { time >= it.timestamp && time < it.timestamp + it.duration }
+        }
+        sut = TddLedger(aapsLogger, rxBus, aapsSchedulers, fabricPrivacy, activePlugin, basalTimeline, persistenceLayer)
+        tddCalculator = TddCalculatorImpl(aapsLogger, rh, activePlugin, profileFunction, dateUtil, iobCobCalculator, persistenceLayer, sut)
+    }
+
+    private fun basalDataAt(time: Long) = BasalData().apply {
+        isTempBasalRunning = (time - start) / T.hours(1).msecs() % 3 == 0L
+        tempBasalAbsolute = if (isTempBasalRunning) (time - start) % T.hours(1).msecs() / 1_000_000.0 else 1.0
+    }
+
+    private fun assertSame(startTime: Long, endTime: Long, allowMissingData: Boolean) {
+        val expected = tddCalculator.calculateIntervalBySteps(startTime, endTime, allowMissingData)
+        val actual = sut.calculateInterval(startTime, endTime, allowMissingData)
+        if (expected == null) {
+            assertThat(actual).isNull()
+            return
+        }
+        assertThat(actual).isNotNull()
+        assertEquals(expected, actual!!)
+    }
+
+    private fun assertEquals(expected: TDD, actual: TDD) {
+        assertThat(actual.timestamp).isEqualTo(expected.timestamp)
+        assertThat(actual.basalAmount).isWithin(1e-9).of(expected.basalAmount)
+        assertThat(actual.bolusAmount).isWithin(1e-9).of(expected.bolusAmount)
+        assertThat(actual.totalAmount).isWithin(1e-9).of(expected.totalAmount)
+        assertThat(actual.carbs).isWithin(1e-9).of(expected.carbs)
+    }
+
+    @Test
+    fun sameAsStepByStepCalculationTest() {
+        val end = start + T.hours(72).msecs()
+        var from = start
+        while (from < end) {
+            for (length in listOf(1L, T.mins(3).msecs(), T.mins(5).msecs(), T.hours(4).msecs() + 7, T.hours(24).msecs()))
+                for (allowMissingData in listOf(true, false))
+                    assertSame(from, from + length, allowMissingData)
+            from += T.mins(37).msecs() + 11
+        }
+    }
+
+    @Test
+    fun slotsAreCalculatedOnceTest() {
+        sut.calculateInterval(profileStart, profileStart + T.hours(24).msecs(), allowMissingData = false)
+        verify(basalTimeline).getSegments(profileStart, profileStart + T.hours(24).msecs())
+        clearInvocations(basalTimeline)
+        // overlapping windows reuse calculated slots
+        sut.calculateInterval(profileStart + T.hours(4).msecs(), profileStart + T.hours(24).msecs(), allowMissingData = false)
+        sut.calculateInterval(profileStart + T.hours(8).msecs(), profileStart + T.hours(25).msecs(), allowMissingData = false)
+        verify(basalTimeline, times(1)).getSegments(any(), any())
+        verify(basalTimeline).getSegments(profileStart + T.hours(24).msecs(), profileStart + T.hours(25).msecs())
+    }
+
+    @Test
+    fun invalidatedSlotsAreRecalculatedTest() {
+        val from = profileStart
+        val to = profileStart + T.hours(24).msecs()
+        sut.calculateInterval(from, to, allowMissingData = false)
+        boluses.add(BS(timestamp = to - T.hours(1).msecs(), amount = 5.0, type = BS.Type.NORMAL))
+        extendedBoluses.add(EB(timestamp = to - T.hours(3).msecs(), duration = T.hours(1).msecs(), amount = 2.0))
+        clearInvocations(basalTimeline)
+        rxBus.send(EventNewHistoryData(to - T.hours(3).msecs(), false))
+
+        val actual = sut.calculateInterval(from, to, allowMissingData = false)
+        verify(basalTimeline, times(1)).getSegments(any(), any())
+        verify(basalTimeline).getSegments(to - T.hours(3).msecs(), to)
+        assertEquals(tddCalculator.calculateIntervalBySteps(from, to, allowMissingData = false)!!, actual!!)
+    }
+}
@@ -0,0 +1,43 @@
+plugins {
+    alias(libs.plugins.android.library)
+    id("kotlin-android")
+    id("kotlin-kapt")
+    id("android-module-dependencies")
+    id("test-module-dependencies")
+}
+
+android {
+    namespace = "app.aaps.microbenchmark"
+}
+
+dependencies {
+    testImplementation(project(":core:data"))
+    testImplementation(project(":core:interfaces"))
+    testImplementation(project(":core:keys"))
+    testImplementation(project(":core:objects"))
+    testImplementation(project(":core:utils"))
+    testImplementation(project(":implementation"))
+    testImplementation(project(":plugins:aps"))
+    testImplementation(project(":plugins:insulin"))
+    testImplementation(project(":plugins:main"))
+    testImplementation(project(":plugins:sensitivity"))
+    testImplementation(project(":plugins:smoothing"))
+    testImplementation(project(":pump:combov2:comboctl"))
+    testImplementation(project(":shared:impl"))
+    testImplementation(project(":shared:tests"))
+    testImplementation(project(":workflow"))
+
+    testImplementation(libs.org.openjdk.jmh.core)
+    kaptTest(libs.org.openjdk.jmh.generator.annprocess)
+}
+
+tasks.withType<Test>().configureEach {
+    // APS inputs recorded for ReplayApsResultsTest
+    systemProperty("apsResults", rootProject.file("app/src/androidTest/assets/results").absolutePath)
+    // ./gradlew :microbenchmark:testFullReleaseUnitTest -Pjmh[=regexp]
+    project.findProperty("jmh")?.let {
+        systemProperty("jmh", it)
+        maxParallelForks = 1
+        outputs.upToDateWhen { false }
+    }
+}
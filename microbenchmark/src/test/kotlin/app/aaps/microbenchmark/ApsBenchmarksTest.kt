@@ -0,0 +1,59 @@
+package app.aaps.microbenchmark
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.condition.DisabledIfSystemProperty
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.results.format.ResultFormatType
+import org.openjdk.jmh.runner.Runner
+import org.openjdk.jmh.runner.options.OptionsBuilder
+import java.io.File
+
+/**
+ * Entry point of JMH benchmarks.
+ *
+ * Normal unit test run executes every benchmark once to keep them working.
+ * Measurement runs only if "jmh" property is passed to gradle, optionally with regexp of benchmarks to run:
+ *
+ *     ./gradlew :microbenchmark:testFullReleaseUnitTest -Pjmh
+ *     ./gradlew :microbenchmark:testFullReleaseUnitTest -Pjmh=DetermineBasalBenchmark.smb
+ *
+ * Use release variant, debug unit tests are instrumented for coverage.
+ * Benchmarks run inside of test JVM (forks = 0) because gradle test worker doesn't expose test classpath to forked JVM.
+ * Results are written to build/reports/jmh/results.json to be compared between runs.
+ */
+class ApsBenchmarksTest {
+
+    private val benchmarks = "^" + Regex.escape(BenchmarkState::class.java.packageName) + "\\."
+
+    @Test
+    @DisabledIfSystemProperty(named = "jmh", matches = ".*")
+    fun smokeTest() {
+        val options = OptionsBuilder()
+            .include(benchmarks)
+            .forks(0)
+            .mode(Mode.SingleShotTime)
+            .warmupIterations(0)
+            .measurementIterations(1)
+            .shouldFailOnError(true)
+            .build()
+        val results = Runner(options).run()
+        assertThat(results).isNotEmpty()
+        results.forEach { assertThat(it.primaryResult.getScore()).isFinite() }
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "jmh", matches = ".*")
+    fun benchmark() {
+        val report = File("build/reports/jmh").apply { mkdirs() }
+        val options = OptionsBuilder()
+            .include(System.getProperty("jmh").orEmpty().ifEmpty { benchmarks })
+            .forks(0)
+            .shouldFailOnError(true)
+            .resultFormat(ResultFormatType.JSON)
+            .result(File(report, "results.json").path)
+            .build()
+        assertThat(Runner(options).run()).isNotEmpty()
+    }
+}
@@ -0,0 +1,46 @@
+package app.aaps.microbenchmark
+
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.implementation.sharedPreferences.PreferencesImpl
+import app.aaps.shared.impl.sharedPreferences.SPImpl
+import app.aaps.shared.tests.SharedPreferencesMock
+import app.aaps.shared.tests.TestBaseWithProfile
+import dagger.Lazy
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+
+/**
+ * Environment of [TestBaseWithProfile] (mocks, valid profile, dateUtil with fixed now) for JMH benchmarks.
+ * JMH doesn't run JUnit callbacks so they are called from trial [setup] and [tearDown].
+ */
+@State(Scope.Benchmark)
+abstract class BenchmarkState : TestBaseWithProfile() {
+
+    /**
+     * Build data and objects under test. Called once per trial after mocks are ready.
+     */
+    abstract fun prepare()
+
+    /**
+     * Real preferences over in-memory SharedPreferences to use instead of [preferences] mock in measured code
+     */
+    fun inMemoryPreferences(persistenceLayer: PersistenceLayer, profileFunction: ProfileFunction): PreferencesImpl =
+        PreferencesImpl(SPImpl(SharedPreferencesMock(), context), Lazy { profileUtil }, Lazy { profileFunction }, Lazy { hardLimits }, persistenceLayer, config, dateUtil, rxBus)
+
+    @Setup(Level.Trial)
+    fun setup() {
+        prepareMocking()
+        prepareMock()
+        prepare()
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        cleanupMock()
+        tearDownBase()
+    }
+}
@@ -0,0 +1,127 @@
+package app.aaps.microbenchmark
+
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.OapsProfileAutoIsf
+import app.aaps.microbenchmark.data.ApsInput
+import app.aaps.microbenchmark.data.RecordedApsInputs
+import app.aaps.microbenchmark.data.SyntheticDay
+import app.aaps.plugins.aps.openAPSAMA.DetermineBasalAMA
+import app.aaps.plugins.aps.openAPSAutoISF.DetermineBasalAutoISF
+import app.aaps.plugins.aps.openAPSSMB.DetermineBasalSMB
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * determine_basal of all algorithms. One operation is the whole dataset:
+ * synthetic = every 5 min loop run of 24h, recorded = all inputs recorded for the algorithm
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class DetermineBasalBenchmark : BenchmarkState() {
+
+    @Param("synthetic", "recorded")
+    lateinit var dataset: String
+
+    private lateinit var determineBasalSMB: DetermineBasalSMB
+    private lateinit var determineBasalAMA: DetermineBasalAMA
+    private lateinit var determineBasalAutoISF: DetermineBasalAutoISF
+    private lateinit var smbInputs: List<ApsInput<OapsProfile>>
+    private lateinit var dynIsfInputs: List<ApsInput<OapsProfile>>
+    private lateinit var amaInputs: List<ApsInput<OapsProfile>>
+    private lateinit var autoIsfInputs: List<ApsInput<OapsProfileAutoIsf>>
+
+    override fun prepare() {
+        determineBasalSMB = DetermineBasalSMB(profileUtil, fabricPrivacy)
+        determineBasalAMA = DetermineBasalAMA(profileUtil)
+        determineBasalAutoISF = DetermineBasalAutoISF(profileUtil)
+        if (dataset == "recorded") {
+            val recorded = RecordedApsInputs(dateUtil)
+            smbInputs = recorded.smb.filter { !it.dynIsfMode }
+            dynIsfInputs = recorded.smb.filter { it.dynIsfMode }
+            amaInputs = recorded.ama
+            autoIsfInputs = recorded.autoIsf
+        } else {
+            val day = SyntheticDay(now)
+            smbInputs = day.smbInputs(dynIsfMode = false)
+            dynIsfInputs = day.smbInputs(dynIsfMode = true)
+            amaInputs = day.amaInputs()
+            autoIsfInputs = day.autoIsfInputs()
+        }
+        check(smbInputs.isNotEmpty() && dynIsfInputs.isNotEmpty() && amaInputs.isNotEmpty() && autoIsfInputs.isNotEmpty()) { "Missing $dataset inputs" }
+    }
+
+    @Benchmark
+    fun smb(blackhole: Blackhole) = runSmb(smbInputs, blackhole)
+
+    @Benchmark
+    fun dynIsf(blackhole: Blackhole) = runSmb(dynIsfInputs, blackhole)
+
+    private fun runSmb(inputs: List<ApsInput<OapsProfile>>, blackhole: Blackhole) {
+        for (input in inputs)
+            blackhole.consume(
+                determineBasalSMB.determine_basal(
+                    glucose_status = input.glucoseStatus,
+                    currenttemp = input.currentTemp,
+                    iob_data_array = input.iobData,
+                    profile = input.profile,
+                    autosens_data = input.autosens,
+                    meal_data = input.meal,
+                    microBolusAllowed = input.microBolusAllowed,
+                    currentTime = input.currentTime,
+                    flatBGsDetected = input.flatBGsDetected,
+                    dynIsfMode = input.dynIsfMode
+                )
+            )
+    }
+
+    @Benchmark
+    fun ama(blackhole: Blackhole) {
+        for (input in amaInputs)
+            blackhole.consume(
+                determineBasalAMA.determine_basal(
+                    glucose_status = input.glucoseStatus,
+                    currenttemp = input.currentTemp,
+                    iob_data_array = input.iobData,
+                    profile = input.profile,
+                    autosens_data = input.autosens,
+                    meal_data = input.meal,
+                    currentTime = input.currentTime
+                )
+            )
+    }
+
+    @Benchmark
+    fun autoIsf(blackhole: Blackhole) {
+        for (input in autoIsfInputs)
+            blackhole.consume(
+                determineBasalAutoISF.determine_basal(
+                    glucose_status = input.glucoseStatus,
+                    currenttemp = input.currentTemp,
+                    iob_data_array = input.iobData,
+                    profile = input.profile,
+                    autosens_data = input.autosens,
+                    meal_data = input.meal,
+                    microBolusAllowed = input.microBolusAllowed,
+                    currentTime = input.currentTime,
+                    flatBGsDetected = input.flatBGsDetected,
+                    autoIsfMode = true,
+                    loop_wanted_smb = "AAPS",
+                    profile_percentage = input.profile.profile_percentage,
+                    smb_ratio = input.profile.smb_delivery_ratio,
+                    smb_max_range_extension = input.profile.smb_max_range_extension,
+                    iob_threshold_percent = input.profile.iob_threshold_percent,
+                    auto_isf_consoleError = mutableListOf(),
+                    auto_isf_consoleLog = mutableListOf()
+                )
+            )
+    }
+}
@@ -0,0 +1,66 @@
+package app.aaps.microbenchmark
+
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.microbenchmark.data.SyntheticDay
+import app.aaps.microbenchmark.fakes.FakeActivePlugin
+import app.aaps.microbenchmark.fakes.FakeProfileFunction
+import app.aaps.microbenchmark.fakes.InMemoryPersistenceLayer
+import app.aaps.plugins.insulin.InsulinOrefRapidActingPlugin
+import app.aaps.plugins.main.iob.iobCobCalculator.IobCobCalculatorPlugin
+import org.mockito.Mock
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Warmup
+import org.openjdk.jmh.infra.Blackhole
+import java.util.concurrent.TimeUnit
+
+/**
+ * IOB prediction for SMB and insulin curve on 24h of synthetic boluses, SMBs and temporary basals
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class IobBenchmark : BenchmarkState() {
+
+    @Mock lateinit var overviewData: OverviewData
+    @Mock lateinit var calculationWorkflow: CalculationWorkflow
+    @Mock lateinit var uiInteraction: UiInteraction
+
+    private lateinit var day: SyntheticDay
+    private lateinit var insulin: InsulinOrefRapidActingPlugin
+    private lateinit var iobCobCalculatorPlugin: IobCobCalculatorPlugin
+    private val autosensResult = AutosensResult()
+
+    override fun prepare() {
+        day = SyntheticDay(now)
+        val profileFunction = FakeProfileFunction(validProfile)
+        val persistenceLayer = InMemoryPersistenceLayer(boluses = day.boluses, temporaryBasals = day.temporaryBasals)
+        insulin = InsulinOrefRapidActingPlugin(rh, profileFunction, rxBus, aapsLogger, config, hardLimits, uiInteraction)
+        val fakeActivePlugin = FakeActivePlugin().apply {
+            activeInsulin = insulin
+            activePump = testPumpPlugin
+        }
+        iobCobCalculatorPlugin = IobCobCalculatorPlugin(
+            aapsLogger, aapsSchedulers, rxBus, inMemoryPreferences(persistenceLayer, profileFunction), rh, profileFunction, fakeActivePlugin, fabricPrivacy, dateUtil,
+            persistenceLayer, overviewData, calculationWorkflow, decimalFormatter, processedTbrEbData
+        )
+    }
+
+    @Benchmark
+    fun calculateIobArrayForSMB(): Array<IobTotal> =
+        iobCobCalculatorPlugin.calculateIobArrayForSMB(autosensResult, exerciseMode = false, halfBasalExerciseTarget = 160, isTempTarget = false)
+
+    @Benchmark
+    fun iobCalcForTreatment(blackhole: Blackhole) {
+        val dia = validProfile.dia
+        for (bolus in day.boluses) blackhole.consume(insulin.iobCalcForTreatment(bolus, now, dia))
+    }
+}
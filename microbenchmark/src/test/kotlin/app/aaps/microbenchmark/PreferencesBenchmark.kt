@@ -0,0 +1,52 @@
+package app.aaps.microbenchmark
+
+import app.aaps.core.keys.BooleanKey
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.interfaces.NonPreferenceKey
+import app.aaps.core.keys.interfaces.PreferencesSnapshot
+import app.aaps.implementation.sharedPreferences.PreferencesImpl
+import app.aaps.microbenchmark.fakes.InMemoryPersistenceLayer
+import app.aaps.shared.impl.sharedPreferences.SPImpl
+import app.aaps.shared.tests.SharedPreferencesMock
+import dagger.Lazy
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Cost of one preference lookup from calculation loop.
+ * Value is stored as String like preference screens do, so [get] goes through SPImpl fallback parsing.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class PreferencesBenchmark : BenchmarkState() {
+
+    private lateinit var settings: PreferencesImpl
+    private lateinit var captured: PreferencesSnapshot
+
+    override fun prepare() {
+        val sharedPreferences = SharedPreferencesMock()
+        settings = PreferencesImpl(SPImpl(sharedPreferences, context), Lazy { profileUtil }, Lazy { profileFunction }, Lazy { hardLimits }, InMemoryPersistenceLayer(), config, dateUtil, rxBus)
+        settings.put(BooleanKey.GeneralSimpleMode, false)
+        sharedPreferences.edit().putString(DoubleKey.ApsSmbMin5MinCarbsImpact.key, "10").commit()
+        captured = settings.snapshot()
+    }
+
+    @Benchmark
+    fun get(): Double = settings.get(DoubleKey.ApsSmbMin5MinCarbsImpact)
+
+    @Benchmark
+    fun snapshot(): Double = settings.snapshot().get(DoubleKey.ApsSmbMin5MinCarbsImpact)
+
+    @Benchmark
+    fun capturedSnapshot(): Double = captured.get(DoubleKey.ApsSmbMin5MinCarbsImpact)
+
+    @Benchmark
+    fun findKeyByName(): NonPreferenceKey? = settings.get(DoubleKey.ApsSmbMin5MinCarbsImpact.key)
+}
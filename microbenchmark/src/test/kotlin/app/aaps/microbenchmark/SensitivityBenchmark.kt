@@ -0,0 +1,63 @@
+package app.aaps.microbenchmark
+
+import androidx.collection.LongSparseArray
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.TE
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.keys.BooleanKey
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.IntKey
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.microbenchmark.data.SyntheticDay
+import app.aaps.microbenchmark.fakes.FakeProfileFunction
+import app.aaps.microbenchmark.fakes.InMemoryPersistenceLayer
+import app.aaps.microbenchmark.fakes.TableAutosensDataStore
+import app.aaps.plugins.sensitivity.SensitivityOref1Plugin
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Oref1 sensitivity detection over 24h autosens table.
+ * New plugin is used for every operation, ie. no data from previous calculation is reused.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class SensitivityBenchmark : BenchmarkState() {
+
+    private lateinit var day: SyntheticDay
+    private lateinit var ads: AutosensDataStore
+    private lateinit var profileFunction: FakeProfileFunction
+    private lateinit var persistenceLayer: PersistenceLayer
+    private lateinit var settings: Preferences
+
+    override fun prepare() {
+        day = SyntheticDay(now)
+        profileFunction = FakeProfileFunction(validProfile)
+        persistenceLayer = InMemoryPersistenceLayer(
+            therapyEvents = listOf(TE(timestamp = day.start + T.hours(12).msecs(), type = TE.Type.CANNULA_CHANGE, glucoseUnit = GlucoseUnit.MGDL))
+        )
+        settings = inMemoryPreferences(persistenceLayer, profileFunction).apply {
+            put(BooleanKey.GeneralSimpleMode, false)
+            put(DoubleKey.AutosensMin, 0.7)
+            put(DoubleKey.AutosensMax, 1.2)
+            put(IntKey.AutosensPeriod, 24)
+        }
+        val table: LongSparseArray<AutosensData> = day.autosensTable(aapsLogger, settings, dateUtil)
+        ads = TableAutosensDataStore(table)
+    }
+
+    @Benchmark
+    fun detectSensitivity(): AutosensResult =
+        SensitivityOref1Plugin(aapsLogger, rh, settings, profileFunction, dateUtil, persistenceLayer).detectSensitivity(ads, day.start, day.end)
+}
@@ -0,0 +1,42 @@
+package app.aaps.microbenchmark
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.microbenchmark.data.SyntheticDay
+import app.aaps.plugins.smoothing.ExponentialSmoothingPlugin
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Exponential smoothing of 24h of CGM readings.
+ * Copy of readings is part of measurement because smoothing modifies them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class SmoothingBenchmark : BenchmarkState() {
+
+    private lateinit var day: SyntheticDay
+    private lateinit var smoothing: ExponentialSmoothingPlugin
+
+    override fun prepare() {
+        day = SyntheticDay(now)
+        smoothing = ExponentialSmoothingPlugin(aapsLogger, rh)
+    }
+
+    /** first run or changed history */
+    @Benchmark
+    fun fromScratch(): MutableList<InMemoryGlucoseValue> {
+        smoothing.reset()
+        return smoothing.smooth(day.glucoseCopy())
+    }
+
+    /** loop run without new reading, previous result is reused */
+    @Benchmark
+    fun unchangedReadings(): MutableList<InMemoryGlucoseValue> = smoothing.smooth(day.glucoseCopy())
+}
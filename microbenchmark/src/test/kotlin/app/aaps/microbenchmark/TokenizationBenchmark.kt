@@ -0,0 +1,93 @@
+package app.aaps.microbenchmark
+
+import info.nightscout.comboctl.base.DISPLAY_FRAME_HEIGHT
+import info.nightscout.comboctl.base.DISPLAY_FRAME_WIDTH
+import info.nightscout.comboctl.base.DisplayFrame
+import info.nightscout.comboctl.base.NUM_DISPLAY_FRAME_PIXELS
+import info.nightscout.comboctl.parser.Glyph
+import info.nightscout.comboctl.parser.LargeSymbol
+import info.nightscout.comboctl.parser.SmallSymbol
+import info.nightscout.comboctl.parser.Token
+import info.nightscout.comboctl.parser.Tokens
+import info.nightscout.comboctl.parser.checkIfPatternMatchesAt
+import info.nightscout.comboctl.parser.findTokens
+import info.nightscout.comboctl.parser.glyphPatterns
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Measurement
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.Warmup
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tokenization of Combo RT display frames: main screen and a text menu screen.
+ * [bruteForceScan] is the sequential per-pixel scan findTokens used before the packed matcher.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+open class TokenizationBenchmark {
+
+    private lateinit var frames: List<DisplayFrame>
+
+    @Setup
+    fun setup() {
+        frames = listOf(
+            renderFrame(
+                Triple(0, 0, listOf(Glyph.SmallSymbol(SmallSymbol.CLOCK), Glyph.SmallDigit(1), Glyph.SmallDigit(0), Glyph.SmallSymbol(SmallSymbol.SEPARATOR), Glyph.SmallDigit(2), Glyph.SmallDigit(0))),
+                Triple(0, 9, listOf(Glyph.LargeSymbol(LargeSymbol.BASAL), Glyph.LargeDigit(0), Glyph.LargeSymbol(LargeSymbol.DOT), Glyph.LargeDigit(5), Glyph.LargeDigit(0))),
+                Triple(72, 13, listOf(Glyph.SmallSymbol(SmallSymbol.UNITS_PER_HOUR))),
+                Triple(0, 25, listOf(Glyph.SmallDigit(1)))
+            ),
+            renderFrame(
+                Triple(0, 0, "STANDARD".map { Glyph.SmallCharacter(it) }),
+                Triple(0, 9, "BOLUS".map { Glyph.SmallCharacter(it) }),
+                Triple(0, 17, listOf(Glyph.LargeSymbol(LargeSymbol.BOLUS)))
+            )
+        )
+    }
+
+    @Benchmark
+    fun packedMatcher(): List<Tokens> = frames.map { findTokens(it) }
+
+    @Benchmark
+    fun bruteForceScan(): List<Tokens> = frames.map { frame ->
+        val tokens = mutableListOf<Token>()
+        for (y in 0 until DISPLAY_FRAME_HEIGHT) {
+            var x = 0
+            while (x < DISPLAY_FRAME_WIDTH) {
+                val match = glyphPatterns.entries.firstOrNull { checkIfPatternMatchesAt(frame, it.value, x, y) }
+                if (match != null) {
+                    tokens.add(Token(match.value, match.key, x, y))
+                    x += match.value.width
+                } else
+                    x++
+            }
+        }
+        tokens
+    }
+
+    /**
+     * Draw lines of glyphs starting at (x, y), separated by 1 blank column
+     */
+    private fun renderFrame(vararg lines: Triple<Int, Int, List<Glyph>>): DisplayFrame {
+        val pixels = BooleanArray(NUM_DISPLAY_FRAME_PIXELS)
+        for ((startX, y, glyphs) in lines) {
+            var x = startX
+            for (glyph in glyphs) {
+                val pattern = glyphPatterns.getValue(glyph)
+                for (py in 0 until pattern.height)
+                    for (px in 0 until pattern.width)
+                        pixels[x + px + (y + py) * DISPLAY_FRAME_WIDTH] = pattern.pixels[px + py * pattern.width]
+                x += pattern.width + 1
+            }
+        }
+        return DisplayFrame(pixels)
+    }
+}
@@ -0,0 +1,26 @@
+package app.aaps.microbenchmark.data
+
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatus
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+
+/**
+ * Arguments of one determine_basal call
+ *
+ * @param P OapsProfile or OapsProfileAutoIsf
+ */
+@Suppress("ArrayInDataClass")
+data class ApsInput<P>(
+    val glucoseStatus: GlucoseStatus,
+    val currentTemp: CurrentTemp,
+    val iobData: Array<IobTotal>,
+    val profile: P,
+    val autosens: AutosensResult,
+    val meal: MealData,
+    val microBolusAllowed: Boolean,
+    val currentTime: Long,
+    val flatBGsDetected: Boolean,
+    val dynIsfMode: Boolean
+)
@@ -0,0 +1,208 @@
+package app.aaps.microbenchmark.data
+
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatus
+import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.OapsProfileAutoIsf
+import app.aaps.core.interfaces.utils.DateUtil
+import org.json.JSONObject
+import java.io.File
+
+/**
+ * Loop inputs recorded on phones (app/src/androidTest/assets/results), converted the same way as ReplayApsResultsTest does.
+ * Directory is passed by gradle in "apsResults" system property.
+ */
+class RecordedApsInputs(private val dateUtil: DateUtil) {
+
+    val smb = mutableListOf<ApsInput<OapsProfile>>()
+    val ama = mutableListOf<ApsInput<OapsProfile>>()
+    val autoIsf = mutableListOf<ApsInput<OapsProfileAutoIsf>>()
+
+    init {
+        val directory = File(System.getProperty("apsResults") ?: "../app/src/androidTest/assets/results")
+        directory.listFiles { file -> file.isFile && file.name.endsWith(".json") }
+            ?.sortedBy { it.name }
+            ?.forEach { file ->
+                val result = JSONObject(file.readText())
+                val input = result.optJSONObject("input") ?: JSONObject(result.getString("input"))
+                when (result.getString("algorithm")) {
+                    "OpenAPSSMBPlugin"           -> smb.add(input.toSmbInput(dynIsfMode = false))
+                    "OpenAPSSMBDynamicISFPlugin" -> smb.add(input.toSmbInput(dynIsfMode = true))
+                    "OpenAPSSMBAutoISFPlugin"    -> autoIsf.add(input.toAutoIsfInput())
+                    "OpenAPSAMAPlugin"           -> ama.add(input.toAmaInput())
+                }
+            }
+    }
+
+    private fun JSONObject.toIob(): IobTotal =
+        IobTotal(
+            time = dateUtil.fromISODateString(getString("time")),
+            iob = getDouble("iob"),
+            basaliob = getDouble("basaliob"),
+            bolussnooze = getDouble("bolussnooze"),
+            activity = getDouble("activity"),
+            lastBolusTime = getLong("lastBolusTime"),
+            iobWithZeroTemp = optJSONObject("iobWithZeroTemp")?.toIob()
+        )
+
+    private fun <P> JSONObject.toInput(profile: P, dynIsfMode: Boolean, glucoseStatus: JSONObject.() -> GlucoseStatus): ApsInput<P> {
+        val iobData = getJSONArray("iob_data")
+        val meal = getJSONObject("meal_data")
+        return ApsInput(
+            glucoseStatus = getJSONObject("glucoseStatus").glucoseStatus(),
+            currentTemp = getJSONObject("currenttemp").let { CurrentTemp(duration = it.getInt("duration"), rate = it.getDouble("rate"), minutesrunning = null) },
+            iobData = Array(iobData.length()) { iobData.getJSONObject(it).toIob() },
+            profile = profile,
+            autosens = AutosensResult(ratio = getJSONObject("autosens_data").getDouble("ratio")),
+            meal = MealData(
+                carbs = meal.getDouble("carbs"),
+                mealCOB = meal.getDouble("mealCOB"),
+                slopeFromMaxDeviation = meal.optDouble("slopeFromMaxDeviation", 0.0),
+                slopeFromMinDeviation = meal.optDouble("slopeFromMinDeviation", 0.0),
+                lastBolusTime = meal.optLong("lastBolusTime", 0),
+                lastCarbTime = meal.optLong("lastCarbTime", 0)
+            ),
+            microBolusAllowed = optBoolean("microBolusAllowed", false),
+            currentTime = optLong("currentTime", 0),
+            flatBGsDetected = optBoolean("flatBGsDetected", false),
+            dynIsfMode = dynIsfMode
+        )
+    }
+
+    private fun JSONObject.toSmbInput(dynIsfMode: Boolean): ApsInput<OapsProfile> {
+        val profile = getJSONObject("profile")
+        return toInput(profile.toOapsProfile(dynIsfMode), dynIsfMode) { toGlucoseStatusSMB() }
+    }
+
+    private fun JSONObject.toAmaInput(): ApsInput<OapsProfile> {
+        val profile = getJSONObject("profile")
+        return toInput(
+            profile.toOapsProfile(false).copy(
+                dia = profile.getDouble("dia"),
+                min_5m_carbimpact = profile.getDouble("min_5m_carbimpact"),
+                autosens_adjust_targets = profile.getBoolean("autosens_adjust_targets")
+            ),
+            false
+        ) { toGlucoseStatusSMB() }
+    }
+
+    private fun JSONObject.toAutoIsfInput(): ApsInput<OapsProfileAutoIsf> {
+        val profile = getJSONObject("profile")
+        val oapsProfile = profile.toOapsProfile(false)
+        return toInput(
+            OapsProfileAutoIsf(
+                dia = 0.0, min_5m_carbimpact = 0.0, max_iob = oapsProfile.max_iob, max_daily_basal = oapsProfile.max_daily_basal, max_basal = oapsProfile.max_basal,
+                min_bg = oapsProfile.min_bg, max_bg = oapsProfile.max_bg, target_bg = oapsProfile.target_bg, carb_ratio = oapsProfile.carb_ratio, sens = oapsProfile.sens,
+                autosens_adjust_targets = false, max_daily_safety_multiplier = oapsProfile.max_daily_safety_multiplier,
+                current_basal_safety_multiplier = oapsProfile.current_basal_safety_multiplier, lgsThreshold = null,
+                high_temptarget_raises_sensitivity = oapsProfile.high_temptarget_raises_sensitivity, low_temptarget_lowers_sensitivity = oapsProfile.low_temptarget_lowers_sensitivity,
+                sensitivity_raises_target = oapsProfile.sensitivity_raises_target, resistance_lowers_target = oapsProfile.resistance_lowers_target,
+                adv_target_adjustments = oapsProfile.adv_target_adjustments, exercise_mode = oapsProfile.exercise_mode, half_basal_exercise_target = oapsProfile.half_basal_exercise_target,
+                maxCOB = oapsProfile.maxCOB, skip_neutral_temps = oapsProfile.skip_neutral_temps, remainingCarbsCap = oapsProfile.remainingCarbsCap, enableUAM = oapsProfile.enableUAM,
+                A52_risk_enable = oapsProfile.A52_risk_enable, SMBInterval = oapsProfile.SMBInterval, enableSMB_with_COB = oapsProfile.enableSMB_with_COB,
+                enableSMB_with_temptarget = oapsProfile.enableSMB_with_temptarget, allowSMB_with_high_temptarget = oapsProfile.allowSMB_with_high_temptarget,
+                enableSMB_always = oapsProfile.enableSMB_always, enableSMB_after_carbs = oapsProfile.enableSMB_after_carbs, maxSMBBasalMinutes = oapsProfile.maxSMBBasalMinutes,
+                maxUAMSMBBasalMinutes = oapsProfile.maxUAMSMBBasalMinutes, bolus_increment = oapsProfile.bolus_increment, carbsReqThreshold = oapsProfile.carbsReqThreshold,
+                current_basal = oapsProfile.current_basal, temptargetSet = oapsProfile.temptargetSet, autosens_max = oapsProfile.autosens_max, out_units = oapsProfile.out_units,
+                // not recorded in input, calculated by algorithm
+                variable_sens = profile.optDouble("variable_sens", oapsProfile.sens),
+                autoISF_version = profile.optString("autoISF_version"),
+                enable_autoISF = profile.getBoolean("enable_autoISF"),
+                autoISF_max = profile.getDouble("autoISF_max"),
+                autoISF_min = profile.getDouble("autoISF_min"),
+                bgAccel_ISF_weight = profile.getDouble("bgAccel_ISF_weight"),
+                bgBrake_ISF_weight = profile.getDouble("bgBrake_ISF_weight"),
+                pp_ISF_weight = profile.getDouble("pp_ISF_weight"),
+                lower_ISFrange_weight = profile.getDouble("lower_ISFrange_weight"),
+                higher_ISFrange_weight = profile.getDouble("higher_ISFrange_weight"),
+                dura_ISF_weight = profile.getDouble("dura_ISF_weight"),
+                smb_delivery_ratio = profile.getDouble("smb_delivery_ratio"),
+                smb_delivery_ratio_min = profile.getDouble("smb_delivery_ratio_min"),
+                smb_delivery_ratio_max = profile.getDouble("smb_delivery_ratio_max"),
+                smb_delivery_ratio_bg_range = profile.getDouble("smb_delivery_ratio_bg_range"),
+                smb_max_range_extension = profile.getDouble("smb_max_range_extension"),
+                enableSMB_EvenOn_OddOff_always = profile.getBoolean("enableSMB_EvenOn_OddOff_always"),
+                iob_threshold_percent = profile.getInt("iob_threshold_percent"),
+                profile_percentage = profile.getInt("profile_percentage")
+            ),
+            false
+        ) {
+            GlucoseStatusAutoIsf(
+                glucose = getDouble("glucose"),
+                noise = getDouble("noise"),
+                delta = getDouble("delta"),
+                shortAvgDelta = getDouble("short_avgdelta"),
+                longAvgDelta = getDouble("long_avgdelta"),
+                date = getLong("date"),
+                duraISFminutes = getDouble("dura_ISF_minutes"),
+                duraISFaverage = getDouble("dura_ISF_average"),
+                a0 = getDouble("parabola_fit_a0"),
+                a1 = getDouble("parabola_fit_a1"),
+                a2 = getDouble("parabola_fit_a2"),
+                bgAcceleration = getDouble("bg_acceleration"),
+                corrSqu = getDouble("parabola_fit_correlation")
+            )
+        }
+    }
+
+    private fun JSONObject.toGlucoseStatusSMB() = GlucoseStatusSMB(
+        glucose = getDouble("glucose"),
+        noise = optDouble("noise", 0.0),
+        delta = getDouble("delta"),
+        shortAvgDelta = getDouble("short_avgdelta"),
+        longAvgDelta = getDouble("long_avgdelta"),
+        date = optLong("date", 0)
+    )
+
+    // AMA records miss most of SMB fields
+    private fun JSONObject.toOapsProfile(dynIsfMode: Boolean) = OapsProfile(
+        dia = 0.0,
+        min_5m_carbimpact = 0.0,
+        max_iob = getDouble("max_iob"),
+        max_daily_basal = getDouble("max_daily_basal"),
+        max_basal = getDouble("max_basal"),
+        min_bg = getDouble("min_bg"),
+        max_bg = getDouble("max_bg"),
+        target_bg = getDouble("target_bg"),
+        carb_ratio = getDouble("carb_ratio"),
+        sens = getDouble("sens"),
+        autosens_adjust_targets = false,
+        max_daily_safety_multiplier = getDouble("max_daily_safety_multiplier"),
+        current_basal_safety_multiplier = getDouble("current_basal_safety_multiplier"),
+        lgsThreshold = if (dynIsfMode) getInt("lgsThreshold") else null,
+        high_temptarget_raises_sensitivity = optBoolean("high_temptarget_raises_sensitivity"),
+        low_temptarget_lowers_sensitivity = optBoolean("low_temptarget_lowers_sensitivity"),
+        sensitivity_raises_target = optBoolean("sensitivity_raises_target"),
+        resistance_lowers_target = optBoolean("resistance_lowers_target"),
+        adv_target_adjustments = optBoolean("adv_target_adjustments"),
+        exercise_mode = optBoolean("exercise_mode"),
+        half_basal_exercise_target = optInt("half_basal_exercise_target"),
+        maxCOB = optInt("maxCOB"),
+        skip_neutral_temps = getBoolean("skip_neutral_temps"),
+        remainingCarbsCap = optInt("remainingCarbsCap"),
+        enableUAM = optBoolean("enableUAM"),
+        A52_risk_enable = optBoolean("A52_risk_enable"),
+        SMBInterval = optInt("SMBInterval"),
+        enableSMB_with_COB = optBoolean("enableSMB_with_COB"),
+        enableSMB_with_temptarget = optBoolean("enableSMB_with_temptarget"),
+        allowSMB_with_high_temptarget = optBoolean("allowSMB_with_high_temptarget"),
+        enableSMB_always = optBoolean("enableSMB_always"),
+        enableSMB_after_carbs = optBoolean("enableSMB_after_carbs"),
+        maxSMBBasalMinutes = optInt("maxSMBBasalMinutes"),
+        maxUAMSMBBasalMinutes = optInt("maxUAMSMBBasalMinutes"),
+        bolus_increment = optDouble("bolus_increment", 0.0),
+        carbsReqThreshold = optInt("carbsReqThreshold"),
+        current_basal = getDouble("current_basal"),
+        temptargetSet = getBoolean("temptargetSet"),
+        autosens_max = optDouble("autosens_max", 0.0),
+        out_units = optString("out_units"),
+        variable_sens = if (dynIsfMode) getDouble("variable_sens") else 0.0,
+        insulinDivisor = if (dynIsfMode) getInt("insulinDivisor") else 0,
+        TDD = if (dynIsfMode) getDouble("TDD") else 0.0
+    )
+}
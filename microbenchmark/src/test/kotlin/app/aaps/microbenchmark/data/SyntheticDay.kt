@@ -0,0 +1,153 @@
+package app.aaps.microbenchmark.data
+
+import androidx.collection.LongSparseArray
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.CurrentTemp
+import app.aaps.core.interfaces.aps.GlucoseStatusAutoIsf
+import app.aaps.core.interfaces.aps.GlucoseStatusSMB
+import app.aaps.core.interfaces.aps.IobTotal
+import app.aaps.core.interfaces.aps.MealData
+import app.aaps.core.interfaces.aps.OapsProfile
+import app.aaps.core.interfaces.aps.OapsProfileAutoIsf
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.implementation.iob.AutosensDataObject
+import kotlin.math.exp
+import kotlin.math.max
+import kotlin.math.roundToInt
+import kotlin.math.sin
+import kotlin.random.Random
+
+/**
+ * Deterministic 24h of CGM, boluses, SMBs and temporary basals ending at [end].
+ * Same [seed] produces same data so results of different runs are comparable.
+ */
+class SyntheticDay(val end: Long, seed: Int = 1) {
+
+    private val random = Random(seed)
+    private val step = T.mins(5).msecs()
+    val start = end - T.hours(24).msecs()
+
+    /** 5 min readings, newest first */
+    val glucose: List<InMemoryGlucoseValue> = List(COUNT) { i ->
+        val timestamp = end - i * step
+        val value = 140.0 + 50 * sin(timestamp / T.mins(75).msecs().toDouble()) + 30 * sin(timestamp / T.mins(270).msecs().toDouble()) + random.nextInt(-4, 5)
+        InMemoryGlucoseValue(timestamp = timestamp, value = value.coerceIn(40.0, 400.0))
+    }
+
+    /** 3 meal boluses and SMBs, oldest first */
+    val boluses: List<BS> = buildList {
+        for (hour in listOf(3, 9, 16)) add(BS(timestamp = start + T.hours(hour.toLong()).msecs(), amount = 4.0 + random.nextInt(30) / 10.0, type = BS.Type.NORMAL))
+        for (i in 0 until COUNT) if (random.nextInt(10) < 3) add(BS(timestamp = start + i * step + 1000, amount = 0.1 + random.nextInt(8) / 10.0, type = BS.Type.SMB))
+    }.sortedBy { it.timestamp }
+
+    /** 30 min absolute temporary basals every 30 min, oldest first */
+    val temporaryBasals: List<TB> = List(48) { i ->
+        TB(timestamp = start + i * T.mins(30).msecs(), type = TB.Type.NORMAL, isAbsolute = true, rate = random.nextInt(26) / 10.0, duration = T.mins(30).msecs())
+    }
+
+    fun glucoseCopy(): MutableList<InMemoryGlucoseValue> = glucose.map { it.copy() }.toMutableList()
+
+    /**
+     * Autosens table similar to what IobCobCalculator builds from [glucose]
+     */
+    fun autosensTable(aapsLogger: AAPSLogger, preferences: Preferences, dateUtil: DateUtil): LongSparseArray<AutosensData> {
+        val table = LongSparseArray<AutosensData>()
+        for (bg in glucose.asReversed()) {
+            table.put(bg.timestamp, AutosensDataObject(aapsLogger, preferences, dateUtil).also {
+                it.time = bg.timestamp
+                it.bg = bg.value
+                it.deviation = ((random.nextDouble() - 0.5) * 40 * 100).roundToInt() / 100.0
+                it.validDeviation = random.nextInt(10) != 0
+                it.pastSensitivity = listOf("=", "+", "-", "C", "u", "x")[random.nextInt(6)]
+                it.sens = 50.0
+                it.cob = if (random.nextInt(4) == 0) random.nextInt(60).toDouble() else 0.0
+            })
+        }
+        return table
+    }
+
+    /**
+     * Loop inputs for every 5 min step of the day
+     */
+    fun smbInputs(dynIsfMode: Boolean): List<ApsInput<OapsProfile>> = List(COUNT - 3) { i -> input(i, oapsProfile(dynIsfMode), dynIsfMode) }
+
+    fun amaInputs(): List<ApsInput<OapsProfile>> = List(COUNT - 3) { i -> input(i, oapsProfile(false).copy(dia = 5.0, min_5m_carbimpact = 8.0), false) }
+
+    fun autoIsfInputs(): List<ApsInput<OapsProfileAutoIsf>> = List(COUNT - 3) { i ->
+        input(i, oapsProfileAutoIsf(), false).let {
+            val bg = glucose[i].value
+            it.copy(
+                glucoseStatus = GlucoseStatusAutoIsf(
+                    glucose = bg, delta = it.glucoseStatus.delta, shortAvgDelta = it.glucoseStatus.shortAvgDelta, longAvgDelta = it.glucoseStatus.longAvgDelta,
+                    date = it.glucoseStatus.date, duraISFminutes = (i % 12) * 5.0, duraISFaverage = bg, bgAcceleration = (random.nextDouble() - 0.5) * 2,
+                    a0 = bg, a1 = it.glucoseStatus.delta, a2 = (random.nextDouble() - 0.5), corrSqu = 0.9 + random.nextDouble() / 10
+                )
+            )
+        }
+    }
+
+    private fun <P> input(i: Int, profile: P, dynIsfMode: Boolean): ApsInput<P> {
+        val time = glucose[i].timestamp
+        val bg = glucose[i].value
+        val delta = bg - glucose[i + 1].value
+        val iob = max(0.0, 3.0 * sin(time / T.mins(300).msecs().toDouble()) + random.nextDouble())
+        return ApsInput(
+            glucoseStatus = GlucoseStatusSMB(glucose = bg, delta = delta, shortAvgDelta = (bg - glucose[i + 3].value) / 3, longAvgDelta = (bg - glucose[i + 3].value) / 3.5, date = time),
+            currentTemp = CurrentTemp(duration = 30 - (i % 6) * 5, rate = random.nextInt(26) / 10.0, minutesrunning = (i % 6) * 5),
+            iobData = Array(48) { m ->
+                val decay = exp(-m / 16.0)
+                IobTotal(
+                    time = time + m * step, iob = iob * decay, basaliob = iob * decay / 3, activity = iob * decay / 90, lastBolusTime = time - T.mins(40).msecs(),
+                    iobWithZeroTemp = IobTotal(time = time + m * step, iob = iob * decay - m * 0.02, basaliob = iob * decay / 3 - m * 0.02, activity = iob * decay / 90 - m * 0.0002)
+                )
+            },
+            autosens = AutosensResult(ratio = 0.8 + random.nextInt(5) / 10.0),
+            meal = MealData(
+                carbs = if (i % 72 < 24) 50.0 else 0.0, mealCOB = if (i % 72 < 24) 50.0 - i % 72 * 2 else 0.0, slopeFromMaxDeviation = -random.nextDouble(),
+                slopeFromMinDeviation = random.nextDouble(), lastBolusTime = time - T.mins(40).msecs(), lastCarbTime = time - T.mins((i % 72) * 5L).msecs()
+            ),
+            microBolusAllowed = true,
+            currentTime = time,
+            flatBGsDetected = false,
+            dynIsfMode = dynIsfMode,
+            profile = profile
+        )
+    }
+
+    private fun oapsProfile(dynIsfMode: Boolean) = OapsProfile(
+        dia = 0.0, min_5m_carbimpact = 0.0, max_iob = 5.0, max_daily_basal = 1.2, max_basal = 3.0, min_bg = 100.0, max_bg = 100.0, target_bg = 100.0,
+        carb_ratio = 10.0, sens = 50.0, autosens_adjust_targets = false, max_daily_safety_multiplier = 3.0, current_basal_safety_multiplier = 4.0,
+        high_temptarget_raises_sensitivity = false, low_temptarget_lowers_sensitivity = false, sensitivity_raises_target = true, resistance_lowers_target = false,
+        adv_target_adjustments = false, exercise_mode = false, half_basal_exercise_target = 160, maxCOB = 120, skip_neutral_temps = false, remainingCarbsCap = 90,
+        enableUAM = true, A52_risk_enable = false, SMBInterval = 3, enableSMB_with_COB = true, enableSMB_with_temptarget = false, allowSMB_with_high_temptarget = false,
+        enableSMB_always = true, enableSMB_after_carbs = true, maxSMBBasalMinutes = 30, maxUAMSMBBasalMinutes = 30, bolus_increment = 0.1, carbsReqThreshold = 1,
+        current_basal = 1.0, temptargetSet = false, autosens_max = 1.2, out_units = "mg/dl", lgsThreshold = 65,
+        variable_sens = if (dynIsfMode) 45.0 else 0.0, insulinDivisor = if (dynIsfMode) 75 else 0, TDD = if (dynIsfMode) 35.0 else 0.0
+    )
+
+    private fun oapsProfileAutoIsf() = OapsProfileAutoIsf(
+        dia = 0.0, min_5m_carbimpact = 0.0, max_iob = 5.0, max_daily_basal = 1.2, max_basal = 3.0, min_bg = 100.0, max_bg = 100.0, target_bg = 100.0,
+        carb_ratio = 10.0, sens = 50.0, autosens_adjust_targets = false, max_daily_safety_multiplier = 3.0, current_basal_safety_multiplier = 4.0,
+        high_temptarget_raises_sensitivity = false, low_temptarget_lowers_sensitivity = false, sensitivity_raises_target = true, resistance_lowers_target = false,
+        adv_target_adjustments = false, exercise_mode = false, half_basal_exercise_target = 160, maxCOB = 120, skip_neutral_temps = false, remainingCarbsCap = 90,
+        enableUAM = true, A52_risk_enable = false, SMBInterval = 3, enableSMB_with_COB = true, enableSMB_with_temptarget = false, allowSMB_with_high_temptarget = false,
+        enableSMB_always = true, enableSMB_after_carbs = true, maxSMBBasalMinutes = 30, maxUAMSMBBasalMinutes = 30, bolus_increment = 0.1, carbsReqThreshold = 1,
+        current_basal = 1.0, temptargetSet = false, autosens_max = 1.2, out_units = "mg/dl", lgsThreshold = 65,
+        variable_sens = 50.0, autoISF_version = "3.0", enable_autoISF = true, autoISF_max = 1.5, autoISF_min = 0.7, bgAccel_ISF_weight = 0.02, bgBrake_ISF_weight = 0.15,
+        pp_ISF_weight = 0.01, lower_ISFrange_weight = 0.5, higher_ISFrange_weight = 1.0, dura_ISF_weight = 0.5, smb_delivery_ratio = 0.5, smb_delivery_ratio_min = 0.6,
+        smb_delivery_ratio_max = 0.9, smb_delivery_ratio_bg_range = 0.0, smb_max_range_extension = 1.0, enableSMB_EvenOn_OddOff_always = true,
+        iob_threshold_percent = 100, profile_percentage = 100
+    )
+
+    companion object {
+
+        const val COUNT = 288
+    }
+}
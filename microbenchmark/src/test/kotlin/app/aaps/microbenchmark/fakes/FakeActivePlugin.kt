@@ -0,0 +1,52 @@
+package app.aaps.microbenchmark.fakes
+
+import app.aaps.core.data.plugin.PluginType
+import app.aaps.core.interfaces.aps.APS
+import app.aaps.core.interfaces.aps.Sensitivity
+import app.aaps.core.interfaces.constraints.Objectives
+import app.aaps.core.interfaces.constraints.Safety
+import app.aaps.core.interfaces.insulin.Insulin
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.overview.Overview
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.plugin.PluginBase
+import app.aaps.core.interfaces.profile.ProfileSource
+import app.aaps.core.interfaces.pump.Pump
+import app.aaps.core.interfaces.smoothing.Smoothing
+import app.aaps.core.interfaces.source.BgSource
+import app.aaps.core.interfaces.sync.NsClient
+import app.aaps.core.interfaces.sync.Sync
+
+/**
+ * ActivePlugin with plugins used by APS calculations.
+ * Plain implementation instead of mock, [activeInsulin] and [activePump] are read for every treatment in IOB calculation.
+ * Plugins are assigned after construction as some of them need ActivePlugin themselves.
+ */
+class FakeActivePlugin : ActivePlugin {
+
+    override lateinit var activeInsulin: Insulin
+    override lateinit var activePump: Pump
+    override lateinit var activeAPS: APS
+    override lateinit var activeSensitivity: Sensitivity
+    override lateinit var activeSmoothing: Smoothing
+
+    override val activeBgSource: BgSource get() = unsupported()
+    override val activeProfileSource: ProfileSource get() = unsupported()
+    override val activeOverview: Overview get() = unsupported()
+    override val activeSafety: Safety get() = unsupported()
+    override val activeIobCobCalculator: IobCobCalculator get() = unsupported()
+    override val activeObjectives: Objectives? = null
+    override val activeNsClient: NsClient? = null
+    override val firstActiveSync: Sync? = null
+    override val activeSyncs: ArrayList<Sync> = ArrayList()
+
+    override fun getPluginsList(): ArrayList<PluginBase> = ArrayList()
+    override fun getSpecificPluginsVisibleInList(type: PluginType): ArrayList<PluginBase> = ArrayList()
+    override fun getSpecificPluginsListByInterface(interfaceClass: Class<*>): ArrayList<PluginBase> = ArrayList()
+    override fun verifySelectionInCategories() {}
+    override fun getSpecificPluginsList(type: PluginType): ArrayList<PluginBase> = ArrayList()
+    override fun beforeImport() {}
+    override fun afterImport() {}
+
+    private fun unsupported(): Nothing = throw UnsupportedOperationException("Not available in benchmarks")
+}
@@ -0,0 +1,38 @@
+package app.aaps.microbenchmark.fakes
+
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.PS
+import app.aaps.core.data.ue.Action
+import app.aaps.core.data.ue.Sources
+import app.aaps.core.data.ue.ValueWithUnit
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.profile.ProfileStore
+
+/**
+ * ProfileFunction with the same [profile] active all the time.
+ * Plain implementation instead of mock, getProfile() is called for every treatment in IOB calculation.
+ */
+class FakeProfileFunction(private val profile: Profile) : ProfileFunction {
+
+    override fun getProfileName(): String = "Benchmark"
+    override fun getOriginalProfileName(): String = "Benchmark"
+    override fun getProfileNameWithRemainingTime(): String = "Benchmark"
+    override fun isProfileValid(from: String): Boolean = true
+    override fun getUnits(): GlucoseUnit = profile.units
+    override fun getProfile(): Profile = profile
+    override fun getProfile(time: Long): Profile = profile
+    override fun getRequestedProfile(): PS? = null
+    override fun isProfileChangePending(): Boolean = false
+    override fun buildProfileSwitch(profileStore: ProfileStore, profileName: String, durationInMinutes: Int, percentage: Int, timeShiftInHours: Int, timestamp: Long): PS? = null
+
+    override fun createProfileSwitch(
+        profileStore: ProfileStore, profileName: String, durationInMinutes: Int, percentage: Int, timeShiftInHours: Int, timestamp: Long,
+        action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>
+    ): Boolean = false
+
+    override fun createProfileSwitch(
+        durationInMinutes: Int, percentage: Int, timeShiftInHours: Int,
+        action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>
+    ): Boolean = false
+}
@@ -0,0 +1,231 @@
+package app.aaps.microbenchmark.fakes
+
+import app.aaps.core.data.model.BCR
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.DS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.EPS
+import app.aaps.core.data.model.FD
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.HR
+import app.aaps.core.data.model.NE
+import app.aaps.core.data.model.PS
+import app.aaps.core.data.model.RM
+import app.aaps.core.data.model.SC
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TDD
+import app.aaps.core.data.model.TE
+import app.aaps.core.data.model.TT
+import app.aaps.core.data.model.UE
+import app.aaps.core.data.pump.defs.PumpType
+import app.aaps.core.data.ue.Action
+import app.aaps.core.data.ue.Sources
+import app.aaps.core.data.ue.ValueWithUnit
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.db.PersistenceLayer.Calibration
+import app.aaps.core.interfaces.db.PersistenceLayer.TransactionResult
+import io.reactivex.rxjava3.core.Completable
+import io.reactivex.rxjava3.core.Maybe
+import io.reactivex.rxjava3.core.Single
+import kotlin.math.min
+
+/**
+ * PersistenceLayer answering queries used by APS calculations from lists instead of database.
+ * Plain implementation instead of mock, queries are called on every calculation.
+ * Other queries return empty results, writes are not supported.
+ *
+ * Records newer than [now] are invisible, which lets replay move through recorded history.
+ * Lists are sorted by timestamp, oldest first. Carbs are expected without duration, ie. already expanded.
+ */
+class InMemoryPersistenceLayer(
+    private val boluses: List<BS> = emptyList(),
+    private val temporaryBasals: List<TB> = emptyList(),
+    private val extendedBoluses: List<EB> = emptyList(),
+    private val therapyEvents: List<TE> = emptyList(),
+    private val glucose: List<GV> = emptyList(),
+    private val carbs: List<CA> = emptyList(),
+    private val effectiveProfileSwitches: List<EPS> = emptyList(),
+    private val now: () -> Long = { Long.MAX_VALUE }
+) : PersistenceLayer {
+
+    override fun clearDatabases() {}
+    override fun clearApsResults() {}
+    override fun cleanupDatabase(keepDays: Long, deleteTrackedChanges: Boolean): String = unsupported()
+    override fun getNewestBolus(): BS? = boluses.lastOrNull { it.timestamp <= now() }
+    override fun getOldestBolus(): BS? = boluses.firstOrNull()
+    override fun getNewestBolusOfType(type: BS.Type): BS? = null
+    override fun getLastBolusId(): Long? = null
+    override fun getBolusByNSId(nsId: String): BS? = null
+    override fun getBolusesFromTime(startTime: Long, ascending: Boolean): Single<List<BS>> = Single.just(boluses.between(startTime, now(), ascending) { it.timestamp })
+    override fun getBolusesFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<BS> = boluses.between(startTime, min(endTime, now()), ascending) { it.timestamp }
+    override fun getBolusesFromTimeIncludingInvalid(startTime: Long, ascending: Boolean): Single<List<BS>> = Single.just(emptyList())
+    override fun getNextSyncElementBolus(id: Long): Maybe<Pair<BS, BS>> = Maybe.empty()
+    override fun insertOrUpdateBolus(bolus: BS, action: Action, source: Sources, note: String?): Single<TransactionResult<BS>> = unsupported()
+    override fun insertBolusWithTempId(bolus: BS): Single<TransactionResult<BS>> = unsupported()
+    override fun invalidateBolus(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<BS>> = unsupported()
+    override fun syncPumpBolus(bolus: BS, type: BS.Type?): Single<TransactionResult<BS>> = unsupported()
+    override fun syncPumpBolusWithTempId(bolus: BS, type: BS.Type?): Single<TransactionResult<BS>> = unsupported()
+    override fun syncNsBolus(boluses: List<BS>, doLog: Boolean): Single<TransactionResult<BS>> = unsupported()
+    override fun updateBolusesNsIds(boluses: List<BS>): Single<TransactionResult<BS>> = unsupported()
+    override fun getNewestCarbs(): CA? = null
+    override fun getOldestCarbs(): CA? = carbs.firstOrNull()
+    override fun getLastCarbsId(): Long? = null
+    override fun getCarbsByNSId(nsId: String): CA? = null
+    override fun getCarbsFromTime(startTime: Long, ascending: Boolean): Single<List<CA>> = Single.just(emptyList())
+    override fun getCarbsFromTimeIncludingInvalid(startTime: Long, ascending: Boolean): Single<List<CA>> = Single.just(emptyList())
+    override fun getCarbsFromTimeExpanded(startTime: Long, ascending: Boolean): List<CA> = carbs.between(startTime, now(), ascending) { it.timestamp }
+    override fun getCarbsFromTimeNotExpanded(startTime: Long, ascending: Boolean): Single<List<CA>> = Single.just(emptyList())
+    override fun getCarbsFromTimeToTimeExpanded(startTime: Long, endTime: Long, ascending: Boolean): List<CA> = carbs.between(startTime, min(endTime, now()), ascending) { it.timestamp }
+    override fun getNextSyncElementCarbs(id: Long): Maybe<Pair<CA, CA>> = Maybe.empty()
+    override fun insertOrUpdateCarbs(carbs: CA, action: Action, source: Sources, note: String?): Single<TransactionResult<CA>> = unsupported()
+    override fun insertPumpCarbsIfNewByTimestamp(carbs: CA): Single<TransactionResult<CA>> = unsupported()
+    override fun invalidateCarbs(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<CA>> = unsupported()
+    override fun cutCarbs(id: Long, timestamp: Long): Single<TransactionResult<CA>> = unsupported()
+    override fun syncNsCarbs(carbs: List<CA>, doLog: Boolean): Single<TransactionResult<CA>> = unsupported()
+    override fun updateCarbsNsIds(carbs: List<CA>): Single<TransactionResult<CA>> = unsupported()
+    override fun getBolusCalculatorResultByNSId(nsId: String): BCR? = null
+    override fun getBolusCalculatorResultsFromTime(startTime: Long, ascending: Boolean): Single<List<BCR>> = Single.just(emptyList())
+    override fun getBolusCalculatorResultsIncludingInvalidFromTime(startTime: Long, ascending: Boolean): Single<List<BCR>> = Single.just(emptyList())
+    override fun getNextSyncElementBolusCalculatorResult(id: Long): Maybe<Pair<BCR, BCR>> = Maybe.empty()
+    override fun getLastBolusCalculatorResultId(): Long? = null
+    override fun insertOrUpdateBolusCalculatorResult(bolusCalculatorResult: BCR): Single<TransactionResult<BCR>> = unsupported()
+    override fun syncNsBolusCalculatorResults(bolusCalculatorResults: List<BCR>): Single<TransactionResult<BCR>> = unsupported()
+    override fun updateBolusCalculatorResultsNsIds(bolusCalculatorResults: List<BCR>): Single<TransactionResult<BCR>> = unsupported()
+    override fun invalidateBolusCalculatorResult(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<BCR>> = unsupported()
+    override fun getLastGlucoseValue(): GV? = null
+    override fun getLastGlucoseValueId(): Long? = null
+    override fun getNextSyncElementGlucoseValue(id: Long): Maybe<Pair<GV, GV>> = Maybe.empty()
+    override fun getBgReadingsDataFromTimeToTime(start: Long, end: Long, ascending: Boolean): List<GV> = glucose.between(start, min(end, now()), ascending) { it.timestamp }
+    override fun getBgReadingsDataFromTime(timestamp: Long, ascending: Boolean): Single<List<GV>> = Single.just(emptyList())
+    override fun getBgReadingByNSId(nsId: String): GV? = null
+    override fun invalidateGlucoseValue(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<GV>> = unsupported()
+    override fun insertCgmSourceData(caller: Sources, glucoseValues: List<GV>, calibrations: List<Calibration>, sensorInsertionTime: Long?): Single<TransactionResult<GV>> = unsupported()
+    override fun updateGlucoseValuesNsIds(glucoseValues: List<GV>): Single<TransactionResult<GV>> = unsupported()
+    override fun getOldestEffectiveProfileSwitch(): EPS? = effectiveProfileSwitches.firstOrNull()
+    override fun getEffectiveProfileSwitchActiveAt(timestamp: Long): EPS? = null
+    override fun getEffectiveProfileSwitchByNSId(nsId: String): EPS? = null
+    override fun getEffectiveProfileSwitchesFromTime(startTime: Long, ascending: Boolean): Single<List<EPS>> = Single.just(emptyList())
+    override fun getEffectiveProfileSwitchesIncludingInvalidFromTime(startTime: Long, ascending: Boolean): Single<List<EPS>> = Single.just(emptyList())
+    override fun getEffectiveProfileSwitchesFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<EPS> = emptyList()
+    override fun getNextSyncElementEffectiveProfileSwitch(id: Long): Maybe<Pair<EPS, EPS>> = Maybe.empty()
+    override fun getLastEffectiveProfileSwitchId(): Long? = null
+    override fun insertEffectiveProfileSwitch(effectiveProfileSwitch: EPS): Single<TransactionResult<EPS>> = unsupported()
+    override fun invalidateEffectiveProfileSwitch(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<EPS>> = unsupported()
+    override fun syncNsEffectiveProfileSwitches(effectiveProfileSwitches: List<EPS>, doLog: Boolean): Single<TransactionResult<EPS>> = unsupported()
+    override fun updateEffectiveProfileSwitchesNsIds(effectiveProfileSwitches: List<EPS>): Single<TransactionResult<EPS>> = unsupported()
+    override fun getProfileSwitchActiveAt(timestamp: Long): PS? = null
+    override fun getProfileSwitchByNSId(nsId: String): PS? = null
+    override fun getPermanentProfileSwitchActiveAt(timestamp: Long): PS? = null
+    override fun getProfileSwitches(): List<PS> = emptyList()
+    override fun getProfileSwitchesFromTime(startTime: Long, ascending: Boolean): Single<List<PS>> = Single.just(emptyList())
+    override fun getProfileSwitchesIncludingInvalidFromTime(startTime: Long, ascending: Boolean): Single<List<PS>> = Single.just(emptyList())
+    override fun getNextSyncElementProfileSwitch(id: Long): Maybe<Pair<PS, PS>> = Maybe.empty()
+    override fun getLastProfileSwitchId(): Long? = null
+    override fun insertOrUpdateProfileSwitch(profileSwitch: PS, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<PS>> = unsupported()
+    override fun invalidateProfileSwitch(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<PS>> = unsupported()
+    override fun syncNsProfileSwitches(profileSwitches: List<PS>, doLog: Boolean): Single<TransactionResult<PS>> = unsupported()
+    override fun updateProfileSwitchesNsIds(profileSwitches: List<PS>): Single<TransactionResult<PS>> = unsupported()
+    override fun getRunningModeActiveAt(timestamp: Long): RM = unsupported()
+    override fun getRunningModeByNSId(nsId: String): RM? = null
+    override fun getPermanentRunningModeActiveAt(timestamp: Long): RM = unsupported()
+    override fun getRunningModes(): List<RM> = emptyList()
+    override fun getRunningModesFromTime(startTime: Long, ascending: Boolean): Single<List<RM>> = Single.just(emptyList())
+    override fun getRunningModesFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<RM> = emptyList()
+    override fun getRunningModesIncludingInvalidFromTime(startTime: Long, ascending: Boolean): Single<List<RM>> = Single.just(emptyList())
+    override fun getNextSyncElementRunningMode(id: Long): Maybe<Pair<RM, RM>> = Maybe.empty()
+    override fun getLastRunningModeId(): Long? = null
+    override fun cancelCurrentRunningMode(timestamp: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<RM>> = unsupported()
+    override fun insertOrUpdateRunningMode(runningMode: RM, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<RM>> = unsupported()
+    override fun invalidateRunningMode(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<RM>> = unsupported()
+    override fun syncNsRunningModes(runningModes: List<RM>, doLog: Boolean): Single<TransactionResult<RM>> = unsupported()
+    override fun updateRunningModesNsIds(runningModes: List<RM>): Single<TransactionResult<RM>> = unsupported()
+    override fun getTemporaryBasalActiveAt(timestamp: Long): TB? = null
+    override fun getOldestTemporaryBasalRecord(): TB? = temporaryBasals.firstOrNull()
+    override fun getLastTemporaryBasalId(): Long? = null
+    override fun getTemporaryBasalByNSId(nsId: String): TB? = null
+    override fun getTemporaryBasalsActiveBetweenTimeAndTime(startTime: Long, endTime: Long): List<TB> = emptyList()
+    override fun getTemporaryBasalsStartingFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<TB> = temporaryBasals.between(startTime, min(endTime, now()), ascending) { it.timestamp }
+    override fun getTemporaryBasalsStartingFromTime(startTime: Long, ascending: Boolean): Single<List<TB>> = Single.just(temporaryBasals.between(startTime, now(), ascending) { it.timestamp })
+    override fun getTemporaryBasalsStartingFromTimeIncludingInvalid(startTime: Long, ascending: Boolean): Single<List<TB>> = Single.just(emptyList())
+    override fun getNextSyncElementTemporaryBasal(id: Long): Maybe<Pair<TB, TB>> = Maybe.empty()
+    override fun invalidateTemporaryBasal(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<TB>> = unsupported()
+    override fun syncNsTemporaryBasals(temporaryBasals: List<TB>, doLog: Boolean): Single<TransactionResult<TB>> = unsupported()
+    override fun updateTemporaryBasalsNsIds(temporaryBasals: List<TB>): Single<TransactionResult<TB>> = unsupported()
+    override fun syncPumpTemporaryBasal(temporaryBasal: TB, type: TB.Type?): Single<TransactionResult<TB>> = unsupported()
+    override fun syncPumpCancelTemporaryBasalIfAny(timestamp: Long, endPumpId: Long, pumpType: PumpType, pumpSerial: String): Single<TransactionResult<TB>> = unsupported()
+    override fun syncPumpInvalidateTemporaryBasalWithTempId(temporaryId: Long): Single<TransactionResult<TB>> = unsupported()
+    override fun syncPumpInvalidateTemporaryBasalWithPumpId(pumpId: Long, pumpType: PumpType, pumpSerial: String): Single<TransactionResult<TB>> = unsupported()
+    override fun syncPumpTemporaryBasalWithTempId(temporaryBasal: TB, type: TB.Type?): Single<TransactionResult<TB>> = unsupported()
+    override fun insertTemporaryBasalWithTempId(temporaryBasal: TB): Single<TransactionResult<TB>> = unsupported()
+    override fun getExtendedBolusActiveAt(timestamp: Long): EB? = null
+    override fun getOldestExtendedBolusRecord(): EB? = extendedBoluses.firstOrNull()
+    override fun getLastExtendedBolusId(): Long? = null
+    override fun getExtendedBolusByNSId(nsId: String): EB? = null
+    override fun getExtendedBolusesStartingFromTimeToTime(startTime: Long, endTime: Long, ascending: Boolean): List<EB> = extendedBoluses.between(startTime, min(endTime, now()), ascending) { it.timestamp }
+    override fun getExtendedBolusesStartingFromTime(startTime: Long, ascending: Boolean): Single<List<EB>> = Single.just(extendedBoluses.between(startTime, now(), ascending) { it.timestamp })
+    override fun getExtendedBolusStartingFromTimeIncludingInvalid(startTime: Long, ascending: Boolean): Single<List<EB>> = Single.just(emptyList())
+    override fun getNextSyncElementExtendedBolus(id: Long): Maybe<Pair<EB, EB>> = Maybe.empty()
+    override fun invalidateExtendedBolus(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<EB>> = unsupported()
+    override fun syncNsExtendedBoluses(extendedBoluses: List<EB>, doLog: Boolean): Single<TransactionResult<EB>> = unsupported()
+    override fun updateExtendedBolusesNsIds(extendedBoluses: List<EB>): Single<TransactionResult<EB>> = unsupported()
+    override fun syncPumpExtendedBolus(extendedBolus: EB): Single<TransactionResult<EB>> = unsupported()
+    override fun syncPumpStopExtendedBolusWithPumpId(timestamp: Long, endPumpId: Long, pumpType: PumpType, pumpSerial: String): Single<TransactionResult<EB>> = unsupported()
+    override fun getTemporaryTargetActiveAt(timestamp: Long): TT? = null
+    override fun getLastTemporaryTargetId(): Long? = null
+    override fun getTemporaryTargetByNSId(nsId: String): TT? = null
+    override fun getTemporaryTargetDataFromTime(timestamp: Long, ascending: Boolean): Single<List<TT>> = Single.just(emptyList())
+    override fun getTemporaryTargetDataIncludingInvalidFromTime(timestamp: Long, ascending: Boolean): Single<List<TT>> = Single.just(emptyList())
+    override fun getNextSyncElementTemporaryTarget(id: Long): Maybe<Pair<TT, TT>> = Maybe.empty()
+    override fun invalidateTemporaryTarget(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<TT>> = unsupported()
+    override fun insertAndCancelCurrentTemporaryTarget(temporaryTarget: TT, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<TT>> = unsupported()
+    override fun cancelCurrentTemporaryTargetIfAny(timestamp: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<TT>> = unsupported()
+    override fun syncNsTemporaryTargets(temporaryTargets: List<TT>, doLog: Boolean): Single<TransactionResult<TT>> = unsupported()
+    override fun updateTemporaryTargetsNsIds(temporaryTargets: List<TT>): Single<TransactionResult<TT>> = unsupported()
+    override fun getLastTherapyEventId(): Long? = null
+    override fun getTherapyEventByNSId(nsId: String): TE? = null
+    override fun getLastTherapyRecordUpToNow(type: TE.Type): TE? = null
+    override fun getTherapyEventDataFromToTime(from: Long, to: Long): Single<List<TE>> = Single.just(emptyList())
+    override fun getTherapyEventDataIncludingInvalidFromTime(timestamp: Long, ascending: Boolean): Single<List<TE>> = Single.just(emptyList())
+    override fun getTherapyEventDataFromTime(timestamp: Long, ascending: Boolean): Single<List<TE>> = Single.just(emptyList())
+    override fun getTherapyEventDataFromTime(timestamp: Long, type: TE.Type, ascending: Boolean): List<TE> = therapyEvents.filter { it.type == type }.between(timestamp, now(), ascending) { it.timestamp }
+    override fun getNextSyncElementTherapyEvent(id: Long): Maybe<Pair<TE, TE>> = Maybe.empty()
+    override fun insertPumpTherapyEventIfNewByTimestamp(therapyEvent: TE, timestamp: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<TE>> = unsupported()
+    override fun insertOrUpdateTherapyEvent(therapyEvent: TE): Single<TransactionResult<TE>> = unsupported()
+    override fun invalidateTherapyEvent(id: Long, action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>): Single<TransactionResult<TE>> = unsupported()
+    override fun invalidateTherapyEventsWithNote(note: String, action: Action, source: Sources): Single<TransactionResult<TE>> = unsupported()
+    override fun syncNsTherapyEvents(therapyEvents: List<TE>, doLog: Boolean): Single<TransactionResult<TE>> = unsupported()
+    override fun updateTherapyEventsNsIds(therapyEvents: List<TE>): Single<TransactionResult<TE>> = unsupported()
+    override fun getNextSyncElementDeviceStatus(id: Long): Maybe<DS> = Maybe.empty()
+    override fun getLastDeviceStatusId(): Long? = null
+    override fun insertDeviceStatus(deviceStatus: DS) {}
+    override fun updateDeviceStatusesNsIds(deviceStatuses: List<DS>): Single<TransactionResult<DS>> = unsupported()
+    override fun getHeartRatesFromTime(startTime: Long): List<HR> = emptyList()
+    override fun getHeartRatesFromTimeToTime(startTime: Long, endTime: Long): List<HR> = emptyList()
+    override fun insertOrUpdateHeartRate(heartRate: HR): Single<TransactionResult<HR>> = unsupported()
+    override fun getFoods(): Single<List<FD>> = Single.just(emptyList())
+    override fun getNextSyncElementFood(id: Long): Maybe<Pair<FD, FD>> = Maybe.empty()
+    override fun getLastFoodId(): Long? = null
+    override fun invalidateFood(id: Long, action: Action, source: Sources): Single<TransactionResult<FD>> = unsupported()
+    override fun syncNsFood(foods: List<FD>): Single<TransactionResult<FD>> = unsupported()
+    override fun updateFoodsNsIds(foods: List<FD>): Single<TransactionResult<FD>> = unsupported()
+    override fun insertUserEntries(entries: List<UE>): Single<TransactionResult<UE>> = unsupported()
+    override fun getUserEntryDataFromTime(timestamp: Long): Single<List<UE>> = Single.just(emptyList())
+    override fun getUserEntryFilteredDataFromTime(timestamp: Long): Single<List<UE>> = Single.just(emptyList())
+    override fun clearCachedTddData(timestamp: Long) {}
+    override fun getLastTotalDailyDoses(count: Int, ascending: Boolean): List<TDD> = emptyList()
+    override fun getCalculatedTotalDailyDose(timestamp: Long): TDD? = null
+    override fun insertOrUpdateCachedTotalDailyDose(totalDailyDose: TDD): Single<TransactionResult<TDD>> = unsupported()
+    override fun insertOrUpdateTotalDailyDose(totalDailyDose: TDD): Single<TransactionResult<TDD>> = unsupported()
+    override fun getStepsCountFromTime(from: Long): List<SC> = emptyList()
+    override fun getStepsCountFromTimeToTime(startTime: Long, endTime: Long): List<SC> = emptyList()
+    override fun getLastStepsCountFromTimeToTime(startTime: Long, endTime: Long): SC? = null
+    override fun insertOrUpdateStepsCount(stepsCount: SC): Single<TransactionResult<SC>> = unsupported()
+    override fun insertVersionChangeIfChanged(versionName: String, versionCode: Int, gitRemote: String?, commitHash: String?): Completable = unsupported()
+    override fun collectNewEntriesSince(since: Long, until: Long, limit: Int, offset: Int): NE = unsupported()
+
+    private fun unsupported(): Nothing = throw UnsupportedOperationException("Not available in benchmarks")
+
+    private inline fun <T> List<T>.between(start: Long, end: Long, ascending: Boolean, crossinline timestamp: (T) -> Long): List<T> =
+        filter { timestamp(it) in start..end }.let { if (ascending) it else it.asReversed() }
+}
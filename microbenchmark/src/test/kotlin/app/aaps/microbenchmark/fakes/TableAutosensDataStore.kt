@@ -0,0 +1,39 @@
+package app.aaps.microbenchmark.fakes
+
+import androidx.collection.LongSparseArray
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.GV
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.utils.DateUtil
+
+/**
+ * AutosensDataStore over prepared [autosensDataTable] keyed by exact data time.
+ * Plain implementation instead of mock, sensitivity detection reads the table for every entry.
+ */
+class TableAutosensDataStore(override var autosensDataTable: LongSparseArray<AutosensData>) : AutosensDataStore {
+
+    override val dataLock: Any = Any()
+    override var bgReadings: List<GV> = emptyList()
+    override var bucketedData: MutableList<InMemoryGlucoseValue>? = null
+    override var lastUsed5minCalculation: Boolean? = null
+
+    override fun lastBg(): InMemoryGlucoseValue? = null
+    override fun actualBg(): InMemoryGlucoseValue? = null
+    override fun lastDataTime(dateUtil: DateUtil): String = ""
+    override fun clone(): AutosensDataStore = TableAutosensDataStore(autosensDataTable.clone())
+    override fun getBgReadingsDataTableCopy(): List<GV> = bgReadings
+    override fun getLastAutosensData(reason: String, aapsLogger: AAPSLogger, dateUtil: DateUtil): AutosensData? =
+        if (autosensDataTable.size() > 0) autosensDataTable.valueAt(autosensDataTable.size() - 1) else null
+
+    override fun getAutosensDataAtTime(fromTime: Long): AutosensData? = autosensDataTable[fromTime]
+    override fun getBucketedDataTableCopy(): MutableList<InMemoryGlucoseValue>? = bucketedData?.toMutableList()
+    override fun createBucketedData(aapsLogger: AAPSLogger, dateUtil: DateUtil) {}
+    override fun slowAbsorptionPercentage(timeInMinutes: Int): Double = 0.0
+    override fun newHistoryData(time: Long, aapsLogger: AAPSLogger, dateUtil: DateUtil) {}
+    override fun roundUpTime(time: Long): Long = time
+    override fun reset() {
+        autosensDataTable = LongSparseArray()
+    }
+}
@@ -0,0 +1,79 @@
+package app.aaps.microbenchmark.replay
+
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.rx.events.Event
+import app.aaps.core.interfaces.utils.DateUtil
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.workflow.iob.IobCobOref1Calculation
+import app.aaps.workflow.iob.IobCobOref1Worker
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+
+/**
+ * CalculationWorkflow running the calculation part of CalculationWorkflowImpl
+ * (LoadBgDataWorker, IobCobOref1Worker) on [executor] instead of WorkManager.
+ * Graph series are not prepared.
+ */
+class ExecutorCalculationWorkflow(
+    private val executor: ExecutorService,
+    private val aapsLogger: AAPSLogger,
+    private val dateUtil: DateUtil,
+    private val persistenceLayer: PersistenceLayer,
+    private val activePlugin: ActivePlugin,
+    private val iobCobOref1Calculation: IobCobOref1Calculation
+) : CalculationWorkflow {
+
+    @Volatile private var running: Future<IobCobOref1Calculation.Outcome>? = null
+    @Volatile private var stopped = false
+
+    override fun stopCalculation(job: String, from: String) {
+        stopped = true
+    }
+
+    override fun runCalculation(
+        job: String,
+        iobCobCalculator: IobCobCalculator,
+        overviewData: OverviewData,
+        reason: String,
+        end: Long,
+        bgDataReload: Boolean,
+        cause: Event?,
+        changes: Set<CalculationWorkflow.Input>
+    ) {
+        aapsLogger.debug(LTag.WORKER, "Starting calculation: $reason to ${dateUtil.dateAndTimeAndSecondsString(end)}")
+        running = executor.submit<IobCobOref1Calculation.Outcome> {
+            stopped = false
+            if (bgDataReload) loadBgData(iobCobCalculator, end)
+            iobCobOref1Calculation.calculate(
+                IobCobOref1Worker.IobCobOref1WorkerData(iobCobCalculator, reason, end, job == CalculationWorkflow.MAIN_CALCULATION, cause)
+            ) { stopped }
+        }
+    }
+
+    /**
+     * Wait for last [runCalculation]
+     */
+    fun await(): IobCobOref1Calculation.Outcome? = running?.get()
+
+    override fun runOnReceivedPredictions(overviewData: OverviewData) {}
+    override fun runOnEventTherapyEventChange(overviewData: OverviewData) {}
+    override fun runOnScaleChanged(iobCobCalculator: IobCobCalculator, overviewData: OverviewData) {}
+
+    // same as LoadBgDataWorker
+    private fun loadBgData(iobCobCalculator: IobCobCalculator, to: Long) {
+        val ads = iobCobCalculator.ads
+        synchronized(ads.dataLock) {
+            val start = to - T.hours((24 + 10 /* max dia */).toLong()).msecs()
+            ads.bgReadings = persistenceLayer.getBgReadingsDataFromTimeToTime(start, to + T.mins(2).msecs(), false)
+            ads.createBucketedData(aapsLogger, dateUtil)
+            ads.bucketedData?.let { ads.bucketedData = activePlugin.activeSmoothing.smooth(it) }
+        }
+        iobCobCalculator.clearCache()
+    }
+}
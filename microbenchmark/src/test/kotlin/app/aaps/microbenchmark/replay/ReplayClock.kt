@@ -0,0 +1,6 @@
+package app.aaps.microbenchmark.replay
+
+/**
+ * Time of replay. Answers dateUtil.now() of the whole calculation pipeline instead of system clock.
+ */
+class ReplayClock(@Volatile var now: Long)
@@ -0,0 +1,35 @@
+package app.aaps.microbenchmark.replay
+
+import org.mockito.Mockito
+import java.util.concurrent.Executors
+
+/**
+ * Headless replay of recorded history through the loop on plain JVM:
+ * LoadBgDataWorker -> IobCobOref1Worker -> OpenAPSSMBPlugin.invoke -> DetermineBasalSMB.
+ *
+ * Time is driven by [ReplayClock] in steps of [ReplayScenario.step], data comes from in-memory PersistenceLayer
+ * and calculation runs on executor instead of WorkManager.
+ * Results are not enacted, recorded treatments are replayed as they are.
+ */
+object ReplayEngine {
+
+    fun run(scenario: ReplayScenario): ReplayResult = runAll(listOf(scenario), 1).single()
+
+    /**
+     * Run independent [scenarios] (ie. parameter sweep) on [threads] threads
+     *
+     * @return results in order of [scenarios]
+     */
+    fun runAll(scenarios: List<ReplayScenario>, threads: Int = Runtime.getRuntime().availableProcessors()): List<ReplayResult> {
+        val pool = Executors.newFixedThreadPool(threads.coerceIn(1, scenarios.size.coerceAtLeast(1)))
+        try {
+            return scenarios
+                .map { scenario -> pool.submit<ReplayResult> { ReplayEnvironment(scenario).run() } }
+                .map { it.get() }
+        } finally {
+            pool.shutdown()
+            // inline mocks are global, clear them when all scenarios are finished
+            Mockito.framework().clearInlineMocks()
+        }
+    }
+}
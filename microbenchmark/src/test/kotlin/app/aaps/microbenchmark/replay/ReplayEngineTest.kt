@@ -0,0 +1,51 @@
+package app.aaps.microbenchmark.replay
+
+import app.aaps.core.data.time.T
+import app.aaps.core.keys.BooleanKey
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.interfaces.Preferences
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import java.io.File
+
+class ReplayEngineTest {
+
+    private val end = 1_656_357_600_000L
+    private val history = ReplayHistory.synthetic(end, days = 2)
+
+    private fun scenario(name: String, preferences: (Preferences) -> Unit = {}) =
+        ReplayScenario(name, history, from = end - T.hours(2).msecs(), to = end, preferences = preferences)
+
+    @Test
+    fun replayTest() {
+        val result = ReplayEngine.run(scenario("default"))
+
+        assertThat(result.steps).hasSize(25)
+        assertThat(result.steps.map { it.time }).isInStrictOrder()
+        result.steps.forEach { step ->
+            assertThat(step.result).isNotNull()
+            assertThat(step.result?.timestamp).isEqualTo(step.time)
+            assertThat(step.result?.eventualBG).isNotNull()
+            assertThat(step.calculationNanos).isGreaterThan(0L)
+        }
+        result.write(File("build/reports/replay/default.jsonl"))
+    }
+
+    @Test
+    fun parallelSweepTest() {
+        val sweep = listOf(1.0, 3.0, 8.0).map { maxIob ->
+            scenario("maxIob=$maxIob") {
+                it.put(BooleanKey.GeneralSimpleMode, false)
+                it.put(DoubleKey.ApsSmbMaxIob, maxIob)
+            }
+        }
+        val sequential = ReplayEngine.runAll(sweep, threads = 1)
+        val parallel = ReplayEngine.runAll(sweep, threads = sweep.size)
+
+        // same inputs produce same results regardless of threading
+        for (i in sweep.indices)
+            assertThat(parallel[i].steps.map { it.result?.serialize() }).isEqualTo(sequential[i].steps.map { it.result?.serialize() })
+        // higher max IOB never delivers less
+        assertThat(sequential.map { result -> result.steps.sumOf { it.result?.units ?: 0.0 } }).isInOrder()
+    }
+}
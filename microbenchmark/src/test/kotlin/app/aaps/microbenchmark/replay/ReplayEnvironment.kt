@@ -0,0 +1,152 @@
+package app.aaps.microbenchmark.replay
+
+import app.aaps.core.data.pump.defs.PumpDescription
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.RT
+import app.aaps.core.interfaces.bgQualityCheck.BgQualityCheck
+import app.aaps.core.interfaces.constraints.Constraint
+import app.aaps.core.interfaces.nsclient.ProcessedDeviceStatusData
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profiling.Profiler
+import app.aaps.core.interfaces.pump.Pump
+import app.aaps.core.interfaces.stats.TddCalculator
+import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.core.objects.constraints.ConstraintObject
+import app.aaps.implementation.iob.AutosensDataObject
+import app.aaps.implementation.sharedPreferences.PreferencesImpl
+import app.aaps.microbenchmark.fakes.FakeActivePlugin
+import app.aaps.microbenchmark.fakes.InMemoryPersistenceLayer
+import app.aaps.plugins.aps.openAPSSMB.DetermineBasalSMB
+import app.aaps.plugins.aps.openAPSSMB.GlucoseStatusCalculatorSMB
+import app.aaps.plugins.aps.openAPSSMB.OpenAPSSMBPlugin
+import app.aaps.plugins.insulin.InsulinOrefRapidActingPlugin
+import app.aaps.plugins.main.iob.iobCobCalculator.IobCobCalculatorPlugin
+import app.aaps.plugins.sensitivity.SensitivityOref1Plugin
+import app.aaps.plugins.smoothing.NoSmoothingPlugin
+import app.aaps.shared.impl.sharedPreferences.SPImpl
+import app.aaps.shared.tests.SharedPreferencesMock
+import app.aaps.shared.tests.TestBaseWithProfile
+import app.aaps.workflow.iob.IobCobOref1Calculation
+import dagger.Lazy
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.whenever
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import javax.inject.Provider
+
+/**
+ * Object graph of one [ReplayScenario]: real calculation classes wired like Dagger does
+ * on top of [TestBaseWithProfile] mocks. Every scenario gets own environment so scenarios can run in parallel.
+ *
+ * ConstraintsChecker is reduced to constraints of OpenAPSSMBPlugin.
+ */
+internal class ReplayEnvironment(private val scenario: ReplayScenario) : TestBaseWithProfile() {
+
+    @Mock lateinit var overviewData: OverviewData
+    @Mock lateinit var uiInteraction: UiInteraction
+    @Mock lateinit var tddCalculator: TddCalculator
+    @Mock lateinit var bgQualityCheck: BgQualityCheck
+    @Mock lateinit var profiler: Profiler
+    @Mock lateinit var processedDeviceStatusData: ProcessedDeviceStatusData
+
+    private val clock = ReplayClock(scenario.from)
+    private lateinit var workflow: ExecutorCalculationWorkflow
+    private lateinit var iobCobCalculatorPlugin: IobCobCalculatorPlugin
+    private lateinit var openAPSSMBPlugin: OpenAPSSMBPlugin
+
+    fun run(): ReplayResult {
+        // JUnit callbacks, inline mocks are cleared by ReplayEngine when all scenarios are finished
+        prepareMocking()
+        prepareMock()
+        val executor = Executors.newSingleThreadExecutor()
+        try {
+            wire(executor)
+            return ReplayResult(scenario, replay())
+        } finally {
+            executor.shutdown()
+            cleanupMock()
+        }
+    }
+
+    private fun replay(): List<ReplayStep> {
+        val steps = mutableListOf<ReplayStep>()
+        var time = scenario.from
+        while (time <= scenario.to) {
+            clock.now = time
+            val calculationStart = System.nanoTime()
+            workflow.runCalculation(CalculationWorkflow.MAIN_CALCULATION, iobCobCalculatorPlugin, overviewData, "Replay", time, bgDataReload = true, cause = null)
+            workflow.await()
+            val apsStart = System.nanoTime()
+            openAPSSMBPlugin.invoke("Replay", false)
+            val apsEnd = System.nanoTime()
+            steps.add(ReplayStep(time, openAPSSMBPlugin.lastAPSResult?.rawData() as RT?, apsStart - calculationStart, apsEnd - apsStart))
+            time += scenario.step
+        }
+        return steps
+    }
+
+    private fun wire(executor: ExecutorService) {
+        val history = scenario.history
+        whenever(dateUtil.now()).thenAnswer { clock.now }
+        whenever(processedTbrEbData.getTempBasalIncludingConvertedExtended(any())).thenAnswer { history.temporaryBasalAt(it.getArgument(0)) }
+
+        val persistenceLayer = InMemoryPersistenceLayer(
+            boluses = history.boluses,
+            temporaryBasals = history.temporaryBasals,
+            glucose = history.glucose,
+            carbs = history.carbs,
+            effectiveProfileSwitches = history.effectiveProfileSwitches,
+            now = { clock.now }
+        )
+        // plugins are assigned below, activePlugin mock answers the same ones for objects of TestBaseWithProfile
+        val replayActivePlugin = FakeActivePlugin()
+        val profileFunction = ReplayProfileFunction(history.effectiveProfileSwitches, replayActivePlugin, clock)
+        val settings: Preferences = PreferencesImpl(SPImpl(SharedPreferencesMock(), context), Lazy { profileUtil }, Lazy { profileFunction }, Lazy { hardLimits }, persistenceLayer, config, dateUtil, rxBus)
+        scenario.preferences(settings)
+
+        testPumpPlugin.pumpDescription = PumpDescription()
+        val pump = object : Pump by testPumpPlugin {
+            override val baseBasalRate: Double get() = profileFunction.getProfile()?.getBasal(clock.now) ?: 0.0
+        }
+        replayActivePlugin.activePump = pump
+        replayActivePlugin.activeInsulin = InsulinOrefRapidActingPlugin(rh, profileFunction, rxBus, aapsLogger, config, hardLimits, uiInteraction)
+        replayActivePlugin.activeSensitivity = SensitivityOref1Plugin(aapsLogger, rh, settings, profileFunction, dateUtil, persistenceLayer)
+        replayActivePlugin.activeSmoothing = NoSmoothingPlugin(aapsLogger, rh)
+        whenever(activePlugin.activePump).thenReturn(pump)
+        whenever(activePlugin.activeInsulin).thenReturn(replayActivePlugin.activeInsulin)
+        whenever(activePlugin.activeSensitivity).thenReturn(replayActivePlugin.activeSensitivity)
+        whenever(activePlugin.activeSmoothing).thenReturn(replayActivePlugin.activeSmoothing)
+
+        val autosensDataProvider = Provider<AutosensData> { AutosensDataObject(aapsLogger, settings, dateUtil) }
+        val iobCobOref1Calculation = IobCobOref1Calculation(
+            aapsLogger, settings, rxBus, profileFunction, replayActivePlugin, config, profiler, dateUtil, persistenceLayer, autosensDataProvider, decimalFormatter, processedDeviceStatusData
+        )
+        workflow = ExecutorCalculationWorkflow(executor, aapsLogger, dateUtil, persistenceLayer, replayActivePlugin, iobCobOref1Calculation)
+        iobCobCalculatorPlugin = IobCobCalculatorPlugin(
+            aapsLogger, aapsSchedulers, rxBus, settings, rh, profileFunction, replayActivePlugin, fabricPrivacy, dateUtil,
+            persistenceLayer, overviewData, workflow, decimalFormatter, processedTbrEbData
+        )
+        val glucoseStatusCalculator = GlucoseStatusCalculatorSMB(aapsLogger, iobCobCalculatorPlugin, dateUtil, decimalFormatter, deltaCalculator)
+        openAPSSMBPlugin = OpenAPSSMBPlugin(
+            aapsLogger, rxBus, constraintsChecker, rh, profileFunction, profileUtil, config, replayActivePlugin, iobCobCalculatorPlugin, hardLimits, settings, dateUtil,
+            processedTbrEbData, persistenceLayer, glucoseStatusCalculator, tddCalculator, bgQualityCheck, uiInteraction, DetermineBasalSMB(profileUtil, fabricPrivacy),
+            profiler, glucoseStatusCalculator, apsResultProvider
+        )
+        replayActivePlugin.activeAPS = openAPSSMBPlugin
+        whenever(activePlugin.activeAPS).thenReturn(openAPSSMBPlugin)
+        openAPSSMBPlugin.setPluginEnabledBlocking(openAPSSMBPlugin.getType(), true)
+
+        whenever(constraintsChecker.isAdvancedFilteringEnabled()).thenAnswer { ConstraintObject(true, aapsLogger) }
+        whenever(constraintsChecker.isAutosensModeEnabled()).thenAnswer { openAPSSMBPlugin.isAutosensModeEnabled(ConstraintObject(true, aapsLogger)) }
+        whenever(constraintsChecker.isUAMEnabled()).thenAnswer { openAPSSMBPlugin.isUAMEnabled(ConstraintObject(true, aapsLogger)) }
+        whenever(constraintsChecker.isSMBModeEnabled(any<Constraint<Boolean>>())).thenAnswer { openAPSSMBPlugin.isSMBModeEnabled(it.getArgument(0)) }
+        whenever(constraintsChecker.getMaxIOBAllowed()).thenAnswer { openAPSSMBPlugin.applyMaxIOBConstraints(ConstraintObject(Double.MAX_VALUE, aapsLogger)) }
+        whenever(constraintsChecker.getMaxBasalAllowed(any())).thenAnswer {
+            openAPSSMBPlugin.applyBasalConstraints(ConstraintObject(hardLimits.maxBasal(), aapsLogger), it.getArgument<Profile>(0))
+        }
+    }
+}
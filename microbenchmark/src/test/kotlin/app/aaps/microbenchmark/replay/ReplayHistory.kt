@@ -0,0 +1,73 @@
+package app.aaps.microbenchmark.replay
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.EPS
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.ICfg
+import app.aaps.core.data.model.SourceSensor
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.model.data.Block
+import app.aaps.core.data.model.data.TargetBlock
+import app.aaps.core.data.time.T
+import app.aaps.microbenchmark.data.SyntheticDay
+
+/**
+ * Recorded history replayed by [ReplayEngine]. All lists are sorted by timestamp, oldest first.
+ * Carbs are expected expanded (without duration).
+ */
+class ReplayHistory(
+    val glucose: List<GV>,
+    val boluses: List<BS>,
+    val temporaryBasals: List<TB>,
+    val carbs: List<CA>,
+    val effectiveProfileSwitches: List<EPS>
+) {
+
+    fun temporaryBasalAt(time: Long): TB? = temporaryBasals.lastOrNull { it.timestamp <= time }?.takeIf { time < it.timestamp + it.duration }
+
+    companion object {
+
+        /**
+         * [days] of [SyntheticDay] ending at [end] with carbs for every meal bolus and [flatProfile] active
+         */
+        fun synthetic(end: Long, days: Int, seed: Int = 1): ReplayHistory {
+            val synthetic = (days - 1 downTo 0).map { SyntheticDay(end - T.days(it.toLong()).msecs(), seed + it) }
+            val boluses = synthetic.flatMap { it.boluses }
+            return ReplayHistory(
+                glucose = synthetic.flatMap { day ->
+                    day.glucose.asReversed().map { GV(timestamp = it.timestamp, raw = it.value, value = it.value, trendArrow = TrendArrow.NONE, noise = null, sourceSensor = SourceSensor.UNKNOWN) }
+                },
+                boluses = boluses,
+                temporaryBasals = synthetic.flatMap { it.temporaryBasals },
+                carbs = boluses.filter { it.type == BS.Type.NORMAL }.map { CA(timestamp = it.timestamp, duration = 0, amount = it.amount * 10) },
+                effectiveProfileSwitches = listOf(flatProfile(synthetic.first().start - T.hours(1).msecs()))
+            )
+        }
+
+        /**
+         * Profile with single value for whole day.
+         * OpenAPSSMBPlugin reads some profile values at wall clock time, so flat profile keeps replay independent of it.
+         */
+        fun flatProfile(timestamp: Long, basal: Double = 1.0, isf: Double = 50.0, ic: Double = 10.0, target: Double = 100.0): EPS {
+            val day = T.hours(24).msecs()
+            return EPS(
+                timestamp = timestamp,
+                basalBlocks = listOf(Block(day, basal)),
+                isfBlocks = listOf(Block(day, isf)),
+                icBlocks = listOf(Block(day, ic)),
+                targetBlocks = listOf(TargetBlock(day, target, target)),
+                glucoseUnit = GlucoseUnit.MGDL,
+                originalProfileName = "Replay",
+                originalCustomizedName = "Replay",
+                originalTimeshift = 0,
+                originalPercentage = 100,
+                originalDuration = 0,
+                originalEnd = 0,
+                iCfg = ICfg("Rapid-Acting Oref", T.hours(5).msecs(), T.mins(75).msecs())
+            )
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package app.aaps.microbenchmark.replay
+
+import app.aaps.core.data.model.EPS
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.PS
+import app.aaps.core.data.ue.Action
+import app.aaps.core.data.ue.Sources
+import app.aaps.core.data.ue.ValueWithUnit
+import app.aaps.core.interfaces.plugin.ActivePlugin
+import app.aaps.core.interfaces.profile.Profile
+import app.aaps.core.interfaces.profile.ProfileFunction
+import app.aaps.core.interfaces.profile.ProfileStore
+import app.aaps.core.objects.profile.ProfileSealed
+
+/**
+ * ProfileFunction answering from recorded effective profile switches (oldest first) at time of [clock]
+ */
+class ReplayProfileFunction(
+    effectiveProfileSwitches: List<EPS>,
+    activePlugin: ActivePlugin,
+    private val clock: ReplayClock
+) : ProfileFunction {
+
+    // lazy: ProfileSealed reads activeAPS when created
+    private val profiles by lazy { effectiveProfileSwitches.map { ProfileSealed.EPS(it, activePlugin) } }
+
+    override fun getProfileName(): String = "Replay"
+    override fun getOriginalProfileName(): String = "Replay"
+    override fun getProfileNameWithRemainingTime(): String = "Replay"
+    override fun isProfileValid(from: String): Boolean = getProfile() != null
+    override fun getUnits(): GlucoseUnit = GlucoseUnit.MGDL
+    override fun getProfile(): Profile? = getProfile(clock.now)
+    override fun getProfile(time: Long): Profile? = profiles.lastOrNull { it.timestamp <= time }
+    override fun getRequestedProfile(): PS? = null
+    override fun isProfileChangePending(): Boolean = false
+    override fun buildProfileSwitch(profileStore: ProfileStore, profileName: String, durationInMinutes: Int, percentage: Int, timeShiftInHours: Int, timestamp: Long): PS? = null
+
+    override fun createProfileSwitch(
+        profileStore: ProfileStore, profileName: String, durationInMinutes: Int, percentage: Int, timeShiftInHours: Int, timestamp: Long,
+        action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>
+    ): Boolean = false
+
+    override fun createProfileSwitch(
+        durationInMinutes: Int, percentage: Int, timeShiftInHours: Int,
+        action: Action, source: Sources, note: String?, listValues: List<ValueWithUnit>
+    ): Boolean = false
+}
@@ -0,0 +1,43 @@
+package app.aaps.microbenchmark.replay
+
+import app.aaps.core.interfaces.aps.RT
+import java.io.File
+
+/**
+ * Outcome of one loop run during replay
+ *
+ * @param result null if loop didn't produce result (missing glucose, profile ...)
+ * @param calculationNanos load of BG data and IOB/COB/autosens calculation
+ * @param apsNanos OpenAPSSMBPlugin.invoke
+ */
+class ReplayStep(
+    val time: Long,
+    val result: RT?,
+    val calculationNanos: Long,
+    val apsNanos: Long
+) {
+
+    fun toJson(): String = """{"time":$time,"calculationNanos":$calculationNanos,"apsNanos":$apsNanos,"result":${result?.serialize()}}"""
+}
+
+class ReplayResult(
+    val scenario: ReplayScenario,
+    val steps: List<ReplayStep>
+) {
+
+    val calculationNanos: Long get() = steps.sumOf { it.calculationNanos }
+    val apsNanos: Long get() = steps.sumOf { it.apsNanos }
+
+    /**
+     * Replayed time divided by time spent in calculation
+     */
+    val speedup: Double get() = (scenario.to - scenario.from + scenario.step) * 1_000_000.0 / (calculationNanos + apsNanos).coerceAtLeast(1)
+
+    /**
+     * Write steps as JSON lines
+     */
+    fun write(file: File) {
+        file.parentFile?.mkdirs()
+        file.printWriter().use { writer -> steps.forEach { writer.println(it.toJson()) } }
+    }
+}
@@ -0,0 +1,18 @@
+package app.aaps.microbenchmark.replay
+
+import app.aaps.core.data.time.T
+import app.aaps.core.keys.interfaces.Preferences
+
+/**
+ * One replay of [history] with loop invoked every [step] from [from] to [to] (inclusive)
+ *
+ * @param preferences applied on top of default preferences before the run, ie. point of parameter sweep
+ */
+class ReplayScenario(
+    val name: String,
+    val history: ReplayHistory,
+    val from: Long,
+    val to: Long,
+    val step: Long = T.mins(5).msecs(),
+    val preferences: (Preferences) -> Unit = {}
+)
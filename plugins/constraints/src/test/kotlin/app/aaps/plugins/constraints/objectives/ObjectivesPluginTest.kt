@@ -48,7 +48,7 @@ class ObjectivesPluginTest : TestBaseWithProfile() {
     @BeforeEach
     fun setupMock() {
         val sp = SPImpl(SharedPreferencesMock(), context)
-        emulatedPreferences = PreferencesImpl(sp, profileUtilLazy, profileFunctionLazy, hardLimitsLazy, persistenceLayer, config, dateUtil)
+        emulatedPreferences = PreferencesImpl(sp, profileUtilLazy, profileFunctionLazy, hardLimitsLazy, persistenceLayer, config, dateUtil, rxBus)
 
         val objectives = listOf(
             Objective0(emulatedPreferences, rh, dateUtil, activePlugin, virtualPumpPlugin, persistenceLayer, loop, iobCobCalculator, passwordCheck),
@@ -0,0 +1,103 @@
+package app.aaps.plugins.insulin
+
+import kotlin.math.ceil
+import kotlin.math.exp
+import kotlin.math.min
+import kotlin.math.pow
+
+/**
+ * Oref exponential insulin curve for one (dia, peak) pair sampled at 1 minute resolution.
+ *
+ * IOB and activity fractions (for 1U) are precomputed once and values between samples
+ * are linearly interpolated, so no exp() is evaluated per treatment.
+ * Times outside of [0, dia) are not sampled and calculated by the exact formula (0 after dia).
+ * Cumulative integrals of sampled curves allow to calculate insulin delivered over time interval (temp basals)
+ * without splitting it to small boluses.
+ *
+ * @param dia duration of insulin action in hours
+ * @param peak time of peak activity in minutes
+ */
+class InsulinCurve(val dia: Double, val peak: Int) {
+
+    private val td = dia * 60
+    private val tau: Double
+    private val a: Double
+    private val s: Double
+    private val iobSamples: DoubleArray
+    private val activitySamples: DoubleArray
+    private val iobPrefix: DoubleArray
+    private val activityPrefix: DoubleArray
+
+    init {
+        val tp = peak.toDouble()
+        tau = tp * (1 - tp / td) / (1 - 2 * tp / td)
+        a = 2 * tau / td
+        s = 1 / (1 - a + (1 + a) * exp(-td / tau))
+        // last sample at or after td to interpolate last minute
+        val samples = ceil(td).toInt() + 1
+        iobSamples = DoubleArray(samples) { exactIobFraction(it.toDouble()) }
+        activitySamples = DoubleArray(samples) { exactActivityFraction(it.toDouble()) }
+        iobPrefix = prefixSums(iobSamples)
+        activityPrefix = prefixSums(activitySamples)
+    }
+
+    /**
+     * @param t minutes from bolus
+     * @return fraction of bolus still on board
+     */
+    fun iobFraction(t: Double): Double =
+        when {
+            t >= td -> 0.0
+            t < 0   -> exactIobFraction(t)
+            else    -> interpolate(iobSamples, t)
+        }
+
+    /**
+     * @param t minutes from bolus
+     * @return fraction of bolus absorbed per minute
+     */
+    fun activityFraction(t: Double): Double =
+        when {
+            t >= td -> 0.0
+            t < 0   -> exactActivityFraction(t)
+            else    -> interpolate(activitySamples, t)
+        }
+
+    /**
+     * @param t minutes from bolus
+     * @return integral of [iobFraction] over [0, t]
+     */
+    fun iobIntegral(t: Double): Double = integral(iobSamples, iobPrefix, t)
+
+    /**
+     * @param t minutes from bolus
+     * @return integral of [activityFraction] over [0, t]
+     */
+    fun activityIntegral(t: Double): Double = integral(activitySamples, activityPrefix, t)
+
+    fun exactIobFraction(t: Double): Double =
+        1 - s * (1 - a) * ((t.pow(2.0) / (tau * td * (1 - a)) - t / tau - 1) * exp(-t / tau) + 1)
+
+    fun exactActivityFraction(t: Double): Double =
+        (s / tau.pow(2.0)) * t * (1 - t / td) * exp(-t / tau)
+
+    private fun interpolate(samples: DoubleArray, t: Double): Double {
+        val index = t.toInt()
+        val weight = t - index
+        return samples[index] + (samples[index + 1] - samples[index]) * weight
+    }
+
+    // exact integral of linearly interpolated samples, 0 before bolus and constant after dia
+    private fun integral(samples: DoubleArray, prefix: DoubleArray, t: Double): Double {
+        val x = t.coerceIn(0.0, td)
+        val index = min(x.toInt(), samples.size - 2)
+        val weight = x - index
+        return prefix[index] + samples[index] * weight + (samples[index + 1] - samples[index]) * weight * weight / 2
+    }
+
+    private fun prefixSums(samples: DoubleArray): DoubleArray {
+        val prefix = DoubleArray(samples.size)
+        for (i in 1 until samples.size) prefix[i] = prefix[i - 1] + (samples[i - 1] + samples[i]) / 2
+        return prefix
+    }
+}
@@ -16,8 +16,6 @@ import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.ui.UiInteraction
 import app.aaps.core.interfaces.utils.HardLimits
-import kotlin.math.exp
-import kotlin.math.pow
 
 /**
  * Created by adrian on 13.08.2017.
@@ -72,27 +70,60 @@ abstract class InsulinOrefBasePlugin(
             return profile?.dia ?: hardLimits.minDia()
         }
 
+    // most recently used first, replaced as a whole so readers need no lock
+    @Volatile private var curves: Array<InsulinCurve> = emptyArray()
+
+    /**
+     * Sampled curve for [dia] and current peak.
+     * Last [CACHED_CURVES] curves are kept, so callers alternating dia (profile switch in history) don't rebuild them.
+     */
+    fun curve(dia: Double): InsulinCurve {
+        val peak = peak
+        val cached = curves
+        for (index in cached.indices) {
+            val curve = cached[index]
+            if (curve.dia == dia && curve.peak == peak) {
+                if (index > 0) curves = arrayOf(curve) + cached.filterIndexed { i, _ -> i != index }
+                return curve
+            }
+        }
+        return InsulinCurve(dia, peak).also { curves = arrayOf(it) + cached.take(CACHED_CURVES - 1) }
+    }
+
     override fun iobCalcForTreatment(bolus: BS, time: Long, dia: Double): Iob {
-        assert(dia != 0.0)
-        assert(peak != 0)
         val result = Iob()
         if (bolus.amount != 0.0) {
-            val bolusTime = bolus.timestamp
-            val t = (time - bolusTime) / 1000.0 / 60.0
-            val td = dia * 60 //getDIA() always >= MIN_DIA
-            val tp = peak.toDouble()
-            // force the IOB to 0 if over DIA hours have passed
-            if (t < td) {
-                val tau = tp * (1 - tp / td) / (1 - 2 * tp / td)
-                val a = 2 * tau / td
-                val s = 1 / (1 - a + (1 + a) * exp(-td / tau))
-                result.activityContrib = bolus.amount * (s / tau.pow(2.0)) * t * (1 - t / td) * exp(-t / tau)
-                result.iobContrib = bolus.amount * (1 - s * (1 - a) * ((t.pow(2.0) / (tau * td * (1 - a)) - t / tau - 1) * exp(-t / tau) + 1))
-            }
+            result.iobContrib = iobCalc(bolus.amount, bolus.timestamp, time, dia)
+            result.activityContrib = activityCalc(bolus.amount, bolus.timestamp, time, dia)
         }
         return result
     }
 
+    override fun iobCalc(amount: Double, bolusTime: Long, time: Long, dia: Double): Double {
+        assert(dia != 0.0)
+        assert(peak != 0)
+        if (amount == 0.0) return 0.0
+        // force the IOB to 0 if over DIA hours have passed
+        return amount * curve(dia).iobFraction((time - bolusTime) / 1000.0 / 60.0)
+    }
+
+    override fun activityCalc(amount: Double, bolusTime: Long, time: Long, dia: Double): Double {
+        if (amount == 0.0) return 0.0
+        return amount * curve(dia).activityFraction((time - bolusTime) / 1000.0 / 60.0)
+    }
+
+    override fun iobCalcForSegment(rate: Double, start: Long, end: Long, time: Long, dia: Double): Double {
+        if (rate == 0.0 || end <= start) return 0.0
+        val curve = curve(dia)
+        return rate / 60.0 * (curve.iobIntegral((time - start) / 1000.0 / 60.0) - curve.iobIntegral((time - end) / 1000.0 / 60.0))
+    }
+
+    override fun activityCalcForSegment(rate: Double, start: Long, end: Long, time: Long, dia: Double): Double {
+        if (rate == 0.0 || end <= start) return 0.0
+        val curve = curve(dia)
+        return rate / 60.0 * (curve.activityIntegral((time - start) / 1000.0 / 60.0) - curve.activityIntegral((time - end) / 1000.0 / 60.0))
+    }
+
     override val iCfg: ICfg
         get() = ICfg(friendlyName, (dia * 1000.0 * 3600.0).toLong(), T.mins(peak.toLong()).msecs())
 
@@ -108,4 +139,9 @@ abstract class InsulinOrefBasePlugin(
 
     abstract override val peak: Int
     abstract fun commentStandardText(): String
+
+    companion object {
+
+        private const val CACHED_CURVES = 4
+    }
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package app.aaps.plugins.insulin
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import kotlin.math.abs
+import kotlin.math.max
+
+class InsulinCurveTest {
+
+    @Test
+    fun accuracyTest() {
+        // all peaks allowed by IntKey.InsulinOrefPeak and used dia values
+        for (peak in listOf(35, 45, 55, 75, 90, 120))
+            for (dia in listOf(5.0, 5.3, 6.0, 7.5, 9.0)) {
+                val curve = InsulinCurve(dia, peak)
+                var maxIobError = 0.0
+                var maxActivityError = 0.0
+                var t = 0.0
+                while (t < dia * 60) {
+                    maxIobError = max(maxIobError, abs(curve.iobFraction(t) - curve.exactIobFraction(t)))
+                    maxActivityError = max(maxActivityError, abs(curve.activityFraction(t) - curve.exactActivityFraction(t)))
+                    t += 0.01
+                }
+                // 0.0002U per 1U bolus, far below pump resolution
+                assertThat(maxIobError).isLessThan(2e-4)
+                assertThat(maxActivityError).isLessThan(1e-5)
+            }
+    }
+
+    @Test
+    fun samplesAreExactTest() {
+        val curve = InsulinCurve(5.0, 75)
+        for (t in 0 until 300)
+            assertThat(curve.iobFraction(t.toDouble())).isEqualTo(curve.exactIobFraction(t.toDouble()))
+    }
+
+    @Test
+    fun outsideOfDiaTest() {
+        val curve = InsulinCurve(5.0, 75)
+        assertThat(curve.iobFraction(0.0)).isWithin(1e-9).of(1.0)
+        assertThat(curve.iobFraction(300.0)).isEqualTo(0.0)
+        assertThat(curve.activityFraction(301.0)).isEqualTo(0.0)
+        assertThat(curve.iobFraction(-10.0)).isEqualTo(curve.exactIobFraction(-10.0))
+    }
+
+    @Test
+    fun integralTest() {
+        val curve = InsulinCurve(5.5, 55)
+        assertThat(curve.iobIntegral(-5.0)).isEqualTo(0.0)
+        // integral of activity is absorbed insulin
+        for (t in listOf(10.0, 60.5, 150.25, 329.9))
+            assertThat(curve.activityIntegral(t)).isWithin(1e-3).of(1 - curve.iobFraction(t))
+        // numerical integration of interpolated curve
+        var sum = 0.0
+        for (i in 0 until 20000) sum += curve.iobFraction(i * 0.01 + 0.005) * 0.01
+        assertThat(curve.iobIntegral(200.0)).isWithin(1e-6).of(sum)
+        assertThat(curve.iobIntegral(400.0)).isEqualTo(curve.iobIntegral(330.0))
+    }
+}
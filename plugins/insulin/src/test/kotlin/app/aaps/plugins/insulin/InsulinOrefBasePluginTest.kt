@@ -101,4 +101,42 @@ class InsulinOrefBasePluginTest : TestBase() {
         treatment.amount = 10.0
         assertThat(sut.iobCalcForTreatment(treatment, time, Constants.defaultDIA).iobContrib).isWithin(0.01).of(0.0)
     }
+
+    @Test
+    fun testCurveInvalidation() {
+        testPeak = 75
+        val curve = sut.curve(5.0)
+        assertThat(sut.curve(5.0)).isSameInstanceAs(curve)
+        // profile dia change
+        assertThat(sut.curve(6.0).dia).isEqualTo(6.0)
+        // peak preference change
+        testPeak = 55
+        assertThat(sut.curve(6.0).peak).isEqualTo(55)
+    }
+
+    @Test
+    fun testCurveCacheKeepsAlternatingDia() {
+        testPeak = 75
+        val curve5 = sut.curve(5.0)
+        val curve6 = sut.curve(6.0)
+        assertThat(sut.curve(5.0)).isSameInstanceAs(curve5)
+        assertThat(sut.curve(6.0)).isSameInstanceAs(curve6)
+        // least recently used is dropped
+        sut.curve(7.0)
+        sut.curve(8.0)
+        sut.curve(9.0)
+        assertThat(sut.curve(6.0)).isSameInstanceAs(curve6)
+        assertThat(sut.curve(5.0)).isNotSameInstanceAs(curve5)
+    }
+
+    @Test
+    fun testPrimitiveIobCalc() {
+        testPeak = 75
+        val time = System.currentTimeMillis()
+        val treatment = BS(timestamp = time - 90 * 60 * 1000, amount = 3.0, type = BS.Type.NORMAL)
+        val iob = sut.iobCalcForTreatment(treatment, time, 5.0)
+        assertThat(sut.iobCalc(3.0, treatment.timestamp, time, 5.0)).isEqualTo(iob.iobContrib)
+        assertThat(sut.activityCalc(3.0, treatment.timestamp, time, 5.0)).isEqualTo(iob.activityContrib)
+        assertThat(sut.iobCalc(0.0, treatment.timestamp, time, 5.0)).isEqualTo(0.0)
+    }
 }
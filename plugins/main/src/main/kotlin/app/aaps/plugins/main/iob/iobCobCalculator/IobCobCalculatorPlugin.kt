@@ -48,11 +48,14 @@ import app.aaps.core.keys.StringKey
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.extensions.combine
 import app.aaps.core.objects.extensions.convertedToAbsolute
+import app.aaps.core.objects.extensions.forEachBasalSegment
 import app.aaps.core.objects.extensions.iobCalc
 import app.aaps.core.objects.extensions.plus
 import app.aaps.core.objects.extensions.round
 import app.aaps.plugins.main.R
 import app.aaps.plugins.main.iob.iobCobCalculator.data.AutosensDataStoreObject
+import app.aaps.plugins.main.iob.iobCobCalculator.data.IobSeries
+import app.aaps.plugins.main.iob.iobCobCalculator.data.TreatmentsSnapshot
 import io.reactivex.rxjava3.disposables.CompositeDisposable
 import io.reactivex.rxjava3.kotlin.plusAssign
 import java.util.concurrent.Executors
@@ -95,11 +98,16 @@ class IobCobCalculatorPlugin @Inject constructor(
     private var iobTable = LongSparseArray<IobTotal>() // oldest at index 0
     private var basalDataTable = LongSparseArray<BasalData>() // oldest at index 0
 
-    override var ads: AutosensDataStore = AutosensDataStoreObject()
+    @Volatile override var ads: AutosensDataStore = AutosensDataStoreObject(dateUtil::now)
 
     private val dataLock = Any()
     private var thread: Thread? = null
 
+    // Boluses, TBRs and EBs used by historical IOB calculation. Reloaded from invalidated time on next access
+    private val treatmentsLock = Any()
+    private var treatments: TreatmentsSnapshot? = null
+    private var treatmentsInvalidFrom = Long.MAX_VALUE
+
     override fun onStart() {
         super.onStart()
         // EventConfigBuilderChange
@@ -114,7 +122,7 @@ class IobCobCalculatorPlugin @Inject constructor(
             .toObservable(EventEffectiveProfileSwitchChanged::class.java)
             .observeOn(aapsSchedulers.io)
             .subscribe({ event ->
-                           newHistoryData(event.startDate, false, event)
+                           newHistoryData(event.startDate, false, event, setOf(CalculationWorkflow.Input.PROFILE))
                        }, fabricPrivacy::logException)
         // EventPreferenceChange
         disposable += rxBus
@@ -147,7 +155,11 @@ class IobCobCalculatorPlugin @Inject constructor(
         disposable += rxBus
             .toObservable(EventNewHistoryData::class.java)
             .observeOn(aapsSchedulers.io)
-            .subscribe({ event -> scheduleHistoryDataChange(event) }, fabricPrivacy::logException)
+            .subscribe({ event ->
+                           // do not wait for scheduled recalculation, stale treatments must not be used
+                           invalidateTreatments(event.oldDataTimestamp)
+                           scheduleHistoryDataChange(event)
+                       }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventTherapyEventChange::class.java)
             .observeOn(aapsSchedulers.io)
@@ -166,7 +178,7 @@ class IobCobCalculatorPlugin @Inject constructor(
                         this,
                         overviewData,
                         "onEventAppInitialized",
-                        System.currentTimeMillis(),
+                        dateUtil.now(),
                         bgDataReload = true,
                         cause = it
                     )
@@ -192,7 +204,7 @@ class IobCobCalculatorPlugin @Inject constructor(
             iobCobCalculator = this,
             overviewData = overviewData,
             reason = reason,
-            end = System.currentTimeMillis(),
+            end = dateUtil.now(),
             bgDataReload = true,
             cause = event
         )
@@ -204,10 +216,53 @@ class IobCobCalculatorPlugin @Inject constructor(
             iobTable = LongSparseArray()
             basalDataTable = LongSparseArray()
         }
+        synchronized(treatmentsLock) {
+            treatments = null
+            treatmentsInvalidFrom = Long.MAX_VALUE
+        }
+    }
+
+    private fun invalidateTreatments(from: Long) {
+        synchronized(treatmentsLock) {
+            treatmentsInvalidFrom = min(treatmentsInvalidFrom, from)
+        }
     }
 
+    /**
+     * Cached snapshot containing treatments from [from].
+     * Snapshot is extended to the past if needed and invalidated part is reloaded.
+     */
+    private fun treatmentsFrom(from: Long): TreatmentsSnapshot =
+        synchronized(treatmentsLock) {
+            var snapshot = treatments
+            if (snapshot != null && treatmentsInvalidFrom != Long.MAX_VALUE) {
+                aapsLogger.debug(LTag.AUTOSENS) { "Reloading treatments from: ${dateUtil.dateAndTimeAndSecondsString(treatmentsInvalidFrom)}" }
+                snapshot = snapshot.reloadedFrom(treatmentsInvalidFrom, persistenceLayer)
+            }
+            treatmentsInvalidFrom = Long.MAX_VALUE
+            snapshot = when {
+                snapshot == null       -> TreatmentsSnapshot.load(persistenceLayer, from)
+                !snapshot.covers(from) -> snapshot.extendedTo(from, persistenceLayer)
+                else                   -> snapshot
+            }
+            treatments = snapshot
+            snapshot
+        }
+
+    /**
+     * Snapshot loaded directly from database for calculations which must see latest data (loop, UI)
+     */
+    private fun actualTreatments(toTime: Long): TreatmentsSnapshot = TreatmentsSnapshot.load(persistenceLayer, toTime - range())
+
+    /**
+     * Cached snapshot for past [time]. Cache is invalidated asynchronously after commit,
+     * so calculation reaching now loads actual treatments not to miss the latest one.
+     */
+    private fun treatmentsAt(time: Long): TreatmentsSnapshot =
+        if (time >= dateUtil.now()) actualTreatments(time) else treatmentsFrom(time - range())
+
     private fun oldestDataAvailable(): Long {
-        var oldestTime = System.currentTimeMillis()
+        var oldestTime = dateUtil.now()
         val oldestTempBasal = persistenceLayer.getOldestTemporaryBasalRecord()
         if (oldestTempBasal != null) oldestTime = min(oldestTime, oldestTempBasal.timestamp)
         val oldestExtendedBolus = persistenceLayer.getOldestExtendedBolusRecord()
@@ -234,16 +289,20 @@ class IobCobCalculatorPlugin @Inject constructor(
         return getBGDataFrom
     }
 
-    override fun calculateFromTreatmentsAndTemps(toTime: Long, profile: Profile): IobTotal {
-        val now = System.currentTimeMillis()
+    override fun calculateFromTreatmentsAndTemps(toTime: Long, profile: Profile): IobTotal =
+        calculateFromTreatmentsAndTemps(toTime, profile, null)
+
+    private fun calculateFromTreatmentsAndTemps(toTime: Long, profile: Profile, snapshot: TreatmentsSnapshot?): IobTotal {
+        val now = dateUtil.now()
         val time = ads.roundUpTime(toTime)
         val cacheHit = iobTable[time]
         if (time < now && cacheHit != null) {
             //og.debug(">>> calculateFromTreatmentsAndTemps Cache hit " + new Date(time).toLocaleString());
             return cacheHit
         } // else log.debug(">>> calculateFromTreatmentsAndTemps Cache miss " + new Date(time).toLocaleString());
-        val bolusIob = calculateIobFromBolusToTime(time).round()
-        val basalIob = calculateIobToTimeFromTempBasalsIncludingConvertedExtended(time).round()
+        val treatments = snapshot ?: treatmentsAt(time)
+        val bolusIob = calculateIobFromBolusToTime(time, treatments).round()
+        val basalIob = calculateIobToTimeFromTempBasalsIncludingConvertedExtended(time, treatments).round()
         // OpenAPSSMB only
         // Add expected zero temp basal for next 240 minutes
         val basalIobWithZeroTemp = basalIob.copy()
@@ -260,7 +319,7 @@ class IobCobCalculatorPlugin @Inject constructor(
         }
         basalIob.iobWithZeroTemp = IobTotal.combine(bolusIob, basalIobWithZeroTemp).round()
         val iobTotal = IobTotal.combine(bolusIob, basalIob).round()
-        if (time < System.currentTimeMillis()) {
+        if (time < dateUtil.now()) {
             synchronized(dataLock) {
                 iobTable.put(time, iobTotal)
             }
@@ -268,10 +327,10 @@ class IobCobCalculatorPlugin @Inject constructor(
         return iobTotal
     }
 
-    private fun calculateFromTreatmentsAndTemps(time: Long, lastAutosensResult: AutosensResult, exerciseMode: Boolean, halfBasalExerciseTarget: Int, isTempTarget: Boolean): IobTotal {
+    private fun calculateFromTreatmentsAndTemps(time: Long, treatments: TreatmentsSnapshot, lastAutosensResult: AutosensResult, exerciseMode: Boolean, halfBasalExerciseTarget: Int, isTempTarget: Boolean): IobTotal {
         val now = dateUtil.now()
-        val bolusIob = calculateIobFromBolusToTime(time).round()
-        val basalIob = getCalculationToTimeTempBasals(time, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget).round()
+        val bolusIob = calculateIobFromBolusToTime(time, treatments).round()
+        val basalIob = getCalculationToTimeTempBasals(time, treatments, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget).round()
         // OpenAPSSMB only
         // Add expected zero temp basal for next 240 minutes
         val basalIobWithZeroTemp = basalIob.copy()
@@ -294,7 +353,7 @@ class IobCobCalculatorPlugin @Inject constructor(
     }
 
     override fun getBasalData(profile: Profile, fromTime: Long): BasalData {
-        val now = System.currentTimeMillis()
+        val now = dateUtil.now()
         val time = ads.roundUpTime(fromTime)
         var retVal = basalDataTable[time]
         if (retVal == null) {
@@ -354,7 +413,7 @@ class IobCobCalculatorPlugin @Inject constructor(
 
     override fun getMealDataWithWaitingForCalculationFinish(): MealData {
         val result = MealData()
-        val now = System.currentTimeMillis()
+        val now = dateUtil.now()
         val maxAbsorptionHours: Double = activePlugin.activeSensitivity.maxAbsorptionHours()
         val absorptionTimeAgo = now - (maxAbsorptionHours * T.hours(1).msecs()).toLong()
         persistenceLayer.getCarbsFromTimeToTimeExpanded(absorptionTimeAgo + 1, now, true)
@@ -378,13 +437,14 @@ class IobCobCalculatorPlugin @Inject constructor(
 
     override fun calculateIobArrayInDia(profile: Profile): Array<IobTotal> {
         // predict IOB out to DIA plus 30m
-        var time = System.currentTimeMillis()
+        var time = dateUtil.now()
         time = ads.roundUpTime(time)
         val len = ((profile.dia * 60 + 30) / 5).toInt()
         val array = Array(len) { IobTotal(0) }
+        val treatments = actualTreatments(time)
         for ((pos, i) in (0 until len).withIndex()) {
             val t = time + i * 5 * 60000
-            val iob = calculateFromTreatmentsAndTemps(t, profile)
+            val iob = calculateFromTreatmentsAndTemps(t, profile, treatments)
             array[pos] = iob
         }
         return array
@@ -395,9 +455,10 @@ class IobCobCalculatorPlugin @Inject constructor(
         val now = dateUtil.now()
         val len = 4 * 60 / 5
         val array = Array(len) { IobTotal(0) }
+        val treatments = actualTreatments(now)
         for ((pos, i) in (0 until len).withIndex()) {
             val t = now + i * 5 * 60000
-            val iob = calculateFromTreatmentsAndTemps(t, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
+            val iob = calculateFromTreatmentsAndTemps(t, treatments, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget)
             array[pos] = iob
         }
         return array
@@ -429,6 +490,7 @@ class IobCobCalculatorPlugin @Inject constructor(
             scheduledEvent?.let {
                 // set reload bg data if was not set
                 event.reloadBgData = event.reloadBgData || it.reloadBgData
+                event.changes += it.changes
             }
             scheduledEvent = event
             scheduledHistoryPost = historyWorker?.schedule(
@@ -439,7 +501,8 @@ class IobCobCalculatorPlugin @Inject constructor(
                         newHistoryData(
                             event.oldDataTimestamp,
                             event.reloadBgData,
-                            if (event.newestGlucoseValueTimestamp != null) EventNewBG(event.newestGlucoseValueTimestamp) else event
+                            if (event.newestGlucoseValueTimestamp != null) EventNewBG(event.newestGlucoseValueTimestamp) else event,
+                            event.changes
                         )
                         scheduledEvent = null
                         scheduledHistoryPost = null
@@ -451,6 +514,7 @@ class IobCobCalculatorPlugin @Inject constructor(
             scheduledEvent?.let {
                 // set reload bg data if was not set
                 if (!it.reloadBgData) it.reloadBgData = event.reloadBgData
+                it.changes += event.changes
                 // set Glucose value if newer
                 event.newestGlucoseValueTimestamp?.let { timestamp ->
                     if (timestamp > (it.newestGlucoseValueTimestamp ?: 0L)) it.newestGlucoseValueTimestamp = timestamp
@@ -460,7 +524,7 @@ class IobCobCalculatorPlugin @Inject constructor(
     }
 
     // When historical data is changed (coming from NS etc) finished calculations after this date must be invalidated
-    private fun newHistoryData(oldDataTimestamp: Long, bgDataReload: Boolean, event: Event) {
+    private fun newHistoryData(oldDataTimestamp: Long, bgDataReload: Boolean, event: Event, changes: Set<CalculationWorkflow.Input>) {
         //log.debug("Locking onNewHistoryData");
         calculationWorkflow.stopCalculation(CalculationWorkflow.MAIN_CALCULATION, "onEventNewHistoryData")
         synchronized(dataLock) {
@@ -491,9 +555,10 @@ class IobCobCalculatorPlugin @Inject constructor(
             iobCobCalculator = this,
             overviewData = overviewData,
             reason = event.javaClass.simpleName,
-            end = System.currentTimeMillis(),
+            end = dateUtil.now(),
             bgDataReload = bgDataReload,
-            cause = event
+            cause = event,
+            changes = changes
         )
         //log.debug("Releasing onNewHistoryData");
     }
@@ -504,7 +569,7 @@ class IobCobCalculatorPlugin @Inject constructor(
      */
     private fun range(): Long = ((profileFunction.getProfile()?.dia ?: Constants.defaultDIA) * 60 * 60 * 1000).toLong()
 
-    override fun calculateIobFromBolus(): IobTotal = calculateIobFromBolusToTime(dateUtil.now())
+    override fun calculateIobFromBolus(): IobTotal = dateUtil.now().let { now -> calculateIobFromBolusToTime(now, actualTreatments(now)) }
 
     /**
      * Calculate IobTotal from boluses and extended to provided timestamp.
@@ -513,16 +578,17 @@ class IobCobCalculatorPlugin @Inject constructor(
      *  and are calculated towards temporary basals
      *
      * @param toTime timestamp in milliseconds
+     * @param treatments snapshot covering toTime - DIA
      * @return calculated iob
      */
-    private fun calculateIobFromBolusToTime(toTime: Long): IobTotal {
+    private fun calculateIobFromBolusToTime(toTime: Long, treatments: TreatmentsSnapshot): IobTotal {
         val total = IobTotal(toTime)
         val profile = profileFunction.getProfile() ?: return total
         val dia = profile.dia
-        val divisor = preferences.get(DoubleKey.ApsAmaBolusSnoozeDivisor)
+        val divisor = preferences.snapshot().get(DoubleKey.ApsAmaBolusSnoozeDivisor)
         assert(divisor > 0)
 
-        val boluses = persistenceLayer.getBolusesFromTime(toTime - range(), true).blockingGet()
+        val boluses = treatments.getBoluses(toTime - range(), Long.MAX_VALUE)
 
         boluses.forEach { t ->
             if (t.isValid && t.timestamp < toTime) {
@@ -541,21 +607,22 @@ class IobCobCalculatorPlugin @Inject constructor(
             }
         }
 
-        total.plus(calculateIobToTimeFromExtendedBoluses(toTime))
+        total.plus(calculateIobToTimeFromExtendedBoluses(toTime, treatments))
         return total
     }
 
-    private fun calculateIobToTimeFromExtendedBoluses(toTime: Long): IobTotal {
+    private fun calculateIobToTimeFromExtendedBoluses(toTime: Long, treatments: TreatmentsSnapshot): IobTotal {
         val total = IobTotal(toTime)
         val now = dateUtil.now()
         val pumpInterface = activePlugin.activePump
         if (!pumpInterface.isFakingTempsByExtendedBoluses) {
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
+            val extendedBoluses = treatments.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime)
             for (pos in extendedBoluses.indices) {
-                val e = extendedBoluses[pos]
+                var e = extendedBoluses[pos]
                 if (e.timestamp > toTime) continue
                 if (e.end > now) {
                     val newDuration = now - e.timestamp
+                    e = e.copy()
                     e.amount *= newDuration.toDouble() / e.duration
                     e.duration = newDuration
                 }
@@ -591,33 +658,86 @@ class IobCobCalculatorPlugin @Inject constructor(
         return total
     }
 
+    override fun calculateAbsoluteIobSeriesFromBaseBasals(fromTime: Long, toTime: Long, step: Long): Array<IobTotal> {
+        val range = range()
+        val series = IobSeries(fromTime, toTime, step, range)
+        // the same 5 min grid as calculateAbsoluteIobFromBaseBasals uses for every time
+        var i = fromTime - range
+        while (i < toTime) {
+            profileFunction.getProfile(i)?.let { profile -> series.addBolus(profile.getBasal(i) * 5.0 / 60.0, i, profile.dia) }
+            i += T.mins(5).msecs()
+        }
+        val result = series.calculate(activePlugin.activeInsulin)
+        return Array(series.size) { IobTotal(result.times[it], basaliob = result.iob[it], activity = result.activity[it]).round() }
+    }
+
+    override fun calculateIobSeriesFromTreatmentsAndTemps(fromTime: Long, toTime: Long, step: Long): Array<IobTotal> {
+        val now = dateUtil.now()
+        val range = range()
+        val bolusSeries = IobSeries(fromTime, toTime, step, range)
+        val basalSeries = IobSeries(fromTime, toTime, step, range)
+        val treatments = treatmentsFrom(fromTime - range)
+        val faking = activePlugin.activePump.isFakingTempsByExtendedBoluses
+        profileFunction.getProfile()?.let { profile ->
+            treatments.getBoluses(fromTime - range, toTime)
+                .filter { it.type != BS.Type.PRIMING }
+                .forEach { bolusSeries.addBolus(it.amount, it.timestamp, profile.dia) }
+        }
+        treatments.getExtendedBolusesStartingFromTimeToTime(fromTime - range, toTime).forEach { eb ->
+            val profile = profileFunction.getProfile(eb.timestamp) ?: return@forEach
+            // extended boluses are counted as delivered up to now only
+            (if (faking) basalSeries else bolusSeries).addRate(eb.rate, eb.timestamp, min(eb.end, now), profile.dia)
+        }
+        treatments.getTemporaryBasalsStartingFromTimeToTime(fromTime - range, toTime).forEach { tb ->
+            val profile = profileFunction.getProfile(tb.timestamp) ?: return@forEach
+            profile.forEachBasalSegment(tb.timestamp, min(tb.end, now)) { start, end, basalRate ->
+                val netBasalRate = if (tb.isAbsolute) tb.rate - basalRate else (tb.rate - 100) / 100.0 * basalRate
+                basalSeries.addRate(netBasalRate, start, end, profile.dia)
+            }
+        }
+        val bolusIob = bolusSeries.calculate(activePlugin.activeInsulin)
+        val basalIob = basalSeries.calculate(activePlugin.activeInsulin)
+        return Array(bolusSeries.size) {
+            IobTotal(
+                time = bolusIob.times[it],
+                iob = bolusIob.iob[it] + basalIob.iob[it],
+                basaliob = basalIob.iob[it],
+                activity = bolusIob.activity[it] + basalIob.activity[it]
+            ).round()
+        }
+    }
+
     override fun calculateIobFromTempBasalsIncludingConvertedExtended(): IobTotal =
-        calculateIobToTimeFromTempBasalsIncludingConvertedExtended(dateUtil.now())
+        dateUtil.now().let { now -> calculateIobToTimeFromTempBasalsIncludingConvertedExtended(now, actualTreatments(now)) }
+
+    override fun calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime: Long): IobTotal =
+        calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime, treatmentsAt(toTime))
 
-    override fun calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime: Long): IobTotal {
+    private fun calculateIobToTimeFromTempBasalsIncludingConvertedExtended(toTime: Long, treatments: TreatmentsSnapshot): IobTotal {
         val total = IobTotal(toTime)
         val now = dateUtil.now()
         val pumpInterface = activePlugin.activePump
 
-        val temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime, true)
+        val temporaryBasals = treatments.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime)
         for (pos in temporaryBasals.indices) {
-            val t = temporaryBasals[pos]
+            var t = temporaryBasals[pos]
             if (t.timestamp > toTime) continue
             val profile = profileFunction.getProfile(t.timestamp) ?: continue
-            if (t.end > now) t.duration = now - t.timestamp
+            if (t.end > now) t = t.copy().also { it.duration = now - it.timestamp }
             val calc = t.iobCalc(toTime, profile, activePlugin.activeInsulin)
             //log.debug("BasalIOB " + new Date(time) + " >>> " + calc.basalIob);
             total.plus(calc)
         }
         if (pumpInterface.isFakingTempsByExtendedBoluses) {
             val totalExt = IobTotal(toTime)
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
+            val extendedBoluses = treatments.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime)
             for (pos in extendedBoluses.indices) {
-                val e = extendedBoluses[pos]
+                var e = extendedBoluses[pos]
                 if (e.timestamp > toTime) continue
                 val profile = profileFunction.getProfile(e.timestamp) ?: continue
                 if (e.end > now) {
                     val newDuration = now - e.timestamp
+                    e = e.copy()
                     e.amount *= newDuration.toDouble() / e.duration
                     e.duration = newDuration
                 }
@@ -634,29 +754,30 @@ class IobCobCalculatorPlugin @Inject constructor(
         return total
     }
 
-    private fun getCalculationToTimeTempBasals(toTime: Long, lastAutosensResult: AutosensResult, exerciseMode: Boolean, halfBasalExerciseTarget: Int, isTempTarget: Boolean): IobTotal {
+    private fun getCalculationToTimeTempBasals(toTime: Long, treatments: TreatmentsSnapshot, lastAutosensResult: AutosensResult, exerciseMode: Boolean, halfBasalExerciseTarget: Int, isTempTarget: Boolean): IobTotal {
         val total = IobTotal(toTime)
         val pumpInterface = activePlugin.activePump
         val now = dateUtil.now()
-        val temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime, true)
+        val temporaryBasals = treatments.getTemporaryBasalsStartingFromTimeToTime(toTime - range(), toTime)
         for (pos in temporaryBasals.indices) {
-            val t = temporaryBasals[pos]
+            var t = temporaryBasals[pos]
             if (t.timestamp > toTime) continue
             val profile = profileFunction.getProfile(t.timestamp) ?: continue
-            if (t.end > now) t.duration = now - t.timestamp
+            if (t.end > now) t = t.copy().also { it.duration = now - it.timestamp }
             val calc = t.iobCalc(toTime, profile, lastAutosensResult, exerciseMode, halfBasalExerciseTarget, isTempTarget, activePlugin.activeInsulin)
             //log.debug("BasalIOB " + new Date(time) + " >>> " + calc.basalIob);
             total.plus(calc)
         }
         if (pumpInterface.isFakingTempsByExtendedBoluses) {
             val totalExt = IobTotal(toTime)
-            val extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime, true)
+            val extendedBoluses = treatments.getExtendedBolusesStartingFromTimeToTime(toTime - range(), toTime)
             for (pos in extendedBoluses.indices) {
-                val e = extendedBoluses[pos]
+                var e = extendedBoluses[pos]
                 if (e.timestamp > toTime) continue
                 val profile = profileFunction.getProfile(e.timestamp) ?: continue
                 if (e.end > now) {
                     val newDuration = now - e.timestamp
+                    e = e.copy()
                     e.amount *= newDuration.toDouble() / e.duration
                     e.duration = newDuration
                 }
@@ -1,7 +1,6 @@
 package app.aaps.plugins.main.iob.iobCobCalculator.data
 
 import androidx.collection.LongSparseArray
-import androidx.collection.size
 import app.aaps.core.data.iob.InMemoryGlucoseValue
 import app.aaps.core.data.model.GV
 import app.aaps.core.data.time.T
@@ -15,7 +14,10 @@ import kotlin.math.abs
 import kotlin.math.min
 import kotlin.math.roundToLong
 
-class AutosensDataStoreObject : AutosensDataStore {
+/**
+ * @param now source of current time. IobCobCalculator passes dateUtil so that replay can move the clock
+ */
+class AutosensDataStoreObject(private val now: () -> Long = System::currentTimeMillis) : AutosensDataStore {
 
     override val dataLock = Any()
     override var lastUsed5minCalculation: Boolean? = null // true if used 5min bucketed data
@@ -30,9 +32,18 @@ class AutosensDataStoreObject : AutosensDataStore {
     var referenceTime: Long = -1
 
     override var bgReadings: List<GV> = listOf() // newest at index 0
-        @Synchronized set
+        @Synchronized set(value) {
+            field = value
+            series = null
+        }
         @Synchronized get
 
+    // primitive copy of bgReadings created on first use
+    private var series: GlucoseSeries? = null
+
+    @Synchronized
+    fun glucoseSeries(): GlucoseSeries = series ?: GlucoseSeries(bgReadings).also { series = it }
+
     override var autosensDataTable = LongSparseArray<AutosensData>() // oldest at index 0
         @Synchronized set
         @Synchronized get
@@ -41,12 +52,17 @@ class AutosensDataStoreObject : AutosensDataStore {
         @Synchronized set
         @Synchronized get
 
+    /**
+     * bgReadings and bucketedData are always replaced as a whole and never modified, so they are shared.
+     * AutosensData values are shared too, only arrays of autosensDataTable are copied.
+     */
     override fun clone(): AutosensDataStore =
-        AutosensDataStoreObject().also {
+        AutosensDataStoreObject(now).also {
             synchronized(dataLock) {
-                it.bgReadings = this.bgReadings.toMutableList()
-                it.autosensDataTable = LongSparseArray<AutosensData>(this.autosensDataTable.size).apply { putAll(this@AutosensDataStoreObject.autosensDataTable) }
-                it.bucketedData = this.bucketedData?.toMutableList()
+                it.bgReadings = this.bgReadings
+                it.series = this.series
+                it.autosensDataTable = this.autosensDataTable.clone()
+                it.bucketedData = this.bucketedData
             }
         }
 
@@ -95,7 +111,7 @@ class AutosensDataStoreObject : AutosensDataStore {
      */
     override fun actualBg(): InMemoryGlucoseValue? {
         val lastBg = lastBg() ?: return null
-        return if (lastBg.timestamp > System.currentTimeMillis() - T.mins(9).msecs()) lastBg else null
+        return if (lastBg.timestamp > now() - T.mins(9).msecs()) lastBg else null
     }
 
     override fun lastDataTime(dateUtil: DateUtil): String =
@@ -106,16 +122,19 @@ class AutosensDataStoreObject : AutosensDataStore {
 
     fun findPreviousTimeFromBucketedData(time: Long): Long? {
         val bData = bucketedData ?: return null
-        for (index in bData.indices) {
-            if (bData[index].timestamp <= time) return bData[index].timestamp
+        // newest first, find first value <= time
+        var low = 0
+        var high = bData.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (bData[mid].timestamp > time) low = mid + 1 else high = mid
         }
-        return null
+        return if (low < bData.size) bData[low].timestamp else null
     }
 
     override fun getAutosensDataAtTime(fromTime: Long): AutosensData? {
         synchronized(dataLock) {
-            val now = System.currentTimeMillis()
-            if (fromTime > now) return null
+            if (fromTime > now()) return null
             val previous = findPreviousTimeFromBucketedData(fromTime) ?: return null
             return autosensDataTable[roundUpTime(previous)]
         }
@@ -126,7 +145,7 @@ class AutosensDataStoreObject : AutosensDataStore {
     // So let save last value after every calculation and use it
     // if autosensDataTable is not available
     var storedLastAutosensResult: AutosensData? = null
-        get() = field?.let { if (it.time < System.currentTimeMillis() - 11 * 60 * 1000) it else null }
+        get() = field?.let { if (it.time < now() - 11 * 60 * 1000) it else null }
 
     override fun getLastAutosensData(reason: String, aapsLogger: AAPSLogger, dateUtil: DateUtil): AutosensData? {
         synchronized(dataLock) {
@@ -169,10 +188,11 @@ class AutosensDataStoreObject : AutosensDataStore {
         synchronized(dataLock) {
             if (bgReadings.size < 3) return true
 
+            val timestamps = glucoseSeries().timestamps
             var totalDiff: Long = 0
-            for (i in 1 until bgReadings.size) {
-                val bgTime = bgReadings[i].timestamp
-                val lastBgTime = bgReadings[i - 1].timestamp
+            for (i in 1 until timestamps.size) {
+                val bgTime = timestamps[i]
+                val lastBgTime = timestamps[i - 1]
                 var diff = lastBgTime - bgTime
                 diff %= T.mins(5).msecs()
                 if (diff > T.mins(2).plus(T.secs(30)).msecs()) diff -= T.mins(5).msecs()
@@ -201,28 +221,26 @@ class AutosensDataStoreObject : AutosensDataStore {
         if (fiveMinData) createBucketedData5min(aapsLogger, dateUtil) else createBucketedDataRecalculated(aapsLogger, dateUtil)
     }
 
+    /**
+     * @return oldest reading with timestamp >= [time] or null if there is no such reading
+     */
     fun findNewer(time: Long): GV? {
-        var lastFound = bgReadings[0]
-        if (lastFound.timestamp < time) return null
-        for (i in 1 until bgReadings.size) {
-            if (bgReadings[i].timestamp == time) return bgReadings[i]
-            if (bgReadings[i].timestamp > time) continue
-            lastFound = bgReadings[i - 1]
-            if (bgReadings[i].timestamp < time) break
+        val series = glucoseSeries()
+        val index = series.indexAtOrBefore(time)
+        return when {
+            index < series.size && series.timestamps[index] == time -> bgReadings[index]
+            index > 0                                               -> bgReadings[index - 1]
+            else                                                    -> null
         }
-        return lastFound
     }
 
+    /**
+     * @return newest reading with timestamp <= [time] or null if there is no such reading
+     */
     fun findOlder(time: Long): GV? {
-        var lastFound = bgReadings[bgReadings.size - 1]
-        if (lastFound.timestamp > time) return null
-        for (i in bgReadings.size - 2 downTo 0) {
-            if (bgReadings[i].timestamp == time) return bgReadings[i]
-            if (bgReadings[i].timestamp < time) continue
-            lastFound = bgReadings[i + 1]
-            if (bgReadings[i].timestamp > time) break
-        }
-        return lastFound
+        val series = glucoseSeries()
+        val index = series.indexAtOrBefore(time)
+        return if (index < series.size) bgReadings[index] else null
     }
 
     private fun createBucketedDataRecalculated(aapsLogger: AAPSLogger, dateUtil: DateUtil) {
@@ -237,19 +255,24 @@ class AutosensDataStoreObject : AutosensDataStore {
         // after adjusting time may be newer. In this case use T-5min
         currentTime = if (adjustedTime > currentTime) adjustedTime - T.mins(5).msecs() else adjustedTime
         aapsLogger.debug("Adjusted time " + dateUtil.dateAndTimeAndSecondsString(currentTime))
+        val series = glucoseSeries()
+        val timestamps = series.timestamps
+        val values = series.values
+        // bucket times are decreasing, so readings around them are found in single walk from newest
+        var older = 0
         while (true) {
-            // test if current value is older than current time
-            val newer = findNewer(currentTime)
-            val older = findOlder(currentTime)
-            if (newer == null || older == null) break
-            if (older.timestamp == newer.timestamp) { // direct hit
-                newBucketedData.add(InMemoryGlucoseValue.fromGv(newer))
+            while (older < series.size && timestamps[older] > currentTime) older++
+            if (older == series.size) break
+            val newer = if (timestamps[older] == currentTime) older else older - 1
+            if (newer < 0) break
+            if (older == newer) { // direct hit
+                newBucketedData.add(InMemoryGlucoseValue.fromGv(bgReadings[newer]))
             } else {
-                val bgDelta = newer.value - older.value
-                val timeDiffToNew = newer.timestamp - currentTime
-                val timeDiffToOlder = currentTime - older.timestamp
+                val bgDelta = values[newer] - values[older]
+                val timeDiffToNew = timestamps[newer] - currentTime
+                val timeDiffToOlder = currentTime - timestamps[older]
                 val filledGap = min(timeDiffToOlder, timeDiffToNew) > T.secs(IRREGULAR_DATA_SEC).msecs()
-                val currentBg = newer.value - timeDiffToNew.toDouble() / (newer.timestamp - older.timestamp) * bgDelta
+                val currentBg = values[newer] - timeDiffToNew.toDouble() / (timestamps[newer] - timestamps[older]) * bgDelta
                 val newBgReading = InMemoryGlucoseValue(currentTime, currentBg.roundToLong().toDouble(), filledGap = filledGap, sourceSensor = lastBg.sourceSensor)
                 newBucketedData.add(newBgReading)
             }
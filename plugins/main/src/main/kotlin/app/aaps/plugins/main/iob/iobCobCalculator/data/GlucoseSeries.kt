@@ -0,0 +1,27 @@
+package app.aaps.plugins.main.iob.iobCobCalculator.data
+
+import app.aaps.core.data.model.GV
+
+/**
+ * Glucose readings stored in primitive arrays.
+ * Order is the same as in source list (newest at index 0) so indexes can be used to access original [GV].
+ */
+class GlucoseSeries(readings: List<GV>) {
+
+    val size = readings.size
+    val timestamps = LongArray(size) { readings[it].timestamp }
+    val values = DoubleArray(size) { readings[it].value }
+
+    /**
+     * @return index of newest reading with timestamp <= [time] or [size] if all readings are newer
+     */
+    fun indexAtOrBefore(time: Long): Int {
+        var low = 0
+        var high = size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (timestamps[mid] > time) low = mid + 1 else high = mid
+        }
+        return low
+    }
+}
@@ -0,0 +1,104 @@
+package app.aaps.plugins.main.iob.iobCobCalculator.data
+
+import app.aaps.core.interfaces.insulin.Insulin
+import kotlin.math.ceil
+
+/**
+ * IOB and activity for all times fromTime, fromTime + step, ... <= toTime calculated at once.
+ *
+ * Delivered insulin is collected as impulse train of 1 min cells (amount and its first moment inside of cell)
+ * and convolved with insulin curve sampled at 1 min. Position of delivery inside of cell is corrected
+ * by first order term, so result follows per-treatment calculation closely.
+ * Like in per-treatment calculation only insulin delivered in [time - range, time) is counted for every time.
+ *
+ * @param step distance of times in milliseconds, a whole number of minutes
+ * @param range ms of history counted for every time
+ */
+class IobSeries(private val fromTime: Long, toTime: Long, step: Long, range: Long) {
+
+    class Result(val times: LongArray, val iob: DoubleArray, val activity: DoubleArray)
+
+    private class Cells(size: Int) {
+
+        val amount = DoubleArray(size)
+        val moment = DoubleArray(size)
+    }
+
+    val size = if (toTime < fromTime) 0 else ((toTime - fromTime) / step + 1).toInt()
+    private val stepCells = (step / CELL).toInt()
+    private val window = ceil(range.toDouble() / CELL).toInt()
+    private val origin = fromTime - window * CELL
+    private val cellCount = window + (size - 1).coerceAtLeast(0) * stepCells + 1
+
+    // separate impulse train for every dia
+    private val cells = HashMap<Double, Cells>()
+
+    init {
+        require(step > 0 && step % CELL == 0L)
+    }
+
+    /**
+     * Add [amount] delivered at [time]
+     */
+    fun addBolus(amount: Double, time: Long, dia: Double) {
+        val index = Math.floorDiv(time - origin, CELL)
+        if (index < 0 || index >= cellCount || amount == 0.0) return
+        val train = cells.getOrPut(dia) { Cells(cellCount) }
+        train.amount[index.toInt()] += amount
+        train.moment[index.toInt()] += amount * (time - origin - index * CELL) / CELL
+    }
+
+    /**
+     * Add insulin delivered with constant [rate] (U/h) from [start] to [end]
+     */
+    fun addRate(rate: Double, start: Long, end: Long, dia: Double) {
+        if (rate == 0.0) return
+        val from = maxOf(start, origin)
+        val to = minOf(end, origin + cellCount * CELL)
+        if (from >= to) return
+        val train = cells.getOrPut(dia) { Cells(cellCount) }
+        var index = ((from - origin) / CELL).toInt()
+        var sliceStart = from
+        while (sliceStart < to) {
+            val cellStart = origin + index * CELL
+            val sliceEnd = minOf(to, cellStart + CELL)
+            val amount = rate * (sliceEnd - sliceStart) / 3600000.0
+            train.amount[index] += amount
+            train.moment[index] += amount * ((sliceStart + sliceEnd) / 2.0 - cellStart) / CELL
+            sliceStart = sliceEnd
+            index++
+        }
+    }
+
+    fun calculate(insulin: Insulin): Result {
+        val times = LongArray(size) { fromTime + it * stepCells * CELL }
+        val iob = DoubleArray(size)
+        val activity = DoubleArray(size)
+        for ((dia, train) in cells) {
+            // curves for 1U sampled at whole minutes, one more on each side for derivatives
+            val iobCurve = DoubleArray(window + 2) { insulin.iobCalc(1.0, 0, it * CELL, dia) }
+            val activityCurve = DoubleArray(window + 2) { insulin.activityCalc(1.0, 0, it * CELL, dia) }
+            for (k in 0 until size) {
+                val timeIndex = window + k * stepCells
+                var iobSum = 0.0
+                var activitySum = 0.0
+                for (d in 1..window) {
+                    val amount = train.amount[timeIndex - d]
+                    val moment = train.moment[timeIndex - d]
+                    if (amount == 0.0 && moment == 0.0) continue
+                    // delivered later in cell means shorter elapsed time
+                    iobSum += amount * iobCurve[d] - moment * (iobCurve[d + 1] - iobCurve[d - 1]) / 2
+                    activitySum += amount * activityCurve[d] - moment * (activityCurve[d + 1] - activityCurve[d - 1]) / 2
+                }
+                iob[k] += iobSum
+                activity[k] += activitySum
+            }
+        }
+        return Result(times, iob, activity)
+    }
+
+    companion object {
+
+        private const val CELL = 60 * 1000L
+    }
+}
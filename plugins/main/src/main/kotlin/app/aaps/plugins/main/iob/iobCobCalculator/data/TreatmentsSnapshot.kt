@@ -0,0 +1,114 @@
+package app.aaps.plugins.main.iob.iobCobCalculator.data
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.interfaces.db.PersistenceLayer
+
+/**
+ * Immutable, time indexed view of valid boluses, temporary basals and extended boluses
+ * with timestamp >= [from].
+ *
+ * Records are sorted by timestamp and their timestamps are kept in primitive arrays,
+ * so range queries are resolved by binary search without touching the database.
+ * Returned records are shared between callers and must not be modified. Use copy() first.
+ */
+class TreatmentsSnapshot private constructor(
+    val from: Long,
+    private val bolusTimes: LongArray,
+    private val boluses: Array<BS>,
+    private val temporaryBasalTimes: LongArray,
+    private val temporaryBasals: Array<TB>,
+    private val extendedBolusTimes: LongArray,
+    private val extendedBoluses: Array<EB>
+) {
+
+    fun covers(time: Long): Boolean = time >= from
+
+    /**
+     * @return boluses with timestamp in [start, end] (inclusive), oldest first
+     */
+    fun getBoluses(start: Long, end: Long): List<BS> = slice(bolusTimes, boluses, start, end)
+
+    /**
+     * @return temporary basals starting in [start, end] (inclusive), oldest first
+     */
+    fun getTemporaryBasalsStartingFromTimeToTime(start: Long, end: Long): List<TB> = slice(temporaryBasalTimes, temporaryBasals, start, end)
+
+    /**
+     * @return extended boluses starting in [start, end] (inclusive), oldest first
+     */
+    fun getExtendedBolusesStartingFromTimeToTime(start: Long, end: Long): List<EB> = slice(extendedBolusTimes, extendedBoluses, start, end)
+
+    /**
+     * Prepend records from [newFrom] to current [from]. Already loaded records are reused.
+     */
+    fun extendedTo(newFrom: Long, persistenceLayer: PersistenceLayer): TreatmentsSnapshot {
+        if (covers(newFrom)) return this
+        return build(
+            from = newFrom,
+            boluses = persistenceLayer.getBolusesFromTimeToTime(newFrom, from - 1, true) + boluses,
+            temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(newFrom, from - 1, true) + temporaryBasals,
+            extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTimeToTime(newFrom, from - 1, true) + extendedBoluses
+        )
+    }
+
+    /**
+     * Keep records older than [time] and reload the rest from database
+     */
+    fun reloadedFrom(time: Long, persistenceLayer: PersistenceLayer): TreatmentsSnapshot {
+        if (time <= from) return load(persistenceLayer, from)
+        return build(
+            from = from,
+            boluses = boluses.asList().subList(0, lowerBound(bolusTimes, time)) + persistenceLayer.getBolusesFromTime(time, true).blockingGet(),
+            temporaryBasals = temporaryBasals.asList().subList(0, lowerBound(temporaryBasalTimes, time)) + persistenceLayer.getTemporaryBasalsStartingFromTime(time, true).blockingGet(),
+            extendedBoluses = extendedBoluses.asList().subList(0, lowerBound(extendedBolusTimes, time)) + persistenceLayer.getExtendedBolusesStartingFromTime(time, true).blockingGet()
+        )
+    }
+
+    companion object {
+
+        fun load(persistenceLayer: PersistenceLayer, from: Long): TreatmentsSnapshot =
+            build(
+                from = from,
+                boluses = persistenceLayer.getBolusesFromTime(from, true).blockingGet(),
+                temporaryBasals = persistenceLayer.getTemporaryBasalsStartingFromTime(from, true).blockingGet(),
+                extendedBoluses = persistenceLayer.getExtendedBolusesStartingFromTime(from, true).blockingGet()
+            )
+
+        fun build(from: Long, boluses: List<BS>, temporaryBasals: List<TB>, extendedBoluses: List<EB>): TreatmentsSnapshot {
+            val sortedBoluses = boluses.filter { it.isValid }.sortedBy { it.timestamp }.toTypedArray()
+            val sortedTemporaryBasals = temporaryBasals.filter { it.isValid }.sortedBy { it.timestamp }.toTypedArray()
+            val sortedExtendedBoluses = extendedBoluses.filter { it.isValid }.sortedBy { it.timestamp }.toTypedArray()
+            return TreatmentsSnapshot(
+                from = from,
+                bolusTimes = LongArray(sortedBoluses.size) { sortedBoluses[it].timestamp },
+                boluses = sortedBoluses,
+                temporaryBasalTimes = LongArray(sortedTemporaryBasals.size) { sortedTemporaryBasals[it].timestamp },
+                temporaryBasals = sortedTemporaryBasals,
+                extendedBolusTimes = LongArray(sortedExtendedBoluses.size) { sortedExtendedBoluses[it].timestamp },
+                extendedBoluses = sortedExtendedBoluses
+            )
+        }
+
+        /**
+         * @return index of first element >= [key] or size if there is none
+         */
+        private fun lowerBound(times: LongArray, key: Long): Int {
+            var low = 0
+            var high = times.size
+            while (low < high) {
+                val mid = (low + high) ushr 1
+                if (times[mid] < key) low = mid + 1 else high = mid
+            }
+            return low
+        }
+
+        private fun <T> slice(times: LongArray, records: Array<T>, start: Long, end: Long): List<T> {
+            if (end < start) return emptyList()
+            val low = lowerBound(times, start)
+            val high = if (end == Long.MAX_VALUE) times.size else lowerBound(times, end + 1)
+            return if (low >= high) emptyList() else records.asList().subList(low, high)
+        }
+    }
+}
@@ -1,20 +1,31 @@
 package app.aaps.plugins.main.extensions
 
 import app.aaps.core.data.aps.SMBDefaults
+import app.aaps.core.data.model.BS
 import app.aaps.core.data.model.TB
 import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.aps.IobTotal
 import app.aaps.core.interfaces.insulin.Insulin
+import app.aaps.core.interfaces.profile.Profile
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.ui.UiInteraction
 import app.aaps.core.objects.extensions.iobCalc
+import app.aaps.core.objects.extensions.pureProfileFromJson
+import app.aaps.core.objects.profile.ProfileSealed
 import app.aaps.plugins.insulin.InsulinLyumjevPlugin
 import app.aaps.shared.tests.TestBaseWithProfile
 import com.google.common.truth.Truth.assertThat
+import org.json.JSONArray
+import org.json.JSONObject
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.Mock
 import org.mockito.kotlin.whenever
+import kotlin.math.ceil
+import kotlin.math.min
+import kotlin.math.roundToInt
+import kotlin.random.Random
 
 class TemporaryBasalExtensionKtTest : TestBaseWithProfile() {
 
@@ -85,4 +96,62 @@ class TemporaryBasalExtensionKtTest : TestBaseWithProfile() {
             temporaryBasal.iobCalc(now + T.hours(1).msecs(), validProfile, asResult, SMBDefaults.exercise_mode, SMBDefaults.half_basal_exercise_target, true, insulin).basaliob
         ).isEqualTo(0.0)
     }
+
+    @Test
+    fun iobCalcMatchesDiscreteCalculation() {
+        // flat basal: difference comes from rounding of duration to minutes only
+        assertParity(validProfile, iobTolerance = 0.02, activityTolerance = 0.0001)
+        // hourly changing basal: 5 min slices use basal rate in the middle of slice at block boundaries
+        val basal = JSONArray()
+        for (hour in 0..23) basal.put(JSONObject().put("time", "%02d:00".format(hour)).put("value", listOf(0.6, 1.4, 0.8, 1.2)[hour % 4].toString()))
+        val json = JSONObject(
+            "{\"dia\":\"5\",\"carbratio\":[{\"time\":\"00:00\",\"value\":\"30\"}],\"sens\":[{\"time\":\"00:00\",\"value\":\"3\"}],\"timezone\":\"UTC\"," +
+                "\"target_low\":[{\"time\":\"00:00\",\"value\":\"4.5\"}],\"target_high\":[{\"time\":\"00:00\",\"value\":\"7\"}],\"units\":\"mmol\"}"
+        ).put("basal", basal)
+        val blockProfile = ProfileSealed.Pure(pureProfileFromJson(json, dateUtil)!!, activePlugin)
+        assertParity(blockProfile, iobTolerance = 0.1, activityTolerance = 0.001)
+    }
+
+    private fun assertParity(profile: Profile, iobTolerance: Double, activityTolerance: Double) {
+        val random = Random(1)
+        repeat(300) {
+            val temporaryBasal = TB(
+                timestamp = now + random.nextLong(T.days(1).msecs()),
+                rate = listOf(0.0, 50.0, 150.0, 200.0, 300.0)[random.nextInt(5)],
+                isAbsolute = false,
+                duration = T.mins(random.nextLong(1, 240)).msecs(),
+                type = TB.Type.NORMAL
+            )
+            val time = temporaryBasal.timestamp + random.nextLong(T.hours(profile.dia.toLong()).msecs())
+            val expected = discreteIobCalc(temporaryBasal, time, profile)
+            val result = temporaryBasal.iobCalc(time, profile, insulin)
+            assertThat(result.basaliob).isWithin(iobTolerance).of(expected.basaliob)
+            assertThat(result.netbasalinsulin).isWithin(iobTolerance).of(expected.netbasalinsulin)
+            assertThat(result.activity).isWithin(activityTolerance).of(expected.activity)
+        }
+    }
+
+    // original calculation splitting temporary basal to ~5 min boluses
+    private fun discreteIobCalc(tb: TB, time: Long, profile: Profile): IobTotal {
+        val result = IobTotal(time)
+        val realDuration = ((min(time, tb.end) - tb.timestamp) / 60.0 / 1000).roundToInt()
+        if (realDuration > 0) {
+            val dia = profile.dia
+            val diaAgo = time - dia * 60 * 60 * 1000
+            val aboutFiveMinIntervals = ceil(realDuration / 5.0).toInt()
+            val tempBolusSpacing = realDuration / aboutFiveMinIntervals.toDouble()
+            for (j in 0L until aboutFiveMinIntervals) {
+                val calcDate = (tb.timestamp + j * tempBolusSpacing * 60 * 1000 + 0.5 * tempBolusSpacing * 60 * 1000).toLong()
+                val netBasalRate = (tb.rate - 100) / 100.0 * profile.getBasal(calcDate)
+                if (calcDate > diaAgo && calcDate <= time) {
+                    val tempBolusSize = netBasalRate * tempBolusSpacing / 60.0
+                    val aIOB = insulin.iobCalcForTreatment(BS(timestamp = calcDate, amount = tempBolusSize, type = BS.Type.NORMAL), time, dia)
+                    result.basaliob += aIOB.iobContrib
+                    result.activity += aIOB.activityContrib
+                    result.netbasalinsulin += tempBolusSize
+                }
+            }
+        }
+        return result
+    }
 }
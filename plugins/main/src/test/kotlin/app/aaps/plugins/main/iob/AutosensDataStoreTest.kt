@@ -13,6 +13,9 @@ import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
 import org.mockito.kotlin.whenever
+import kotlin.math.roundToLong
+import kotlin.math.sin
+import kotlin.random.Random
 
 class AutosensDataStoreTest : TestBaseWithProfile() {
 
@@ -1534,4 +1537,120 @@ class AutosensDataStoreTest : TestBaseWithProfile() {
         ads.autosensDataTable.append(now - T.mins(20).msecs(), AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - T.mins(20).msecs() })
         assertThat(ads.getLastAutosensData("test", aapsLogger, dateUtil)?.time).isEqualTo(now - 1)
     }
+
+    @Test
+    fun cloneTest() {
+        val ads = AutosensDataStoreObject()
+        ads.bgReadings = listOf(GV(timestamp = now, value = 100.0, raw = 0.0, trendArrow = TrendArrow.NONE, noise = 0.0, sourceSensor = SourceSensor.UNKNOWN))
+        ads.autosensDataTable.append(now - T.mins(5).msecs(), AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now - T.mins(5).msecs() })
+        val clone = ads.clone()
+        assertThat(clone.bgReadings).isSameInstanceAs(ads.bgReadings)
+        assertThat(clone.autosensDataTable.valueAt(0)).isSameInstanceAs(ads.autosensDataTable.valueAt(0))
+        // new data doesn't appear in original
+        clone.autosensDataTable.append(now, AutosensDataObject(aapsLogger, preferences, dateUtil).apply { time = now })
+        assertThat(clone.autosensDataTable.size()).isEqualTo(2)
+        assertThat(ads.autosensDataTable.size()).isEqualTo(1)
+    }
+
+    @Test
+    fun carbsListIsSharedUntilModifiedTest() {
+        val previous = AutosensDataObject(aapsLogger, preferences, dateUtil)
+        previous.activeCarbsList.add(AutosensData.CarbsInPast(time = now, carbs = 10.0, remaining = 10.0))
+        previous.activeCarbsList.add(AutosensData.CarbsInPast(time = now, carbs = 20.0, remaining = 20.0))
+        val current = AutosensDataObject(aapsLogger, preferences, dateUtil)
+        current.activeCarbsList = previous.cloneCarbsList()
+        current.this5MinAbsorption = 4.0
+        current.deductAbsorbedCarbs()
+        assertThat(current.activeCarbsList[0].remaining).isEqualTo(6.0)
+        assertThat(previous.activeCarbsList[0].remaining).isEqualTo(10.0)
+        // untouched entry is shared
+        assertThat(current.activeCarbsList[1]).isSameInstanceAs(previous.activeCarbsList[1])
+        current.activeCarbsList.removeAt(1)
+        assertThat(previous.activeCarbsList).hasSize(2)
+    }
+
+    @Test
+    fun recalculatedBucketingParityTest() {
+        val random = Random(42)
+        // 1 min Libre like data for 30h with sensor warmup gap
+        val oneMinData = ArrayList<GV>()
+        var time = now
+        for (i in 0 until 30 * 60) {
+            if (i !in 600..720)
+                oneMinData.add(GV(timestamp = time, value = 120.0 + 60 * sin(i / 90.0) + random.nextInt(-3, 4), raw = 0.0, trendArrow = TrendArrow.NONE, noise = 0.0, sourceSensor = SourceSensor.LIBRE_1_OTHER))
+            time -= T.mins(1).msecs() + random.nextLong(-5000, 5000)
+        }
+        // 5 min data with jitter and backfill gaps
+        val gapData = ArrayList<GV>()
+        time = now
+        for (i in 0 until 24 * 12) {
+            if (i % 50 > 3)
+                gapData.add(GV(timestamp = time, value = 150.0 + 40 * sin(i / 20.0), raw = 0.0, trendArrow = TrendArrow.NONE, noise = 0.0, sourceSensor = SourceSensor.DEXCOM_G6_NATIVE))
+            time -= T.mins(5).msecs() + random.nextLong(-60000, 60000)
+        }
+        for (data in listOf(oneMinData, gapData)) {
+            val ads = AutosensDataStoreObject()
+            ads.bgReadings = data
+            ads.createBucketedData(aapsLogger, dateUtil)
+            assertThat(ads.lastUsed5minCalculation).isFalse()
+            val expected = legacyBucketing(data)
+            val bucketed = ads.bucketedData!!
+            assertThat(bucketed.size).isEqualTo(expected.size)
+            for (i in expected.indices) {
+                assertThat(bucketed[i].timestamp).isEqualTo(expected[i].first)
+                assertThat(bucketed[i].value).isEqualTo(expected[i].second)
+            }
+            var t = data.last().timestamp
+            while (t <= data.first().timestamp) {
+                assertThat(ads.findNewer(t)?.timestamp).isEqualTo(legacyFindNewer(data, t)?.timestamp)
+                assertThat(ads.findOlder(t)?.timestamp).isEqualTo(legacyFindOlder(data, t)?.timestamp)
+                t += 17_000
+            }
+            for (bg in bucketed) assertThat(ads.findPreviousTimeFromBucketedData(bg.timestamp + 1000)).isEqualTo(bg.timestamp)
+            for (gv in data) assertThat(ads.findOlder(gv.timestamp)).isSameInstanceAs(gv)
+        }
+    }
+
+    // linear scan implementation used before binary search for parity checking
+    private fun legacyFindNewer(bgReadings: List<GV>, time: Long): GV? {
+        var lastFound = bgReadings[0]
+        if (lastFound.timestamp < time) return null
+        for (i in 1 until bgReadings.size) {
+            if (bgReadings[i].timestamp == time) return bgReadings[i]
+            if (bgReadings[i].timestamp > time) continue
+            lastFound = bgReadings[i - 1]
+            if (bgReadings[i].timestamp < time) break
+        }
+        return lastFound
+    }
+
+    private fun legacyFindOlder(bgReadings: List<GV>, time: Long): GV? {
+        var lastFound = bgReadings[bgReadings.size - 1]
+        if (lastFound.timestamp > time) return null
+        for (i in bgReadings.size - 2 downTo 0) {
+            if (bgReadings[i].timestamp == time) return bgReadings[i]
+            if (bgReadings[i].timestamp < time) continue
+            lastFound = bgReadings[i + 1]
+            if (bgReadings[i].timestamp > time) break
+        }
+        return lastFound
+    }
+
+    private fun legacyBucketing(bgReadings: List<GV>): List<Pair<Long, Double>> {
+        val result = ArrayList<Pair<Long, Double>>()
+        var currentTime = bgReadings[0].timestamp
+        while (true) {
+            val newer = legacyFindNewer(bgReadings, currentTime)
+            val older = legacyFindOlder(bgReadings, currentTime)
+            if (newer == null || older == null) break
+            if (older.timestamp == newer.timestamp) result.add(Pair(currentTime, newer.value))
+            else {
+                val timeDiffToNew = newer.timestamp - currentTime
+                val currentBg = newer.value - timeDiffToNew.toDouble() / (newer.timestamp - older.timestamp) * (newer.value - older.value)
+                result.add(Pair(currentTime, currentBg.roundToLong().toDouble()))
+            }
+            currentTime -= T.mins(5).msecs()
+        }
+        return result
+    }
 }
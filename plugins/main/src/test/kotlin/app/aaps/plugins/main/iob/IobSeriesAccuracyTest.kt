@@ -0,0 +1,162 @@
+package app.aaps.plugins.main.iob
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.interfaces.overview.OverviewData
+import app.aaps.core.interfaces.pump.Pump
+import app.aaps.core.interfaces.ui.UiInteraction
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.interfaces.PreferencesSnapshot
+import app.aaps.core.objects.extensions.pureProfileFromJson
+import app.aaps.core.objects.profile.ProfileSealed
+import app.aaps.plugins.insulin.InsulinOrefRapidActingPlugin
+import app.aaps.plugins.main.iob.iobCobCalculator.IobCobCalculatorPlugin
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.rxjava3.core.Single
+import org.json.JSONObject
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+
+/**
+ * Series calculation of [IobCobCalculatorPlugin] used for graphs must follow per-time calculation.
+ *
+ * Allowed difference is one rounding step of [app.aaps.core.objects.extensions.round] (0.001 U of IOB, 0.0001 U/min of activity)
+ * plus the same amount for 1 min cells of the series, see IobSeriesTest.
+ */
+class IobSeriesAccuracyTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+    @Mock lateinit var overviewData: OverviewData
+    @Mock lateinit var calculationWorkflow: CalculationWorkflow
+    @Mock lateinit var uiInteraction: UiInteraction
+
+    private val iobTolerance = 0.002
+    private val activityTolerance = 0.0002
+
+    private val step = T.mins(5).msecs()
+    private lateinit var sut: IobCobCalculatorPlugin
+
+    // history up to 11 hours back, 3 hours of graph in the future
+    private val fromTime get() = now - now % step - T.hours(6).msecs()
+    private val toTime get() = fromTime + T.hours(9).msecs()
+    private val profileSwitchTime get() = now - T.mins(133).msecs() + 7_000
+
+    private lateinit var boluses: List<BS>
+    private lateinit var temporaryBasals: List<TB>
+    private lateinit var extendedBoluses: List<EB>
+
+    @BeforeEach
+    fun setup() {
+        whenever(activePlugin.activeInsulin).thenReturn(InsulinOrefRapidActingPlugin(rh, profileFunction, rxBus, aapsLogger, config, hardLimits, uiInteraction))
+        val preferencesSnapshot: PreferencesSnapshot = mock()
+        whenever(preferencesSnapshot.get(DoubleKey.ApsAmaBolusSnoozeDivisor)).thenReturn(2.0)
+        whenever(preferences.snapshot()).thenReturn(preferencesSnapshot)
+
+        // the same dia, basal changing during the day
+        val switchedProfile = ProfileSealed.Pure(
+            pureProfileFromJson(
+                JSONObject(
+                    "{\"dia\":\"5\",\"carbratio\":[{\"time\":\"00:00\",\"value\":\"30\"}],\"carbs_hr\":\"20\",\"delay\":\"20\",\"sens\":[{\"time\":\"00:00\",\"value\":\"3\"}]," +
+                        "\"timezone\":\"UTC\",\"basal\":[{\"time\":\"00:00\",\"value\":\"0.8\"},{\"time\":\"03:00\",\"value\":\"1.2\"},{\"time\":\"06:00\",\"value\":\"0.9\"}," +
+                        "{\"time\":\"09:00\",\"value\":\"1.5\"},{\"time\":\"12:00\",\"value\":\"1.1\"},{\"time\":\"15:00\",\"value\":\"0.7\"},{\"time\":\"18:00\",\"value\":\"1.3\"}," +
+                        "{\"time\":\"21:00\",\"value\":\"1.0\"}],\"target_low\":[{\"time\":\"00:00\",\"value\":\"4.5\"}],\"target_high\":[{\"time\":\"00:00\",\"value\":\"7\"}]," +
+                        "\"startDate\":\"1970-01-01T00:00:00.000Z\",\"units\":\"mmol\"}"
+                ), dateUtil
+            )!!, activePlugin
+        )
+        whenever(profileFunction.getProfile()).thenReturn(switchedProfile)
+        whenever(profileFunction.getProfile(any())).thenAnswer { if (it.getArgument<Long>(0) < profileSwitchTime) validProfile else switchedProfile }
+
+        boluses = listOf(
+            BS(timestamp = now - T.hours(9).msecs() + 13_777, amount = 2.0, type = BS.Type.NORMAL),
+            BS(timestamp = now - T.mins(370).msecs() + 3_001, amount = 4.0, type = BS.Type.NORMAL),
+            BS(timestamp = now - T.hours(4).msecs() + 5_000, amount = 0.5, type = BS.Type.PRIMING),
+            BS(timestamp = now - T.hours(4).msecs() + 41_500, amount = 0.3, type = BS.Type.SMB),
+            BS(timestamp = now - T.mins(150).msecs() + 20_000, amount = 1.5, type = BS.Type.NORMAL),
+            BS(timestamp = now - T.hours(1).msecs() + 59_999, amount = 0.2, type = BS.Type.SMB),
+            BS(timestamp = now - T.mins(17).msecs(), amount = 0.7, type = BS.Type.NORMAL)
+        )
+        temporaryBasals = listOf(
+            TB(timestamp = now - T.hours(8).msecs() + 1_234, duration = T.mins(45).msecs(), rate = 0.0, isAbsolute = true, type = TB.Type.NORMAL),
+            // across profile switch
+            TB(timestamp = now - T.mins(160).msecs() + 30_000, duration = T.mins(90).msecs(), rate = 150.0, isAbsolute = false, type = TB.Type.NORMAL),
+            // running, counted up to now only
+            TB(timestamp = now - T.mins(35).msecs() + 11_111, duration = T.mins(60).msecs(), rate = 2.2, isAbsolute = true, type = TB.Type.NORMAL)
+        )
+        extendedBoluses = listOf(
+            EB(timestamp = now - T.hours(7).msecs() + 7_777, duration = T.mins(30).msecs(), amount = 1.0),
+            // running, counted up to now only
+            EB(timestamp = now - T.mins(50).msecs() + 2_222, duration = T.hours(2).msecs(), amount = 3.0)
+        )
+        whenever(persistenceLayer.getBolusesFromTime(any(), any())).thenAnswer { invocation -> Single.just(boluses.filter { it.timestamp >= invocation.getArgument<Long>(0) }) }
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTime(any(), any())).thenAnswer { invocation -> Single.just(temporaryBasals.filter { it.timestamp >= invocation.getArgument<Long>(0) }) }
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTime(any(), any())).thenAnswer { invocation -> Single.just(extendedBoluses.filter { it.timestamp >= invocation.getArgument<Long>(0) }) }
+        whenever(persistenceLayer.getBolusesFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            boluses.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            temporaryBasals.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), any())).thenAnswer { invocation ->
+            extendedBoluses.filter { it.timestamp in invocation.getArgument<Long>(0)..invocation.getArgument<Long>(1) }
+        }
+
+        sut = IobCobCalculatorPlugin(
+            aapsLogger, aapsSchedulers, rxBus, preferences, rh, profileFunction, activePlugin, fabricPrivacy, dateUtil,
+            persistenceLayer, overviewData, calculationWorkflow, decimalFormatter, processedTbrEbData
+        )
+    }
+
+    private fun assertSeriesFollowsPointWiseCalculation() {
+        val series = sut.calculateIobSeriesFromTreatmentsAndTemps(fromTime, toTime, step)
+        assertThat(series).hasLength(((toTime - fromTime) / step + 1).toInt())
+        for ((k, iobTotal) in series.withIndex()) {
+            val time = fromTime + k * step
+            val expected = sut.calculateFromTreatmentsAndTemps(time, profileFunction.getProfile(time)!!)
+            assertThat(iobTotal.time).isEqualTo(time)
+            assertThat(iobTotal.iob).isWithin(iobTolerance).of(expected.iob)
+            assertThat(iobTotal.basaliob).isWithin(iobTolerance).of(expected.basaliob)
+            assertThat(iobTotal.activity).isWithin(activityTolerance).of(expected.activity)
+        }
+        // history is not trivial
+        assertThat(series.maxOf { it.iob }).isGreaterThan(1.0)
+        assertThat(series.maxOf { it.basaliob }).isGreaterThan(0.1)
+    }
+
+    @Test
+    fun treatmentsAndTempsSeriesTest() {
+        assertSeriesFollowsPointWiseCalculation()
+    }
+
+    @Test
+    fun treatmentsAndTempsSeriesWithFakedTempsTest() {
+        // extended boluses are counted as basal IOB
+        val pump: Pump = mock()
+        whenever(pump.isFakingTempsByExtendedBoluses).thenReturn(true)
+        whenever(activePlugin.activePump).thenReturn(pump)
+        assertSeriesFollowsPointWiseCalculation()
+    }
+
+    @Test
+    fun absoluteIobSeriesFromBaseBasalsTest() {
+        val series = sut.calculateAbsoluteIobSeriesFromBaseBasals(fromTime, toTime, step)
+        assertThat(series).hasLength(((toTime - fromTime) / step + 1).toInt())
+        for ((k, iobTotal) in series.withIndex()) {
+            val time = fromTime + k * step
+            val expected = sut.calculateAbsoluteIobFromBaseBasals(time)
+            assertThat(iobTotal.time).isEqualTo(time)
+            assertThat(iobTotal.basaliob).isWithin(iobTolerance).of(expected.basaliob)
+            assertThat(iobTotal.activity).isWithin(activityTolerance).of(expected.activity)
+        }
+        assertThat(series.maxOf { it.basaliob }).isGreaterThan(1.0)
+    }
+}
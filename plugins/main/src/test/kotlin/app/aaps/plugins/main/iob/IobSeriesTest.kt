@@ -0,0 +1,104 @@
+package app.aaps.plugins.main.iob
+
+import app.aaps.core.data.iob.Iob
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.insulin.Insulin
+import app.aaps.plugins.main.iob.iobCobCalculator.data.IobSeries
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mockito
+import org.mockito.kotlin.any
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import kotlin.math.exp
+
+class IobSeriesTest {
+
+    private lateinit var insulin: Insulin
+
+    private val fromTime = 1_700_000_000_000L + 12_345
+    private val toTime = fromTime + T.hours(12).msecs()
+    private val step = T.mins(5).msecs()
+    private val range = T.hours(8).msecs()
+    private val dia = 5.0
+    private val peak = 75.0
+
+    @BeforeEach
+    fun setup() {
+        insulin = mock(defaultAnswer = Mockito.CALLS_REAL_METHODS)
+        // oref exponential curve
+        doAnswer { invocation ->
+            val bolus = invocation.getArgument<BS>(0)
+            val time = invocation.getArgument<Long>(1)
+            val td = invocation.getArgument<Double>(2) * 60
+            val t = (time - bolus.timestamp) / 60000.0
+            val result = Iob()
+            if (t >= 0 && t < td) {
+                val tau = peak * (1 - peak / td) / (1 - 2 * peak / td)
+                val a = 2 * tau / td
+                val s = 1 / (1 - a + (1 + a) * exp(-td / tau))
+                result.activityContrib = bolus.amount * (s / tau.pow2()) * t * (1 - t / td) * exp(-t / tau)
+                result.iobContrib = bolus.amount * (1 - s * (1 - a) * ((t.pow2() / (tau * td * (1 - a)) - t / tau - 1) * exp(-t / tau) + 1))
+            }
+            result
+        }.whenever(insulin).iobCalcForTreatment(any(), any(), any())
+    }
+
+    private fun Double.pow2() = this * this
+
+    private fun times(): List<Long> = (0 until ((toTime - fromTime) / step + 1).toInt()).map { fromTime + it * step }
+
+    @Test
+    fun onGridBolusesAreExactTest() {
+        val sut = IobSeries(fromTime, toTime, step, range)
+        val boluses = listOf(fromTime - T.hours(3).msecs() to 2.0, fromTime + T.mins(37).msecs() to 1.5, fromTime + T.hours(6).msecs() to 0.7)
+        boluses.forEach { sut.addBolus(it.second, it.first, dia) }
+        val result = sut.calculate(insulin)
+
+        assertThat(result.times.toList()).isEqualTo(times())
+        for ((k, time) in times().withIndex()) {
+            val counted = boluses.filter { it.first < time && it.first >= time - range }
+            assertThat(result.iob[k]).isWithin(1e-9).of(counted.sumOf { insulin.iobCalc(it.second, it.first, time, dia) })
+            assertThat(result.activity[k]).isWithin(1e-12).of(counted.sumOf { insulin.activityCalc(it.second, it.first, time, dia) })
+        }
+    }
+
+    @Test
+    fun offGridBolusesAndRatesTest() {
+        val sut = IobSeries(fromTime, toTime, step, range)
+        val boluses = listOf(fromTime - T.hours(2).msecs() + 17_003 to 3.0, fromTime + T.mins(93).msecs() + 41_777 to 1.2, fromTime + T.hours(7).msecs() + 5_005 to 0.35)
+        // rate, start, end
+        val rates = listOf(
+            Triple(1.3, fromTime - T.mins(47).msecs() + 3_210, fromTime + T.mins(61).msecs() + 9_999),
+            Triple(-0.6, fromTime + T.hours(4).msecs() + 123, fromTime + T.hours(5).msecs() + 30_000)
+        )
+        boluses.forEach { sut.addBolus(it.second, it.first, dia) }
+        rates.forEach { sut.addRate(it.first, it.second, it.third, dia) }
+        val result = sut.calculate(insulin)
+
+        for ((k, time) in times().withIndex()) {
+            var iob = boluses.filter { it.first < time && it.first >= time - range }.sumOf { insulin.iobCalc(it.second, it.first, time, dia) }
+            var activity = boluses.filter { it.first < time && it.first >= time - range }.sumOf { insulin.activityCalc(it.second, it.first, time, dia) }
+            rates.forEach { (rate, start, end) ->
+                val from = maxOf(start, time - range)
+                val to = minOf(end, time)
+                if (from < to) {
+                    iob += insulin.iobCalcForSegment(rate, from, to, time, dia)
+                    activity += insulin.activityCalcForSegment(rate, from, to, time, dia)
+                }
+            }
+            assertThat(result.iob[k]).isWithin(1e-3).of(iob)
+            assertThat(result.activity[k]).isWithin(1e-5).of(activity)
+        }
+    }
+
+    @Test
+    fun emptySeriesTest() {
+        val sut = IobSeries(fromTime, fromTime - 1, step, range)
+        assertThat(sut.size).isEqualTo(0)
+        assertThat(sut.calculate(insulin).iob).isEmpty()
+    }
+}
@@ -0,0 +1,81 @@
+package app.aaps.plugins.main.iob
+
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.EB
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.plugins.main.iob.iobCobCalculator.data.TreatmentsSnapshot
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.rxjava3.core.Single
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.never
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+
+class TreatmentsSnapshotTest : TestBase() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private fun bolus(minutes: Long, amount: Double = 1.0, isValid: Boolean = true) =
+        BS(timestamp = T.mins(minutes).msecs(), amount = amount, type = BS.Type.NORMAL, isValid = isValid)
+
+    private fun tbr(minutes: Long) =
+        TB(timestamp = T.mins(minutes).msecs(), duration = T.mins(30).msecs(), rate = 1.0, isAbsolute = true, type = TB.Type.NORMAL)
+
+    private fun eb(minutes: Long) =
+        EB(timestamp = T.mins(minutes).msecs(), duration = T.mins(30).msecs(), amount = 1.0)
+
+    @Test
+    fun rangeQueriesTest() {
+        val snapshot = TreatmentsSnapshot.build(
+            from = 0,
+            boluses = listOf(bolus(30), bolus(10), bolus(20), bolus(15, isValid = false), bolus(20, amount = 2.0)),
+            temporaryBasals = listOf(tbr(60), tbr(0), tbr(30)),
+            extendedBoluses = listOf(eb(5))
+        )
+        // sorted by timestamp, invalid removed, inclusive boundaries
+        assertThat(snapshot.getBoluses(0, Long.MAX_VALUE).map { it.timestamp }).containsExactly(T.mins(10).msecs(), T.mins(20).msecs(), T.mins(20).msecs(), T.mins(30).msecs()).inOrder()
+        assertThat(snapshot.getBoluses(T.mins(20).msecs(), T.mins(30).msecs())).hasSize(3)
+        assertThat(snapshot.getBoluses(T.mins(11).msecs(), T.mins(19).msecs())).isEmpty()
+        assertThat(snapshot.getBoluses(T.mins(40).msecs(), T.mins(30).msecs())).isEmpty()
+        assertThat(snapshot.getTemporaryBasalsStartingFromTimeToTime(T.mins(0).msecs(), T.mins(30).msecs()).map { it.timestamp }).containsExactly(0L, T.mins(30).msecs()).inOrder()
+        assertThat(snapshot.getExtendedBolusesStartingFromTimeToTime(T.mins(6).msecs(), Long.MAX_VALUE)).isEmpty()
+        assertThat(snapshot.getExtendedBolusesStartingFromTimeToTime(T.mins(5).msecs(), T.mins(5).msecs())).hasSize(1)
+        assertThat(snapshot.covers(0)).isTrue()
+        assertThat(snapshot.covers(-1)).isFalse()
+    }
+
+    @Test
+    fun reloadAndExtendTest() {
+        val from = T.mins(100).msecs()
+        whenever(persistenceLayer.getBolusesFromTime(any(), any())).thenReturn(Single.just(listOf(bolus(150))))
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTime(any(), any())).thenReturn(Single.just(emptyList()))
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTime(any(), any())).thenReturn(Single.just(emptyList()))
+        val snapshot = TreatmentsSnapshot.build(from, listOf(bolus(110), bolus(130), bolus(140)), listOf(tbr(120)), emptyList())
+
+        // records older than invalidated time are kept, newer are replaced from db
+        val reloaded = snapshot.reloadedFrom(T.mins(130).msecs(), persistenceLayer)
+        verify(persistenceLayer).getBolusesFromTime(eq(T.mins(130).msecs()), eq(true))
+        assertThat(reloaded.from).isEqualTo(from)
+        assertThat(reloaded.getBoluses(0, Long.MAX_VALUE).map { it.timestamp }).containsExactly(T.mins(110).msecs(), T.mins(150).msecs()).inOrder()
+        assertThat(reloaded.getTemporaryBasalsStartingFromTimeToTime(0, Long.MAX_VALUE)).hasSize(1)
+
+        // only missing part is loaded when extending to the past
+        whenever(persistenceLayer.getBolusesFromTimeToTime(any(), any(), any())).thenReturn(listOf(bolus(50)))
+        whenever(persistenceLayer.getTemporaryBasalsStartingFromTimeToTime(any(), any(), any())).thenReturn(emptyList())
+        whenever(persistenceLayer.getExtendedBolusesStartingFromTimeToTime(any(), any(), any())).thenReturn(emptyList())
+        val extended = reloaded.extendedTo(T.mins(40).msecs(), persistenceLayer)
+        verify(persistenceLayer).getBolusesFromTimeToTime(T.mins(40).msecs(), from - 1, true)
+        assertThat(extended.from).isEqualTo(T.mins(40).msecs())
+        assertThat(extended.getBoluses(0, Long.MAX_VALUE).map { it.timestamp }).containsExactly(T.mins(50).msecs(), T.mins(110).msecs(), T.mins(150).msecs()).inOrder()
+
+        // covered range is not reloaded
+        assertThat(extended.extendedTo(T.mins(60).msecs(), persistenceLayer)).isSameInstanceAs(extended)
+        verify(persistenceLayer, never()).getBolusesFromTimeToTime(eq(T.mins(60).msecs()), any(), any())
+    }
+}
@@ -21,6 +21,7 @@ dependencies {
     implementation(project(":core:ui"))
     implementation(project(":core:validators"))
 
+    testImplementation(project(":implementation"))
     testImplementation(project(":shared:tests"))
 
     ksp(libs.com.google.dagger.compiler)
@@ -4,7 +4,6 @@ import android.content.Context
 import androidx.preference.PreferenceCategory
 import androidx.preference.PreferenceManager
 import androidx.preference.PreferenceScreen
-import app.aaps.core.data.model.TE
 import app.aaps.core.data.plugin.PluginType
 import app.aaps.core.interfaces.aps.AutosensDataStore
 import app.aaps.core.interfaces.aps.AutosensResult
@@ -21,17 +20,12 @@ import app.aaps.core.keys.IntKey
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.extensions.put
 import app.aaps.core.objects.extensions.store
-import app.aaps.core.utils.MidnightUtils
-import app.aaps.core.utils.Percentile
 import app.aaps.core.validators.preferences.AdaptiveDoublePreference
 import app.aaps.core.validators.preferences.AdaptiveIntPreference
-import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
-import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
+import app.aaps.plugins.sensitivity.data.SensitivityEngine
 import org.json.JSONObject
-import java.util.Arrays
 import javax.inject.Inject
 import javax.inject.Singleton
-import kotlin.math.roundToInt
 
 @Singleton
 class SensitivityAAPSPlugin @Inject constructor(
@@ -52,6 +46,8 @@ class SensitivityAAPSPlugin @Inject constructor(
     aapsLogger, rh, preferences
 ) {
 
+    private val engine = SensitivityEngine(persistenceLayer)
+
     override fun detectSensitivity(ads: AutosensDataStore, fromTime: Long, toTime: Long): AutosensResult {
         val hoursForDetection = preferences.get(IntKey.AutosensPeriod)
         val profile = profileFunction.getProfile()
@@ -68,75 +64,39 @@ class SensitivityAAPSPlugin @Inject constructor(
             aapsLogger.debug(LTag.AUTOSENS, "No autosens data available. toTime: " + dateUtil.dateAndTimeString(toTime) + " lastDataTime: " + ads.lastDataTime(dateUtil))
             return AutosensResult()
         }
-        val siteChanges = persistenceLayer.getTherapyEventDataFromTime(fromTime, TE.Type.CANNULA_CHANGE, true)
-        val profileSwitches = persistenceLayer.getProfileSwitchesFromTime(fromTime, true).blockingGet()
-        val deviationsArray: MutableList<Double> = ArrayList()
-        var pastSensitivity = ""
-        var index = 0
-        while (index < ads.autosensDataTable.size()) {
-            val autosensData = ads.autosensDataTable.valueAt(index)
-            if (autosensData.time < fromTime) {
-                index++
-                continue
-            }
-            if (autosensData.time > toTime) {
-                index++
-                continue
-            }
-
-            // reset deviations after site change
-            if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
-                deviationsArray.clear()
-                pastSensitivity += "(SITECHANGE)"
-            }
+        synchronized(engine) {
+            engine.configure(listOf(SensitivityEngine.WindowSpec(hoursForDetection * 60 * 60 * 1000L, hoursForDetection * 60 / 5)), useExtraDeviations = false)
+            engine.update(ads, fromTime, toTime)
+            val deviations = engine.windows[0]
+            val pastSensitivity = engine.pastSensitivity
+            //val sens = profile.getIsfMgdl(toTime, current.bg, "SensitivityAAPSPlugin")
+            val sens = current.sens
+            val ratioLimit = ""
+            val sensResult: String
+            aapsLogger.debug(LTag.AUTOSENS) { "Records: ${ads.autosensDataTable.size()}   $pastSensitivity" }
+            val percentile = deviations.percentile(0.50)
+            val basalOff = percentile * (60.0 / 5.0) / sens
+            val ratio = 1 + basalOff / profile.getMaxDailyBasal()
+            sensResult = when {
+                percentile < 0 -> "Excess insulin sensitivity detected"
+                percentile > 0 -> "Excess insulin resistance detected"
+                else           -> "Sensitivity normal"
 
-            // reset deviations after profile switch
-            if (profileSwitches.isPSEvent5minBack(autosensData.time)) {
-                deviationsArray.clear()
-                pastSensitivity += "(PROFILESWITCH)"
             }
-            var deviation = autosensData.deviation
-
-            //set positive deviations to zero if bg < 80
-            if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
-            if (autosensData.validDeviation) if (autosensData.time > toTime - hoursForDetection * 60 * 60 * 1000L) deviationsArray.add(deviation)
-            if (deviationsArray.size > hoursForDetection * 60 / 5) deviationsArray.removeAt(0)
-            pastSensitivity += autosensData.pastSensitivity
-            val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
-            if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
-                pastSensitivity += "(" + (secondsFromMidnight / 3600.0).roundToInt() + ")"
-            }
-            index++
-        }
-        val deviations = Array(deviationsArray.size) { i -> deviationsArray[i] }
-        //val sens = profile.getIsfMgdl(toTime, current.bg, "SensitivityAAPSPlugin")
-        val sens = current.sens
-        val ratioLimit = ""
-        val sensResult: String
-        aapsLogger.debug(LTag.AUTOSENS, "Records: $index   $pastSensitivity")
-        Arrays.sort(deviations)
-        val percentile = Percentile.percentile(deviations, 0.50)
-        val basalOff = percentile * (60.0 / 5.0) / sens
-        val ratio = 1 + basalOff / profile.getMaxDailyBasal()
-        sensResult = when {
-            percentile < 0 -> "Excess insulin sensitivity detected"
-            percentile > 0 -> "Excess insulin resistance detected"
-            else           -> "Sensitivity normal"
-
+            aapsLogger.debug(LTag.AUTOSENS, sensResult)
+            val output = fillResult(
+                ratio, current.cob, pastSensitivity, ratioLimit,
+                sensResult, deviations.size
+            )
+            aapsLogger.debug(
+                LTag.AUTOSENS, "Sensitivity to: "
+                    + dateUtil.dateAndTimeString(toTime) +
+                    " ratio: " + output.ratio
+                    + " mealCOB: " + current.cob
+            )
+            aapsLogger.debug(LTag.AUTOSENS) { "Sensitivity to: deviations " + deviations.toArray().contentToString() }
+            return output
         }
-        aapsLogger.debug(LTag.AUTOSENS, sensResult)
-        val output = fillResult(
-            ratio, current.cob, pastSensitivity, ratioLimit,
-            sensResult, deviationsArray.size
-        )
-        aapsLogger.debug(
-            LTag.AUTOSENS, "Sensitivity to: "
-                + dateUtil.dateAndTimeString(toTime) +
-                " ratio: " + output.ratio
-                + " mealCOB: " + current.cob
-        )
-        aapsLogger.debug(LTag.AUTOSENS, "Sensitivity to: deviations " + deviations.contentToString())
-        return output
     }
 
     override fun maxAbsorptionHours(): Double = preferences.get(DoubleKey.AbsorptionMaxTime)
@@ -4,8 +4,8 @@ import android.content.Context
 import androidx.preference.PreferenceCategory
 import androidx.preference.PreferenceManager
 import androidx.preference.PreferenceScreen
-import app.aaps.core.data.model.TE
 import app.aaps.core.data.plugin.PluginType
+import app.aaps.core.data.time.T
 import app.aaps.core.interfaces.aps.AutosensDataStore
 import app.aaps.core.interfaces.aps.AutosensResult
 import app.aaps.core.interfaces.aps.Sensitivity.SensitivityType
@@ -22,13 +22,9 @@ import app.aaps.core.keys.DoubleKey
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.extensions.put
 import app.aaps.core.objects.extensions.store
-import app.aaps.core.utils.MidnightUtils
-import app.aaps.core.utils.Percentile
 import app.aaps.core.validators.preferences.AdaptiveDoublePreference
-import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
-import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
+import app.aaps.plugins.sensitivity.data.SensitivityEngine
 import org.json.JSONObject
-import java.util.Arrays
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.roundToInt
@@ -54,6 +50,17 @@ class SensitivityOref1Plugin @Inject constructor(
     aapsLogger, rh, preferences
 ), PluginConstraints {
 
+    // 8 hours and 24 hours of deviations
+    private val deviationCategory = listOf(96, 288)
+    private val engine = SensitivityEngine(persistenceLayer).apply {
+        configure(
+            listOf(
+                SensitivityEngine.WindowSpec(T.hours(8).msecs(), deviationCategory[0]),
+                SensitivityEngine.WindowSpec(T.hours(24).msecs(), deviationCategory[1])
+            ), useExtraDeviations = true
+        )
+    }
+
     override fun detectSensitivity(ads: AutosensDataStore, fromTime: Long, toTime: Long): AutosensResult {
         val profile = profileFunction.getProfile()
         if (profile == null) {
@@ -71,139 +78,78 @@ class SensitivityOref1Plugin @Inject constructor(
             aapsLogger.debug(LTag.AUTOSENS, "No autosens data available. toTime: " + dateUtil.dateAndTimeString(toTime) + " lastDataTime: " + ads.lastDataTime(dateUtil))
             return AutosensResult()
         }
-        val siteChanges = persistenceLayer.getTherapyEventDataFromTime(fromTime, TE.Type.CANNULA_CHANGE, true)
-        val profileSwitches = persistenceLayer.getProfileSwitchesFromTime(fromTime, true).blockingGet()
-
-        //[0] = 8 hour
-        //[1] = 24 hour
-        //deviationsHour has DeviationsArray
-        val deviationsHour = mutableListOf(ArrayList(), ArrayList<Double>())
-        val pastSensitivityArray = mutableListOf("", "")
-        val sensResultArray = mutableListOf("", "")
-        val ratioArray = mutableListOf(0.0, 0.0)
-        val deviationCategory = listOf(96.0, 288.0)
-        val ratioLimitArray = mutableListOf("", "")
-        val hoursDetection = listOf(8.0, 24.0)
-        var index = 0
-        while (index < ads.autosensDataTable.size()) {
-            val autosensData = ads.autosensDataTable.valueAt(index)
-            if (autosensData.time < fromTime) {
-                index++
-                continue
-            }
-            if (autosensData.time > toTime) {
-                index++
-                continue
-            }
-            var hourSegment = 0
-            //hourSegment = 0 = 8 hour
-            //hourSegment = 1 = 24 hour
-            while (hourSegment < deviationsHour.size) {
-                val deviationsArray = deviationsHour[hourSegment]
-                var pastSensitivity = pastSensitivityArray[hourSegment]
-
-                // reset deviations after site change
-                if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
-                    deviationsArray.clear()
-                    pastSensitivity += "(SITECHANGE)"
+        synchronized(engine) {
+            engine.update(ads, fromTime, toTime)
+            val deviationsHour = engine.windows
+            val pastSensitivity = engine.pastSensitivity
+
+            //[0] = 8 hour
+            //[1] = 24 hour
+            val sensResultArray = mutableListOf("", "")
+            val ratioArray = mutableListOf(0.0, 0.0)
+            val deviationsSizeArray = mutableListOf(0, 0)
+            val ratioLimitArray = mutableListOf("", "")
+
+            var hourUsed = 0
+            //val sens = profile.getIsfMgdl(toTime, current.bg, "SensitivityOref1Plugin")
+            val sens = current.sens
+            while (hourUsed < deviationsHour.size) {
+                val deviations = deviationsHour[hourUsed]
+                aapsLogger.debug(LTag.AUTOSENS, "Using most recent " + deviations.size + " deviations")
+                // when we have less than 8h/24 worth of deviation data, add up to 90m of zero deviations
+                // this dampens any large sensitivity changes detected based on too little data, without ignoring them completely
+                var pad = 0
+                if (deviations.size < deviationCategory[hourUsed]) {
+                    pad = ((1 - deviations.size.toDouble() / deviationCategory[hourUsed]) * 18).roundToInt()
+                    aapsLogger.debug(LTag.AUTOSENS, "Adding $pad more zero deviations")
                 }
-
-                // reset deviations after profile switch
-                if (profileSwitches.isPSEvent5minBack(autosensData.time)) {
-                    deviationsArray.clear()
-                    pastSensitivity += "(PROFILESWITCH)"
-                }
-                var deviation = autosensData.deviation
-
-                //set positive deviations to zero if bg < 80
-                if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
-                if (autosensData.validDeviation) if (autosensData.time > toTime - hoursDetection[hourSegment] * 60 * 60 * 1000L) deviationsArray.add(deviation)
-                deviationsArray.addAll(autosensData.extraDeviation)
-                if (deviationsArray.size > deviationCategory[hourSegment]) {
-                    deviationsArray.removeAt(0)
-                }
-                pastSensitivity += autosensData.pastSensitivity
-                val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
-                if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
-                    pastSensitivity += "(" + (secondsFromMidnight / 3600.0).roundToInt() + ")"
+                var sensResult = "(8 hours) "
+                if (hourUsed == 1) sensResult = "(24 hours) "
+                val ratioLimit = ""
+                aapsLogger.debug(LTag.AUTOSENS) { "Records: ${ads.autosensDataTable.size()}   $pastSensitivity" }
+                val pSensitive = deviations.percentile(0.50, pad)
+                val pResistant = deviations.percentile(0.50, pad)
+                var basalOff = 0.0
+                when {
+                    pSensitive < 0 -> { // sensitive
+                        basalOff = pSensitive * (60.0 / 5) / sens
+                        sensResult += "Excess insulin sensitivity detected"
+                    }
+
+                    pResistant > 0 -> { // resistant
+                        basalOff = pResistant * (60.0 / 5) / sens
+                        sensResult += "Excess insulin resistance detected"
+                    }
+
+                    else           -> sensResult += "Sensitivity normal"
                 }
+                aapsLogger.debug(LTag.AUTOSENS, sensResult)
+                val ratio = 1 + basalOff / profile.getMaxDailyBasal()
 
                 //Update the data back to the parent
-                deviationsHour[hourSegment] = deviationsArray
-                pastSensitivityArray[hourSegment] = pastSensitivity
-                hourSegment++
+                sensResultArray[hourUsed] = sensResult
+                ratioArray[hourUsed] = ratio
+                deviationsSizeArray[hourUsed] = deviations.size + pad
+                ratioLimitArray[hourUsed] = ratioLimit
+                hourUsed++
             }
-            index++
-        }
-
-        // when we have less than 8h/24 worth of deviation data, add up to 90m of zero deviations
-        // this dampens any large sensitivity changes detected based on too little data, without ignoring them completely
-        for (i in deviationsHour.indices) {
-            val deviations = deviationsHour[i]
-            aapsLogger.debug(LTag.AUTOSENS, "Using most recent " + deviations.size + " deviations")
-            if (deviations.size < deviationCategory[i]) {
-                val pad = ((1 - deviations.size.toDouble() / deviationCategory[i]) * 18).roundToInt()
-                aapsLogger.debug(LTag.AUTOSENS, "Adding $pad more zero deviations")
-                (0 until pad).forEach {
-                    deviations.add(0.0)
-                }
+            var key = 1
+            val comparison = " 8 h ratio " + ratioArray[0] + " vs 24h ratio " + ratioArray[1]
+            //use 24 hour ratio by default
+            //if the 8 hour ratio is less than the 24 hour ratio, the 8 hour ratio is used
+            if (ratioArray[0] < ratioArray[1]) {
+                key = 0
             }
-            //Update the data back to the parent
-            deviationsHour[i] = deviations
+            //String message = hoursDetection.get(key) + " of sensitivity used";
+            val output = fillResult(ratioArray[key], current.cob, pastSensitivity, ratioLimitArray[key], sensResultArray[key] + comparison, deviationsSizeArray[key])
+            aapsLogger.debug(
+                LTag.AUTOSENS, "Sensitivity to: "
+                    + dateUtil.dateAndTimeString(toTime) +
+                    " ratio: " + output.ratio
+                    + " mealCOB: " + current.cob
+            )
+            return output
         }
-        var hourUsed = 0
-        //val sens = profile.getIsfMgdl(toTime, current.bg, "SensitivityOref1Plugin")
-        val sens = current.sens
-        while (hourUsed < deviationsHour.size) {
-            val deviationsArray: ArrayList<Double> = deviationsHour[hourUsed]
-            val pastSensitivity = pastSensitivityArray[hourUsed]
-            var sensResult = "(8 hours) "
-            if (hourUsed == 1) sensResult = "(24 hours) "
-            val ratioLimit = ""
-            val deviations: Array<Double> = Array(deviationsArray.size) { i -> deviationsArray[i] }
-            aapsLogger.debug(LTag.AUTOSENS, "Records: $index   $pastSensitivity")
-            Arrays.sort(deviations)
-            val pSensitive = Percentile.percentile(deviations, 0.50)
-            val pResistant = Percentile.percentile(deviations, 0.50)
-            var basalOff = 0.0
-            when {
-                pSensitive < 0 -> { // sensitive
-                    basalOff = pSensitive * (60.0 / 5) / sens
-                    sensResult += "Excess insulin sensitivity detected"
-                }
-
-                pResistant > 0 -> { // resistant
-                    basalOff = pResistant * (60.0 / 5) / sens
-                    sensResult += "Excess insulin resistance detected"
-                }
-
-                else           -> sensResult += "Sensitivity normal"
-            }
-            aapsLogger.debug(LTag.AUTOSENS, sensResult)
-            val ratio = 1 + basalOff / profile.getMaxDailyBasal()
-
-            //Update the data back to the parent
-            sensResultArray[hourUsed] = sensResult
-            ratioArray[hourUsed] = ratio
-            ratioLimitArray[hourUsed] = ratioLimit
-            hourUsed++
-        }
-        var key = 1
-        val comparison = " 8 h ratio " + ratioArray[0] + " vs 24h ratio " + ratioArray[1]
-        //use 24 hour ratio by default
-        //if the 8 hour ratio is less than the 24 hour ratio, the 8 hour ratio is used
-        if (ratioArray[0] < ratioArray[1]) {
-            key = 0
-        }
-        //String message = hoursDetection.get(key) + " of sensitivity used";
-        val output = fillResult(ratioArray[key], current.cob, pastSensitivityArray[key], ratioLimitArray[key], sensResultArray[key] + comparison, deviationsHour[key].size)
-        aapsLogger.debug(
-            LTag.AUTOSENS, "Sensitivity to: "
-                + dateUtil.dateAndTimeString(toTime) +
-                " ratio: " + output.ratio
-                + " mealCOB: " + current.cob
-        )
-        return output
     }
 
     override fun maxAbsorptionHours(): Double = preferences.get(DoubleKey.AbsorptionCutOff)
@@ -4,7 +4,6 @@ import android.content.Context
 import androidx.collection.LongSparseArray
 import androidx.preference.PreferenceManager
 import androidx.preference.PreferenceScreen
-import app.aaps.core.data.model.TE
 import app.aaps.core.data.plugin.PluginType
 import app.aaps.core.interfaces.aps.AutosensDataStore
 import app.aaps.core.interfaces.aps.AutosensResult
@@ -23,6 +22,7 @@ import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.extensions.put
 import app.aaps.core.objects.extensions.store
 import app.aaps.core.utils.MidnightUtils
+import app.aaps.plugins.sensitivity.data.SensitivityEngine
 import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
 import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
 import org.json.JSONObject
@@ -50,6 +50,8 @@ class SensitivityWeightedAveragePlugin @Inject constructor(
     aapsLogger, rh, preferences
 ) {
 
+    private val engine = SensitivityEngine(persistenceLayer)
+
     override fun detectSensitivity(ads: AutosensDataStore, fromTime: Long, toTime: Long): AutosensResult {
         val hoursForDetection = preferences.get(IntKey.AutosensPeriod)
         if (ads.autosensDataTable.size() < 4) {
@@ -66,8 +68,11 @@ class SensitivityWeightedAveragePlugin @Inject constructor(
             aapsLogger.debug(LTag.AUTOSENS, "No profile available")
             return AutosensResult()
         }
-        val siteChanges = persistenceLayer.getTherapyEventDataFromTime(fromTime, TE.Type.CANNULA_CHANGE, true)
-        val profileSwitches = persistenceLayer.getProfileSwitchesFromTime(fromTime, true).blockingGet()
+        // site changes and profile switches are loaded once per calculation run
+        val (siteChanges, profileSwitches) = synchronized(engine) {
+            engine.loadEvents(ads, fromTime)
+            Pair(engine.siteChanges, engine.profileSwitches)
+        }
         var pastSensitivity = ""
         var index = 0
         val data = LongSparseArray<Double>()
@@ -0,0 +1,149 @@
+package app.aaps.plugins.sensitivity.data
+
+import kotlin.math.floor
+
+/**
+ * Rolling deviations array of sensitivity detection.
+ *
+ * Content is always identical to the array built by processing all AutosensData in [fromTime, toTime] from scratch:
+ *  - array is cleared on site change or profile switch
+ *  - deviation is added only if data time > toTime - [windowMs]
+ *  - extra deviations are always added
+ *  - after every processed AutosensData oldest value is removed if size > [maxSize]
+ *
+ * As values are removed only from the beginning, the array is always the tail of the stream of added values.
+ * New values are appended, expired deviations are dropped and the tail is moved accordingly.
+ * Size of the tail is tracked by [ReplayedSize] and its values are kept in [OrderStatisticTree],
+ * so both update and percentile are O(log n) without rescanning entries or sorting.
+ */
+class DeviationsWindow(val windowMs: Long, val maxSize: Int) {
+
+    // stream of values since last reset
+    private var values = DoubleArray(INITIAL_CAPACITY)
+    private var present = BooleanArray(INITIAL_CAPACITY)
+    private var valueCount = 0
+
+    // processed AutosensData since last reset
+    private var entryTimes = LongArray(INITIAL_CAPACITY)
+    private var entryDeviation = IntArray(INITIAL_CAPACITY) // index to values or -1
+    private var entryAdded = IntArray(INITIAL_CAPACITY) // number of present values added by entry
+    private var entryCount = 0
+    private var expiredCount = 0
+
+    // tail of stream == content of deviations array
+    private var front = 0
+    private val sorted = OrderStatisticTree(INITIAL_CAPACITY)
+    private val expectedSize = ReplayedSize(maxSize)
+
+    val size: Int get() = sorted.size
+
+    fun reset() {
+        valueCount = 0
+        entryCount = 0
+        expiredCount = 0
+        front = 0
+        sorted.clear()
+        expectedSize.reset()
+    }
+
+    /**
+     * Add AutosensData
+     *
+     * @param time AutosensData.time
+     * @param deviation deviation or null if not valid
+     * @param extraDeviations extra deviations added regardless of time window
+     */
+    fun add(time: Long, deviation: Double?, extraDeviations: List<Double>) {
+        ensureEntryCapacity(entryCount + 1)
+        ensureValueCapacity(valueCount + 1 + extraDeviations.size)
+        entryTimes[entryCount] = time
+        entryDeviation[entryCount] = if (deviation != null) valueCount else -1
+        entryAdded[entryCount] = (if (deviation != null) 1 else 0) + extraDeviations.size
+        expectedSize.append(entryAdded[entryCount])
+        entryCount++
+        if (deviation != null) append(deviation)
+        for (extra in extraDeviations) append(extra)
+    }
+
+    /**
+     * Expire deviations older than [toTime] - [windowMs] and trim content to the same size as full recalculation would do
+     */
+    fun moveTo(toTime: Long) {
+        val windowStart = toTime - windowMs
+        while (expiredCount < entryCount && entryTimes[expiredCount] <= windowStart) {
+            val index = entryDeviation[expiredCount]
+            if (index >= 0) {
+                present[index] = false
+                entryAdded[expiredCount]--
+                expectedSize.expire(expiredCount, entryAdded[expiredCount])
+                if (index >= front) sorted.remove(index)
+            }
+            expiredCount++
+        }
+        while (sorted.size > expectedSize.value) {
+            if (present[front]) sorted.remove(front)
+            front++
+        }
+        while (sorted.size < expectedSize.value) {
+            front--
+            if (present[front]) sorted.add(front, values[front])
+        }
+    }
+
+    /**
+     * Percentile of content extended by [zeros] zero values
+     * with the same result as [app.aaps.core.utils.Percentile.percentile] of sorted array
+     */
+    fun percentile(p: Double, zeros: Int = 0): Double {
+        val size = sorted.size + zeros
+        if (size == 0) return 0.0
+        if (p <= 0) return valueAt(0, zeros)
+        if (p >= 1) return valueAt(size - 1, zeros)
+        val index = size * p
+        val lower = floor(index)
+        val upper = lower + 1
+        val weight = index % 1
+        return if (upper >= size) valueAt(lower.toInt(), zeros)
+        else valueAt(lower.toInt(), zeros) * (1 - weight) + valueAt(upper.toInt(), zeros) * weight
+    }
+
+    fun toArray(): DoubleArray = sorted.toArray()
+
+    // value at index of sorted content with inserted zeros
+    private fun valueAt(index: Int, zeros: Int): Double {
+        if (zeros == 0) return sorted[index]
+        val zeroPosition = sorted.lowerBound(0.0)
+        return when {
+            index < zeroPosition         -> sorted[index]
+            index < zeroPosition + zeros -> 0.0
+            else                         -> sorted[index - zeros]
+        }
+    }
+
+    private fun append(value: Double) {
+        values[valueCount] = value
+        present[valueCount] = true
+        sorted.add(valueCount, value)
+        valueCount++
+    }
+
+    private fun ensureEntryCapacity(capacity: Int) {
+        if (capacity <= entryTimes.size) return
+        val newSize = maxOf(capacity, entryTimes.size * 2)
+        entryTimes = entryTimes.copyOf(newSize)
+        entryDeviation = entryDeviation.copyOf(newSize)
+        entryAdded = entryAdded.copyOf(newSize)
+    }
+
+    private fun ensureValueCapacity(capacity: Int) {
+        if (capacity <= values.size) return
+        val newSize = maxOf(capacity, values.size * 2)
+        values = values.copyOf(newSize)
+        present = present.copyOf(newSize)
+    }
+
+    companion object {
+
+        private const val INITIAL_CAPACITY = 512
+    }
+}
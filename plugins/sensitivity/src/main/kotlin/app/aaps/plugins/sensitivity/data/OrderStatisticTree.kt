@@ -0,0 +1,173 @@
+package app.aaps.plugins.sensitivity.data
+
+/**
+ * Multiset of doubles with access by rank in O(log n) (treap with subtree sizes).
+ *
+ * Elements are identified by id (index to caller's array), ids are used as nodes so no objects are allocated.
+ * Ordering is the same as [java.util.Arrays.sort] of boxed Double values.
+ */
+class OrderStatisticTree(initialCapacity: Int = 64) {
+
+    private var keys = DoubleArray(initialCapacity)
+    private var left = IntArray(initialCapacity)
+    private var right = IntArray(initialCapacity)
+    private var priority = IntArray(initialCapacity)
+    private var count = IntArray(initialCapacity)
+    private var root = NIL
+    private var seed = 0x2545F491
+
+    // results of split
+    private var splitLeft = NIL
+    private var splitRight = NIL
+
+    val size: Int get() = sizeOf(root)
+
+    /**
+     * @return value at [index] of sorted content
+     */
+    operator fun get(index: Int): Double {
+        var node = root
+        var rank = index
+        while (true) {
+            val leftSize = sizeOf(left[node])
+            node = when {
+                rank < leftSize  -> left[node]
+                rank == leftSize -> return keys[node]
+                else             -> {
+                    rank -= leftSize + 1
+                    right[node]
+                }
+            }
+        }
+    }
+
+    fun add(id: Int, value: Double) {
+        ensureCapacity(id + 1)
+        keys[id] = value
+        left[id] = NIL
+        right[id] = NIL
+        count[id] = 1
+        priority[id] = nextPriority()
+        split(root, id)
+        root = merge(merge(splitLeft, id), splitRight)
+    }
+
+    /**
+     * Remove element [id], it must be present
+     */
+    fun remove(id: Int) {
+        root = remove(root, id)
+    }
+
+    fun clear() {
+        root = NIL
+    }
+
+    /**
+     * @return count of values ordered before [value]
+     */
+    fun lowerBound(value: Double): Int {
+        var node = root
+        var result = 0
+        while (node != NIL) {
+            if (java.lang.Double.compare(keys[node], value) < 0) {
+                result += sizeOf(left[node]) + 1
+                node = right[node]
+            } else node = left[node]
+        }
+        return result
+    }
+
+    fun toArray(): DoubleArray {
+        val result = DoubleArray(size)
+        var index = 0
+        val stack = IntArray(size)
+        var depth = 0
+        var node = root
+        while (node != NIL || depth > 0) {
+            while (node != NIL) {
+                stack[depth++] = node
+                node = left[node]
+            }
+            node = stack[--depth]
+            result[index++] = keys[node]
+            node = right[node]
+        }
+        return result
+    }
+
+    private fun less(a: Int, b: Int): Boolean {
+        val compare = java.lang.Double.compare(keys[a], keys[b])
+        return compare < 0 || compare == 0 && a < b
+    }
+
+    private fun sizeOf(node: Int): Int = if (node == NIL) 0 else count[node]
+
+    private fun update(node: Int) {
+        count[node] = sizeOf(left[node]) + sizeOf(right[node]) + 1
+    }
+
+    // split subtree to nodes ordered before id (splitLeft) and the rest (splitRight)
+    private fun split(node: Int, id: Int) {
+        if (node == NIL) {
+            splitLeft = NIL
+            splitRight = NIL
+        } else if (less(node, id)) {
+            split(right[node], id)
+            right[node] = splitLeft
+            update(node)
+            splitLeft = node
+        } else {
+            split(left[node], id)
+            left[node] = splitRight
+            update(node)
+            splitRight = node
+        }
+    }
+
+    // all nodes of a are ordered before nodes of b
+    private fun merge(a: Int, b: Int): Int {
+        if (a == NIL) return b
+        if (b == NIL) return a
+        return if (priority[a] > priority[b]) {
+            right[a] = merge(right[a], b)
+            update(a)
+            a
+        } else {
+            left[b] = merge(a, left[b])
+            update(b)
+            b
+        }
+    }
+
+    private fun remove(node: Int, id: Int): Int {
+        if (node == id) return merge(left[node], right[node])
+        if (less(id, node)) left[node] = remove(left[node], id)
+        else right[node] = remove(right[node], id)
+        update(node)
+        return node
+    }
+
+    private fun nextPriority(): Int {
+        // xorshift
+        seed = seed xor (seed shl 13)
+        seed = seed xor (seed ushr 17)
+        seed = seed xor (seed shl 5)
+        return seed
+    }
+
+    private fun ensureCapacity(capacity: Int) {
+        if (capacity <= keys.size) return
+        val newSize = maxOf(capacity, keys.size * 2)
+        keys = keys.copyOf(newSize)
+        left = left.copyOf(newSize)
+        right = right.copyOf(newSize)
+        priority = priority.copyOf(newSize)
+        count = count.copyOf(newSize)
+    }
+
+    companion object {
+
+        private const val NIL = -1
+    }
+}
@@ -0,0 +1,169 @@
+package app.aaps.plugins.sensitivity.data
+
+/**
+ * Size of deviations array as full recalculation computes it:
+ * every entry adds its values, then one value is removed if size > [maxSize].
+ *
+ * Size after every entry is kept in a segment tree. Entries expire in order from the beginning and
+ * an expired entry adds one value less. Sizes after it then decrease by one up to the first capped entry
+ * with size == [maxSize], where the cap absorbs the difference. That entry is found in O(log n),
+ * so both [append] and [expire] are O(log n).
+ *
+ * Positions: 0 = size before first entry, i + 1 = size after entry i.
+ */
+class ReplayedSize(private val maxSize: Int) {
+
+    private var capacity = INITIAL_CAPACITY
+    private var sizes = IntArray(capacity) // valid for leaf after pushing pending additions
+    private var capped = BooleanArray(capacity) // one value was removed by the entry
+    private var minCapped = IntArray(2 * capacity) // min size of capped positions in subtree
+    private var pending = IntArray(2 * capacity) // addition not applied to children yet
+    private var count = 0
+
+    /** Size after last entry */
+    var value = 0
+        private set
+
+    init {
+        reset()
+    }
+
+    fun reset() {
+        minCapped.fill(NONE)
+        pending.fill(0)
+        count = 1
+        value = 0
+        set(0, 0, false)
+    }
+
+    /**
+     * Process new entry adding [added] values
+     */
+    fun append(added: Int) {
+        if (count == capacity) grow()
+        value = step(value, added, count)
+        count++
+    }
+
+    /**
+     * Entry [entry] adds [added] values now (one less than before). All previous entries must be already expired.
+     */
+    fun expire(entry: Int, added: Int) {
+        val previous = get(entry + 1)
+        val size = step(get(entry), added, entry + 1)
+        val last = count - 1
+        if (size == previous) return
+        if (entry + 1 == last) {
+            value = size
+            return
+        }
+        val absorbing = firstCapped(1, 0, capacity - 1, entry + 2, last)
+        if (absorbing == -1) {
+            add(1, 0, capacity - 1, entry + 2, last, -1)
+            value--
+        } else {
+            if (absorbing > entry + 2) add(1, 0, capacity - 1, entry + 2, absorbing - 1, -1)
+            // one value less on input, nothing to remove now
+            set(absorbing, maxSize, false)
+        }
+    }
+
+    private fun step(sizeBefore: Int, added: Int, position: Int): Int {
+        var size = sizeBefore + added
+        val isCapped = size > maxSize
+        if (isCapped) size--
+        set(position, size, isCapped)
+        return size
+    }
+
+    private fun get(position: Int): Int {
+        var node = 1
+        var low = 0
+        var high = capacity - 1
+        while (low < high) {
+            push(node, low, high)
+            val mid = (low + high) ushr 1
+            if (position <= mid) {
+                node = 2 * node
+                high = mid
+            } else {
+                node = 2 * node + 1
+                low = mid + 1
+            }
+        }
+        return sizes[position]
+    }
+
+    private fun set(position: Int, size: Int, isCapped: Boolean) {
+        set(1, 0, capacity - 1, position, size, isCapped)
+    }
+
+    private fun set(node: Int, low: Int, high: Int, position: Int, size: Int, isCapped: Boolean) {
+        if (low == high) {
+            sizes[position] = size
+            capped[position] = isCapped
+            minCapped[node] = if (isCapped) size else NONE
+            return
+        }
+        push(node, low, high)
+        val mid = (low + high) ushr 1
+        if (position <= mid) set(2 * node, low, mid, position, size, isCapped)
+        else set(2 * node + 1, mid + 1, high, position, size, isCapped)
+        minCapped[node] = minOf(minCapped[2 * node], minCapped[2 * node + 1])
+    }
+
+    private fun add(node: Int, low: Int, high: Int, from: Int, to: Int, delta: Int) {
+        if (to < low || high < from) return
+        if (from <= low && high <= to) {
+            apply(node, low, high, delta)
+            return
+        }
+        push(node, low, high)
+        val mid = (low + high) ushr 1
+        add(2 * node, low, mid, from, to, delta)
+        add(2 * node + 1, mid + 1, high, from, to, delta)
+        minCapped[node] = minOf(minCapped[2 * node], minCapped[2 * node + 1])
+    }
+
+    // first capped position in [from, to] with size <= maxSize or -1
+    private fun firstCapped(node: Int, low: Int, high: Int, from: Int, to: Int): Int {
+        if (to < low || high < from || minCapped[node] > maxSize) return -1
+        if (low == high) return low
+        push(node, low, high)
+        val mid = (low + high) ushr 1
+        val found = firstCapped(2 * node, low, mid, from, to)
+        return if (found != -1) found else firstCapped(2 * node + 1, mid + 1, high, from, to)
+    }
+
+    private fun apply(node: Int, low: Int, high: Int, delta: Int) {
+        if (low == high) sizes[low] += delta
+        else pending[node] += delta
+        if (minCapped[node] != NONE) minCapped[node] += delta
+    }
+
+    private fun push(node: Int, low: Int, high: Int) {
+        if (pending[node] == 0) return
+        val mid = (low + high) ushr 1
+        apply(2 * node, low, mid, pending[node])
+        apply(2 * node + 1, mid + 1, high, pending[node])
+        pending[node] = 0
+    }
+
+    private fun grow() {
+        val used = count
+        val oldSizes = IntArray(used) { get(it) }
+        val oldCapped = capped.copyOf(used)
+        capacity *= 2
+        sizes = IntArray(capacity)
+        capped = BooleanArray(capacity)
+        minCapped = IntArray(2 * capacity) { NONE }
+        pending = IntArray(2 * capacity)
+        for (position in 0 until used) set(position, oldSizes[position], oldCapped[position])
+    }
+
+    companion object {
+
+        private const val INITIAL_CAPACITY = 512
+        private const val NONE = Int.MAX_VALUE
+    }
+}
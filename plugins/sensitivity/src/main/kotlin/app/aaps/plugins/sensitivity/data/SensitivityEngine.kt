@@ -0,0 +1,120 @@
+package app.aaps.plugins.sensitivity.data
+
+import app.aaps.core.data.model.PS
+import app.aaps.core.data.model.TE
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.utils.MidnightUtils
+import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
+import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
+import java.lang.ref.WeakReference
+import kotlin.math.roundToInt
+
+/**
+ * Incremental processing of autosensDataTable for sensitivity detection.
+ *
+ * IobCobOrefWorkers call detectSensitivity for every new AutosensData with the same fromTime
+ * and growing toTime. Already processed data is kept and only new records are added to [windows].
+ * If the call doesn't continue previous one (different AutosensDataStore, fromTime or modified table)
+ * everything is recalculated from fromTime.
+ */
+class SensitivityEngine(private val persistenceLayer: PersistenceLayer) {
+
+    data class WindowSpec(val windowMs: Long, val maxSize: Int)
+
+    var windows: List<DeviationsWindow> = emptyList()
+        private set
+    private var specs: List<WindowSpec> = emptyList()
+    private var useExtraDeviations = false
+
+    private var ads: WeakReference<AutosensDataStore>? = null
+    private var fromTime = 0L
+    private var toTime = 0L
+    private var processedCount = 0 // processed records of autosensDataTable including skipped
+    private var lastProcessed: AutosensData? = null
+    private val pastSensitivityBuilder = StringBuilder()
+
+    var siteChanges: List<TE> = emptyList()
+        private set
+    var profileSwitches: List<PS> = emptyList()
+        private set
+
+    val pastSensitivity: String get() = pastSensitivityBuilder.toString()
+
+    fun configure(specs: List<WindowSpec>, useExtraDeviations: Boolean) {
+        if (specs == this.specs && useExtraDeviations == this.useExtraDeviations) return
+        this.specs = specs
+        this.useExtraDeviations = useExtraDeviations
+        windows = specs.map { DeviationsWindow(it.windowMs, it.maxSize) }
+        invalidate()
+    }
+
+    fun invalidate() {
+        ads = null
+    }
+
+    /**
+     * Load site changes and profile switches once per calculation run
+     */
+    fun loadEvents(ads: AutosensDataStore, fromTime: Long) {
+        if (this.ads?.get() === ads && this.fromTime == fromTime) return
+        rebuild(ads, fromTime)
+    }
+
+    /**
+     * Process AutosensData up to [toTime]
+     */
+    fun update(ads: AutosensDataStore, fromTime: Long, toTime: Long) {
+        val table = ads.autosensDataTable
+        val canContinue = this.ads?.get() === ads && this.fromTime == fromTime && toTime >= this.toTime &&
+            processedCount <= table.size() && (processedCount == 0 || table.valueAt(processedCount - 1) === lastProcessed)
+        if (!canContinue) rebuild(ads, fromTime)
+        while (processedCount < table.size()) {
+            val autosensData = table.valueAt(processedCount)
+            if (autosensData.time > toTime) break
+            if (autosensData.time >= fromTime) process(autosensData)
+            lastProcessed = autosensData
+            processedCount++
+        }
+        this.toTime = toTime
+        windows.forEach { it.moveTo(toTime) }
+    }
+
+    private fun rebuild(ads: AutosensDataStore, fromTime: Long) {
+        this.ads = WeakReference(ads)
+        this.fromTime = fromTime
+        toTime = Long.MIN_VALUE
+        processedCount = 0
+        lastProcessed = null
+        pastSensitivityBuilder.setLength(0)
+        windows.forEach { it.reset() }
+        siteChanges = persistenceLayer.getTherapyEventDataFromTime(fromTime, TE.Type.CANNULA_CHANGE, true)
+        profileSwitches = persistenceLayer.getProfileSwitchesFromTime(fromTime, true).blockingGet()
+    }
+
+    private fun process(autosensData: AutosensData) {
+        // reset deviations after site change
+        if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
+            windows.forEach { it.reset() }
+            pastSensitivityBuilder.append("(SITECHANGE)")
+        }
+
+        // reset deviations after profile switch
+        if (profileSwitches.isPSEvent5minBack(autosensData.time)) {
+            windows.forEach { it.reset() }
+            pastSensitivityBuilder.append("(PROFILESWITCH)")
+        }
+        var deviation = autosensData.deviation
+
+        //set positive deviations to zero if bg < 80
+        if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
+        val extraDeviations = if (useExtraDeviations) autosensData.extraDeviation else emptyList()
+        windows.forEach { it.add(autosensData.time, if (autosensData.validDeviation) deviation else null, extraDeviations) }
+        pastSensitivityBuilder.append(autosensData.pastSensitivity)
+        val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
+        if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
+            pastSensitivityBuilder.append("(").append((secondsFromMidnight / 3600.0).roundToInt()).append(")")
+        }
+    }
+}
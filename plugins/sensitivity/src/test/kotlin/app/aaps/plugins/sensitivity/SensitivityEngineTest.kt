@@ -0,0 +1,262 @@
+package app.aaps.plugins.sensitivity
+
+import androidx.collection.LongSparseArray
+import app.aaps.core.data.model.GlucoseUnit
+import app.aaps.core.data.model.TE
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.aps.AutosensData
+import app.aaps.core.interfaces.aps.AutosensDataStore
+import app.aaps.core.interfaces.aps.AutosensResult
+import app.aaps.core.interfaces.db.PersistenceLayer
+import app.aaps.core.keys.DoubleKey
+import app.aaps.core.keys.IntKey
+import app.aaps.core.utils.MidnightUtils
+import app.aaps.core.utils.Percentile
+import app.aaps.implementation.iob.AutosensDataObject
+import app.aaps.plugins.sensitivity.data.DeviationsWindow
+import app.aaps.plugins.sensitivity.extensions.isPSEvent5minBack
+import app.aaps.plugins.sensitivity.extensions.isTherapyEventEvent5minBack
+import app.aaps.shared.tests.TestBaseWithProfile
+import com.google.common.truth.Truth.assertThat
+import io.reactivex.rxjava3.core.Single
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import org.mockito.kotlin.any
+import org.mockito.kotlin.anyOrNull
+import org.mockito.kotlin.doAnswer
+import org.mockito.kotlin.mock
+import org.mockito.kotlin.whenever
+import java.util.Arrays
+import kotlin.math.roundToInt
+import kotlin.random.Random
+
+/**
+ * Compare incremental calculation with original implementation processing whole autosensDataTable on every call
+ */
+class SensitivityEngineTest : TestBaseWithProfile() {
+
+    @Mock lateinit var persistenceLayer: PersistenceLayer
+
+    private val random = Random(1234)
+    private val start = T.hours(24 * 1000).msecs()
+    private val siteChanges = mutableListOf<TE>()
+
+    @BeforeEach
+    fun prepare() {
+        whenever(profileFunction.getProfile()).thenReturn(validProfile)
+        whenever(preferences.get(DoubleKey.AutosensMin)).thenReturn(0.7)
+        whenever(preferences.get(DoubleKey.AutosensMax)).thenReturn(1.2)
+        whenever(preferences.get(IntKey.AutosensPeriod)).thenReturn(8)
+        whenever(persistenceLayer.getTherapyEventDataFromTime(any(), any<TE.Type>(), any())).thenReturn(siteChanges)
+        whenever(persistenceLayer.getProfileSwitchesFromTime(any(), any())).thenReturn(Single.just(emptyList()))
+    }
+
+    private fun generateTable(count: Int): LongSparseArray<AutosensData> {
+        val table = LongSparseArray<AutosensData>()
+        for (i in 0 until count) {
+            val time = start + T.mins(5L * i).msecs()
+            table.put(time, AutosensDataObject(aapsLogger, preferences, dateUtil).also {
+                it.time = time
+                it.bg = 60.0 + random.nextInt(200)
+                it.deviation = ((random.nextDouble() - 0.5) * 40 * 100).roundToInt() / 100.0
+                it.validDeviation = random.nextInt(10) != 0
+                it.pastSensitivity = listOf("=", "+", "-", "C", "u", "x")[random.nextInt(6)]
+                it.sens = 50.0
+                it.cob = 10.0
+                if (i % 24 == 0) it.extraDeviation.add(0.0)
+                if (i % 97 == 5) it.extraDeviation.addAll(listOf(1.5, -2.0))
+            })
+        }
+        return table
+    }
+
+    private fun ads(table: LongSparseArray<AutosensData>): AutosensDataStore = mock {
+        on { autosensDataTable } doAnswer { table }
+        on { getAutosensDataAtTime(any()) } doAnswer { table[it.getArgument<Long>(0)] }
+        on { lastDataTime(anyOrNull()) } doAnswer { "" }
+    }
+
+    @Test
+    fun oref1ParityTest() {
+        siteChanges.add(TE(timestamp = start + T.hours(30).msecs() - 1000, type = TE.Type.CANNULA_CHANGE, glucoseUnit = GlucoseUnit.MGDL))
+        val plugin = SensitivityOref1Plugin(aapsLogger, rh, preferences, profileFunction, dateUtil, persistenceLayer)
+        val table = generateTable(600)
+        val ads = ads(table)
+        val fromTime = start + T.mins(3).msecs()
+        for (i in 4 until table.size()) {
+            val toTime = table.keyAt(i)
+            assertResultEquals(plugin.detectSensitivity(ads, fromTime, toTime), referenceOref1(plugin, ads, fromTime, toTime))
+        }
+        // truncated table and new AutosensDataStore must be recalculated
+        for (i in table.size() - 1 downTo 400) table.removeAt(i)
+        val toTime = table.keyAt(table.size() - 1)
+        assertResultEquals(plugin.detectSensitivity(ads, fromTime, toTime), referenceOref1(plugin, ads, fromTime, toTime))
+        val otherAds = ads(generateTable(300))
+        val otherToTime = otherAds.autosensDataTable.keyAt(299)
+        assertResultEquals(plugin.detectSensitivity(otherAds, fromTime, otherToTime), referenceOref1(plugin, otherAds, fromTime, otherToTime))
+    }
+
+    @Test
+    fun aapsParityTest() {
+        siteChanges.add(TE(timestamp = start + T.hours(20).msecs(), type = TE.Type.CANNULA_CHANGE, glucoseUnit = GlucoseUnit.MGDL))
+        val plugin = SensitivityAAPSPlugin(aapsLogger, rh, preferences, profileFunction, dateUtil, persistenceLayer)
+        val table = generateTable(500)
+        val ads = ads(table)
+        for (i in 4 until table.size()) {
+            val toTime = table.keyAt(i)
+            assertResultEquals(plugin.detectSensitivity(ads, start, toTime), referenceAAPS(plugin, ads, start, toTime))
+        }
+    }
+
+    @Test
+    fun percentileTest() {
+        val window = DeviationsWindow(T.hours(1).msecs(), 100)
+        val values = listOf(3.0, -1.0, 0.0, -0.0, 7.5, -2.5, 4.0)
+        values.forEachIndexed { index, value -> window.add(start + index, value, emptyList()) }
+        window.moveTo(start + values.size)
+        for (zeros in 0..5) {
+            val array = (values + List(zeros) { 0.0 }).toTypedArray()
+            Arrays.sort(array)
+            for (p in listOf(0.0, 0.25, 0.5, 0.75, 1.0)) assertThat(window.percentile(p, zeros)).isEqualTo(Percentile.percentile(array, p))
+        }
+    }
+
+    @Test
+    fun windowParityTest() {
+        val random = Random(7)
+        val windowMs = 20L
+        val window = DeviationsWindow(windowMs, 12)
+        val entries = mutableListOf<Triple<Long, Double?, List<Double>>>()
+        for (time in 0L until 500L) {
+            if (random.nextInt(100) == 0) {
+                window.reset()
+                entries.clear()
+            }
+            val deviation = if (random.nextInt(5) == 0) null else (random.nextInt(21) - 10) / 2.0
+            val extras = List(if (random.nextInt(6) == 0) random.nextInt(1, 3) else 0) { (random.nextInt(9) - 4).toDouble() }
+            window.add(time, deviation, extras)
+            entries.add(Triple(time, deviation, extras))
+            window.moveTo(time)
+
+            val expected = ArrayList<Double>()
+            for ((entryTime, entryDeviation, entryExtras) in entries) {
+                if (entryDeviation != null && entryTime > time - windowMs) expected.add(entryDeviation)
+                expected.addAll(entryExtras)
+                if (expected.size > 12) expected.removeAt(0)
+            }
+            assertThat(window.toArray().toList()).isEqualTo(expected.sortedWith { a, b -> a.compareTo(b) })
+        }
+    }
+
+    private fun assertResultEquals(result: AutosensResult, expected: AutosensResult) {
+        assertThat(result.ratio).isEqualTo(expected.ratio)
+        assertThat(result.sensResult).isEqualTo(expected.sensResult)
+        assertThat(result.ratioLimit).isEqualTo(expected.ratioLimit)
+        assertThat(result.pastSensitivity).isEqualTo(expected.pastSensitivity)
+    }
+
+    private fun referenceOref1(plugin: SensitivityOref1Plugin, ads: AutosensDataStore, fromTime: Long, toTime: Long): AutosensResult {
+        val current = ads.getAutosensDataAtTime(toTime)!!
+        val profileSwitches = persistenceLayer.getProfileSwitchesFromTime(fromTime, true).blockingGet()
+        val deviationsHour = mutableListOf(ArrayList(), ArrayList<Double>())
+        val pastSensitivityArray = mutableListOf("", "")
+        val sensResultArray = mutableListOf("", "")
+        val ratioArray = mutableListOf(0.0, 0.0)
+        val deviationCategory = listOf(96.0, 288.0)
+        val hoursDetection = listOf(8.0, 24.0)
+        for (index in 0 until ads.autosensDataTable.size()) {
+            val autosensData = ads.autosensDataTable.valueAt(index)
+            if (autosensData.time < fromTime || autosensData.time > toTime) continue
+            for (hourSegment in deviationsHour.indices) {
+                val deviationsArray = deviationsHour[hourSegment]
+                var pastSensitivity = pastSensitivityArray[hourSegment]
+                if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
+                    deviationsArray.clear()
+                    pastSensitivity += "(SITECHANGE)"
+                }
+                if (profileSwitches.isPSEvent5minBack(autosensData.time)) {
+                    deviationsArray.clear()
+                    pastSensitivity += "(PROFILESWITCH)"
+                }
+                var deviation = autosensData.deviation
+                if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
+                if (autosensData.validDeviation) if (autosensData.time > toTime - hoursDetection[hourSegment] * 60 * 60 * 1000L) deviationsArray.add(deviation)
+                deviationsArray.addAll(autosensData.extraDeviation)
+                if (deviationsArray.size > deviationCategory[hourSegment]) deviationsArray.removeAt(0)
+                pastSensitivity += autosensData.pastSensitivity
+                val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
+                if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
+                    pastSensitivity += "(" + (secondsFromMidnight / 3600.0).roundToInt() + ")"
+                }
+                pastSensitivityArray[hourSegment] = pastSensitivity
+            }
+        }
+        for (i in deviationsHour.indices) {
+            val deviations = deviationsHour[i]
+            if (deviations.size < deviationCategory[i]) {
+                val pad = ((1 - deviations.size.toDouble() / deviationCategory[i]) * 18).roundToInt()
+                (0 until pad).forEach { _ -> deviations.add(0.0) }
+            }
+        }
+        for (hourUsed in deviationsHour.indices) {
+            var sensResult = if (hourUsed == 1) "(24 hours) " else "(8 hours) "
+            val deviations = deviationsHour[hourUsed].toTypedArray()
+            Arrays.sort(deviations)
+            val pSensitive = Percentile.percentile(deviations, 0.50)
+            var basalOff = 0.0
+            when {
+                pSensitive < 0 -> {
+                    basalOff = pSensitive * (60.0 / 5) / current.sens
+                    sensResult += "Excess insulin sensitivity detected"
+                }
+
+                pSensitive > 0 -> {
+                    basalOff = pSensitive * (60.0 / 5) / current.sens
+                    sensResult += "Excess insulin resistance detected"
+                }
+
+                else           -> sensResult += "Sensitivity normal"
+            }
+            sensResultArray[hourUsed] = sensResult
+            ratioArray[hourUsed] = 1 + basalOff / validProfile.getMaxDailyBasal()
+        }
+        val key = if (ratioArray[0] < ratioArray[1]) 0 else 1
+        val comparison = " 8 h ratio " + ratioArray[0] + " vs 24h ratio " + ratioArray[1]
+        return plugin.fillResult(ratioArray[key], current.cob, pastSensitivityArray[key], "", sensResultArray[key] + comparison, deviationsHour[key].size)
+    }
+
+    private fun referenceAAPS(plugin: SensitivityAAPSPlugin, ads: AutosensDataStore, fromTime: Long, toTime: Long): AutosensResult {
+        val hoursForDetection = preferences.get(IntKey.AutosensPeriod)
+        val current = ads.getAutosensDataAtTime(toTime)!!
+        val deviationsArray: MutableList<Double> = ArrayList()
+        var pastSensitivity = ""
+        for (index in 0 until ads.autosensDataTable.size()) {
+            val autosensData = ads.autosensDataTable.valueAt(index)
+            if (autosensData.time < fromTime || autosensData.time > toTime) continue
+            if (siteChanges.isTherapyEventEvent5minBack(autosensData.time)) {
+                deviationsArray.clear()
+                pastSensitivity += "(SITECHANGE)"
+            }
+            var deviation = autosensData.deviation
+            if (autosensData.bg < 80 && deviation > 0) deviation = 0.0
+            if (autosensData.validDeviation) if (autosensData.time > toTime - hoursForDetection * 60 * 60 * 1000L) deviationsArray.add(deviation)
+            if (deviationsArray.size > hoursForDetection * 60 / 5) deviationsArray.removeAt(0)
+            pastSensitivity += autosensData.pastSensitivity
+            val secondsFromMidnight = MidnightUtils.secondsFromMidnight(autosensData.time)
+            if (secondsFromMidnight % 3600 < 2.5 * 60 || secondsFromMidnight % 3600 > 57.5 * 60) {
+                pastSensitivity += "(" + (secondsFromMidnight / 3600.0).roundToInt() + ")"
+            }
+        }
+        val deviations = deviationsArray.toTypedArray()
+        Arrays.sort(deviations)
+        val percentile = Percentile.percentile(deviations, 0.50)
+        val ratio = 1 + percentile * (60.0 / 5.0) / current.sens / validProfile.getMaxDailyBasal()
+        val sensResult = when {
+            percentile < 0 -> "Excess insulin sensitivity detected"
+            percentile > 0 -> "Excess insulin resistance detected"
+            else           -> "Sensitivity normal"
+        }
+        return plugin.fillResult(ratio, current.cob, pastSensitivity, "", sensResult, deviationsArray.size)
+    }
+}
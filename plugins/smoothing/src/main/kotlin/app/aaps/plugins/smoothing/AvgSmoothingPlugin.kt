@@ -9,7 +9,7 @@ import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.plugin.PluginBase
 import app.aaps.core.interfaces.plugin.PluginDescription
 import app.aaps.core.interfaces.resources.ResourceHelper
-import app.aaps.core.interfaces.smoothing.Smoothing
+import app.aaps.core.interfaces.smoothing.IncrementalSmoothing
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.abs
@@ -26,28 +26,64 @@ class AvgSmoothingPlugin @Inject constructor(
         .shortName(R.string.smoothing_shortname)
         .description(R.string.description_avg_smoothing),
     aapsLogger, rh
-), Smoothing {
+), IncrementalSmoothing {
 
+    // data of previous call with smoothed values (NaN if not smoothed), oldest first
+    private var state = SmoothingState()
+    private var stateSmoothed = DoubleArray(0)
+
+    override var lastProcessed = 0
+        private set
+
+    @Synchronized
+    override fun reset() {
+        state = SmoothingState()
+        stateSmoothed = DoubleArray(0)
+    }
+
+    @Synchronized
     override fun smooth(data: MutableList<InMemoryGlucoseValue>): MutableList<InMemoryGlucoseValue> {
         if (data.lastIndex < 4) {
             aapsLogger.debug(LTag.GLUCOSE, "Not enough value's to smooth!")
+            reset()
+            lastProcessed = 0
             return data
         }
 
-        for (i in data.lastIndex - 1 downTo 1) {
+        // oldest first, k = data.lastIndex - i
+        val timestamps = LongArray(data.size) { data[data.lastIndex - it].timestamp }
+        val values = DoubleArray(data.size) { data[data.lastIndex - it].value }
+        val smoothed = DoubleArray(data.size) { Double.NaN }
+        // smoothed value depends on neighbours only, reuse it if all 3 values are unchanged
+        val offset = state.indexOf(timestamps[0])
+        val matching = state.matching(offset, timestamps, values)
+        var processed = 0
+        for (k in 1 until data.lastIndex) {
+            if (k + 1 < matching) {
+                smoothed[k] = stateSmoothed[offset + k]
+                continue
+            }
+            processed++
             // Check if value's are in a valid range
             // Bucketed is always calculated to 5 min, we still check if our data is evenly spaced with an allowance of 30 seconds
-            if (isValid(data[i].value) && isValid(data[i - 1].value) && isValid(data[i + 1].value)
-                && abs(data[i].timestamp - data[i - 1].timestamp - (data[i + 1].timestamp - data[i].timestamp)) < T.secs(30).msecs()
+            if (isValid(values[k]) && isValid(values[k + 1]) && isValid(values[k - 1])
+                && abs(timestamps[k] - timestamps[k + 1] - (timestamps[k - 1] - timestamps[k])) < T.secs(30).msecs()
             ) {
                 // We could further improve this by adding a weight to the neighbours, for simplicity this is not done.
-                data[i].smoothed = ((data[i - 1].value + data[i].value + data[i + 1].value) / 3.0)
-                data[i].trendArrow = TrendArrow.NONE
+                smoothed[k] = ((values[k + 1] + values[k] + values[k - 1]) / 3.0)
             } else {
-                // data[i].smoothed = data[i].value
-                val currentTime = data[i].timestamp
-                val value = data[i].value
-                aapsLogger.debug(LTag.GLUCOSE, "Value: $value at $currentTime not smoothed")
+                aapsLogger.debug(LTag.GLUCOSE, "Value: ${values[k]} at ${timestamps[k]} not smoothed")
+            }
+        }
+        lastProcessed = processed
+        state = SmoothingState(timestamps, values)
+        stateSmoothed = smoothed
+
+        for (i in data.lastIndex - 1 downTo 1) {
+            val value = smoothed[data.lastIndex - i]
+            if (!value.isNaN()) {
+                data[i].smoothed = value
+                data[i].trendArrow = TrendArrow.NONE
             }
         }
         // We leave the data we can not smooth as is, alternatively we could provide raw value's to the smoothed value's:
@@ -7,7 +7,7 @@ import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.plugin.PluginBase
 import app.aaps.core.interfaces.plugin.PluginDescription
 import app.aaps.core.interfaces.resources.ResourceHelper
-import app.aaps.core.interfaces.smoothing.Smoothing
+import app.aaps.core.interfaces.smoothing.IncrementalSmoothing
 import javax.inject.Inject
 import javax.inject.Singleton
 import kotlin.math.max
@@ -25,8 +25,26 @@ class ExponentialSmoothingPlugin @Inject constructor(
         .shortName(R.string.smoothing_shortname)
         .description(R.string.description_exponential_smoothing),
     aapsLogger, rh
-), Smoothing {
+), IncrementalSmoothing {
 
+    // smoothing window of previous call with calculated values, oldest first
+    private var state = SmoothingState()
+    private var stateO1 = DoubleArray(0)
+    private var stateO2 = DoubleArray(0)
+    private var stateO2D = DoubleArray(0)
+
+    override var lastProcessed = 0
+        private set
+
+    @Synchronized
+    override fun reset() {
+        state = SmoothingState()
+        stateO1 = DoubleArray(0)
+        stateO2 = DoubleArray(0)
+        stateO2D = DoubleArray(0)
+    }
+
+    @Synchronized
     @Suppress("LocalVariableName")
     override fun smooth(data: MutableList<InMemoryGlucoseValue>): MutableList<InMemoryGlucoseValue> {
         /**
@@ -40,17 +58,11 @@ class ExponentialSmoothingPlugin @Inject constructor(
          *
          */
         val sizeRecords = data.size
-        val o1_sBG: ArrayList<Double> = ArrayList() //MP array for 1st order Smoothed Blood Glucose
-        val o2_sBG: ArrayList<Double> = ArrayList() //MP array for 2nd order Smoothed Blood Glucose
-        val o2_sD: ArrayList<Double> = ArrayList() //MP array for 2nd order Smoothed delta
-        val ssBG: ArrayList<Double> = ArrayList() //MP array for weighted averaged, doubly smoothed Blood Glucose
-        //val ssD: ArrayList<Double> = ArrayList() //MP array for deltas of doubly smoothed Blood Glucose
         var windowSize = data.size //MP number of bg readings to include in smoothing window
         val o1_weight = 0.4
         val o1_a = 0.5
         val o2_a = 0.4
         val o2_b = 1.0
-        var insufficientSmoothingData = false
 
         // ADJUST SMOOTHING WINDOW TO ONLY INCLUDE VALID READINGS
         // Valid readings include:
@@ -63,6 +75,7 @@ class ExponentialSmoothingPlugin @Inject constructor(
             windowSize =
                 (sizeRecords - 1).coerceAtLeast(0) //MP Adjust smoothing window to the size of database if it is smaller than the original window size; -1 to always have at least one older value to compare against as a buffer to prevent app crashes
         }
+        var windowReachesDataEnd = true
 
         //MP: Adjust smoothing window further if a gap in the BG database is detected, e.g. due to sensor errors of sensor swaps, or if 38 mg/dl are reported (xDrip error state)
         for (i in 0 until windowSize) {
@@ -70,65 +83,68 @@ class ExponentialSmoothingPlugin @Inject constructor(
                 //if (Math.round((data.get(i).date - data.get(i + 1).date) / 60000L) <= 7) { //MP crashes the app, useful for testing
                 windowSize =
                     i + 1 //MP: If time difference between two readings exceeds 7 min, adjust windowSize to *include* the more recent reading (i = reading; +1 because windowSize reflects number of valid readings);
+                windowReachesDataEnd = false
                 break
             } else if (data[i].value == 38.0) {
                 windowSize = i //MP: 38 mg/dl reflects an xDrip error state; Chain of valid readings ends here, *exclude* this value (windowSize = i; i + 1 would include the current value)
+                windowReachesDataEnd = false
                 break
             }
         }
 
-        // CALCULATE SMOOTHING WINDOW - 1st order exponential smoothing
-        o1_sBG.clear() // MP reset smoothed bg array
-
-        if (windowSize >= 4) { //MP: Require a valid windowSize of at least 4 readings
-            o1_sBG.add(data[windowSize - 1].value) //MP: Initialise smoothing with the oldest valid data point
-            for (i in 0 until windowSize) { //MP calculate smoothed bg window of valid readings
-                o1_sBG.add(
-                    0,
-                    o1_sBG[0] + o1_a * (data[windowSize - 1 - i].value - o1_sBG[0])
-                ) //MP build array of 1st order smoothed bgs
+        if (windowSize < 4) { //MP: Require a valid windowSize of at least 4 readings
+            reset()
+            lastProcessed = 0
+            for (i in 0 until data.size) { // noise at the beginning of the smoothing window is the greatest, so only include the 10 most recent values in the output
+                data[i].smoothed = max(data[i].value, 39.0) // if insufficient smoothing data, copy 'value' into 'smoothed' data column so that it isn't empty; Make 39 the smallest value as smaller
+                // values trigger errors (xDrip error state = 38)
+                data[i].trendArrow = TrendArrow.NONE
             }
-        } else {
-            insufficientSmoothingData = true
+            return data
         }
 
-        // CALCULATE SMOOTHING WINDOW - 2nd order exponential smoothing
-        if (windowSize >= 4) { //MP: Require a valid windowSize of at least 4 readings
-            o2_sBG.add(data[windowSize - 1].value) //MP Start 2nd order exponential data smoothing with the oldest valid bg
-            o2_sD.add(data[windowSize - 2].value - data[windowSize - 1].value) //MP Start 2nd order exponential data smoothing with the oldest valid delta
-            for (i in 0 until windowSize - 1) { //MP calculated smoothed bg window of last 1 h
-                o2_sBG.add(
-                    0,
-                    o2_a * data[windowSize - 2 - i].value + (1 - o2_a) * (o2_sBG[0] + o2_sD[0])
-                ) //MP build array of 2nd order smoothed bgs; windowSize-1 is the oldest valid bg value, so windowSize-2 is from when on the smoothing begins;
-                o2_sD.add(
-                    0,
-                    o2_b * (o2_sBG[0] - o2_sBG[1]) + (1 - o2_b) * o2_sD[0]
-                ) //MP build array of 1st order smoothed bgs
-            }
+        // Smoothing window ordered from the oldest valid bg, k = windowSize - 1 - i
+        val timestamps = LongArray(windowSize) { data[windowSize - 1 - it].timestamp }
+        val values = DoubleArray(windowSize) { data[windowSize - 1 - it].value }
+        val o1_sBG = DoubleArray(windowSize) //MP array for 1st order Smoothed Blood Glucose
+        val o2_sBG = DoubleArray(windowSize) //MP array for 2nd order Smoothed Blood Glucose
+        val o2_sD = DoubleArray(windowSize) //MP array for 2nd order Smoothed delta
+
+        // Continue from previous call if stored readings are unchanged.
+        // Window may start later than stored one only if it's shortened by dropping of the oldest data
+        val offset = state.indexOf(timestamps[0])
+        val reused = if (offset == 0 || offset > 0 && windowReachesDataEnd) state.matching(offset, timestamps, values) else 0
+        var start = reused
+        if (reused > 0) {
+            stateO1.copyInto(o1_sBG, 0, offset, offset + reused)
+            stateO2.copyInto(o2_sBG, 0, offset, offset + reused)
+            stateO2D.copyInto(o2_sD, 0, offset, offset + reused)
         } else {
-            insufficientSmoothingData = true
+            // CALCULATE SMOOTHING WINDOW - 1st order exponential smoothing
+            val o1_start = values[0] //MP: Initialise smoothing with the oldest valid data point
+            o1_sBG[0] = o1_start + o1_a * (values[0] - o1_start)
+            // 2nd order exponential smoothing
+            o2_sBG[0] = values[0] //MP Start 2nd order exponential data smoothing with the oldest valid bg
+            o2_sD[0] = values[1] - values[0] //MP Start 2nd order exponential data smoothing with the oldest valid delta
+            start = 1
         }
+        for (k in start until windowSize) { //MP calculate smoothed bg window of valid readings
+            o1_sBG[k] = o1_sBG[k - 1] + o1_a * (values[k] - o1_sBG[k - 1]) //MP build array of 1st order smoothed bgs
+            o2_sBG[k] = o2_a * values[k] + (1 - o2_a) * (o2_sBG[k - 1] + o2_sD[k - 1]) //MP build array of 2nd order smoothed bgs
+            o2_sD[k] = o2_b * (o2_sBG[k] - o2_sBG[k - 1]) + (1 - o2_b) * o2_sD[k - 1] //MP build array of 2nd order smoothed deltas
+        }
+        lastProcessed = windowSize - reused
+        state = SmoothingState(timestamps, values)
+        stateO1 = o1_sBG
+        stateO2 = o2_sBG
+        stateO2D = o2_sD
 
         // CALCULATE WEIGHTED AVERAGES OF GLUCOSE & DELTAS
-        //ssBG.clear() // MP reset doubly smoothed bg array
-        //ssD.clear() // MP reset doubly smoothed delta array
-
-        if (!insufficientSmoothingData) { //MP Build doubly smoothed array only if there is enough valid readings
-            for (i in o2_sBG.indices) { //MP calculated doubly smoothed bg of all o1/o2 smoothed data available; o2 & o1 smooth bg array sizes are equal in size, so only one is used as a condition
-                // here
-                ssBG.add(o1_weight * o1_sBG[i] + (1 - o1_weight) * o2_sBG[i]) //MP build array of doubly smoothed bgs
-            }
-            for (i in 0 until minOf(ssBG.size, data.size)) { // noise at the beginning of the smoothing window is the greatest, so only include the 10 most recent values in the output
-                data[i].smoothed = max(round(ssBG[i]), 39.0) //Make 39 the smallest value as smaller values trigger errors (xDrip error state = 38)
-                data[i].trendArrow = TrendArrow.NONE
-            }
-        } else {
-            for (i in 0 until data.size) { // noise at the beginning of the smoothing window is the greatest, so only include the 10 most recent values in the output
-                data[i].smoothed = max(data[i].value, 39.0) // if insufficient smoothing data, copy 'value' into 'smoothed' data column so that it isn't empty; Make 39 the smallest value as smaller
-                // values trigger errors (xDrip error state = 38)
-                data[i].trendArrow = TrendArrow.NONE
-            }
+        for (i in 0 until windowSize) { //MP calculated doubly smoothed bg of all o1/o2 smoothed data available
+            val k = windowSize - 1 - i
+            val ssBG = o1_weight * o1_sBG[k] + (1 - o1_weight) * o2_sBG[k] //MP weighted averaged, doubly smoothed Blood Glucose
+            data[i].smoothed = max(round(ssBG), 39.0) //Make 39 the smallest value as smaller values trigger errors (xDrip error state = 38)
+            data[i].trendArrow = TrendArrow.NONE
         }
 
         return data
@@ -0,0 +1,27 @@
+package app.aaps.plugins.smoothing
+
+/**
+ * Readings processed in previous call of incremental smoother, oldest first
+ */
+internal class SmoothingState(
+    val timestamps: LongArray = LongArray(0),
+    val values: DoubleArray = DoubleArray(0)
+) {
+
+    /**
+     * @return position of reading with [timestamp] or -1 if not present
+     */
+    fun indexOf(timestamp: Long): Int = timestamps.binarySearch(timestamp).coerceAtLeast(-1)
+
+    /**
+     * @return number of readings from start of [timestamps] and [values] equal to state readings from [offset]
+     */
+    fun matching(offset: Int, timestamps: LongArray, values: DoubleArray): Int {
+        if (offset < 0) return 0
+        var count = 0
+        while (count < timestamps.size && offset + count < this.timestamps.size
+            && this.timestamps[offset + count] == timestamps[count] && this.values[offset + count] == values[count]
+        ) count++
+        return count
+    }
+}
@@ -0,0 +1,143 @@
+package app.aaps.plugins.smoothing
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import kotlin.math.abs
+import kotlin.math.sin
+import kotlin.random.Random
+
+class AvgSmoothingPluginTest : TestBase() {
+
+    @Mock lateinit var rh: ResourceHelper
+
+    private lateinit var sut: AvgSmoothingPlugin
+    private val now = 1700000000000L
+
+    @BeforeEach
+    fun setUp() {
+        sut = AvgSmoothingPlugin(aapsLogger, rh)
+    }
+
+    // newest first, 5 min data with optional gap and 38 error value
+    // value depends on timestamp only
+    private fun generate(count: Int, end: Long = now, gapAt: Int = -1, errorAt: Int = -1): MutableList<InMemoryGlucoseValue> =
+        MutableList(count) { i ->
+            val timestamp = end - i * T.mins(5).msecs() - if (gapAt in 0..i) T.mins(20).msecs() else 0L
+            val value = if (i == errorAt) 38.0 else reading(timestamp)
+            InMemoryGlucoseValue(timestamp = timestamp, value = value)
+        }
+
+    private fun reading(timestamp: Long): Double = 140.0 + 50 * sin(timestamp / T.mins(75).msecs().toDouble()) + Random(timestamp).nextInt(-4, 5)
+
+    private fun copy(data: List<InMemoryGlucoseValue>) = data.map { it.copy() }.toMutableList()
+
+    /**
+     * Smooth [data] by [sut] holding state of previous call and compare bit by bit with calculation from scratch
+     */
+    private fun assertIncrementalMatchesFullRecompute(data: List<InMemoryGlucoseValue>): List<InMemoryGlucoseValue> {
+        val expected = AvgSmoothingPlugin(aapsLogger, rh).smooth(copy(data))
+        val result = sut.smooth(copy(data))
+        assertThat(result.map { it.smoothed }).isEqualTo(expected.map { it.smoothed })
+        assertThat(result.map { it.trendArrow }).isEqualTo(expected.map { it.trendArrow })
+        return result
+    }
+
+    @Test
+    fun fromScratchMatchesPreviousImplementationTest() {
+        val datasets = listOf(generate(3), generate(5), generate(300), generate(300, gapAt = 100), generate(300, errorAt = 50), generate(300, gapAt = 2), generate(300, errorAt = 0))
+        for (data in datasets) {
+            sut.reset()
+            val expected = legacySmooth(copy(data))
+            val result = sut.smooth(copy(data))
+            assertThat(result.map { it.smoothed }).isEqualTo(expected.map { it.smoothed })
+            assertThat(result.map { it.trendArrow }).isEqualTo(expected.map { it.trendArrow })
+        }
+    }
+
+    @Test
+    fun appendedReadingMatchesFullRecomputeTest() {
+        var data = generate(300, errorAt = 120)
+        sut.smooth(copy(data))
+        assertThat(sut.lastProcessed).isEqualTo(298)
+
+        // one new reading, only previous newest gets both neighbours
+        data = generate(301, end = now + T.mins(5).msecs(), errorAt = 121)
+        assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(1)
+
+        // window moved, oldest reading dropped
+        data = generate(300, end = now + T.mins(10).msecs(), errorAt = 122)
+        assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(1)
+
+        // series of readings one by one
+        repeat(24) {
+            val timestamp = data[0].timestamp + T.mins(5).msecs()
+            data = (listOf(InMemoryGlucoseValue(timestamp = timestamp, value = reading(timestamp))) + copy(data)).toMutableList()
+            assertIncrementalMatchesFullRecompute(data)
+            assertThat(sut.lastProcessed).isEqualTo(1)
+        }
+    }
+
+    @Test
+    fun gapAndResetMatchFullRecomputeTest() {
+        var data = generate(300)
+        sut.smooth(copy(data))
+
+        // reading after 20 min gap, previous newest is not evenly spaced and stays unsmoothed
+        val afterGap = now + T.mins(25).msecs()
+        data = (listOf(InMemoryGlucoseValue(timestamp = afterGap, value = reading(afterGap))) + copy(data)).toMutableList()
+        val result = assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(1)
+        assertThat(result[1].smoothed).isNull()
+        assertThat(result[2].smoothed).isNotNull()
+
+        // 38 error value in the newest reading
+        data = (listOf(InMemoryGlucoseValue(timestamp = afterGap + T.mins(5).msecs(), value = 38.0)) + copy(data)).toMutableList()
+        assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(1)
+
+        // changed history is processed from changed reading
+        data[100].value += 10.0
+        assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(101)
+
+        // different history (e.g. switched BG source) is processed from scratch
+        data = generate(300, end = now + T.mins(2).msecs())
+        assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(298)
+
+        // too short data resets state
+        sut.smooth(copy(data.subList(0, 4)))
+        assertThat(sut.lastProcessed).isEqualTo(0)
+        assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(298)
+
+        sut.reset()
+        assertIncrementalMatchesFullRecompute(data)
+        assertThat(sut.lastProcessed).isEqualTo(298)
+    }
+
+    // implementation before incremental calculation
+    private fun legacySmooth(data: MutableList<InMemoryGlucoseValue>): MutableList<InMemoryGlucoseValue> {
+        if (data.lastIndex < 4) return data
+        for (i in data.lastIndex - 1 downTo 1) {
+            if (isValid(data[i].value) && isValid(data[i - 1].value) && isValid(data[i + 1].value)
+                && abs(data[i].timestamp - data[i - 1].timestamp - (data[i + 1].timestamp - data[i].timestamp)) < T.secs(30).msecs()
+            ) {
+                data[i].smoothed = ((data[i - 1].value + data[i].value + data[i + 1].value) / 3.0)
+                data[i].trendArrow = TrendArrow.NONE
+            }
+        }
+        return data
+    }
+
+    private fun isValid(n: Double): Boolean = n > 39 && n < 401
+}
@@ -0,0 +1,126 @@
+package app.aaps.plugins.smoothing
+
+import app.aaps.core.data.iob.InMemoryGlucoseValue
+import app.aaps.core.data.model.TrendArrow
+import app.aaps.core.data.time.T
+import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.mockito.Mock
+import kotlin.math.max
+import kotlin.math.round
+import kotlin.math.sin
+import kotlin.random.Random
+
+class ExponentialSmoothingPluginTest : TestBase() {
+
+    @Mock lateinit var rh: ResourceHelper
+
+    private lateinit var sut: ExponentialSmoothingPlugin
+    private val now = 1700000000000L
+
+    @BeforeEach
+    fun setUp() {
+        sut = ExponentialSmoothingPlugin(aapsLogger, rh)
+    }
+
+    // newest first, 5 min data with optional gap and 38 error value
+    // value depends on timestamp only
+    private fun generate(count: Int, end: Long = now, gapAt: Int = -1, errorAt: Int = -1): MutableList<InMemoryGlucoseValue> =
+        MutableList(count) { i ->
+            val timestamp = end - i * T.mins(5).msecs() - if (gapAt in 0..i) T.mins(20).msecs() else 0L
+            val value = if (i == errorAt) 38.0 else 140.0 + 50 * sin(timestamp / T.mins(75).msecs().toDouble()) + Random(timestamp).nextInt(-4, 5)
+            InMemoryGlucoseValue(timestamp = timestamp, value = value)
+        }
+
+    private fun copy(data: List<InMemoryGlucoseValue>) = data.map { it.copy() }.toMutableList()
+
+    @Test
+    fun fromScratchMatchesPreviousImplementationTest() {
+        val datasets = listOf(generate(3), generate(5), generate(300), generate(300, gapAt = 100), generate(300, errorAt = 50), generate(300, gapAt = 2), generate(300, errorAt = 0))
+        for (data in datasets) {
+            sut.reset()
+            val expected = legacySmooth(copy(data))
+            val result = sut.smooth(copy(data))
+            assertThat(result.map { it.smoothed }).isEqualTo(expected.map { it.smoothed })
+            assertThat(result.map { it.trendArrow }).isEqualTo(expected.map { it.trendArrow })
+        }
+    }
+
+    @Test
+    fun onlyNewReadingsAreProcessedTest() {
+        val data = generate(300, gapAt = 250)
+        sut.smooth(copy(data))
+        assertThat(sut.lastProcessed).isEqualTo(250)
+
+        // one new reading, window start is given by the gap
+        val newer = generate(301, end = now + T.mins(5).msecs(), gapAt = 251)
+        val result = sut.smooth(copy(newer))
+        assertThat(sut.lastProcessed).isEqualTo(1)
+        assertThat(result.map { it.smoothed }).isEqualTo(legacySmooth(copy(newer)).map { it.smoothed })
+
+        // changed history is processed from scratch
+        newer[100].value += 10.0
+        val changed = sut.smooth(copy(newer))
+        assertThat(sut.lastProcessed).isEqualTo(101)
+        assertThat(changed.map { it.smoothed }).isEqualTo(legacySmooth(copy(newer)).map { it.smoothed })
+
+        // 38 in the newest reading shortens window
+        newer[0].value = 38.0
+        sut.smooth(copy(newer))
+        assertThat(sut.lastProcessed).isEqualTo(0)
+    }
+
+    // implementation before incremental calculation
+    @Suppress("LocalVariableName")
+    private fun legacySmooth(data: MutableList<InMemoryGlucoseValue>): MutableList<InMemoryGlucoseValue> {
+        val sizeRecords = data.size
+        val o1_sBG: ArrayList<Double> = ArrayList()
+        val o2_sBG: ArrayList<Double> = ArrayList()
+        val o2_sD: ArrayList<Double> = ArrayList()
+        val ssBG: ArrayList<Double> = ArrayList()
+        var windowSize = data.size
+        val o1_weight = 0.4
+        val o1_a = 0.5
+        val o2_a = 0.4
+        val o2_b = 1.0
+        var insufficientSmoothingData = false
+        if (sizeRecords <= windowSize) windowSize = (sizeRecords - 1).coerceAtLeast(0)
+        for (i in 0 until windowSize) {
+            if (round((data[i].timestamp - data[i + 1].timestamp) / (1000.0 * 60)) >= 12) {
+                windowSize = i + 1
+                break
+            } else if (data[i].value == 38.0) {
+                windowSize = i
+                break
+            }
+        }
+        if (windowSize >= 4) {
+            o1_sBG.add(data[windowSize - 1].value)
+            for (i in 0 until windowSize) o1_sBG.add(0, o1_sBG[0] + o1_a * (data[windowSize - 1 - i].value - o1_sBG[0]))
+        } else insufficientSmoothingData = true
+        if (windowSize >= 4) {
+            o2_sBG.add(data[windowSize - 1].value)
+            o2_sD.add(data[windowSize - 2].value - data[windowSize - 1].value)
+            for (i in 0 until windowSize - 1) {
+                o2_sBG.add(0, o2_a * data[windowSize - 2 - i].value + (1 - o2_a) * (o2_sBG[0] + o2_sD[0]))
+                o2_sD.add(0, o2_b * (o2_sBG[0] - o2_sBG[1]) + (1 - o2_b) * o2_sD[0])
+            }
+        } else insufficientSmoothingData = true
+        if (!insufficientSmoothingData) {
+            for (i in o2_sBG.indices) ssBG.add(o1_weight * o1_sBG[i] + (1 - o1_weight) * o2_sBG[i])
+            for (i in 0 until minOf(ssBG.size, data.size)) {
+                data[i].smoothed = max(round(ssBG[i]), 39.0)
+                data[i].trendArrow = TrendArrow.NONE
+            }
+        } else {
+            for (i in 0 until data.size) {
+                data[i].smoothed = max(data[i].value, 39.0)
+                data[i].trendArrow = TrendArrow.NONE
+            }
+        }
+        return data
+    }
+}
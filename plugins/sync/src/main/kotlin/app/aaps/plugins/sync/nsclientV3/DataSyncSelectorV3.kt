@@ -1,6 +1,13 @@
 package app.aaps.plugins.sync.nsclientV3
 
 import androidx.annotation.OpenForTesting
+import app.aaps.core.data.model.BCR
+import app.aaps.core.data.model.BS
+import app.aaps.core.data.model.CA
+import app.aaps.core.data.model.GV
+import app.aaps.core.data.model.HasIDs
+import app.aaps.core.data.model.TB
+import app.aaps.core.data.model.TE
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.logging.AAPSLogger
@@ -21,6 +28,10 @@ import app.aaps.plugins.sync.nsShared.events.EventNSClientUpdateGuiStatus
 import app.aaps.plugins.sync.nsShared.extensions.onlyNsIdAdded
 import app.aaps.plugins.sync.nsclientV3.keys.NsclientBooleanKey
 import app.aaps.plugins.sync.nsclientV3.keys.NsclientLongKey
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -71,6 +82,13 @@ class DataSyncSelectorV3 @Inject constructor(
                 rmsRemaining
     }
 
+    companion object {
+
+        // bigger queues are uploaded in batches
+        const val BATCH_SIZE = 100
+        const val UPLOAD_PARALLELISM = 4
+    }
+
     private val queueCounter = QueueCounter()
     private val isPaused get() = preferences.get(NsclientBooleanKey.NsPaused)
 
@@ -138,6 +156,53 @@ class DataSyncSelectorV3 @Inject constructor(
         else preferences.remove(NsclientLongKey.DeviceStatusLastSyncedId)
     }
 
+    /**
+     * Upload next [BATCH_SIZE] changes of one table
+     *
+     * Changes are loaded from db first and uploaded concurrently, changes of the same record in original order.
+     * Last synced id is confirmed once per batch up to the first failed upload
+     * and received NS ids are stored so uploaded records are not created again when batch is repeated.
+     *
+     * @param nextElement pair of current record and its change following provided id
+     * @return true if whole batch was uploaded
+     */
+    private suspend fun <T : HasIDs> processBatch(
+        startId: Long,
+        lastDbId: Long,
+        nextElement: (Long) -> Pair<T, T>?,
+        confirm: (Long) -> Unit,
+        sync: suspend (Pair<T, T>, String) -> Boolean
+    ): Boolean {
+        val batch = ArrayList<Pair<T, T>>(BATCH_SIZE)
+        var id = startId
+        while (batch.size < BATCH_SIZE) {
+            val element = nextElement(id) ?: break
+            batch.add(element)
+            id = element.second.id
+        }
+        if (batch.isEmpty()) return false
+        val uploaded = BooleanArray(batch.size)
+        val semaphore = Semaphore(UPLOAD_PARALLELISM)
+        coroutineScope {
+            batch.indices.groupBy { batch[it].first.id }.values.forEach { indices ->
+                launch {
+                    semaphore.withPermit {
+                        for (index in indices) {
+                            if (!sync(batch[index], "$startId/$lastDbId")) break
+                            uploaded[index] = true
+                        }
+                    }
+                }
+            }
+        }
+        val failed = uploaded.indexOfFirst { !it }
+        val confirmed = if (failed == -1) batch.size else failed
+        if (confirmed > 0) confirm(batch[confirmed - 1].second.id)
+        storeDataForDb.updateNsIds()
+        aapsLogger.debug(LTag.NSCLIENT, "Batch ${batch.first().second.id}-${batch.last().second.id} uploaded: $confirmed/${batch.size}")
+        return failed == -1
+    }
+
     @OpenForTesting
     fun confirmLastBolusIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.BolusLastSyncedId)) {
@@ -159,21 +224,12 @@ class DataSyncSelectorV3 @Inject constructor(
             }
             queueCounter.bolusesRemaining = lastDbId - startId
             rxBus.send(EventNSClientUpdateGuiQueue())
+            if (lastDbId - startId > BATCH_SIZE) {
+                cont = processBatch(startId, lastDbId, { persistenceLayer.getNextSyncElementBolus(it).blockingGet() }, ::confirmLastBolusIdIfGreater, ::syncBolus)
+                continue
+            }
             persistenceLayer.getNextSyncElementBolus(startId).blockingGet()?.let { bolus ->
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    bolus.first.id == bolus.second.id && bolus.first.ids.nightscoutId != null ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring Bolus. Loaded from NS: ${bolus.second.id} ")
-                    // only NsId changed, no need to upload
-                    bolus.first.onlyNsIdAdded(bolus.second)                                   ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring Bolus. Only NS id changed: ${bolus.second.id} ")
-                    // without nsId = create new
-                    bolus.first.ids.nightscoutId == null                                      ->
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairBolus(bolus.first, bolus.second.id), " $startId/$lastDbId") == true
-                    // with nsId = update if it's modified record
-                    bolus.first.ids.nightscoutId != null && bolus.first.id != bolus.second.id ->
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairBolus(bolus.first, bolus.second.id), "$startId/$lastDbId") == true
-                }
+                cont = syncBolus(bolus, "$startId/$lastDbId")
                 if (cont) confirmLastBolusIdIfGreater(bolus.second.id)
             } ?: run {
                 cont = false
@@ -181,6 +237,24 @@ class DataSyncSelectorV3 @Inject constructor(
         }
     }
 
+    private suspend fun syncBolus(bolus: Pair<BS, BS>, progress: String): Boolean {
+        when {
+            // new record with existing NS id => must be coming from NS => ignore
+            bolus.first.id == bolus.second.id && bolus.first.ids.nightscoutId != null ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring Bolus. Loaded from NS: ${bolus.second.id} ")
+            // only NsId changed, no need to upload
+            bolus.first.onlyNsIdAdded(bolus.second)                                   ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring Bolus. Only NS id changed: ${bolus.second.id} ")
+            // without nsId = create new
+            bolus.first.ids.nightscoutId == null                                      ->
+                return activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairBolus(bolus.first, bolus.second.id), progress) == true
+            // with nsId = update if it's modified record
+            bolus.first.ids.nightscoutId != null && bolus.first.id != bolus.second.id ->
+                return activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairBolus(bolus.first, bolus.second.id), progress) == true
+        }
+        return true
+    }
+
     @OpenForTesting
     fun confirmLastCarbsIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.CarbsLastSyncedId)) {
@@ -202,21 +276,12 @@ class DataSyncSelectorV3 @Inject constructor(
             }
             queueCounter.carbsRemaining = lastDbId - startId
             rxBus.send(EventNSClientUpdateGuiQueue())
+            if (lastDbId - startId > BATCH_SIZE) {
+                cont = processBatch(startId, lastDbId, { persistenceLayer.getNextSyncElementCarbs(it).blockingGet() }, ::confirmLastCarbsIdIfGreater, ::syncCarbs)
+                continue
+            }
             persistenceLayer.getNextSyncElementCarbs(startId).blockingGet()?.let { carb ->
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    carb.first.id == carb.second.id && carb.first.ids.nightscoutId != null ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring Carbs. Loaded from NS: ${carb.second.id} ")
-                    // only NsId changed, no need to upload
-                    carb.first.onlyNsIdAdded(carb.second)                                  ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring Carbs. Only NS id changed ID: ${carb.second.id} ")
-                    // without nsId = create new
-                    carb.first.ids.nightscoutId == null                                    ->
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairCarbs(carb.first, carb.second.id), "$startId/$lastDbId") == true
-                    // with nsId = update if it's modified record
-                    carb.first.ids.nightscoutId != null && carb.first.id != carb.second.id ->
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairCarbs(carb.first, carb.second.id), "$startId/$lastDbId") == true
-                }
+                cont = syncCarbs(carb, "$startId/$lastDbId")
                 if (cont) confirmLastCarbsIdIfGreater(carb.second.id)
             } ?: run {
                 cont = false
@@ -224,6 +289,24 @@ class DataSyncSelectorV3 @Inject constructor(
         }
     }
 
+    private suspend fun syncCarbs(carb: Pair<CA, CA>, progress: String): Boolean {
+        when {
+            // new record with existing NS id => must be coming from NS => ignore
+            carb.first.id == carb.second.id && carb.first.ids.nightscoutId != null ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring Carbs. Loaded from NS: ${carb.second.id} ")
+            // only NsId changed, no need to upload
+            carb.first.onlyNsIdAdded(carb.second)                                  ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring Carbs. Only NS id changed ID: ${carb.second.id} ")
+            // without nsId = create new
+            carb.first.ids.nightscoutId == null                                    ->
+                return activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairCarbs(carb.first, carb.second.id), progress) == true
+            // with nsId = update if it's modified record
+            carb.first.ids.nightscoutId != null && carb.first.id != carb.second.id ->
+                return activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairCarbs(carb.first, carb.second.id), progress) == true
+        }
+        return true
+    }
+
     @OpenForTesting
     fun confirmLastBolusCalculatorResultsIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.BolusCalculatorLastSyncedId)) {
@@ -245,29 +328,12 @@ class DataSyncSelectorV3 @Inject constructor(
             }
             queueCounter.bcrRemaining = lastDbId - startId
             rxBus.send(EventNSClientUpdateGuiQueue())
+            if (lastDbId - startId > BATCH_SIZE) {
+                cont = processBatch(startId, lastDbId, { persistenceLayer.getNextSyncElementBolusCalculatorResult(it).blockingGet() }, ::confirmLastBolusCalculatorResultsIdIfGreater, ::syncBolusCalculatorResult)
+                continue
+            }
             persistenceLayer.getNextSyncElementBolusCalculatorResult(startId).blockingGet()?.let { bolusCalculatorResult ->
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    bolusCalculatorResult.first.id == bolusCalculatorResult.second.id && bolusCalculatorResult.first.ids.nightscoutId != null ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring BolusCalculatorResult. Loaded from NS: ${bolusCalculatorResult.second.id} ")
-                    // only NsId changed, no need to upload
-                    bolusCalculatorResult.first.onlyNsIdAdded(bolusCalculatorResult.second)                                                   ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring BolusCalculatorResult. Only NS id changed ID: ${bolusCalculatorResult.second.id} ")
-                    // without nsId = create new
-                    bolusCalculatorResult.first.ids.nightscoutId == null                                                                      ->
-                        cont = activePlugin.activeNsClient?.nsAdd(
-                            "treatments",
-                            DataSyncSelector.PairBolusCalculatorResult(bolusCalculatorResult.first, bolusCalculatorResult.second.id),
-                            "$startId/$lastDbId"
-                        ) == true
-                    // with nsId = update if it's modified record
-                    bolusCalculatorResult.first.ids.nightscoutId != null && bolusCalculatorResult.first.id != bolusCalculatorResult.second.id ->
-                        cont = activePlugin.activeNsClient?.nsUpdate(
-                            "treatments",
-                            DataSyncSelector.PairBolusCalculatorResult(bolusCalculatorResult.first, bolusCalculatorResult.second.id),
-                            "$startId/$lastDbId"
-                        ) == true
-                }
+                cont = syncBolusCalculatorResult(bolusCalculatorResult, "$startId/$lastDbId")
                 if (cont) confirmLastBolusCalculatorResultsIdIfGreater(bolusCalculatorResult.second.id)
             } ?: run {
                 cont = false
@@ -275,6 +341,32 @@ class DataSyncSelectorV3 @Inject constructor(
         }
     }
 
+    private suspend fun syncBolusCalculatorResult(bolusCalculatorResult: Pair<BCR, BCR>, progress: String): Boolean {
+        when {
+            // new record with existing NS id => must be coming from NS => ignore
+            bolusCalculatorResult.first.id == bolusCalculatorResult.second.id && bolusCalculatorResult.first.ids.nightscoutId != null ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring BolusCalculatorResult. Loaded from NS: ${bolusCalculatorResult.second.id} ")
+            // only NsId changed, no need to upload
+            bolusCalculatorResult.first.onlyNsIdAdded(bolusCalculatorResult.second)                                                   ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring BolusCalculatorResult. Only NS id changed ID: ${bolusCalculatorResult.second.id} ")
+            // without nsId = create new
+            bolusCalculatorResult.first.ids.nightscoutId == null                                                                      ->
+                return activePlugin.activeNsClient?.nsAdd(
+                    "treatments",
+                    DataSyncSelector.PairBolusCalculatorResult(bolusCalculatorResult.first, bolusCalculatorResult.second.id),
+                    progress
+                ) == true
+            // with nsId = update if it's modified record
+            bolusCalculatorResult.first.ids.nightscoutId != null && bolusCalculatorResult.first.id != bolusCalculatorResult.second.id ->
+                return activePlugin.activeNsClient?.nsUpdate(
+                    "treatments",
+                    DataSyncSelector.PairBolusCalculatorResult(bolusCalculatorResult.first, bolusCalculatorResult.second.id),
+                    progress
+                ) == true
+        }
+        return true
+    }
+
     @OpenForTesting
     fun confirmLastTempTargetsIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.TemporaryTargetLastSyncedId)) {
@@ -382,23 +474,12 @@ class DataSyncSelectorV3 @Inject constructor(
             }
             queueCounter.gvsRemaining = lastDbId - startId
             rxBus.send(EventNSClientUpdateGuiQueue())
+            if (lastDbId - startId > BATCH_SIZE) {
+                cont = processBatch(startId, lastDbId, { persistenceLayer.getNextSyncElementGlucoseValue(it).blockingGet() }, ::confirmLastGlucoseValueIdIfGreater, ::syncGlucoseValue)
+                continue
+            }
             persistenceLayer.getNextSyncElementGlucoseValue(startId).blockingGet()?.let { gv ->
-                if (bgUploadEnabled) {
-                    when {
-                        // new record with existing NS id => must be coming from NS => ignore
-                        gv.first.id == gv.second.id && gv.first.ids.nightscoutId != null ->
-                            aapsLogger.info(LTag.NSCLIENT, "Ignoring GlucoseValue. Loaded from NS: ${gv.second.id} ")
-                        // only NsId changed, no need to upload
-                        gv.first.onlyNsIdAdded(gv.second)                                ->
-                            aapsLogger.info(LTag.NSCLIENT, "Ignoring GlucoseValue. Only NS id changed ID: ${gv.second.id} ")
-                        // without nsId = create new
-                        gv.first.ids.nightscoutId == null                                ->
-                            cont = activePlugin.activeNsClient?.nsAdd("entries", DataSyncSelector.PairGlucoseValue(gv.first, gv.second.id), "$startId/$lastDbId") == true
-                        // with nsId = update
-                        else                                                             ->  //  gv.first.interfaceIDs.nightscoutId != null
-                            cont = activePlugin.activeNsClient?.nsUpdate("entries", DataSyncSelector.PairGlucoseValue(gv.first, gv.second.id), "$startId/$lastDbId") == true
-                    }
-                }
+                cont = syncGlucoseValue(gv, "$startId/$lastDbId")
                 if (cont) confirmLastGlucoseValueIdIfGreater(gv.second.id)
             } ?: run {
                 cont = false
@@ -406,6 +487,26 @@ class DataSyncSelectorV3 @Inject constructor(
         }
     }
 
+    private suspend fun syncGlucoseValue(gv: Pair<GV, GV>, progress: String): Boolean {
+        if (bgUploadEnabled) {
+            when {
+                // new record with existing NS id => must be coming from NS => ignore
+                gv.first.id == gv.second.id && gv.first.ids.nightscoutId != null ->
+                    aapsLogger.info(LTag.NSCLIENT, "Ignoring GlucoseValue. Loaded from NS: ${gv.second.id} ")
+                // only NsId changed, no need to upload
+                gv.first.onlyNsIdAdded(gv.second)                                ->
+                    aapsLogger.info(LTag.NSCLIENT, "Ignoring GlucoseValue. Only NS id changed ID: ${gv.second.id} ")
+                // without nsId = create new
+                gv.first.ids.nightscoutId == null                                ->
+                    return activePlugin.activeNsClient?.nsAdd("entries", DataSyncSelector.PairGlucoseValue(gv.first, gv.second.id), progress) == true
+                // with nsId = update
+                else                                                             ->  //  gv.first.interfaceIDs.nightscoutId != null
+                    return activePlugin.activeNsClient?.nsUpdate("entries", DataSyncSelector.PairGlucoseValue(gv.first, gv.second.id), progress) == true
+            }
+        }
+        return true
+    }
+
     @OpenForTesting
     fun confirmLastTherapyEventIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.TherapyEventLastSyncedId)) {
@@ -427,21 +528,12 @@ class DataSyncSelectorV3 @Inject constructor(
             }
             queueCounter.tesRemaining = lastDbId - startId
             rxBus.send(EventNSClientUpdateGuiQueue())
+            if (lastDbId - startId > BATCH_SIZE) {
+                cont = processBatch(startId, lastDbId, { persistenceLayer.getNextSyncElementTherapyEvent(it).blockingGet() }, ::confirmLastTherapyEventIdIfGreater, ::syncTherapyEvent)
+                continue
+            }
             persistenceLayer.getNextSyncElementTherapyEvent(startId).blockingGet()?.let { te ->
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    te.first.id == te.second.id && te.first.ids.nightscoutId != null ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring TherapyEvent. Loaded from NS: ${te.second.id} ")
-                    // only NsId changed, no need to upload
-                    te.first.onlyNsIdAdded(te.second)                                ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring TherapyEvent. Only NS id changed ID: ${te.second.id} ")
-                    // without nsId = create new
-                    te.first.ids.nightscoutId == null                                ->
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairTherapyEvent(te.first, te.second.id), "$startId/$lastDbId") == true
-                    // nsId = update
-                    te.first.ids.nightscoutId != null                                ->
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairTherapyEvent(te.first, te.second.id), "$startId/$lastDbId") == true
-                }
+                cont = syncTherapyEvent(te, "$startId/$lastDbId")
                 if (cont) confirmLastTherapyEventIdIfGreater(te.second.id)
             } ?: run {
                 cont = false
@@ -449,6 +541,24 @@ class DataSyncSelectorV3 @Inject constructor(
         }
     }
 
+    private suspend fun syncTherapyEvent(te: Pair<TE, TE>, progress: String): Boolean {
+        when {
+            // new record with existing NS id => must be coming from NS => ignore
+            te.first.id == te.second.id && te.first.ids.nightscoutId != null ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring TherapyEvent. Loaded from NS: ${te.second.id} ")
+            // only NsId changed, no need to upload
+            te.first.onlyNsIdAdded(te.second)                                ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring TherapyEvent. Only NS id changed ID: ${te.second.id} ")
+            // without nsId = create new
+            te.first.ids.nightscoutId == null                                ->
+                return activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairTherapyEvent(te.first, te.second.id), progress) == true
+            // nsId = update
+            te.first.ids.nightscoutId != null                                ->
+                return activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairTherapyEvent(te.first, te.second.id), progress) == true
+        }
+        return true
+    }
+
     @OpenForTesting
     fun confirmLastDeviceStatusIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.DeviceStatusLastSyncedId)) {
@@ -501,22 +611,12 @@ class DataSyncSelectorV3 @Inject constructor(
             }
             queueCounter.tbrsRemaining = lastDbId - startId
             rxBus.send(EventNSClientUpdateGuiQueue())
+            if (lastDbId - startId > BATCH_SIZE) {
+                cont = processBatch(startId, lastDbId, { persistenceLayer.getNextSyncElementTemporaryBasal(it).blockingGet() }, ::confirmLastTemporaryBasalIdIfGreater, ::syncTemporaryBasal)
+                continue
+            }
             persistenceLayer.getNextSyncElementTemporaryBasal(startId).blockingGet()?.let { tb ->
-                val profile = profileFunction.getProfile(tb.first.timestamp)
-                when {
-                    // new record with existing NS id => must be coming from NS => ignore
-                    tb.first.id == tb.second.id && tb.first.ids.nightscoutId != null ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring TemporaryBasal. Loaded from NS: ${tb.second.id} ")
-                    // only NsId changed, no need to upload
-                    tb.first.onlyNsIdAdded(tb.second)                                ->
-                        aapsLogger.info(LTag.NSCLIENT, "Ignoring TemporaryBasal. Only NS id changed ID: ${tb.second.id} ")
-                    // without nsId = create new
-                    tb.first.ids.nightscoutId == null                                ->
-                        cont = activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairTemporaryBasal(tb.first, tb.second.id), "$startId/$lastDbId", profile) == true
-                    // with nsId = update
-                    tb.first.ids.nightscoutId != null                                ->
-                        cont = activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairTemporaryBasal(tb.first, tb.second.id), "$startId/$lastDbId", profile) == true
-                }
+                cont = syncTemporaryBasal(tb, "$startId/$lastDbId")
                 if (cont) confirmLastTemporaryBasalIdIfGreater(tb.second.id)
             } ?: run {
                 cont = false
@@ -524,6 +624,25 @@ class DataSyncSelectorV3 @Inject constructor(
         }
     }
 
+    private suspend fun syncTemporaryBasal(tb: Pair<TB, TB>, progress: String): Boolean {
+        val profile = profileFunction.getProfile(tb.first.timestamp)
+        when {
+            // new record with existing NS id => must be coming from NS => ignore
+            tb.first.id == tb.second.id && tb.first.ids.nightscoutId != null ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring TemporaryBasal. Loaded from NS: ${tb.second.id} ")
+            // only NsId changed, no need to upload
+            tb.first.onlyNsIdAdded(tb.second)                                ->
+                aapsLogger.info(LTag.NSCLIENT, "Ignoring TemporaryBasal. Only NS id changed ID: ${tb.second.id} ")
+            // without nsId = create new
+            tb.first.ids.nightscoutId == null                                ->
+                return activePlugin.activeNsClient?.nsAdd("treatments", DataSyncSelector.PairTemporaryBasal(tb.first, tb.second.id), progress, profile) == true
+            // with nsId = update
+            tb.first.ids.nightscoutId != null                                ->
+                return activePlugin.activeNsClient?.nsUpdate("treatments", DataSyncSelector.PairTemporaryBasal(tb.first, tb.second.id), progress, profile) == true
+        }
+        return true
+    }
+
     @OpenForTesting
     fun confirmLastExtendedBolusIdIfGreater(lastSynced: Long) {
         if (lastSynced > preferences.get(NsclientLongKey.ExtendedBolusLastSyncedId)) {
@@ -12,7 +12,6 @@ import app.aaps.core.data.model.HR
 import app.aaps.core.data.model.RM
 import app.aaps.core.data.model.SC
 import app.aaps.core.data.model.SourceSensor
-import app.aaps.core.data.model.TB
 import app.aaps.core.data.model.TDD
 import app.aaps.core.data.model.TT
 import app.aaps.core.data.model.TrendArrow
@@ -25,6 +24,7 @@ import app.aaps.core.interfaces.automation.Automation
 import app.aaps.core.interfaces.automation.AutomationEvent
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.interfaces.constraints.ConstraintsChecker
+import app.aaps.core.interfaces.db.BasalTimeline
 import app.aaps.core.interfaces.db.PersistenceLayer
 import app.aaps.core.interfaces.db.ProcessedTbrEbData
 import app.aaps.core.interfaces.iob.GlucoseStatusProvider
@@ -52,6 +52,7 @@ import app.aaps.core.interfaces.rx.events.EventMobileToWear
 import app.aaps.core.interfaces.rx.events.EventWearUpdateGui
 import app.aaps.core.interfaces.rx.weardata.CwfMetadataKey
 import app.aaps.core.interfaces.rx.weardata.EventData
+import app.aaps.core.interfaces.rx.weardata.PackedGlucose
 import app.aaps.core.interfaces.rx.weardata.EventData.LoopStatesList.AvailableLoopState
 import app.aaps.core.interfaces.rx.weardata.LoopStatusData
 import app.aaps.core.interfaces.rx.weardata.TempTargetInfo
@@ -109,6 +110,8 @@ class DataHandlerMobile @Inject constructor(
     private val config: Config,
     private val iobCobCalculator: IobCobCalculator,
     private val processedTbrEbData: ProcessedTbrEbData,
+    private val basalTimeline: BasalTimeline,
+    private val wearGraphSync: WearGraphSync,
     private val glucoseStatusProvider: GlucoseStatusProvider,
     private val profileFunction: ProfileFunction,
     private val profileUtil: ProfileUtil,
@@ -168,6 +171,13 @@ class DataHandlerMobile @Inject constructor(
                            aapsLogger.debug(LTag.WEAR, "ResendData received from ${it.sourceNodeId}")
                            resendData(it.from)
                        }, fabricPrivacy::logException)
+        disposable += rxBus
+            .toObservable(EventData.ActionGraphDataAck::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe({
+                           aapsLogger.debug(LTag.WEAR, "GraphDataAck ${it.timeStamp} received from ${it.sourceNodeId}")
+                           wearGraphSync.acknowledge(it.timeStamp)
+                       }, fabricPrivacy::logException)
         disposable += rxBus
             .toObservable(EventData.ActionPumpStatus::class.java)
             .observeOn(aapsSchedulers.io)
@@ -1277,9 +1287,19 @@ class DataHandlerMobile @Inject constructor(
         )
         //UserAction
         sendUserActions()
-        // GraphData
+        // GraphData, only what watch doesn't have yet
         iobCobCalculator.ads.getBucketedDataTableCopy()?.let { bucketedData ->
-            rxBus.send(EventMobileToWear(EventData.GraphData(ArrayList(bucketedData.map { getSingleBG(it) }))))
+            val units = profileFunction.getUnits()
+            rxBus.send(
+                EventMobileToWear(
+                    wearGraphSync.delta(
+                        points = bucketedData.map { PackedGlucose.Point(it.timestamp, it.recalculated) }.sortedBy { it.timestamp },
+                        glucoseUnits = units.asText,
+                        high = profileUtil.convertToMgdl(preferences.get(UnitDoubleKey.OverviewHighMark), units),
+                        low = profileUtil.convertToMgdl(preferences.get(UnitDoubleKey.OverviewLowMark), units)
+                    )
+                )
+            )
         }
         // Treatments
         sendTreatments()
@@ -1320,20 +1340,25 @@ class DataHandlerMobile @Inject constructor(
         var runningTime = startTimeWindow
         var beginBasalValue = profile.getBasal(beginBasalSegmentTime)
         var endBasalValue = beginBasalValue
-        var tb1 = processedTbrEbData.getTempBasalIncludingConvertedExtended(runningTime)
-        var tb2: TB?
+        // temporary basals of whole window loaded at once
+        val segments = basalTimeline.getSegments(startTimeWindow, now)
+        var segmentIndex = 0
+        fun tempBasalAt(time: Long): BasalTimeline.Segment? {
+            while (segmentIndex < segments.size && segments[segmentIndex].end <= time) segmentIndex++
+            return segments.getOrNull(segmentIndex)?.takeIf { it.start <= time && it.isTempBasalRunning }
+        }
+
+        var tb1 = tempBasalAt(runningTime)
+        var tb2: BasalTimeline.Segment?
         var tbBefore = beginBasalValue
         var tbAmount = beginBasalValue
         var tbStart = runningTime
         if (tb1 != null) {
-            val profileTB = profileFunction.getProfile(runningTime)
-            if (profileTB != null) {
-                tbAmount = tb1.convertedToAbsolute(runningTime, profileTB)
-                tbStart = runningTime
-            }
+            tbAmount = tb1.tempBasalAbsolute
+            tbStart = runningTime
         }
         while (runningTime < now) {
-            val profileTB = profileFunction.getProfile(runningTime) ?: return
+            profileFunction.getProfile(runningTime) ?: return
             //basal rate
             endBasalValue = profile.getBasal(runningTime)
             if (endBasalValue != beginBasalValue) {
@@ -1346,7 +1371,7 @@ class DataHandlerMobile @Inject constructor(
             }
 
             //temps
-            tb2 = processedTbrEbData.getTempBasalIncludingConvertedExtended(runningTime)
+            tb2 = tempBasalAt(runningTime)
             when {
                 tb1 == null && tb2 == null -> {
                     //no temp stays no temp
@@ -1363,11 +1388,11 @@ class DataHandlerMobile @Inject constructor(
                     tb1 = tb2
                     tbStart = runningTime
                     tbBefore = endBasalValue
-                    tbAmount = tb1.convertedToAbsolute(runningTime, profileTB)
+                    tbAmount = tb1.tempBasalAbsolute
                 }
 
                 tb1 != null && tb2 != null -> {
-                    val currentAmount = tb2.convertedToAbsolute(runningTime, profileTB)
+                    val currentAmount = tb2.tempBasalAbsolute
                     if (currentAmount != tbAmount) {
                         temps.add(EventData.TreatmentData.TempBasal(tbStart, tbBefore, runningTime, currentAmount, tbAmount))
                         tbStart = runningTime
@@ -1384,14 +1409,14 @@ class DataHandlerMobile @Inject constructor(
             basals.add(EventData.TreatmentData.Basal(beginBasalSegmentTime, runningTime, beginBasalValue))
         }
         if (tb1 != null) {
-            tb2 = processedTbrEbData.getTempBasalIncludingConvertedExtended(now) //use "now" to express current situation
-            if (tb2 == null) {
+            val tbNow = processedTbrEbData.getTempBasalIncludingConvertedExtended(now) //use "now" to express current situation
+            if (tbNow == null) {
                 //express the cancelled temp by painting it down one minute early
                 temps.add(EventData.TreatmentData.TempBasal(tbStart, tbBefore, now - 60 * 1000, endBasalValue, tbAmount))
             } else {
                 //express currently running temp by painting it a bit into the future
                 val profileNow = profileFunction.getProfile(now)
-                val currentAmount = tb2.convertedToAbsolute(now, profileNow!!)
+                val currentAmount = tbNow.convertedToAbsolute(now, profileNow!!)
                 if (currentAmount != tbAmount) {
                     temps.add(EventData.TreatmentData.TempBasal(tbStart, tbBefore, now, tbAmount, tbAmount))
                     temps.add(EventData.TreatmentData.TempBasal(now, tbAmount, runningTime + 5 * 60 * 1000, currentAmount, currentAmount))
@@ -1400,11 +1425,11 @@ class DataHandlerMobile @Inject constructor(
                 }
             }
         } else {
-            tb2 = processedTbrEbData.getTempBasalIncludingConvertedExtended(now) //use "now" to express current situation
-            if (tb2 != null) {
+            val tbNow = processedTbrEbData.getTempBasalIncludingConvertedExtended(now) //use "now" to express current situation
+            if (tbNow != null) {
                 //onset at the end
                 val profileTB = profileFunction.getProfile(runningTime)
-                val currentAmount = tb2.convertedToAbsolute(runningTime, profileTB!!)
+                val currentAmount = tbNow.convertedToAbsolute(runningTime, profileTB!!)
                 temps.add(EventData.TreatmentData.TempBasal(now - 60 * 1000, endBasalValue, runningTime + 5 * 60 * 1000, currentAmount, currentAmount))
             }
         }
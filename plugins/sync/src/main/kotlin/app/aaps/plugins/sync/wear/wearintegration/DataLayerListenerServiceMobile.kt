@@ -76,7 +76,12 @@ class DataLayerListenerServiceMobile : WearableListenerService() {
         disposable += rxBus
             .toObservable(EventMobileToWear::class.java)
             .observeOn(aapsSchedulers.io)
-            .subscribe { sendMessage(rxPath, it.payload.serialize()) }
+            .subscribe {
+                val start = System.nanoTime()
+                val data = it.payload.serialize()
+                aapsLogger.debug(LTag.WEAR, "serialized ${it.payload.javaClass.simpleName} ${data.length} B in ${(System.nanoTime() - start) / 1000} us")
+                sendMessage(rxPath, data)
+            }
         disposable += rxBus
             .toObservable(EventMobileToWearWatchface::class.java)
             .observeOn(aapsSchedulers.io)
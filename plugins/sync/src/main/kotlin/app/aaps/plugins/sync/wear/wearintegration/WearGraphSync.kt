@@ -0,0 +1,48 @@
+package app.aaps.plugins.sync.wear.wearintegration
+
+import app.aaps.core.interfaces.rx.weardata.EventData
+import app.aaps.core.interfaces.rx.weardata.PackedGlucose
+import javax.inject.Inject
+import javax.inject.Singleton
+
+/**
+ * Incremental sync of BG graph to watch.
+ *
+ * Points sent last time are remembered. If watch acknowledged newest of them, only new and changed points are sent,
+ * otherwise (watch restarted, message lost, point removed) full data set is sent.
+ */
+@Singleton
+class WearGraphSync @Inject constructor() {
+
+    private var sent: Map<Long, PackedGlucose.Point> = emptyMap()
+    private var sentNewest = 0L
+    private var acknowledged = 0L
+
+    @Synchronized
+    fun acknowledge(timestamp: Long) {
+        acknowledged = timestamp
+    }
+
+    /**
+     * @param points graph points ordered by time, oldest first
+     */
+    @Synchronized
+    fun delta(points: List<PackedGlucose.Point>, glucoseUnits: String, high: Double, low: Double): EventData.GraphDataDelta {
+        val fromTime = points.firstOrNull()?.timestamp ?: 0L
+        val current = points.associateBy { it.timestamp }
+        val incremental = acknowledged != 0L && acknowledged == sentNewest &&
+            sent.keys.none { it >= fromTime && it !in current }
+        val changed = if (incremental) points.filter { sent[it.timestamp] != it } else points
+        val delta = EventData.GraphDataDelta(
+            baseTimestamp = if (incremental) acknowledged else 0L,
+            fromTime = fromTime,
+            glucoseUnits = glucoseUnits,
+            high = high,
+            low = low,
+            packed = PackedGlucose.encode(changed)
+        )
+        sent = current
+        sentNewest = points.lastOrNull()?.timestamp ?: 0L
+        return delta
+    }
+}
@@ -932,6 +932,51 @@ class DataSyncSelectorV3Test : TestBaseWithProfile() {
         Unit
     }
 
+    @Test
+    fun processChangedBolusesInBatchesTest() = runBlocking {
+        // Setup: queue bigger than batch size is uploaded in batches
+        whenever(preferences.get(NsclientBooleanKey.NsPaused)).thenReturn(false)
+        whenever(persistenceLayer.getLastBolusId()).thenReturn(200L)
+        whenever(preferences.get(NsclientLongKey.BolusLastSyncedId)).thenReturn(0L, 0L, 100L, 100L, 200L)
+        whenever(activePlugin.activeNsClient).thenReturn(nsClient)
+        whenever(persistenceLayer.getNextSyncElementBolus(any())).thenAnswer { invocation ->
+            val id = invocation.getArgument<Long>(0) + 1
+            if (id > 200L) Maybe.empty()
+            else BS(id = id, timestamp = id * 1000L, amount = 1.0, type = BS.Type.NORMAL, ids = IDs()).let { Maybe.just(Pair(it, it)) }
+        }
+        whenever(nsClient.nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())).thenReturn(true)
+
+        sut.processChangedBoluses()
+
+        // Verify all boluses were synced and last id confirmed once per batch
+        verify(nsClient, Times(200)).nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())
+        verify(preferences, Times(1)).put(NsclientLongKey.BolusLastSyncedId, 100L)
+        verify(preferences, Times(1)).put(NsclientLongKey.BolusLastSyncedId, 200L)
+    }
+
+    @Test
+    fun processChangedBolusesInBatchesWhenNsAddFailsTest() = runBlocking {
+        // Setup: one upload of batch fails
+        whenever(preferences.get(NsclientBooleanKey.NsPaused)).thenReturn(false)
+        whenever(persistenceLayer.getLastBolusId()).thenReturn(200L)
+        whenever(preferences.get(NsclientLongKey.BolusLastSyncedId)).thenReturn(0L)
+        whenever(activePlugin.activeNsClient).thenReturn(nsClient)
+        whenever(persistenceLayer.getNextSyncElementBolus(any())).thenAnswer { invocation ->
+            val id = invocation.getArgument<Long>(0) + 1
+            BS(id = id, timestamp = id * 1000L, amount = 1.0, type = BS.Type.NORMAL, ids = IDs()).let { Maybe.just(Pair(it, it)) }
+        }
+        whenever(nsClient.nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())).thenAnswer { invocation ->
+            invocation.getArgument<DataSyncSelector.PairBolus>(1).id != 51L
+        }
+
+        sut.processChangedBoluses()
+
+        // Verify whole batch was tried but only records before failed one confirmed
+        verify(nsClient, Times(100)).nsAdd(eq("treatments"), any<DataSyncSelector.PairBolus>(), any(), anyOrNull())
+        verify(preferences, Times(1)).put(NsclientLongKey.BolusLastSyncedId, 50L)
+        verify(preferences, Times(0)).put(NsclientLongKey.BolusLastSyncedId, 100L)
+    }
+
     // Tests for processChangedCarbs with getNextSyncElement returning data
 
     @Test
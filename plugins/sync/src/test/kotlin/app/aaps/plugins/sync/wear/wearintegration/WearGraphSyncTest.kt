@@ -0,0 +1,48 @@
+package app.aaps.plugins.sync.wear.wearintegration
+
+import app.aaps.core.interfaces.rx.weardata.PackedGlucose
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class WearGraphSyncTest {
+
+    private val sut = WearGraphSync()
+
+    private fun points(from: Int, to: Int) = (from until to).map { PackedGlucose.Point(it * 300_000L, 100.0 + it) }
+
+    @Test
+    fun fullSyncUntilAcknowledgedTest() {
+        val first = sut.delta(points(0, 10), "mg/dl", 180.0, 70.0)
+        assertThat(first.baseTimestamp).isEqualTo(0L)
+        assertThat(PackedGlucose.decode(first.packed)).hasSize(10)
+
+        // not acknowledged, full again
+        val second = sut.delta(points(1, 11), "mg/dl", 180.0, 70.0)
+        assertThat(second.baseTimestamp).isEqualTo(0L)
+        assertThat(PackedGlucose.decode(second.packed)).hasSize(10)
+    }
+
+    @Test
+    fun newAndChangedPointsOnlyTest() {
+        sut.delta(points(0, 10), "mg/dl", 180.0, 70.0)
+        sut.acknowledge(9 * 300_000L)
+
+        val changed = points(1, 12).map { if (it.timestamp == 9 * 300_000L) it.copy(sgv = 150.0) else it }
+        val delta = sut.delta(changed, "mg/dl", 180.0, 70.0)
+        assertThat(delta.baseTimestamp).isEqualTo(9 * 300_000L)
+        assertThat(delta.fromTime).isEqualTo(300_000L)
+        assertThat(PackedGlucose.decode(delta.packed).map { it.timestamp }).containsExactly(9 * 300_000L, 10 * 300_000L, 11 * 300_000L).inOrder()
+    }
+
+    @Test
+    fun staleAcknowledgeOrRemovedPointForcesFullSyncTest() {
+        sut.delta(points(0, 10), "mg/dl", 180.0, 70.0)
+        sut.acknowledge(5 * 300_000L)
+        assertThat(sut.delta(points(0, 10), "mg/dl", 180.0, 70.0).baseTimestamp).isEqualTo(0L)
+
+        sut.acknowledge(9 * 300_000L)
+        val delta = sut.delta(points(0, 10).filter { it.timestamp != 4 * 300_000L }, "mg/dl", 180.0, 70.0)
+        assertThat(delta.baseTimestamp).isEqualTo(0L)
+        assertThat(PackedGlucose.decode(delta.packed)).hasSize(9)
+    }
+}
@@ -39,6 +39,12 @@ class Pattern(templateRows: Array<String>) {
     val pixels: BooleanArray
     val numSetPixels: Int
 
+    /**
+     * Pattern rows as bitmasks, bit x of a row being the pixel x of that row.
+     * Used by [findTokens] to compare whole rows at once.
+     */
+    internal val rowBits: LongArray
+
     init {
         // Sanity checks. The pattern must have at least one row,
         // and rows must not be empty.
@@ -78,6 +84,18 @@ class Pattern(templateRows: Array<String>) {
         }
 
         numSetPixels = tempNumSetPixels
+
+        if (width > Long.SIZE_BITS)
+            throw IllegalArgumentException("Pattern is too wide; width: $width maximum: ${Long.SIZE_BITS}")
+
+        rowBits = LongArray(height) { y ->
+            var bits = 0L
+            for (x in 0 until width) {
+                if (pixels[x + y * width])
+                    bits = bits or (1L shl x)
+            }
+            bits
+        }
     }
 }
 
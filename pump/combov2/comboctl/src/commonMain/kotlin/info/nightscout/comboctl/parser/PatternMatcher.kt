@@ -0,0 +1,149 @@
+package info.nightscout.comboctl.parser
+
+import info.nightscout.comboctl.base.DISPLAY_FRAME_HEIGHT
+import info.nightscout.comboctl.base.DISPLAY_FRAME_WIDTH
+import info.nightscout.comboctl.base.DisplayFrame
+
+/**
+ * [DisplayFrame] with rows packed into bitmasks.
+ *
+ * A 96 pixel row does not fit into one Long, so each row is stored
+ * as two Longs: pixels 0..63 in the first one, pixels 64..95 in the
+ * second one. Bit x of a word is the pixel x of the covered range.
+ *
+ * @param displayFrame Display frame to pack.
+ */
+internal class PackedDisplayFrame(displayFrame: DisplayFrame) {
+    private val words = LongArray(DISPLAY_FRAME_HEIGHT * WORDS_PER_ROW)
+
+    init {
+        for (y in 0 until DISPLAY_FRAME_HEIGHT) {
+            for (x in 0 until DISPLAY_FRAME_WIDTH) {
+                if (displayFrame.getPixelAt(x, y)) {
+                    val index = y * WORDS_PER_ROW + x / Long.SIZE_BITS
+                    words[index] = words[index] or (1L shl (x % Long.SIZE_BITS))
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the pixels x..(x + width - 1) of row y as a bitmask.
+     *
+     * Bit 0 of the result is the pixel at x. The caller must make sure
+     * that the region is inside of the frame and width is at most 64.
+     */
+    fun rowBitsAt(x: Int, y: Int, width: Int): Long {
+        val low = words[y * WORDS_PER_ROW]
+        val high = words[y * WORDS_PER_ROW + 1]
+        val bits = when {
+            x == 0              -> low
+            x < Long.SIZE_BITS  -> (low ushr x) or (high shl (Long.SIZE_BITS - x))
+            else                -> high ushr (x - Long.SIZE_BITS)
+        }
+        return if (width == Long.SIZE_BITS) bits else bits and ((1L shl width) - 1)
+    }
+
+    private companion object {
+        const val WORDS_PER_ROW = 2
+    }
+}
+
+/**
+ * Multi-pattern matcher for [findTokens].
+ *
+ * Instead of comparing every pattern pixel by pixel at every location,
+ * each pattern is reduced to one "anchor" row - the row with the most
+ * set pixels. Patterns with the same width and anchor row offset form
+ * a group, and within a group, patterns are looked up by the bits of
+ * their anchor row. At each location, one frame row window is extracted
+ * per group and used as the hash key; only the few patterns sharing
+ * that exact row are then verified row by row. Blank windows are skipped
+ * right away, since no pattern has a blank anchor row.
+ *
+ * If multiple patterns match at a location, the one that comes first
+ * in the [patterns] map wins, just like with the sequential scan.
+ *
+ * @param patterns Glyphs and their patterns, in order of priority.
+ */
+internal class GlyphPatternMatcher(patterns: Map<Glyph, Pattern>) {
+    private class AnchorGroup(val width: Int, val anchorRow: Int) {
+        val candidates = HashMap<Long, MutableList<Int>>()
+    }
+
+    private val glyphs = patterns.keys.toList()
+    private val patternList = patterns.values.toList()
+    private val groups: List<AnchorGroup>
+
+    init {
+        val groupsByShape = LinkedHashMap<Pair<Int, Int>, AnchorGroup>()
+
+        patternList.forEachIndexed { index, pattern ->
+            val anchorRow = pattern.rowBits.indices.maxByOrNull { pattern.rowBits[it].countOneBits() }!!
+            val group = groupsByShape.getOrPut(Pair(pattern.width, anchorRow)) { AnchorGroup(pattern.width, anchorRow) }
+            // Indices are added in ascending order, so each candidate list is sorted by priority.
+            group.candidates.getOrPut(pattern.rowBits[anchorRow]) { mutableListOf() }.add(index)
+        }
+
+        groups = groupsByShape.values.toList()
+    }
+
+    /**
+     * Scans the frame and returns all pattern matches.
+     *
+     * Like the sequential scan, the search moves past a match horizontally,
+     * so overlapping matches are still possible and have to be resolved
+     * by the caller.
+     */
+    fun findMatches(frame: PackedDisplayFrame): MutableList<Token> {
+        val tokens = mutableListOf<Token>()
+
+        for (y in 0 until DISPLAY_FRAME_HEIGHT) {
+            var x = 0
+
+            while (x < DISPLAY_FRAME_WIDTH) {
+                var best = -1
+
+                for (group in groups) {
+                    if (((x + group.width) > DISPLAY_FRAME_WIDTH) || ((y + group.anchorRow) >= DISPLAY_FRAME_HEIGHT))
+                        continue
+
+                    val anchorBits = frame.rowBitsAt(x, y + group.anchorRow, group.width)
+                    if (anchorBits == 0L)
+                        continue
+
+                    val candidates = group.candidates[anchorBits] ?: continue
+                    for (index in candidates) {
+                        if ((best >= 0) && (index > best))
+                            break
+                        if (matchesAt(frame, patternList[index], x, y)) {
+                            best = index
+                            break
+                        }
+                    }
+                }
+
+                if (best >= 0) {
+                    val pattern = patternList[best]
+                    tokens.add(Token(pattern, glyphs[best], x, y))
+                    x += pattern.width
+                } else
+                    x++
+            }
+        }
+
+        return tokens
+    }
+
+    private fun matchesAt(frame: PackedDisplayFrame, pattern: Pattern, x: Int, y: Int): Boolean {
+        if ((y + pattern.height) > DISPLAY_FRAME_HEIGHT)
+            return false
+
+        for (py in 0 until pattern.height) {
+            if (frame.rowBitsAt(x, y + py, pattern.width) != pattern.rowBits[py])
+                return false
+        }
+
+        return true
+    }
+}
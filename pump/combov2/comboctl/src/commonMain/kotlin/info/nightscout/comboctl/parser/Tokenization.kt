@@ -30,6 +30,8 @@ data class Token(
  */
 typealias Tokens = List<Token>
 
+private val glyphPatternMatcher by lazy { GlyphPatternMatcher(glyphPatterns) }
+
 /**
  * Checks if the region at the given coordinates matches the given pattern.
  *
@@ -49,8 +51,7 @@ fun checkIfPatternMatchesAt(displayFrame: DisplayFrame, pattern: Pattern, x: Int
         ((y + pattern.height) > DISPLAY_FRAME_HEIGHT))
         return false
 
-    // Simple naive brute force match.
-    // TODO: See if a two-dimensional variant of the Boyer-Moore algorithm can be used instead.
+    // Simple naive brute force match. findTokens() uses GlyphPatternMatcher instead.
 
     for (py in 0 until pattern.height) {
         for (px in 0 until pattern.width) {
@@ -81,35 +82,11 @@ fun checkIfPatternMatchesAt(displayFrame: DisplayFrame, pattern: Pattern, x: Int
  * @return Tokens found in this frame.
  */
 fun findTokens(displayFrame: DisplayFrame): Tokens {
-    val tokens = mutableListOf<Token>()
-
-    // Scan through the display frame and look for tokens.
-
-    var y = 0
-
-    while (y < DISPLAY_FRAME_HEIGHT) {
-        var x = 0
-
-        while (x < DISPLAY_FRAME_WIDTH) {
-            for ((glyph, pattern) in glyphPatterns) {
-                if (checkIfPatternMatchesAt(displayFrame, pattern, x, y)) {
-                    // Current region in the display frame matches this pattern.
-                    // Create a token out of the pattern, glyph, and coordinates,
-                    // add the token to the list of found tokens, and move past the
-                    // matched pattern horizontally. (There's no point in advancing
-                    // pixel by pixel horizontally since the next pattern.width pixels
-                    // are guaranteed to be part of the already discovered token).
-                    tokens.add(Token(pattern, glyph, x, y))
-                    x += pattern.width - 1 // -1 since the x value is incremented below.
-                    break
-                }
-            }
-
-            x++
-        }
-
-        y++
-    }
+    // Scan through the display frame and look for tokens. This finds the same
+    // matches as calling checkIfPatternMatchesAt() for every glyph pattern at
+    // every location, but compares packed rows and only verifies patterns whose
+    // most informative row is present at that location.
+    val tokens = glyphPatternMatcher.findMatches(PackedDisplayFrame(displayFrame))
 
     // Check for overlaps. The pattern matching is not automatically unambiguous.
     // For example, one of the corners of the multiwave bolus icon also matches
@@ -1,6 +1,9 @@
 package info.nightscout.comboctl.parser
 
 import app.aaps.shared.tests.TestBase
+import info.nightscout.comboctl.base.DISPLAY_FRAME_HEIGHT
+import info.nightscout.comboctl.base.DISPLAY_FRAME_WIDTH
+import info.nightscout.comboctl.base.DisplayFrame
 import kotlin.test.Test
 import kotlin.test.assertEquals
 import kotlin.test.assertFalse
@@ -103,4 +106,42 @@ class TokenizationTest : TestBase() {
 
         assertEquals(Glyph.LargeSymbol(LargeSymbol.BOLUS), iterator.next().glyph)
     }
+
+    @Test
+    fun checkPackedMatcherFindsSameTokensAsBruteForceScan() {
+        // Collect every frame of TestDisplayFrames.kt and check that the packed
+        // multi-pattern matcher produces the same matches as trying every
+        // glyph pattern with checkIfPatternMatchesAt() at every location.
+
+        val testFrames = Class.forName("info.nightscout.comboctl.parser.TestDisplayFramesKt").declaredMethods
+            .filter { (it.returnType == DisplayFrame::class.java) && (it.parameterCount == 0) }
+            .map { it.name to (it.invoke(null) as DisplayFrame) }
+        assertTrue(testFrames.size > 200)
+
+        val matcher = GlyphPatternMatcher(glyphPatterns)
+
+        for ((name, frame) in testFrames) {
+            assertEquals(bruteForceMatches(frame), matcher.findMatches(PackedDisplayFrame(frame)), name)
+        }
+    }
+
+    // Sequential scan as findTokens() did it before GlyphPatternMatcher.
+    private fun bruteForceMatches(displayFrame: DisplayFrame): List<Token> {
+        val tokens = mutableListOf<Token>()
+
+        for (y in 0 until DISPLAY_FRAME_HEIGHT) {
+            var x = 0
+
+            while (x < DISPLAY_FRAME_WIDTH) {
+                val match = glyphPatterns.entries.firstOrNull { checkIfPatternMatchesAt(displayFrame, it.value, x, y) }
+                if (match != null) {
+                    tokens.add(Token(match.value, match.key, x, y))
+                    x += match.value.width
+                } else
+                    x++
+            }
+        }
+
+        return tokens
+    }
 }
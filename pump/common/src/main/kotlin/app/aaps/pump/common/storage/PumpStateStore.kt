@@ -0,0 +1,122 @@
+package app.aaps.pump.common.storage
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import app.aaps.core.interfaces.logging.LTag
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicReference
+import java.util.zip.CRC32
+
+/**
+ * Persists state of a pump driver (ie. pod state) as a versioned binary snapshot in its own file.
+ *
+ * [write] only remembers the latest snapshot and returns, file is written by a background executor.
+ * Snapshots written faster than the disk can take are coalesced, only the latest one is written.
+ * [flush] writes pending snapshot on the calling thread and must be used after safety-critical
+ * transitions (activation, pairing, delivery changes) which have to survive a crash.
+ *
+ * File is written to a temporary file, synced and atomically renamed, so after a crash
+ * it contains either the previous or the new snapshot, never a partial one.
+ * Payload is protected by CRC32, [read] returns null for a missing or damaged file.
+ *
+ * @param file target file, ie. in Context.filesDir
+ * @param executor executes background writes, shared single daemon thread by default
+ */
+class PumpStateStore(
+    private val file: File,
+    private val aapsLogger: AAPSLogger,
+    private val executor: Executor = sharedExecutor
+) {
+
+    /**
+     * @param version version of payload format, driver specific
+     */
+    class Snapshot(val version: Int, val payload: ByteArray)
+
+    private val pending = AtomicReference<Snapshot?>()
+    private val writeLock = Any()
+
+    fun read(): Snapshot? {
+        if (!file.exists()) return null
+        return try {
+            DataInputStream(ByteArrayInputStream(file.readBytes())).use { input ->
+                if (input.readInt() != MAGIC) error("Invalid header")
+                val formatVersion = input.readUnsignedByte()
+                if (formatVersion != FORMAT_VERSION) error("Unsupported format version $formatVersion")
+                val version = input.readInt()
+                val payload = ByteArray(input.readInt())
+                input.readFully(payload)
+                if (input.readLong() != crc(payload)) error("CRC mismatch")
+                Snapshot(version, payload)
+            }
+        } catch (e: Exception) {
+            aapsLogger.error(LTag.PUMP, "Failed to read pump state from ${file.name}", e)
+            null
+        }
+    }
+
+    /**
+     * Schedule writing of snapshot. Payload must not be modified afterwards.
+     */
+    fun write(version: Int, payload: ByteArray) {
+        if (pending.getAndSet(Snapshot(version, payload)) == null)
+            executor.execute(::writePending)
+    }
+
+    /**
+     * Write pending snapshot (if any) before returning
+     */
+    fun flush() {
+        writePending()
+    }
+
+    private fun writePending() {
+        synchronized(writeLock) {
+            val snapshot = pending.getAndSet(null) ?: return
+            try {
+                writeFile(snapshot)
+            } catch (e: Exception) {
+                aapsLogger.error(LTag.PUMP, "Failed to write pump state to ${file.name}", e)
+            }
+        }
+    }
+
+    private fun writeFile(snapshot: Snapshot) {
+        val buffer = ByteArrayOutputStream(snapshot.payload.size + HEADER_SIZE)
+        DataOutputStream(buffer).use { output ->
+            output.writeInt(MAGIC)
+            output.writeByte(FORMAT_VERSION)
+            output.writeInt(snapshot.version)
+            output.writeInt(snapshot.payload.size)
+            output.write(snapshot.payload)
+            output.writeLong(crc(snapshot.payload))
+        }
+        val temp = File(file.parentFile, file.name + ".tmp")
+        FileOutputStream(temp).use { output ->
+            buffer.writeTo(output)
+            output.fd.sync()
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    }
+
+    private fun crc(payload: ByteArray): Long = CRC32().apply { update(payload) }.value
+
+    companion object {
+
+        private const val MAGIC = 0x41505354 // "APST"
+        private const val FORMAT_VERSION = 1
+        private const val HEADER_SIZE = 4 + 1 + 4 + 4 + 8
+
+        private val sharedExecutor: Executor by lazy {
+            Executors.newSingleThreadExecutor { runnable -> Thread(runnable, "PumpStateWriter").apply { isDaemon = true } }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package app.aaps.pump.common.storage
+
+import app.aaps.core.interfaces.logging.AAPSLogger
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.kotlin.mock
+import java.io.File
+
+internal class PumpStateStoreTest {
+
+    @TempDir lateinit var dir: File
+
+    private val aapsLogger: AAPSLogger = mock()
+    private val scheduled = mutableListOf<Runnable>()
+
+    private fun store(file: File = File(dir, "state.bin")) = PumpStateStore(file, aapsLogger) { scheduled.add(it) }
+
+    @Test
+    fun writeIsDeferredAndCoalesced() {
+        val sut = store()
+        sut.write(1, "first".toByteArray())
+        sut.write(1, "second".toByteArray())
+
+        assertThat(sut.read()).isNull()
+        assertThat(scheduled).hasSize(1)
+
+        scheduled.single().run()
+        val snapshot = sut.read()
+        assertThat(snapshot?.version).isEqualTo(1)
+        assertThat(snapshot?.payload?.decodeToString()).isEqualTo("second")
+    }
+
+    @Test
+    fun flushWritesImmediately() {
+        val sut = store()
+        sut.write(2, "state".toByteArray())
+        sut.flush()
+
+        assertThat(store().read()?.payload?.decodeToString()).isEqualTo("state")
+        // scheduled write has nothing left to do
+        scheduled.single().run()
+        assertThat(store().read()?.version).isEqualTo(2)
+        assertThat(File(dir, "state.bin.tmp").exists()).isFalse()
+    }
+
+    @Test
+    fun damagedFileIsIgnored() {
+        val file = File(dir, "state.bin")
+        val sut = store(file)
+        sut.write(1, "state".toByteArray())
+        sut.flush()
+
+        val bytes = file.readBytes()
+        bytes[bytes.size - 10] = (bytes[bytes.size - 10] + 1).toByte()
+        file.writeBytes(bytes)
+        assertThat(sut.read()).isNull()
+
+        file.writeBytes(bytes.copyOf(5))
+        assertThat(sut.read()).isNull()
+    }
+}
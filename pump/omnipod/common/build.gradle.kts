@@ -18,6 +18,7 @@ dependencies {
     implementation(project(":core:libraries"))
     implementation(project(":core:ui"))
     implementation(project(":core:utils"))
+    implementation(project(":pump:common"))
 
     api(libs.androidx.constraintlayout)
     api(libs.androidx.fragment)
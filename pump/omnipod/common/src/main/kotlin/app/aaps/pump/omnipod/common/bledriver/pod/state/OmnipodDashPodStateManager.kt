@@ -94,6 +94,11 @@ interface OmnipodDashPodStateManager {
     fun updateFromAlarmStatusResponse(response: AlarmStatusResponse)
     fun updateFromPairing(uniqueId: Id, pairResult: PairResult)
     fun reset()
+
+    /**
+     * Replace pod state by the one restored from imported preferences (if present)
+     */
+    fun afterImport()
     fun connectionSuccessRatio(): Float
     fun incrementSuccessfulConnectionAttemptsAfterRetries()
     fun incrementFailedConnectionsAfterRetries()
@@ -1,5 +1,6 @@
 package app.aaps.pump.omnipod.common.bledriver.pod.state
 
+import android.content.Context
 import android.os.SystemClock
 import app.aaps.core.data.model.BS
 import app.aaps.core.interfaces.configuration.Config
@@ -8,6 +9,7 @@ import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.utils.Round
 import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.pump.common.storage.PumpStateStore
 import app.aaps.pump.omnipod.common.EventOmnipodDashPumpValuesChanged
 import app.aaps.pump.omnipod.common.bledriver.comm.Id
 import app.aaps.pump.omnipod.common.bledriver.comm.pair.PairResult
@@ -29,6 +31,7 @@ import com.google.gson.Gson
 import io.reactivex.rxjava3.core.Completable
 import io.reactivex.rxjava3.core.Maybe
 import io.reactivex.rxjava3.core.Single
+import java.io.File
 import java.io.Serializable
 import java.time.Duration
 import java.time.Instant
@@ -45,9 +48,13 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
     private val logger: AAPSLogger,
     private val rxBus: RxBus,
     private val preferences: Preferences,
-    private val config: Config
+    private val config: Config,
+    context: Context
 ) : OmnipodDashPodStateManager {
 
+    private val gson = Gson()
+    private val stateStore = PumpStateStore(File(context.filesDir, POD_STATE_FILE), logger)
+
     /** Internal (rather than private) to allow unit testing within this module. */
     internal var podState: PodState
 
@@ -59,7 +66,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         get() = podState.activationProgress
         set(activationProgress) {
             podState.activationProgress = activationProgress
-            store()
+            store(flush = true)
         }
 
     override val isUniqueIdSet: Boolean
@@ -94,7 +101,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         set(uniqueId) {
             if (podState.uniqueId == null) {
                 podState.uniqueId = uniqueId
-                store()
+                store(flush = true)
             } else if (uniqueId != podState.uniqueId) {
                 throw IllegalStateException("Trying to set Unique ID to $uniqueId, but it is already set to ${podState.uniqueId}")
             }
@@ -105,7 +112,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         set(bluetoothAddress) {
             if (podState.bluetoothAddress == null) {
                 podState.bluetoothAddress = bluetoothAddress
-                store()
+                store(flush = true)
             } else if (bluetoothAddress != podState.bluetoothAddress) {
                 throw IllegalStateException("Trying to set Bluetooth Address to $bluetoothAddress, but it is already set to ${podState.bluetoothAddress}")
             }
@@ -215,7 +222,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         set(tempBasal) {
             podState.tempBasal = tempBasal
             rxBus.send(EventOmnipodDashPumpValuesChanged())
-            store()
+            store(flush = true)
         }
 
     override val lastBolus: OmnipodDashPodStateManager.LastBolus?
@@ -232,7 +239,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         set(basalProgram) {
             podState.basalProgram = basalProgram
             rxBus.send(EventOmnipodDashPumpValuesChanged())
-            store()
+            store(flush = true)
         }
 
     override var suspendAlertsEnabled: Boolean
@@ -481,14 +488,14 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         get() = podState.eapAkaSequenceNumber
         set(eapAkaSequenceNumber) {
             podState.eapAkaSequenceNumber = eapAkaSequenceNumber
-            store()
+            store(flush = true)
         }
 
     override var ltk: ByteArray?
         get() = podState.ltk
         set(ltk) {
             podState.ltk = ltk
-            store()
+            store(flush = true)
         }
 
     override val activeCommand: OmnipodDashPodStateManager.ActiveCommand?
@@ -504,6 +511,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
             historyId = historyId,
             bolusType = bolusType
         )
+        store(flush = true)
     }
 
     @Synchronized
@@ -514,6 +522,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
             this.deliveryComplete = true
         }
             ?: logger.error(LTag.PUMP, "Trying to mark null bolus as complete")
+        store(flush = true)
 
         return lastBolus
     }
@@ -548,6 +557,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
                     requestedBolus = requestedBolus
                 )
                 podState.activeCommand = command
+                store(flush = true)
                 source.onSuccess(command)
             } else {
                 source.onError(
@@ -619,6 +629,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         when (cmdConfirmation) {
             CommandSendingFailure      -> {
                 podState.activeCommand = null
+                store(flush = true)
                 source.onError(
                     activeCommand.sendError
                         ?: java.lang.IllegalStateException(
@@ -635,11 +646,13 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
 
             CommandConfirmationDenied  -> {
                 podState.activeCommand = null
+                store(flush = true)
                 source.onSuccess(CommandConfirmed(activeCommand, false))
             }
 
             CommandConfirmationSuccess -> {
                 podState.activeCommand = null
+                store(flush = true)
 
                 source.onSuccess(CommandConfirmed(activeCommand, true))
             }
@@ -722,7 +735,7 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
     }
 
     override fun commitEapAkaSequenceNumber() {
-        store()
+        store(flush = true)
     }
 
     /** Internal (rather than private) to allow unit testing within this module. */
@@ -977,25 +990,57 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
 
     override fun reset() {
         podState = PodState()
-        store()
+        store(flush = true)
+    }
+
+    @Synchronized
+    override fun afterImport() {
+        val imported = preferences.getIfExists(DashStringNonPreferenceKey.PodState) ?: return
+        try {
+            podState = gson.fromJson(imported, PodState::class.java)
+            store(flush = true)
+        } catch (ex: Exception) {
+            logger.error(LTag.PUMPCOMM, "Failed to deserialize imported Pod state", ex)
+        }
     }
 
-    private fun store() {
+    /**
+     * State is serialized on calling thread, file is written in background unless [flush] is set.
+     * Use [flush] for transitions the pod must not see repeated or forgotten after a crash.
+     * Flushed state is mirrored to preferences too, so it is part of exported settings.
+     */
+    private fun store(flush: Boolean = false) {
         try {
-            val cleanPodState = podState.copy(ltk = byteArrayOf()) // do not log ltk
-            logger.debug(LTag.PUMPCOMM, "Storing Pod state: ${Gson().toJson(cleanPodState)}")
+            logger.debug(LTag.PUMPCOMM) { "Storing Pod state: ${gson.toJson(podState.copy(ltk = byteArrayOf()))}" } // do not log ltk
 
-            val serialized = Gson().toJson(podState)
-            preferences.put(DashStringNonPreferenceKey.PodState, serialized)
+            val serialized = gson.toJson(podState)
+            stateStore.write(POD_STATE_VERSION, serialized.encodeToByteArray())
+            if (flush) {
+                stateStore.flush()
+                preferences.put(DashStringNonPreferenceKey.PodState, serialized)
+            }
         } catch (ex: Exception) {
             logger.error(LTag.PUMPCOMM, "Failed to store Pod state", ex)
         }
     }
 
     private fun load(): PodState {
-        if (preferences.getIfExists(DashStringNonPreferenceKey.PodState) != null) {
+        stateStore.read()?.let { snapshot ->
             try {
-                return Gson().fromJson(preferences.get(DashStringNonPreferenceKey.PodState), PodState::class.java)
+                if (snapshot.version == POD_STATE_VERSION)
+                    return gson.fromJson(snapshot.payload.decodeToString(), PodState::class.java)
+                logger.error(LTag.PUMPCOMM, "Unsupported Pod state version ${snapshot.version}")
+            } catch (ex: Exception) {
+                logger.error(LTag.PUMPCOMM, "Failed to deserialize Pod state", ex)
+            }
+        }
+        // Migrate state stored by previous versions in preferences
+        preferences.getIfExists(DashStringNonPreferenceKey.PodState)?.let { legacy ->
+            try {
+                return gson.fromJson(legacy, PodState::class.java).also {
+                    stateStore.write(POD_STATE_VERSION, legacy.encodeToByteArray())
+                    stateStore.flush()
+                }
             } catch (ex: Exception) {
                 logger.error(LTag.PUMPCOMM, "Failed to deserialize Pod state", ex)
             }
@@ -1062,4 +1107,10 @@ class OmnipodDashPodStateManagerImpl @Inject constructor(
         var lastBasalCorrectionTime: Long? = null,  // Timestamp of last basal correction attempt (for cooldown)
         @Transient var basalCorrectionInProgress: Boolean = false  // Transient flag: true while basal correction is delivering
     ) : Serializable
+
+    companion object {
+
+        private const val POD_STATE_FILE = "omnipod_dash_pod_state.bin"
+        private const val POD_STATE_VERSION = 1
+    }
 }
@@ -1,12 +1,16 @@
 package app.aaps.pump.omnipod.common.bledriver.pod.state
 
+import android.content.Context
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.shared.tests.TestBase
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
 import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import java.io.File
 
 /**
  * Tests for [OmnipodDashPodStateManagerImpl.calculateBolusPulseIncrease].
@@ -22,11 +26,14 @@ class CalculateBolusPulseIncreaseTest : TestBase() {
 
     @Mock lateinit var preferences: Preferences
     @Mock lateinit var config: Config
+    @Mock lateinit var context: Context
+    @TempDir lateinit var filesDir: File
 
     private lateinit var sut: OmnipodDashPodStateManagerImpl
 
     @BeforeEach fun setUp() {
-        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config)
+        `when`(context.filesDir).thenReturn(filesDir)
+        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config, context)
     }
 
     // ---- helpers ------------------------------------------------------------------------------
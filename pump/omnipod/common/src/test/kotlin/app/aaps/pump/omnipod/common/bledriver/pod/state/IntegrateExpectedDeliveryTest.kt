@@ -1,5 +1,6 @@
 package app.aaps.pump.omnipod.common.bledriver.pod.state
 
+import android.content.Context
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.pump.omnipod.common.bledriver.pod.definition.BasalProgram
@@ -8,7 +9,10 @@ import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.AfterEach
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
 import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import java.io.File
 import java.time.ZoneOffset
 import java.time.ZonedDateTime
 import java.util.TimeZone
@@ -24,6 +28,8 @@ class IntegrateExpectedDeliveryTest : TestBase() {
 
     @Mock lateinit var preferences: Preferences
     @Mock lateinit var config: Config
+    @Mock lateinit var context: Context
+    @TempDir lateinit var filesDir: File
 
     private lateinit var sut: OmnipodDashPodStateManagerImpl
 
@@ -45,7 +51,8 @@ class IntegrateExpectedDeliveryTest : TestBase() {
 
     @BeforeEach fun setUp() {
         savedTz = TimeZone.getDefault()
-        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config)
+        `when`(context.filesDir).thenReturn(filesDir)
+        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config, context)
     }
 
     @AfterEach fun restoreTz() { TimeZone.setDefault(savedTz) }
@@ -1,5 +1,6 @@
 package app.aaps.pump.omnipod.common.bledriver.pod.state
 
+import android.content.Context
 import app.aaps.core.data.model.BS
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.keys.interfaces.Preferences
@@ -10,8 +11,10 @@ import app.aaps.shared.tests.TestBase
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
 import org.mockito.Mock
 import org.mockito.Mockito.`when`
+import java.io.File
 
 /**
  * Tests for [OmnipodDashPodStateManagerImpl.needsBasalCorrection].
@@ -29,6 +32,8 @@ class NeedsBasalCorrectionTest : TestBase() {
 
     @Mock lateinit var preferences: Preferences
     @Mock lateinit var config: Config
+    @Mock lateinit var context: Context
+    @TempDir lateinit var filesDir: File
 
     private lateinit var sut: OmnipodDashPodStateManagerImpl
 
@@ -36,7 +41,8 @@ class NeedsBasalCorrectionTest : TestBase() {
 
     @BeforeEach fun setUp() {
         `when`(config.enableOmnipodDriftCompensation()).thenReturn(true)
-        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config)
+        `when`(context.filesDir).thenReturn(filesDir)
+        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config, context)
         sut.activationProgress = ActivationProgress.COMPLETED
     }
 
@@ -0,0 +1,83 @@
+package app.aaps.pump.omnipod.common.bledriver.pod.state
+
+import android.content.Context
+import app.aaps.core.data.model.BS
+import app.aaps.core.interfaces.configuration.Config
+import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.pump.omnipod.common.bledriver.pod.definition.ActivationProgress
+import app.aaps.pump.omnipod.common.keys.DashStringNonPreferenceKey
+import app.aaps.shared.tests.TestBase
+import com.google.common.truth.Truth.assertThat
+import com.google.gson.Gson
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.mockito.Mock
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.atLeastOnce
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.io.File
+
+class PodStatePersistenceTest : TestBase() {
+
+    @Mock lateinit var preferences: Preferences
+    @Mock lateinit var config: Config
+    @Mock lateinit var context: Context
+    @TempDir lateinit var filesDir: File
+
+    private fun podStateManager() = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config, context)
+
+    @BeforeEach fun setUp() {
+        whenever(context.filesDir).thenReturn(filesDir)
+    }
+
+    @Test fun podStateIsMigratedFromPreferences() {
+        val legacyPodState = OmnipodDashPodStateManagerImpl.PodState(activationProgress = ActivationProgress.COMPLETED, uniqueId = 0x1234L)
+        whenever(preferences.getIfExists(DashStringNonPreferenceKey.PodState)).thenReturn(Gson().toJson(legacyPodState))
+
+        val migrated = podStateManager()
+        assertThat(migrated.activationProgress).isEqualTo(ActivationProgress.COMPLETED)
+        assertThat(migrated.uniqueId).isEqualTo(0x1234L)
+
+        // next start reads state file only
+        whenever(preferences.getIfExists(DashStringNonPreferenceKey.PodState)).thenReturn(null)
+        val restored = podStateManager()
+        assertThat(restored.activationProgress).isEqualTo(ActivationProgress.COMPLETED)
+        assertThat(restored.uniqueId).isEqualTo(0x1234L)
+    }
+
+    @Test fun activeCommandAndBolusAreFlushed() {
+        val podStateManager = podStateManager()
+        podStateManager.createActiveCommand(historyId = 1, basalProgram = null, tempBasal = null, requestedBolus = 1.0).blockingGet()
+        podStateManager.createLastBolus(1.0, 1, BS.Type.NORMAL)
+
+        // without any further store() the state must already be on disk
+        val restored = podStateManager()
+        assertThat(restored.activeCommand?.historyId).isEqualTo(1L)
+        assertThat(restored.lastBolus?.requestedUnits).isEqualTo(1.0)
+    }
+
+    @Test fun podStateIsExportedAndImported() {
+        val podStateManager = podStateManager()
+        podStateManager.activationProgress = ActivationProgress.COMPLETED
+        podStateManager.uniqueId = 0x1234L
+
+        // exported settings contain state mirrored on flush
+        val exported = argumentCaptor<String>()
+        verify(preferences, atLeastOnce()).put(eq(DashStringNonPreferenceKey.PodState), exported.capture())
+
+        // other phone with its own state file
+        val otherFilesDir = File(filesDir, "other").apply { mkdir() }
+        whenever(context.filesDir).thenReturn(otherFilesDir)
+        podStateManager().reset()
+
+        // imported state replaces state file
+        whenever(preferences.getIfExists(DashStringNonPreferenceKey.PodState)).thenReturn(exported.lastValue)
+        podStateManager().afterImport()
+        val restored = podStateManager()
+        assertThat(restored.activationProgress).isEqualTo(ActivationProgress.COMPLETED)
+        assertThat(restored.uniqueId).isEqualTo(0x1234L)
+    }
+}
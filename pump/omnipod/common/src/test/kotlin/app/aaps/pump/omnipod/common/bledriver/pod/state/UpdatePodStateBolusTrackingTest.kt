@@ -1,5 +1,6 @@
 package app.aaps.pump.omnipod.common.bledriver.pod.state
 
+import android.content.Context
 import app.aaps.core.data.model.BS
 import app.aaps.core.interfaces.configuration.Config
 import app.aaps.core.keys.interfaces.Preferences
@@ -12,7 +13,10 @@ import app.aaps.shared.tests.TestBase
 import com.google.common.truth.Truth.assertThat
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
 import org.mockito.Mock
+import org.mockito.Mockito.`when`
+import java.io.File
 import java.util.EnumSet
 import java.util.TimeZone
 
@@ -31,13 +35,16 @@ class UpdatePodStateBolusTrackingTest : TestBase() {
 
     @Mock lateinit var preferences: Preferences
     @Mock lateinit var config: Config
+    @Mock lateinit var context: Context
+    @TempDir lateinit var filesDir: File
 
     private lateinit var sut: OmnipodDashPodStateManagerImpl
 
     // ---- setup --------------------------------------------------------------------------------
 
     @BeforeEach fun setUp() {
-        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config)
+        `when`(context.filesDir).thenReturn(filesDir)
+        sut = OmnipodDashPodStateManagerImpl(aapsLogger, rxBus, preferences, config, context)
         sut.activationProgress = ActivationProgress.COMPLETED
 
         // Baseline: 100 total pulses, 60 attributed as bolus → 40 basal pulses
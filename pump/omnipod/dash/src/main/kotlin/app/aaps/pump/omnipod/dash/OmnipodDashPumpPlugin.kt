@@ -506,6 +506,10 @@ class OmnipodDashPumpPlugin @Inject constructor(
         disposables.clear()
     }
 
+    override fun afterImport() {
+        podStateManager.afterImport()
+    }
+
     private fun deliverBasalCorrection(): PumpEnactResult {
         if (!podStateManager.needsBasalCorrection()) {
             aapsLogger.info(LTag.PUMP, "Basal correction no longer appropriate")
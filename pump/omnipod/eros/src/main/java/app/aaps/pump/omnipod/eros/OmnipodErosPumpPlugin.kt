@@ -401,6 +401,10 @@ class OmnipodErosPumpPlugin @Inject constructor(
         disposable.clear()
     }
 
+    override fun afterImport() {
+        podStateManager.afterImport()
+    }
+
     private fun queueAcknowledgeAlertsCommand() {
         commandQueue.customCommand(CommandSilenceAlerts(), object : Callback() {
             override fun run() {
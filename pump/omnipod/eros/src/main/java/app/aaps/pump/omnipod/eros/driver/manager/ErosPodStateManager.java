@@ -59,7 +59,7 @@ public abstract class ErosPodStateManager {
         // As by commit, keep podState object but wipe address to 0x0 to signal hasPodState()
         // there is no state ( = no Pod address).
         this.podState = new PodState(0x0);
-        storePodState();
+        flushPodState();
     }
 
     /**
@@ -73,7 +73,7 @@ public abstract class ErosPodStateManager {
                     "null or discarded?");
         }
         podState = new PodState(address);
-        storePodState();
+        flushPodState();
     }
 
     /**
@@ -150,7 +150,7 @@ public abstract class ErosPodStateManager {
             throw new IllegalArgumentException("Cannot set pairing parameters: podProgressStatus can not be null");
         }
 
-        setAndStore(() -> {
+        setAndFlush(() -> {
             podState.setLot(lot);
             podState.setTid(tid);
             podState.setPiVersion(piVersion);
@@ -355,7 +355,7 @@ public abstract class ErosPodStateManager {
     }
 
     public final void setActivationProgress(ActivationProgress activationProgress) {
-        setAndStore(() -> podState.setActivationProgress(activationProgress));
+        setAndFlush(() -> podState.setActivationProgress(activationProgress));
     }
 
     public final PodProgressStatus getPodProgressStatus() {
@@ -383,7 +383,7 @@ public abstract class ErosPodStateManager {
     }
 
     public final void setBasalSchedule(BasalSchedule basalSchedule) {
-        setAndStore(() -> podState.setBasalSchedule(basalSchedule));
+        setAndFlush(() -> podState.setBasalSchedule(basalSchedule));
     }
 
     public final boolean isBasalCertain() {
@@ -392,7 +392,7 @@ public abstract class ErosPodStateManager {
     }
 
     public final void setBasalCertain(boolean certain) {
-        setAndStore(() -> podState.setBasalCertain(certain));
+        setAndFlush(() -> podState.setBasalCertain(certain));
     }
 
     public final DateTime getLastBolusStartTime() {
@@ -413,7 +413,7 @@ public abstract class ErosPodStateManager {
     }
 
     public final void setLastBolus(DateTime startTime, double amount, Duration duration, boolean certain) {
-        setAndStore(() -> {
+        setAndFlush(() -> {
             podState.setLastBolusStartTime(startTime);
             podState.setLastBolusAmount(amount);
             podState.setLastBolusDuration(duration);
@@ -443,7 +443,7 @@ public abstract class ErosPodStateManager {
     }
 
     public final void setTempBasalCertain(boolean certain) {
-        setAndStore(() -> {
+        setAndFlush(() -> {
             if (!Objects.equals(podState.isTempBasalCertain(), certain)) {
                 podState.setTempBasalCertain(certain);
             }
@@ -466,7 +466,7 @@ public abstract class ErosPodStateManager {
             };
 
             if (store) {
-                setAndStore(runnable);
+                setAndFlush(runnable);
             } else {
                 setSafe(runnable);
             }
@@ -656,6 +656,11 @@ public abstract class ErosPodStateManager {
         storePodState();
     }
 
+    private void setAndFlush(Runnable runnable) {
+        setSafe(runnable);
+        flushPodState();
+    }
+
     // Not actually "safe" as it throws an Exception, but it prevents NPEs
     private void setSafe(Runnable runnable) {
         if (!hasPodState()) {
@@ -664,16 +669,39 @@ public abstract class ErosPodStateManager {
         runnable.run();
     }
 
+    /**
+     * Stores pod state in background
+     */
     public void storePodState() {
+        storePodState(false);
+    }
+
+    /**
+     * Stores pod state and waits until it is written.
+     * Used for transitions which must survive a crash (activation, delivery changes)
+     */
+    public void flushPodState() {
+        storePodState(true);
+    }
+
+    private void storePodState(boolean flush) {
         String podState = gsonInstance.toJson(this.podState);
         aapsLogger.debug(LTag.PUMP, "storePodState: storing podState: {}", podState);
-        storePodState(podState);
+        storePodState(podState, flush);
     }
 
-    protected abstract void storePodState(String podState);
+    /**
+     * @param flush if true, pod state must be written before returning
+     */
+    protected abstract void storePodState(String podState, boolean flush);
 
     protected abstract String readPodState();
 
+    /**
+     * @return pod state restored from imported preferences or null if there is none
+     */
+    protected abstract String readImportedPodState();
+
     // Should be called after initializing the object
     public final void loadPodState() {
         podState = null;
@@ -692,6 +720,24 @@ public abstract class ErosPodStateManager {
         }
     }
 
+    /**
+     * Replaces pod state by the one restored from imported preferences (if any)
+     */
+    public final void afterImport() {
+        String importedPodState = readImportedPodState();
+
+        if (StringUtils.isEmpty(importedPodState)) {
+            aapsLogger.info(LTag.PUMP, "afterImport: no Pod state was imported");
+            return;
+        }
+        try {
+            podState = gsonInstance.fromJson(importedPodState, PodState.class);
+            flushPodState();
+        } catch (Exception ex) {
+            aapsLogger.error(LTag.PUMP, "afterImport: could not deserialize PodState: " + importedPodState, ex);
+        }
+    }
+
     // Not actually "safe" as it throws an Exception, but it prevents NPEs
     private <T> T getSafe(@NonNull Supplier<T> supplier) {
         if (!hasPodState()) {
@@ -1,13 +1,20 @@
 package app.aaps.pump.omnipod.eros.manager;
 
+import android.content.Context;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import app.aaps.core.interfaces.logging.AAPSLogger;
+import app.aaps.core.interfaces.logging.LTag;
 import app.aaps.core.interfaces.notifications.Notification;
 import app.aaps.core.interfaces.rx.bus.RxBus;
 import app.aaps.core.interfaces.rx.events.EventDismissNotification;
 import app.aaps.core.keys.interfaces.Preferences;
+import app.aaps.pump.common.storage.PumpStateStore;
 import app.aaps.pump.omnipod.eros.driver.manager.ErosPodStateManager;
 import app.aaps.pump.omnipod.eros.event.EventOmnipodErosActiveAlertsChanged;
 import app.aaps.pump.omnipod.eros.event.EventOmnipodErosFaultEventChanged;
@@ -17,24 +24,55 @@ import app.aaps.pump.omnipod.eros.keys.ErosStringNonPreferenceKey;
 
 @Singleton
 public class AapsErosPodStateManager extends ErosPodStateManager {
+    private static final String POD_STATE_FILE = "omnipod_eros_pod_state.bin";
+    private static final int POD_STATE_VERSION = 1;
+
+    private final AAPSLogger aapsLogger;
     private final Preferences preferences;
     private final RxBus rxBus;
+    private final PumpStateStore stateStore;
 
     @Inject
-    public AapsErosPodStateManager(AAPSLogger aapsLogger, Preferences preferences, RxBus rxBus) {
+    public AapsErosPodStateManager(AAPSLogger aapsLogger, Preferences preferences, RxBus rxBus, Context context) {
         super(aapsLogger);
+        this.aapsLogger = aapsLogger;
         this.preferences = preferences;
         this.rxBus = rxBus;
+        this.stateStore = new PumpStateStore(new File(context.getFilesDir(), POD_STATE_FILE), aapsLogger);
     }
 
     @Override
     protected String readPodState() {
-        return preferences.get(ErosStringNonPreferenceKey.PodState);
+        PumpStateStore.Snapshot snapshot = stateStore.read();
+        if (snapshot != null) {
+            if (snapshot.getVersion() == POD_STATE_VERSION) {
+                return new String(snapshot.getPayload(), StandardCharsets.UTF_8);
+            }
+            aapsLogger.error(LTag.PUMP, "Unsupported Pod state version " + snapshot.getVersion());
+        }
+        // Migrate state stored by previous versions in preferences
+        String legacyPodState = preferences.getIfExists(ErosStringNonPreferenceKey.PodState);
+        if (legacyPodState != null) {
+            storePodState(legacyPodState, true);
+        }
+        return legacyPodState;
+    }
+
+    @Override
+    protected String readImportedPodState() {
+        return preferences.getIfExists(ErosStringNonPreferenceKey.PodState);
     }
 
+    /**
+     * Flushed state is mirrored to preferences too, so it is part of exported settings
+     */
     @Override
-    protected void storePodState(String podState) {
-        preferences.put(ErosStringNonPreferenceKey.PodState, podState);
+    protected void storePodState(String podState, boolean flush) {
+        stateStore.write(POD_STATE_VERSION, podState.getBytes(StandardCharsets.UTF_8));
+        if (flush) {
+            stateStore.flush();
+            preferences.put(ErosStringNonPreferenceKey.PodState, podState);
+        }
     }
 
     @Override protected void onUncertainTbrRecovered() {
@@ -1,8 +1,11 @@
 package app.aaps.pump.omnipod.eros.manager
 
+import android.content.Context
 import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.pump.common.storage.PumpStateStore
 import app.aaps.pump.omnipod.eros.driver.definition.FirmwareVersion
 import app.aaps.pump.omnipod.eros.driver.definition.PodProgressStatus
+import app.aaps.pump.omnipod.eros.keys.ErosStringNonPreferenceKey
 import app.aaps.shared.tests.TestBase
 import com.google.common.truth.Truth.assertThat
 import org.joda.time.DateTime
@@ -10,19 +13,33 @@ import org.joda.time.DateTimeUtils
 import org.joda.time.DateTimeZone
 import org.joda.time.Duration
 import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
 import org.mockito.Mock
+import org.mockito.kotlin.argumentCaptor
+import org.mockito.kotlin.atLeastOnce
+import org.mockito.kotlin.eq
+import org.mockito.kotlin.verify
+import org.mockito.kotlin.whenever
+import java.io.File
 
 class AapsErosPodStateManagerTest : TestBase() {
 
     @Mock lateinit var preferences: Preferences
+    @Mock lateinit var context: Context
+    @TempDir lateinit var filesDir: File
+
+    @BeforeEach fun setUp() {
+        whenever(context.filesDir).thenReturn(filesDir)
+    }
 
     @Test fun times() {
         val timeZone = DateTimeZone.UTC
         DateTimeZone.setDefault(timeZone)
         val now = DateTime(2020, 1, 1, 1, 2, 3, timeZone)
         DateTimeUtils.setCurrentMillisFixed(now.millis)
-        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus)
+        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
         podStateManager.initState(0x01)
         podStateManager.setInitializationParameters(
             0, 0, FirmwareVersion(1, 1, 1),
@@ -40,7 +57,7 @@ class AapsErosPodStateManagerTest : TestBase() {
         DateTimeZone.setDefault(timeZone)
         val now = DateTime(2020, 1, 1, 1, 2, 3, timeZone)
         DateTimeUtils.setCurrentMillisFixed(now.millis)
-        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus)
+        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
         podStateManager.initState(0x01)
         podStateManager.setInitializationParameters(
             0, 0, FirmwareVersion(1, 1, 1),
@@ -63,7 +80,7 @@ class AapsErosPodStateManagerTest : TestBase() {
         DateTimeZone.setDefault(timeZone)
         val now = DateTime(2020, 1, 1, 1, 2, 3, timeZone)
         DateTimeUtils.setCurrentMillisFixed(now.millis)
-        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus)
+        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
         podStateManager.initState(0x01)
         podStateManager.setInitializationParameters(
             0, 0, FirmwareVersion(1, 1, 1),
@@ -82,6 +99,57 @@ class AapsErosPodStateManagerTest : TestBase() {
         )
     }
 
+    @Test fun podStateIsRestoredAndMigratedFromPreferences() {
+        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
+        podStateManager.initState(0x1f0e89f0)
+        podStateManager.setInitializationParameters(
+            1, 2, FirmwareVersion(1, 1, 1),
+            FirmwareVersion(2, 2, 2), DateTimeZone.UTC, PodProgressStatus.ABOVE_FIFTY_UNITS
+        )
+
+        val restored = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
+        restored.loadPodState()
+        assertThat(restored.address).isEqualTo(0x1f0e89f0)
+        assertThat(restored.lot).isEqualTo(1)
+
+        // state stored in preferences by previous versions
+        val file = File(filesDir, "omnipod_eros_pod_state.bin")
+        val legacyPodState = PumpStateStore(file, aapsLogger).read()!!.payload.decodeToString()
+        file.delete()
+        whenever(preferences.getIfExists(ErosStringNonPreferenceKey.PodState)).thenReturn(legacyPodState)
+
+        val migrated = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
+        migrated.loadPodState()
+        assertThat(migrated.address).isEqualTo(0x1f0e89f0)
+        assertThat(file.exists()).isTrue()
+    }
+
+    @Test fun podStateIsExportedAndImported() {
+        val podStateManager = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
+        podStateManager.initState(0x1f0e89f0)
+        podStateManager.setInitializationParameters(
+            1, 2, FirmwareVersion(1, 1, 1),
+            FirmwareVersion(2, 2, 2), DateTimeZone.UTC, PodProgressStatus.ABOVE_FIFTY_UNITS
+        )
+
+        // exported settings contain state mirrored on flush
+        val exported = argumentCaptor<String>()
+        verify(preferences, atLeastOnce()).put(eq(ErosStringNonPreferenceKey.PodState), exported.capture())
+
+        // other phone with its own state file
+        val otherFilesDir = File(filesDir, "other").apply { mkdir() }
+        whenever(context.filesDir).thenReturn(otherFilesDir)
+        AapsErosPodStateManager(aapsLogger, preferences, rxBus, context).initState(0x1234)
+
+        // imported state replaces state file
+        whenever(preferences.getIfExists(ErosStringNonPreferenceKey.PodState)).thenReturn(exported.lastValue)
+        AapsErosPodStateManager(aapsLogger, preferences, rxBus, context).afterImport()
+        val restored = AapsErosPodStateManager(aapsLogger, preferences, rxBus, context)
+        restored.loadPodState()
+        assertThat(restored.address).isEqualTo(0x1f0e89f0)
+        assertThat(restored.lot).isEqualTo(1)
+    }
+
     @AfterEach fun tearDown() {
         DateTimeUtils.setCurrentMillisSystem()
     }
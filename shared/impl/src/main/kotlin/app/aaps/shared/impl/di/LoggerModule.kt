@@ -3,6 +3,7 @@ package app.aaps.shared.impl.di
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.L
 import app.aaps.shared.impl.logging.AAPSLoggerProduction
+import app.aaps.shared.impl.logging.AsyncLogWriter
 import dagger.Module
 import dagger.Provides
 import javax.inject.Singleton
@@ -15,5 +16,5 @@ open class LoggerModule {
 
     @Provides
     @Singleton
-    fun provideAAPSLogger(l: L): AAPSLogger = AAPSLoggerProduction(l)
+    fun provideAAPSLogger(l: L): AAPSLogger = AAPSLoggerProduction(l, AsyncLogWriter())
 }
\ No newline at end of file
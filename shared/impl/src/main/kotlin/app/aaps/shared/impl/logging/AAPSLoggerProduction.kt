@@ -3,95 +3,111 @@ package app.aaps.shared.impl.logging
 import app.aaps.core.interfaces.logging.AAPSLogger
 import app.aaps.core.interfaces.logging.L
 import app.aaps.core.interfaces.logging.LTag
-import org.slf4j.LoggerFactory
+import ch.qos.logback.classic.Level
 
 /**
  * Created by adrian on 2019-12-27.
+ *
+ * @param writer if set, events are written to logback asynchronously by [AsyncLogWriter]
  */
 
-class AAPSLoggerProduction(val l: L) : AAPSLogger {
+class AAPSLoggerProduction(val l: L, private val writer: AsyncLogWriter? = null) : AAPSLogger {
 
     override fun debug(message: String) {
-        LoggerFactory.getLogger(LTag.CORE.tag).debug(stackLogMarker() + message)
+        log(Level.DEBUG, LTag.CORE, message, null, null)
     }
 
     override fun debug(enable: Boolean, tag: LTag, message: String) {
-        if (enable && l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + message)
+        if (enable && l.isEnabled(tag))
+            log(Level.DEBUG, tag, message, null, null)
     }
 
     override fun debug(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + message)
+        if (l.isEnabled(tag))
+            log(Level.DEBUG, tag, message, null, null)
     }
 
     override fun debug(tag: LTag, accessor: () -> String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + accessor.invoke())
+        if (l.isEnabled(tag))
+            log(Level.DEBUG, tag, accessor.invoke(), null, null)
     }
 
     override fun debug(tag: LTag, format: String, vararg arguments: Any?) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).debug(stackLogMarker() + format, arguments)
+        if (l.isEnabled(tag))
+            log(Level.DEBUG, tag, format, arguments, null)
     }
 
     override fun warn(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).warn(stackLogMarker() + message)
+        if (l.isEnabled(tag))
+            log(Level.WARN, tag, message, null, null)
     }
 
     override fun warn(tag: LTag, format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(tag.tag).warn(stackLogMarker() + format, arguments)
+        log(Level.WARN, tag, format, arguments, null)
     }
 
     override fun info(tag: LTag, message: String) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).info(stackLogMarker() + message)
+        if (l.isEnabled(tag))
+            log(Level.INFO, tag, message, null, null)
     }
 
     override fun info(tag: LTag, format: String, vararg arguments: Any?) {
-        if (l.findByName(tag.tag).enabled)
-            LoggerFactory.getLogger(tag.tag).info(stackLogMarker() + format, arguments)
+        if (l.isEnabled(tag))
+            log(Level.INFO, tag, format, arguments, null)
     }
 
     override fun error(tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + message)
+        log(Level.ERROR, tag, message, null, null)
     }
 
     override fun error(message: String) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + message)
+        log(Level.ERROR, LTag.CORE, message, null, null)
     }
 
     override fun error(message: String, throwable: Throwable) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + message, throwable)
+        log(Level.ERROR, LTag.CORE, message, null, throwable)
     }
 
     override fun error(format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(LTag.CORE.tag).error(stackLogMarker() + format, arguments)
+        log(Level.ERROR, LTag.CORE, format, arguments, null)
     }
 
     override fun error(tag: LTag, message: String, throwable: Throwable) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + message, throwable)
+        log(Level.ERROR, tag, message, null, throwable)
     }
 
     override fun error(tag: LTag, format: String, vararg arguments: Any?) {
-        LoggerFactory.getLogger(tag.tag).error(stackLogMarker() + format, arguments)
+        log(Level.ERROR, tag, format, arguments, null)
     }
 
     override fun debug(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).debug(logLocationPrefix(className, methodName, lineNumber) + message)
+        write(LogEvent(Level.DEBUG, tag.tag, logLocationPrefix(className, methodName, lineNumber), null, message, null, null))
     }
 
     override fun info(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).info(logLocationPrefix(className, methodName, lineNumber) + message)
+        write(LogEvent(Level.INFO, tag.tag, logLocationPrefix(className, methodName, lineNumber), null, message, null, null))
     }
 
     override fun warn(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).warn(logLocationPrefix(className, methodName, lineNumber) + message)
+        write(LogEvent(Level.WARN, tag.tag, logLocationPrefix(className, methodName, lineNumber), null, message, null, null))
     }
 
     override fun error(className: String, methodName: String, lineNumber: Int, tag: LTag, message: String) {
-        LoggerFactory.getLogger(tag.tag).error(logLocationPrefix(className, methodName, lineNumber) + message)
+        write(LogEvent(Level.ERROR, tag.tag, logLocationPrefix(className, methodName, lineNumber), null, message, null, null))
+    }
+
+    /*
+     * Must be called directly from AAPSLogger methods (no default arguments, no inlining)
+     * so the caller is at LogEvent.CALL_SITE_DEPTH of the captured stack.
+     * Stack trace itself is resolved when the event is written.
+     */
+    private fun log(level: Level, tag: LTag, message: String, arguments: Array<out Any?>?, throwable: Throwable?) {
+        write(LogEvent(level, tag.tag, null, Throwable(), message, arguments, throwable))
+    }
+
+    private fun write(event: LogEvent) {
+        if (writer != null) writer.write(event)
+        else event.write()
     }
 }
 
@@ -100,7 +116,3 @@ private fun logLocationPrefix(className: String, methodName: String, lineNumber:
 
 fun StackTraceElement.toLogString(): String =
     logLocationPrefix(this.className.substringAfterLast("."), this.methodName, this.lineNumber)
-
-/* Needs to be inline. Don't remove even if IDE suggests it. */
-@Suppress("NOTHING_TO_INLINE")
-inline fun stackLogMarker() = Throwable().stackTrace[1].toLogString()
\ No newline at end of file
@@ -0,0 +1,141 @@
+package app.aaps.shared.impl.logging
+
+import app.aaps.core.interfaces.logging.LTag
+import ch.qos.logback.classic.Level
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * Moves writing of [LogEvent]s off the calling thread.
+ *
+ * Events are put into a bounded lock-free ring buffer (multi producer, single consumer)
+ * drained by a background thread. When the buffer is full, the event is dropped and counted,
+ * the calling thread never waits for file I/O. Number of dropped events is written to the log
+ * once the buffer drains.
+ *
+ * ERROR events wait (at most [ERROR_WAIT_MS]) until written, so they are not lost if the app crashes right after.
+ *
+ * @param capacity size of ring buffer, must be power of 2
+ * @param sink writes event, [LogEvent.write] by default
+ */
+class AsyncLogWriter(
+    capacity: Int = DEFAULT_CAPACITY,
+    private val sink: (LogEvent) -> Unit = LogEvent::write
+) {
+
+    init {
+        require(capacity > 0 && (capacity and (capacity - 1)) == 0) { "Capacity must be power of 2" }
+    }
+
+    private val mask = capacity - 1L
+    private val events = arrayOfNulls<LogEvent>(capacity)
+
+    // Sequence of each slot: equal to position when free for producer, position + 1 when filled
+    private val sequences = AtomicLongArray(capacity).also { for (i in 0 until capacity) it.set(i, i.toLong()) }
+    private val enqueuePosition = AtomicLong()
+    private var dequeuePosition = 0L
+    private val dropped = AtomicLong()
+    private var reportedDrops = 0L
+
+    @Volatile private var written = 0L
+    @Volatile private var parked = false
+
+    private val thread = Thread(::drain, "AAPSLogWriter").apply {
+        isDaemon = true
+        start()
+    }
+
+    /** Events dropped because the buffer was full */
+    val droppedCount: Long get() = dropped.get()
+
+    fun write(event: LogEvent) {
+        val position = offer(event)
+        if (position < 0) {
+            dropped.incrementAndGet()
+            return
+        }
+        if (parked) LockSupport.unpark(thread)
+        if (event.level == Level.ERROR && Thread.currentThread() !== thread) awaitWritten(position)
+    }
+
+    /**
+     * @return position of event or -1 if buffer is full
+     */
+    private fun offer(event: LogEvent): Long {
+        var position = enqueuePosition.get()
+        while (true) {
+            val index = (position and mask).toInt()
+            val difference = sequences.get(index) - position
+            when {
+                difference == 0L && enqueuePosition.compareAndSet(position, position + 1) -> {
+                    events[index] = event
+                    sequences.set(index, position + 1)
+                    return position
+                }
+
+                difference < 0L                                                           -> return -1
+                else                                                                      -> position = enqueuePosition.get()
+            }
+        }
+    }
+
+    private fun poll(): LogEvent? {
+        val index = (dequeuePosition and mask).toInt()
+        if (sequences.get(index) != dequeuePosition + 1) return null
+        val event = events[index]
+        events[index] = null
+        sequences.set(index, dequeuePosition + mask + 1)
+        dequeuePosition++
+        return event
+    }
+
+    private fun hasNext(): Boolean =
+        sequences.get((dequeuePosition and mask).toInt()) == dequeuePosition + 1
+
+    private fun drain() {
+        while (true) {
+            val event = poll()
+            if (event == null) {
+                reportDrops()
+                // producers unpark only when they see the flag, so check once more after setting it
+                parked = true
+                if (!hasNext()) LockSupport.park(this)
+                parked = false
+                continue
+            }
+            writeSafely(event)
+            written = dequeuePosition
+        }
+    }
+
+    private fun reportDrops() {
+        val drops = dropped.get()
+        if (drops == reportedDrops) return
+        writeSafely(LogEvent(Level.WARN, LTag.CORE.tag, "[AsyncLogWriter]: ", null, "Log buffer full, dropped ${drops - reportedDrops} messages", null, null))
+        reportedDrops = drops
+    }
+
+    private fun writeSafely(event: LogEvent) {
+        try {
+            sink(event)
+        } catch (_: Exception) {
+            // logging must not kill the writer thread
+        }
+    }
+
+    private fun awaitWritten(position: Long) {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ERROR_WAIT_MS)
+        while (written <= position && System.nanoTime() < deadline) {
+            LockSupport.unpark(thread)
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(100))
+        }
+    }
+
+    companion object {
+
+        const val DEFAULT_CAPACITY = 8192
+        const val ERROR_WAIT_MS = 500L
+    }
+}
@@ -6,6 +6,7 @@ import app.aaps.core.interfaces.logging.LogElement
 import app.aaps.core.keys.BooleanComposedKey
 import app.aaps.core.keys.interfaces.Preferences
 import dagger.Lazy
+import java.util.EnumMap
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -16,6 +17,11 @@ class LImpl @Inject constructor(
 
     private var _logElements: List<LogElement>? = null
 
+    // Checked by every log call. Elements are kept instead of flags because enabled is changed directly on them
+    private val elementsByTag: EnumMap<LTag, LogElement> by lazy {
+        EnumMap<LTag, LogElement>(LTag::class.java).also { map -> LTag.entries.zip(logElements()).forEach { (tag, element) -> map[tag] = element } }
+    }
+
     override fun logElements(): List<LogElement> {
         if (_logElements == null) {
             _logElements = LTag.entries.map { LogElementImpl(it, preferences.get()) }
@@ -23,6 +29,8 @@ class LImpl @Inject constructor(
         return _logElements!!
     }
 
+    override fun isEnabled(tag: LTag): Boolean = elementsByTag.getValue(tag).enabled
+
     override fun findByName(name: String): LogElement =
         logElements().find { it.name == name } ?: LogElementImpl(false, preferences.get())
 
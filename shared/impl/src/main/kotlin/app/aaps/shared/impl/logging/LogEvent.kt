@@ -0,0 +1,48 @@
+package app.aaps.shared.impl.logging
+
+import ch.qos.logback.classic.Level
+import ch.qos.logback.classic.Logger
+import ch.qos.logback.classic.spi.LoggingEvent
+import org.slf4j.LoggerFactory
+
+/**
+ * Log message captured on the calling thread, written to logback by [write].
+ *
+ * Time and thread name are taken when the event is created, so the log file looks the same
+ * whether the event is written immediately or later by [AsyncLogWriter].
+ * Caller location is resolved from [callSite] only when written, because building
+ * the stack trace is the expensive part of capturing it.
+ *
+ * @param location explicit location prefix, used instead of [callSite]
+ * @param callSite throwable created inside logger, its frame [CALL_SITE_DEPTH] is the caller
+ */
+class LogEvent(
+    val level: Level,
+    val tag: String,
+    private val location: String?,
+    private val callSite: Throwable?,
+    private val message: String,
+    private val arguments: Array<out Any?>?,
+    private val throwable: Throwable?
+) {
+
+    private val timestamp = System.currentTimeMillis()
+    private val threadName = Thread.currentThread().name
+
+    fun write() {
+        val logger = LoggerFactory.getLogger(tag) as Logger
+        if (!logger.isEnabledFor(level)) return
+        val prefix = location ?: callSite?.stackTrace?.getOrNull(CALL_SITE_DEPTH)?.toLogString() ?: ""
+        val event = LoggingEvent(FQCN, logger, level, prefix + message, throwable, arguments?.let { arrayOf(*it) })
+        event.setTimeStamp(timestamp)
+        event.threadName = threadName
+        logger.callAppenders(event)
+    }
+
+    companion object {
+
+        /** Frames of AAPSLoggerProduction.log and the AAPSLogger method */
+        const val CALL_SITE_DEPTH = 2
+        private val FQCN = AAPSLoggerProduction::class.java.name
+    }
+}
@@ -0,0 +1,77 @@
+package app.aaps.shared.impl.logging
+
+import app.aaps.core.interfaces.logging.LTag
+import ch.qos.logback.classic.Level
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class AsyncLogWriterTest {
+
+    private fun event(tag: String, level: Level = Level.DEBUG) = LogEvent(level, tag, "", null, "message", null, null)
+
+    @Test
+    fun capacityMustBePowerOfTwo() {
+        assertThrows<IllegalArgumentException> { AsyncLogWriter(capacity = 6) }
+    }
+
+    @Test
+    fun writesEventsOfEachThreadInOrder() {
+        val producers = 4
+        val perProducer = 500
+        val written = Collections.synchronizedList(mutableListOf<String>())
+        val allWritten = CountDownLatch(producers * perProducer)
+        val sut = AsyncLogWriter { written.add(it.tag); allWritten.countDown() }
+
+        (0 until producers).map { p -> thread { repeat(perProducer) { sut.write(event("$p:$it")) } } }.forEach { it.join() }
+
+        assertThat(allWritten.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(sut.droppedCount).isEqualTo(0)
+        for (p in 0 until producers)
+            assertThat(written.filter { it.startsWith("$p:") }).containsExactlyElementsIn((0 until perProducer).map { "$p:$it" }).inOrder()
+    }
+
+    @Test
+    fun dropsEventsWhenFullAndReportsThem() {
+        val blocked = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val written = Collections.synchronizedList(mutableListOf<LogEvent>())
+        val reported = CountDownLatch(1)
+        val sut = AsyncLogWriter(capacity = 4) {
+            if (it.tag == "first") {
+                blocked.countDown()
+                release.await()
+            }
+            written.add(it)
+            if (it.level == Level.WARN) reported.countDown()
+        }
+
+        sut.write(event("first"))
+        assertThat(blocked.await(5, TimeUnit.SECONDS)).isTrue()
+        repeat(7) { sut.write(event("next")) }
+        assertThat(sut.droppedCount).isEqualTo(3)
+
+        release.countDown()
+        assertThat(reported.await(5, TimeUnit.SECONDS)).isTrue()
+        assertThat(written.count { it.tag == "next" }).isEqualTo(4)
+        assertThat(written.last().tag).isEqualTo(LTag.CORE.tag)
+    }
+
+    @Test
+    fun errorIsWrittenBeforeReturning() {
+        val written = Collections.synchronizedList(mutableListOf<String>())
+        val sut = AsyncLogWriter {
+            Thread.sleep(20)
+            written.add(it.tag)
+        }
+
+        sut.write(event("debug"))
+        sut.write(event("error", Level.ERROR))
+
+        assertThat(written).containsExactly("debug", "error").inOrder()
+    }
+}
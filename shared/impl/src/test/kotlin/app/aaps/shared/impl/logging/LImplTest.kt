@@ -34,6 +34,15 @@ class LImplTest {
         assertThat(sut.findByName("APS2").name).isEqualTo("NONEXISTENT")
     }
 
+    @Test
+    fun isEnabled() {
+        val element = sut.findByName(LTag.APS.tag)
+        element.enabled = false
+        assertThat(sut.isEnabled(LTag.APS)).isFalse()
+        element.enabled = true
+        assertThat(sut.isEnabled(LTag.APS)).isTrue()
+    }
+
     @Test
     fun getLogElements() {
         assertThat(sut.logElements()).isNotEmpty()
@@ -224,6 +224,23 @@ class DataHandlerWear @Inject constructor(
                 }
                 LocalBroadcastManager.getInstance(context).sendBroadcast(Intent(DataLayerListenerServiceWear.INTENT_NEW_DATA))
             }
+        disposable += rxBus
+            .toObservable(EventData.GraphDataDelta::class.java)
+            .observeOn(aapsSchedulers.io)
+            .subscribe {
+                aapsLogger.debug(LTag.WEAR, "GraphDataDelta base=${it.baseTimestamp} received from ${it.sourceNodeId}")
+                dataStoreScope.launch {
+                    val newest = complicationDataRepository.applyGraphDataDelta(it)
+                    if (newest != null) {
+                        rxBus.send(EventWearToMobile(EventData.ActionGraphDataAck(newest)))
+                        LocalBroadcastManager.getInstance(context).sendBroadcast(Intent(DataLayerListenerServiceWear.INTENT_NEW_DATA))
+                    } else {
+                        // data on watch differs from what phone expects, ask for full set
+                        rxBus.send(EventWearToMobile(EventData.ActionGraphDataAck(0)))
+                        rxBus.send(EventWearToMobile(EventData.ActionResendData("GraphDataDelta")))
+                    }
+                }
+            }
         disposable += rxBus
             .toObservable(EventData.TreatmentData::class.java)
             .observeOn(aapsSchedulers.io)
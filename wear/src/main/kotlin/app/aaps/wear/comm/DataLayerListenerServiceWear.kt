@@ -82,7 +82,10 @@ class DataLayerListenerServiceWear : WearableListenerService() {
             .toObservable(EventWearDataToMobile::class.java)
             .observeOn(aapsSchedulers.io)
             .subscribe {
-                sendMessage(rxDataPath, it.payload.serializeByte())
+                val start = System.nanoTime()
+                val data = it.payload.serializeByte()
+                aapsLogger.debug(LTag.WEAR, "serialized ${it.payload.javaClass.simpleName} ${data.size} B in ${(System.nanoTime() - start) / 1000} us")
+                sendMessage(rxDataPath, data)
             }
         disposable += rxBus
             .toObservable(EventWearPreferenceChange::class.java)
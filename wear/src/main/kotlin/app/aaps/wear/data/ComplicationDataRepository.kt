@@ -10,6 +10,7 @@ import app.aaps.core.interfaces.logging.LTag
 import app.aaps.core.interfaces.rx.weardata.CwfData
 import app.aaps.core.interfaces.rx.weardata.CwfMetadataKey
 import app.aaps.core.interfaces.rx.weardata.EventData
+import app.aaps.core.interfaces.rx.weardata.PackedGlucose
 import app.aaps.shared.impl.weardata.ResFileMap
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.catch
@@ -113,6 +114,43 @@ class ComplicationDataRepository @Inject constructor(
         }
     }
 
+    /**
+     * Merge new and changed graph points from phone
+     *
+     * @return newest point after merge or null if delta is not based on stored data
+     */
+    suspend fun applyGraphDataDelta(delta: EventData.GraphDataDelta): Long? {
+        var newest: Long? = null
+        try {
+            dataStore.updateData { current ->
+                val stored = current.graphData.entries
+                if (delta.baseTimestamp != 0L && delta.baseTimestamp != stored.maxOfOrNull { it.timeStamp }) return@updateData current
+                val entries = HashMap<Long, EventData.SingleBg>()
+                if (delta.baseTimestamp != 0L) stored.filter { it.timeStamp >= delta.fromTime }.forEach { entries[it.timeStamp] = it }
+                PackedGlucose.decode(delta.packed).forEach { point ->
+                    entries[point.timestamp] = EventData.SingleBg(
+                        dataset = 0,
+                        timeStamp = point.timestamp,
+                        glucoseUnits = delta.glucoseUnits,
+                        sgvLevel = if (point.sgv > delta.high) 1L else if (point.sgv < delta.low) -1L else 0L,
+                        sgv = point.sgv,
+                        high = delta.high,
+                        low = delta.low,
+                        color = point.color
+                    )
+                }
+                newest = entries.keys.maxOrNull() ?: 0L
+                current.copy(
+                    graphData = EventData.GraphData(ArrayList(entries.values.sortedByDescending { it.timeStamp })),
+                    lastUpdateTimestamp = System.currentTimeMillis()
+                )
+            }
+        } catch (e: Exception) {
+            aapsLogger.error(LTag.WEAR, "Failed to update graph data", e)
+        }
+        return newest
+    }
+
     /**
      * Update Treatment data from phone
      */
@@ -30,6 +30,7 @@ import app.aaps.core.keys.interfaces.LongPreferenceKey
 import app.aaps.core.keys.interfaces.NonPreferenceKey
 import app.aaps.core.keys.interfaces.PreferenceKey
 import app.aaps.core.keys.interfaces.Preferences
+import app.aaps.core.keys.interfaces.PreferencesSnapshot
 import app.aaps.core.keys.interfaces.StringComposedNonPreferenceKey
 import app.aaps.core.keys.interfaces.StringNonPreferenceKey
 import app.aaps.core.keys.interfaces.StringPreferenceKey
@@ -254,4 +255,14 @@ class PreferencesImpl @Inject constructor(
             }
         return false
     }
+
+    // No calculations on watch, reads go directly to SharedPreferences
+    override fun snapshot(): PreferencesSnapshot = object : PreferencesSnapshot {
+        override fun get(key: BooleanPreferenceKey): Boolean = this@PreferencesImpl.get(key)
+        override fun get(key: StringPreferenceKey): String = this@PreferencesImpl.get(key)
+        override fun get(key: DoublePreferenceKey): Double = this@PreferencesImpl.get(key)
+        override fun get(key: UnitDoublePreferenceKey): Double = this@PreferencesImpl.get(key)
+        override fun get(key: IntPreferenceKey): Int = this@PreferencesImpl.get(key)
+        override fun get(key: LongPreferenceKey): Long = this@PreferencesImpl.get(key)
+    }
 }
\ No newline at end of file
@@ -15,6 +15,7 @@ import app.aaps.core.interfaces.plugin.ActivePlugin
 import app.aaps.core.interfaces.rx.events.Event
 import app.aaps.core.interfaces.utils.DateUtil
 import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.CALCULATION
 import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.JOB
 import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.MAIN_CALCULATION
 import app.aaps.core.interfaces.workflow.CalculationWorkflow.Companion.PASS
@@ -42,6 +43,8 @@ class CalculationWorkflowImpl @Inject constructor(
         require(sumPercent == 100)
     }
 
+    private val incrementalCalculation = IncrementalCalculation()
+
     override fun stopCalculation(job: String, from: String) {
         aapsLogger.debug(LTag.WORKER, "Stopping calculation thread: $from")
         WorkManager.getInstance(context).cancelUniqueWork(job)
@@ -58,9 +61,15 @@ class CalculationWorkflowImpl @Inject constructor(
         reason: String,
         end: Long,
         bgDataReload: Boolean,
-        cause: Event?
+        cause: Event?,
+        changes: Set<CalculationWorkflow.Input>
     ) {
         aapsLogger.debug(LTag.WORKER, "Starting calculation worker: $reason to ${dateUtil.dateAndTimeAndSecondsString(end)}")
+        // other jobs don't keep series of previous run
+        val plan =
+            if (job == MAIN_CALCULATION) incrementalCalculation.plan(overviewData.fromTime, overviewData.endTime, bgDataReload, changes)
+            else IncrementalCalculation.Plan(0L, CalculationWorkflow.Input.entries.toSet())
+        aapsLogger.debug(LTag.WORKER, "Changed inputs: ${plan.changed}")
 
         WorkManager.getInstance(context)
             .beginUniqueWork(
@@ -68,42 +77,44 @@ class CalculationWorkflowImpl @Inject constructor(
                 if (bgDataReload) OneTimeWorkRequest.Builder(LoadBgDataWorker::class.java).setInputData(dataWorkerStorage.storeInputData(LoadBgDataWorker.LoadBgData(iobCobCalculator, end))).build()
                 else OneTimeWorkRequest.Builder(DummyWorker::class.java).build()
             )
-            .then(
+            .then(runIf = plan.bucketedData) {
                 OneTimeWorkRequest.Builder(PrepareBucketedDataWorker::class.java)
                     .setInputData(dataWorkerStorage.storeInputData(PrepareBucketedDataWorker.PrepareBucketedData(iobCobCalculator, overviewData)))
                     .build()
-            )
-            .then(
+            }
+            .then(runIf = plan.bgData) {
                 OneTimeWorkRequest.Builder(PrepareBgDataWorker::class.java)
                     .setInputData(dataWorkerStorage.storeInputData(PrepareBgDataWorker.PrepareBgData(iobCobCalculator, overviewData)))
                     .build()
-            )
+            }
             .then(
+                runIf = plan.bgData,
                 OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
                     .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_BG.pass).build())
                     .build()
             )
-            .then(
+            .then(runIf = plan.treatmentsData) {
                 OneTimeWorkRequest.Builder(PrepareTreatmentsDataWorker::class.java)
                     .setInputData(dataWorkerStorage.storeInputData(PrepareTreatmentsDataWorker.PrepareTreatmentsData(overviewData)))
                     .build()
-            )
-            .then(
+            }
+            .then(runIf = plan.basalData) {
                 OneTimeWorkRequest.Builder(PrepareBasalDataWorker::class.java)
-                    .setInputData(dataWorkerStorage.storeInputData(PrepareBasalDataWorker.PrepareBasalData(iobCobCalculator, overviewData)))
+                    .setInputData(dataWorkerStorage.storeInputData(PrepareBasalDataWorker.PrepareBasalData(overviewData)))
                     .build()
-            )
-            .then(
+            }
+            .then(runIf = plan.temporaryTargetData) {
                 OneTimeWorkRequest.Builder(PrepareTemporaryTargetDataWorker::class.java)
                     .setInputData(dataWorkerStorage.storeInputData(PrepareTemporaryTargetDataWorker.PrepareTemporaryTargetData(overviewData)))
                     .build()
-            )
-            .then(
+            }
+            .then(runIf = plan.runningModeData) {
                 OneTimeWorkRequest.Builder(PrepareRunningModeDataWorker::class.java)
                     .setInputData(dataWorkerStorage.storeInputData(PrepareRunningModeDataWorker.PrepareRunningModeData(overviewData)))
                     .build()
-            )
+            }
             .then(
+                runIf = plan.treatmentsData || plan.basalData || plan.temporaryTargetData || plan.runningModeData,
                 OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
                     .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_TT.pass).build())
                     .build()
@@ -148,12 +159,16 @@ class CalculationWorkflowImpl @Inject constructor(
             )
             .then(
                 OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).build())
+                    .setInputData(Data.Builder().putString(JOB, job).putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).putLong(CALCULATION, plan.calculation).build())
                     .build()
             )
             .enqueue()
     }
 
+    override fun calculationFinished(calculation: Long) {
+        incrementalCalculation.finished(calculation)
+    }
+
     override fun runOnReceivedPredictions(
         overviewData: OverviewData
     ) {
@@ -175,6 +190,7 @@ class CalculationWorkflowImpl @Inject constructor(
     }
 
     override fun runOnEventTherapyEventChange(overviewData: OverviewData) {
+        val calculation = incrementalCalculation.next()
         WorkManager.getInstance(context)
             .beginUniqueWork(
                 MAIN_CALCULATION, ExistingWorkPolicy.APPEND,
@@ -184,7 +200,7 @@ class CalculationWorkflowImpl @Inject constructor(
             )
             .then(
                 OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).build())
+                    .setInputData(Data.Builder().putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).putLong(CALCULATION, calculation).build())
                     .build()
             )
             .enqueue()
@@ -192,6 +208,7 @@ class CalculationWorkflowImpl @Inject constructor(
     }
 
     override fun runOnScaleChanged(iobCobCalculator: IobCobCalculator, overviewData: OverviewData) {
+        val calculation = incrementalCalculation.next()
         WorkManager.getInstance(context)
             .beginUniqueWork(
                 MAIN_CALCULATION, ExistingWorkPolicy.APPEND,
@@ -206,9 +223,9 @@ class CalculationWorkflowImpl @Inject constructor(
             )
             .then(
                 OneTimeWorkRequest.Builder(UpdateGraphWorker::class.java)
-                    .setInputData(Data.Builder().putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).build())
+                    .setInputData(Data.Builder().putInt(PASS, CalculationWorkflow.ProgressData.DRAW_FINAL.pass).putLong(CALCULATION, calculation).build())
                     .build()
             )
             .enqueue()
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,64 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Decides which overview series of [CalculationWorkflow.MAIN_CALCULATION] must be prepared again.
+ *
+ * Chains appended to [CalculationWorkflow.MAIN_CALCULATION] are numbered, last worker of the chain reports its number back.
+ * Series prepared by last chain are reused only if it finished for the same displayed interval.
+ * Failed or cancelled chain never reports, so everything is recalculated after it.
+ */
+class IncrementalCalculation {
+
+    /**
+     * @param calculation number of the chain, reported back by [finished]
+     * @param changed changed inputs, workers not depending on them are skipped
+     */
+    class Plan(val calculation: Long, val changed: Set<CalculationWorkflow.Input>) {
+
+        val bucketedData: Boolean get() = PrepareBucketedDataWorker.dependsOn.any { it in changed }
+        val bgData: Boolean get() = PrepareBgDataWorker.dependsOn.any { it in changed }
+        val treatmentsData: Boolean get() = PrepareTreatmentsDataWorker.dependsOn.any { it in changed }
+        val basalData: Boolean get() = PrepareBasalDataWorker.dependsOn.any { it in changed }
+        val temporaryTargetData: Boolean get() = PrepareTemporaryTargetDataWorker.dependsOn.any { it in changed }
+        val runningModeData: Boolean get() = PrepareRunningModeDataWorker.dependsOn.any { it in changed }
+    }
+
+    // displayed interval used by last chain
+    private var lastWindow: Pair<Long, Long>? = null
+    private val enqueued = AtomicLong()
+    @Volatile private var lastFinished = 0L
+
+    /**
+     * Plan new chain of [CalculationWorkflow.MAIN_CALCULATION]
+     *
+     * @param fromTime start of displayed interval
+     * @param endTime end of displayed interval
+     * @param bgDataReload BG data is reloaded by the chain
+     * @param changes changed history data since previous chain
+     */
+    @Synchronized
+    fun plan(fromTime: Long, endTime: Long, bgDataReload: Boolean, changes: Set<CalculationWorkflow.Input>): Plan {
+        val window = Pair(fromTime, endTime)
+        // newer chain is still pending or the last one failed
+        val reusable = window == lastWindow && lastFinished == enqueued.get()
+        lastWindow = window
+        val changed = when {
+            !reusable    -> CalculationWorkflow.Input.entries.toSet()
+            bgDataReload -> changes + CalculationWorkflow.Input.BG
+            else         -> changes
+        }
+        return Plan(enqueued.incrementAndGet(), changed)
+    }
+
+    /**
+     * Number for other chain appended to [CalculationWorkflow.MAIN_CALCULATION] which changes prepared series
+     */
+    fun next(): Long = enqueued.incrementAndGet()
+
+    fun finished(calculation: Long) {
+        lastFinished = calculation
+    }
+}
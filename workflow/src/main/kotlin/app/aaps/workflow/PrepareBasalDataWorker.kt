@@ -7,9 +7,8 @@ import androidx.work.WorkerParameters
 import androidx.work.workDataOf
 import app.aaps.core.graph.data.LineGraphSeries
 import app.aaps.core.graph.data.ScaledDataPoint
-import app.aaps.core.interfaces.iob.IobCobCalculator
+import app.aaps.core.interfaces.db.BasalTimeline
 import app.aaps.core.interfaces.overview.OverviewData
-import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.resources.ResourceHelper
 import app.aaps.core.interfaces.rx.bus.RxBus
 import app.aaps.core.interfaces.rx.events.EventIobCalculationProgress
@@ -25,16 +24,20 @@ class PrepareBasalDataWorker(
 ) : LoggingWorker(context, params, Dispatchers.Default) {
 
     @Inject lateinit var dataWorkerStorage: DataWorkerStorage
-    @Inject lateinit var profileFunction: ProfileFunction
+    @Inject lateinit var basalTimeline: BasalTimeline
     @Inject lateinit var rh: ResourceHelper
     @Inject lateinit var rxBus: RxBus
     private var ctx: Context = rh.getThemedCtx(context)
 
     class PrepareBasalData(
-        val iobCobCalculator: IobCobCalculator, // cannot be injected : HistoryBrowser uses different instance
         val overviewData: OverviewData
     )
 
+    companion object {
+
+        val dependsOn: Set<CalculationWorkflow.Input> = setOf(CalculationWorkflow.Input.BASAL, CalculationWorkflow.Input.PROFILE)
+    }
+
     override suspend fun doWorkAndLog(): Result {
 
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareBasalData?
@@ -51,23 +54,17 @@ class PrepareBasalDataWorker(
         var lastTempBasal = 0.0
         val endTime = data.overviewData.endTime
         val fromTime = data.overviewData.fromTime
-        var time = fromTime
-        while (time < endTime) {
+        for (segment in basalTimeline.getSegments(fromTime, endTime)) {
             if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
+            val time = segment.start
             val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
             rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_BASAL_DATA, progress.toInt(), null))
-            val profile = profileFunction.getProfile(time)
-            if (profile == null) {
-                time += 60 * 1000L
-                continue
-            }
-            val basalData = data.iobCobCalculator.getBasalData(profile, time)
-            val baseBasalValue = basalData.basal
+            val baseBasalValue = segment.basal
             var absoluteLineValue = baseBasalValue
             var tempBasalValue = 0.0
             var basal = 0.0
-            if (basalData.isTempBasalRunning) {
-                tempBasalValue = basalData.tempBasalAbsolute
+            if (segment.isTempBasalRunning) {
+                tempBasalValue = segment.tempBasalAbsolute
                 absoluteLineValue = tempBasalValue
                 if (tempBasalValue != lastTempBasal) {
                     tempBasalArray.add(ScaledDataPoint(time, lastTempBasal, data.overviewData.basalScale))
@@ -100,7 +97,6 @@ class PrepareBasalDataWorker(
             lastAbsoluteLineBasal = absoluteLineValue
             lastLineBasal = baseBasalValue
             lastTempBasal = tempBasalValue
-            time += 60 * 1000L
         }
 
         // final points
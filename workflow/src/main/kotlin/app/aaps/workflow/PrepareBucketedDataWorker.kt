@@ -11,6 +11,7 @@ import app.aaps.core.interfaces.overview.OverviewData
 import app.aaps.core.interfaces.profile.ProfileFunction
 import app.aaps.core.interfaces.profile.ProfileUtil
 import app.aaps.core.interfaces.resources.ResourceHelper
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
 import app.aaps.core.keys.interfaces.Preferences
 import app.aaps.core.objects.workflow.LoggingWorker
 import app.aaps.core.utils.receivers.DataWorkerStorage
@@ -33,6 +34,11 @@ class PrepareBucketedDataWorker(
         val overviewData: OverviewData
     )
 
+    companion object {
+
+        val dependsOn: Set<CalculationWorkflow.Input> = setOf(CalculationWorkflow.Input.BG)
+    }
+
     override suspend fun doWorkAndLog(): Result {
 
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareBucketedData?
@@ -6,6 +6,7 @@ import android.graphics.Paint
 import androidx.work.WorkerParameters
 import androidx.work.workDataOf
 import app.aaps.core.data.aps.SMBDefaults
+import app.aaps.core.data.time.T
 import app.aaps.core.graph.data.BarGraphSeries
 import app.aaps.core.graph.data.DataPointWithLabelInterface
 import app.aaps.core.graph.data.DeviationDataPoint
@@ -145,19 +146,22 @@ class PrepareIobAutosensGraphDataWorker(
         data.overviewData.maxFromMinValueFound = Double.MIN_VALUE
 
         val adsData = data.iobCobCalculator.ads.clone()
+        // IOB for all points at once
+        val iobSeries = data.iobCobCalculator.calculateIobSeriesFromTreatmentsAndTemps(fromTime, endTime, T.mins(5).msecs())
+        val baseBasalIobSeries = data.iobCobCalculator.calculateAbsoluteIobSeriesFromBaseBasals(fromTime, endTime, T.mins(5).msecs())
 
         while (time <= endTime) {
             if (isStopped) return Result.failure(workDataOf("Error" to "stopped"))
             val progress = (time - fromTime).toDouble() / (endTime - fromTime) * 100.0
             rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.PREPARE_IOB_AUTOSENS_DATA, progress.toInt(), null))
-            val profile = profileFunction.getProfile(time)
-            if (profile == null) {
+            if (profileFunction.getProfile(time) == null) {
                 time += 5 * 60 * 1000L
                 continue
             }
             // IOB
-            val iob = data.iobCobCalculator.calculateFromTreatmentsAndTemps(time, profile)
-            val baseBasalIob = data.iobCobCalculator.calculateAbsoluteIobFromBaseBasals(time)
+            val index = ((time - fromTime) / T.mins(5).msecs()).toInt()
+            val iob = iobSeries[index]
+            val baseBasalIob = baseBasalIobSeries[index]
             val absIob = IobTotal.combine(iob, baseBasalIob)
             val autosensData = adsData.getAutosensDataAtTime(time)
             if (abs(lastIob - iob.iob) > 0.02) {
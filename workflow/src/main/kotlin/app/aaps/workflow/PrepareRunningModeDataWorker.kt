@@ -38,6 +38,12 @@ class PrepareRunningModeDataWorker(
         val overviewData: OverviewData
     )
 
+    companion object {
+
+        // running modes are not part of history data and their changes don't start a calculation, refresh with every calculation
+        val dependsOn: Set<CalculationWorkflow.Input> = CalculationWorkflow.Input.entries.toSet()
+    }
+
     override suspend fun doWorkAndLog(): Result {
 
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareRunningModeData?
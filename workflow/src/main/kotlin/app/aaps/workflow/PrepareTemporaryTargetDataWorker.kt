@@ -39,6 +39,13 @@ class PrepareTemporaryTargetDataWorker(
         val overviewData: OverviewData
     )
 
+    companion object {
+
+        // temporary targets are not part of history data and their changes don't start a calculation
+        // (only EventTempTargetChange is sent), refresh with every calculation
+        val dependsOn: Set<CalculationWorkflow.Input> = CalculationWorkflow.Input.entries.toSet()
+    }
+
     override suspend fun doWorkAndLog(): Result {
 
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareTemporaryTargetData?
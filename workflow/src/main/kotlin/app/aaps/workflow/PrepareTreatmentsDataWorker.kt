@@ -51,6 +51,12 @@ class PrepareTreatmentsDataWorker(
         val overviewData: OverviewData
     )
 
+    companion object {
+
+        // points are placed on nearest BG
+        val dependsOn: Set<CalculationWorkflow.Input> = CalculationWorkflow.Input.entries.toSet()
+    }
+
     override suspend fun doWorkAndLog(): Result {
 
         val data = dataWorkerStorage.pickupObject(inputData.getLong(DataWorkerStorage.STORE_KEY, -1)) as PrepareTreatmentsData?
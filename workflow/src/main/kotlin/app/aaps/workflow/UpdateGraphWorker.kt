@@ -19,6 +19,7 @@ class UpdateGraphWorker(
 
     @Inject lateinit var rxBus: RxBus
     @Inject lateinit var activePlugin: ActivePlugin
+    @Inject lateinit var calculationWorkflow: CalculationWorkflow
 
     override suspend fun doWorkAndLog(): Result {
         val pass = inputData.getInt(CalculationWorkflow.PASS, -1)
@@ -27,6 +28,7 @@ class UpdateGraphWorker(
         else
             rxBus.send(EventUpdateOverviewGraph("UpdateGraphWorker"))
         rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.entries.find { it.pass == pass } ?: throw InvalidParameterSpecException(), 100, null))
+        inputData.getLong(CalculationWorkflow.CALCULATION, 0L).let { if (it != 0L) calculationWorkflow.calculationFinished(it) }
         return Result.success()
     }
 }
\ No newline at end of file
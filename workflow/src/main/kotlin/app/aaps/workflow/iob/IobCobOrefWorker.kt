@@ -87,6 +87,8 @@ class IobCobOrefWorker @Inject internal constructor(
             val prevDataTime = ads.roundUpTime(bucketedData[bucketedData.size - 3].timestamp)
             aapsLogger.debug(LTag.AUTOSENS) { "Prev data time: " + dateUtil.dateAndTimeString(prevDataTime) }
             var previous = autosensDataTable[prevDataTime]
+            // same preference values for the whole run
+            val settings = preferences.snapshot()
             // start from oldest to be able sub cob
             for (i in bucketedData.size - 4 downTo 0) {
                 rxBus.send(EventIobCalculationProgress(CalculationWorkflow.ProgressData.IOB_COB_OREF, 100 - (100.0 * i / bucketedData.size).toInt(), data.cause))
@@ -208,7 +210,7 @@ class IobCobOrefWorker @Inject internal constructor(
                         }
                     } else {
                         //Oref sensitivity
-                        totalMinCarbsImpact = preferences.get(DoubleKey.ApsAmaMin5MinCarbsImpact)
+                        totalMinCarbsImpact = settings.get(DoubleKey.ApsAmaMin5MinCarbsImpact)
                     }
 
                     // figure out how many carbs that represents
@@ -255,7 +257,7 @@ class IobCobOrefWorker @Inject internal constructor(
                     autosensData.pastSensitivity += "C"
                 }
                 previous = autosensData
-                if (bgTime < dateUtil.now()) autosensDataTable.put(bgTime, autosensData)
+                if (bgTime < dateUtil.now()) autosensDataTable.append(bgTime, autosensData)
                 aapsLogger.debug(LTag.AUTOSENS) {
                     "Running detectSensitivity from: ${dateUtil.dateAndTimeString(oldestTimeWithData)} to: ${dateUtil.dateAndTimeString(bgTime)} lastDataTime:${ads.lastDataTime(dateUtil)}"
                 }
@@ -264,6 +266,7 @@ class IobCobOrefWorker @Inject internal constructor(
                 autosensData.autosensResult = sensitivity
                 aapsLogger.debug(LTag.AUTOSENS, autosensData.toString())
             }
+            // publish calculated data at once
             data.iobCobCalculator.ads = ads
             Thread {
                 SystemClock.sleep(1000)
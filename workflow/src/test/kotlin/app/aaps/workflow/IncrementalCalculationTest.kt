@@ -0,0 +1,109 @@
+package app.aaps.workflow
+
+import app.aaps.core.interfaces.workflow.CalculationWorkflow
+import com.google.common.truth.Truth.assertThat
+import org.junit.jupiter.api.Test
+
+class IncrementalCalculationTest {
+
+    private val all = CalculationWorkflow.Input.entries.toSet()
+    private val treatments = setOf(CalculationWorkflow.Input.TREATMENTS)
+
+    private fun IncrementalCalculation.Plan.assertAllPrepared() {
+        assertThat(changed).isEqualTo(all)
+        assertThat(bucketedData).isTrue()
+        assertThat(bgData).isTrue()
+        assertThat(treatmentsData).isTrue()
+        assertThat(basalData).isTrue()
+        assertThat(temporaryTargetData).isTrue()
+        assertThat(runningModeData).isTrue()
+    }
+
+    @Test
+    fun firstCalculationPreparesEverything() {
+        val sut = IncrementalCalculation()
+        val plan = sut.plan(0L, 100L, bgDataReload = false, changes = treatments)
+        assertThat(plan.calculation).isEqualTo(1L)
+        plan.assertAllPrepared()
+    }
+
+    @Test
+    fun treatmentChangeSkipsBgAndBasalAfterFinishedCalculation() {
+        val sut = IncrementalCalculation()
+        sut.finished(sut.plan(0L, 100L, bgDataReload = true, changes = all).calculation)
+
+        val plan = sut.plan(0L, 100L, bgDataReload = false, changes = treatments)
+        assertThat(plan.changed).isEqualTo(treatments)
+        assertThat(plan.bucketedData).isFalse()
+        assertThat(plan.bgData).isFalse()
+        assertThat(plan.basalData).isFalse()
+        assertThat(plan.treatmentsData).isTrue()
+        // not part of history data, refreshed with every calculation
+        assertThat(plan.temporaryTargetData).isTrue()
+        assertThat(plan.runningModeData).isTrue()
+    }
+
+    @Test
+    fun basalChangePreparesBasal() {
+        val sut = IncrementalCalculation()
+        sut.finished(sut.plan(0L, 100L, bgDataReload = true, changes = all).calculation)
+
+        val plan = sut.plan(0L, 100L, bgDataReload = false, changes = setOf(CalculationWorkflow.Input.BASAL))
+        assertThat(plan.basalData).isTrue()
+        assertThat(plan.bgData).isFalse()
+        assertThat(plan.bucketedData).isFalse()
+    }
+
+    @Test
+    fun bgReloadPreparesBg() {
+        val sut = IncrementalCalculation()
+        sut.finished(sut.plan(0L, 100L, bgDataReload = true, changes = all).calculation)
+
+        val plan = sut.plan(0L, 100L, bgDataReload = true, changes = treatments)
+        assertThat(plan.changed).containsExactly(CalculationWorkflow.Input.TREATMENTS, CalculationWorkflow.Input.BG)
+        assertThat(plan.bucketedData).isTrue()
+        assertThat(plan.bgData).isTrue()
+        assertThat(plan.basalData).isFalse()
+    }
+
+    @Test
+    fun unfinishedCalculationPreparesEverything() {
+        val sut = IncrementalCalculation()
+        sut.plan(0L, 100L, bgDataReload = true, changes = all)
+
+        // previous chain failed, was cancelled or is still running
+        sut.plan(0L, 100L, bgDataReload = false, changes = treatments).assertAllPrepared()
+    }
+
+    @Test
+    fun olderFinishedCalculationPreparesEverything() {
+        val sut = IncrementalCalculation()
+        val first = sut.plan(0L, 100L, bgDataReload = true, changes = all)
+        sut.plan(0L, 100L, bgDataReload = false, changes = treatments)
+        sut.finished(first.calculation)
+
+        sut.plan(0L, 100L, bgDataReload = false, changes = treatments).assertAllPrepared()
+    }
+
+    @Test
+    fun otherAppendedChainMustFinishToo() {
+        val sut = IncrementalCalculation()
+        sut.finished(sut.plan(0L, 100L, bgDataReload = true, changes = all).calculation)
+
+        val scaleChange = sut.next()
+        val plan = sut.plan(0L, 100L, bgDataReload = false, changes = treatments)
+        plan.assertAllPrepared()
+
+        sut.finished(scaleChange)
+        sut.finished(plan.calculation)
+        assertThat(sut.plan(0L, 100L, bgDataReload = false, changes = treatments).changed).isEqualTo(treatments)
+    }
+
+    @Test
+    fun changedWindowPreparesEverything() {
+        val sut = IncrementalCalculation()
+        sut.finished(sut.plan(0L, 100L, bgDataReload = true, changes = all).calculation)
+
+        sut.plan(50L, 150L, bgDataReload = false, changes = treatments).assertAllPrepared()
+    }
+}